@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.integration;
+
+import io.barracks.membergateway.client.AuthorizationServiceClient;
+import io.barracks.membergateway.client.DeviceServiceClient;
+import io.barracks.membergateway.model.Device;
+import io.barracks.membergateway.model.Filter;
+import io.barracks.membergateway.model.Segment;
+import io.barracks.membergateway.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * Sends {@code io.barracks.test.async_requests.clients} concurrent requests, more than both the
+ * {@link #CONTAINER_THREADS} threads the servlet container is limited to and the default 64 "request-N" threads, to
+ * endpoints waiting on a stalled downstream service, and compares how many of them reach that service at once.
+ * <p>
+ * The device read is stalled as a pending future, as a non-blocking call would be, so the test measures the gateway
+ * threads only. With {@code io.barracks.http.non_blocking} off, the real call would also hold one of the
+ * "http-blocking-N" threads. The writes still run on the "request-N" pool and stay bound by its size.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"server.tomcat.max-threads=" + AsyncRequestConcurrencyTest.CONTAINER_THREADS}
+)
+public class AsyncRequestConcurrencyTest {
+    static final int CONTAINER_THREADS = 8;
+    private static final Logger logger = LoggerFactory.getLogger(AsyncRequestConcurrencyTest.class);
+    private static final long SETTLE_MS = 10000L;
+
+    @Value("${local.server.port}")
+    private int port;
+    @Value("${io.barracks.test.async_requests.clients:256}")
+    private int clients;
+    @Value("${io.barracks.async_requests.pool_size:64}")
+    private int requestPoolSize;
+    @MockBean
+    private AuthorizationServiceClient authorizationServiceClient;
+    @MockBean
+    private DeviceServiceClient deviceServiceClient;
+
+    private ExecutorService clientPool;
+    private CountDownLatch release;
+    private CompletableFuture<Void> released;
+    private AtomicInteger inFlight;
+
+    @Before
+    public void setUp() {
+        doReturn(User.builder().id(UUID.randomUUID().toString()).build())
+                .when(authorizationServiceClient).requestUserFromToken(any());
+        clientPool = Executors.newFixedThreadPool(clients);
+        release = new CountDownLatch(1);
+        released = new CompletableFuture<>();
+        inFlight = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        released.complete(null);
+        clientPool.shutdownNow();
+    }
+
+    @Test
+    public void asyncEndpoint_shouldHoldMoreConcurrentRequestsThanContainerAndRequestThreads() throws Exception {
+        // Given
+        doAnswer(invocation -> stallAsync(Device.builder().unitId(invocation.getArgumentAt(1, String.class)).build()))
+                .when(deviceServiceClient).getDeviceByUserIdAndUnitIdAsync(anyString(), anyString());
+
+        // When
+        final int peak = measurePeakConcurrency("GET", "/devices/" + UUID.randomUUID().toString(), null);
+
+        // Then
+        logger.info("Asynchronous endpoint: {} of {} requests in flight with {} container and {} request threads", peak, clients, CONTAINER_THREADS, requestPoolSize);
+        assertThat(clients).isGreaterThan(requestPoolSize);
+        assertThat(peak).isEqualTo(clients);
+    }
+
+    @Test
+    public void pooledEndpoint_shouldBeBoundByRequestThreads() throws Exception {
+        // Given
+        doAnswer(invocation -> stall(invocation.getArgumentAt(0, Segment.class).toBuilder().id(UUID.randomUUID().toString()).build()))
+                .when(deviceServiceClient).createSegment(any());
+        doReturn(Collections.emptyList()).when(deviceServiceClient).getSegmentsByStatus(anyString(), any());
+        doReturn(Collections.emptyMap()).when(deviceServiceClient).getDeviceCountsBySegments(anyString(), any());
+
+        // When
+        final int peak = measurePeakConcurrency("POST", "/segments", "{\"name\":\"segment\",\"query\":{}}");
+
+        // Then
+        logger.info("Pooled endpoint: {} of {} requests in flight with {} request threads", peak, clients, requestPoolSize);
+        assertThat(peak).isLessThanOrEqualTo(requestPoolSize);
+    }
+
+    @Test
+    public void syncEndpoint_shouldBeBoundByContainerThreads() throws Exception {
+        // Given
+        doAnswer(invocation -> stall(new PagedResources<Filter>(Collections.emptyList(), new PagedResources.PageMetadata(20, 0, 0))))
+                .when(deviceServiceClient).getFilters(anyString(), any());
+
+        // When
+        final int peak = measurePeakConcurrency("GET", "/filters", null);
+
+        // Then
+        logger.info("Synchronous endpoint: {} of {} requests in flight with {} container threads", peak, clients, CONTAINER_THREADS);
+        assertThat(peak).isLessThanOrEqualTo(CONTAINER_THREADS);
+    }
+
+    private <T> CompletableFuture<T> stallAsync(T result) {
+        inFlight.incrementAndGet();
+        return released.thenApply(ignored -> {
+            inFlight.decrementAndGet();
+            return result;
+        });
+    }
+
+    private <T> T stall(T result) throws InterruptedException {
+        inFlight.incrementAndGet();
+        try {
+            release.await(30, TimeUnit.SECONDS);
+            return result;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private int measurePeakConcurrency(String method, String path, String body) throws Exception {
+        final List<Future<Integer>> responses = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            responses.add(clientPool.submit(() -> {
+                final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+                connection.setRequestMethod(method);
+                if (body != null) {
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+                    try (OutputStream output = connection.getOutputStream()) {
+                        output.write(body.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                return connection.getResponseCode();
+            }));
+        }
+        int peak = 0;
+        final long deadline = System.currentTimeMillis() + SETTLE_MS;
+        while (peak < clients && System.currentTimeMillis() < deadline) {
+            peak = Math.max(peak, inFlight.get());
+            Thread.sleep(10L);
+        }
+        release.countDown();
+        released.complete(null);
+        for (Future<Integer> response : responses) {
+            assertThat(response.get(30, TimeUnit.SECONDS)).isEqualTo(200);
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.barracks.membergateway.Application;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Polls an asynchronous endpoint through the whole filter chain, security included, and checks that the client is
+ * told when it already holds the current stats.
+ */
+public class ConditionalGetTest {
+    private HttpServer stub;
+    private ConfigurableApplicationContext context;
+    private volatile String stats = "{\"total\":42,\"values\":{\"v1\":42}}";
+
+    @Before
+    public void setUp() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/me", exchange -> respond(exchange, "{\"id\":\"user\"}"));
+        stub.createContext("/stats", exchange -> respond(exchange, stats));
+        stub.start();
+        final String stubUrl = "http://localhost:" + stub.getAddress().getPort();
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--io.barracks.deviceservice.base_url=" + stubUrl,
+                "--io.barracks.authorizationservice.base_url=" + stubUrl,
+                "--logging.level.io.barracks=INFO"
+        );
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        stub.stop(0);
+    }
+
+    @Test
+    public void get_whenClientHoldsCurrentContent_shouldReturnNotModified() throws Exception {
+        // Given
+        final HttpURLConnection first = get(null);
+        final String etag = first.getHeaderField(HttpHeaders.ETAG);
+        final byte[] body = StreamUtils.copyToByteArray(first.getInputStream());
+
+        // When
+        final HttpURLConnection second = get(etag);
+
+        // Then
+        assertThat(first.getResponseCode()).isEqualTo(200);
+        assertThat(body).isNotEmpty();
+        assertThat(etag).startsWith("\"");
+        assertThat(first.getHeaderField(HttpHeaders.CACHE_CONTROL)).isEqualTo("private, no-cache");
+        assertThat(second.getResponseCode()).isEqualTo(304);
+        assertThat(second.getHeaderField(HttpHeaders.ETAG)).isEqualTo(etag);
+    }
+
+    @Test
+    public void get_whenContentChanged_shouldReturnIt() throws Exception {
+        // Given
+        final String etag = get(null).getHeaderField(HttpHeaders.ETAG);
+        stats = "{\"total\":43,\"values\":{\"v1\":43}}";
+
+        // When
+        final HttpURLConnection second = get(etag);
+
+        // Then
+        assertThat(second.getResponseCode()).isEqualTo(200);
+        assertThat(second.getHeaderField(HttpHeaders.ETAG)).isNotEqualTo(etag);
+        assertThat(StreamUtils.copyToString(second.getInputStream(), StandardCharsets.UTF_8)).contains("43");
+    }
+
+    private HttpURLConnection get(String etag) throws IOException {
+        final URL url = new URL("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/stats/devices/perVersionId");
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("X-Auth-Token", "token");
+        if (etag != null) {
+            connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return connection;
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
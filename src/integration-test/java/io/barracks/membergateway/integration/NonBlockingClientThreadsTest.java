@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.integration;
+
+import com.sun.net.httpserver.HttpServer;
+import io.barracks.membergateway.client.exception.DeviceServiceClientException;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.RequestEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends {@code io.barracks.test.non_blocking.calls} concurrent calls through the non-blocking client to a stub
+ * holding every response until all the requests are in flight, and checks that no thread is started per call.
+ */
+public class NonBlockingClientThreadsTest {
+    private static final Logger logger = LoggerFactory.getLogger(NonBlockingClientThreadsTest.class);
+
+    private static final int IO_THREADS = 2;
+
+    private final int callCount = Integer.getInteger("io.barracks.test.non_blocking.calls", 64);
+    private final CountDownLatch allReceived = new CountDownLatch(callCount);
+    private HttpServer server;
+    private PooledHttpClientFactory pooledHttpClientFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), callCount);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/segments", exchange -> {
+            allReceived.countDown();
+            try {
+                allReceived.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        final MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("io.barracks.http.max_total", String.valueOf(callCount));
+        environment.setProperty("io.barracks.http.max_per_route", String.valueOf(callCount));
+        environment.setProperty("io.barracks.http.io_threads", String.valueOf(IO_THREADS));
+        pooledHttpClientFactory = new PooledHttpClientFactory(environment);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pooledHttpClientFactory.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void exchange_whenManyCallsInFlight_shouldNotStartThreadPerCall() throws Exception {
+        // Given
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(
+                new AsyncRestTemplate(pooledHttpClientFactory.createAsyncRequestFactory("deviceservice")),
+                DeviceServiceClientException::new
+        );
+        final URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/segments");
+        final int threadsBefore = Thread.activeCount();
+
+        // When
+        final List<CompletableFuture<String>> calls = IntStream.range(0, callCount)
+                .mapToObj(i -> asyncRestClient.exchange(RequestEntity.get(uri).build(), String.class))
+                .collect(Collectors.toList());
+        final boolean allInFlight = allReceived.await(10, TimeUnit.SECONDS);
+        final int clientThreads = (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("I/O dispatcher"))
+                .count();
+        for (CompletableFuture<String> call : calls) {
+            assertThat(call.get(10, TimeUnit.SECONDS)).isEqualTo("ok");
+        }
+
+        // Then
+        logger.info("{} calls in flight on {} I/O dispatcher threads ({} threads before, {} after)",
+                callCount, clientThreads, threadsBefore, Thread.activeCount());
+        assertThat(allInFlight).isTrue();
+        assertThat(clientThreads).isLessThanOrEqualTo(IO_THREADS);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.barracks.membergateway.Application;
+import io.barracks.membergateway.monitoring.HistogramRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends a request resolving the user's token and calling the stats service, both stubbed to answer after
+ * {@link #LATENCY_MS}, and checks what its trace reports in the debug headers and in the histograms.
+ */
+public class RequestTraceTest {
+    static final long LATENCY_MS = 50L;
+
+    private HttpServer stub;
+    private ConfigurableApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/me", exchange -> respond(exchange, "{\"id\":\"" + UUID.randomUUID() + "\"}"));
+        stub.createContext("/stats", exchange -> respond(exchange, "{\"total\":42,\"values\":{\"v1\":42}}"));
+        stub.start();
+        final String stubUrl = "http://localhost:" + stub.getAddress().getPort();
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--io.barracks.deviceservice.base_url=" + stubUrl,
+                "--io.barracks.authorizationservice.base_url=" + stubUrl,
+                "--io.barracks.monitoring.debug_headers=true",
+                "--logging.level.io.barracks=INFO"
+        );
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        stub.stop(0);
+    }
+
+    @Test
+    public void request_shouldReportItsDownstreamCallsAndTimeSplit() throws Exception {
+        // Given
+        final URL url = new URL("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/stats/devices/perVersionId");
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("X-Auth-Token", UUID.randomUUID().toString());
+
+        // When
+        final int status = connection.getResponseCode();
+
+        // Then
+        assertThat(status).isEqualTo(200);
+        assertThat(connection.getHeaderField("X-Downstream-Calls")).isEqualTo("2");
+        assertThat(Long.parseLong(connection.getHeaderField("X-Downstream-Time-Ms"))).isGreaterThanOrEqualTo(2 * LATENCY_MS);
+        assertThat(connection.getHeaderField("X-Own-Time-Ms")).isNotNull();
+
+        final HistogramRegistry histogramRegistry = context.getBean(HistogramRegistry.class);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Map<String, Number> metrics = toMap(histogramRegistry);
+        while (!metrics.containsKey("calls.resource.StatsResource.getDeviceCountPerVersionId.max") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            metrics = toMap(histogramRegistry);
+        }
+        assertThat(metrics.get("calls.resource.StatsResource.getDeviceCountPerVersionId.max")).isEqualTo(2D);
+        assertThat(metrics.get("latency.resource.StatsResource.getDeviceCountPerVersionId.count")).isEqualTo(1L);
+        assertThat(metrics.get("latency.client.AuthorizationServiceClient.requestUserFromToken.count")).isEqualTo(1L);
+        assertThat(metrics.get("latency.client.StatsServiceClient.getDevicesPerVersionIdAsync.p99").doubleValue()).isGreaterThanOrEqualTo(LATENCY_MS);
+    }
+
+    private static Map<String, Number> toMap(HistogramRegistry histogramRegistry) {
+        return histogramRegistry.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        try {
+            Thread.sleep(LATENCY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
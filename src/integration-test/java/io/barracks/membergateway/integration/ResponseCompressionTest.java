@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.barracks.membergateway.Application;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Polls large stats through the whole filter chain and checks that they are gzipped for the clients accepting it,
+ * without breaking the conditional requests.
+ */
+public class ResponseCompressionTest {
+    private static final String STATS = IntStream.range(0, 500)
+            .mapToObj(i -> "\"v" + i + "\":" + i)
+            .collect(Collectors.joining(",", "{\"total\":124750,\"values\":{", "}}"));
+
+    private HttpServer stub;
+    private ConfigurableApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/me", exchange -> respond(exchange, "{\"id\":\"user\"}"));
+        stub.createContext("/stats", exchange -> respond(exchange, STATS));
+        stub.start();
+        final String stubUrl = "http://localhost:" + stub.getAddress().getPort();
+        context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--io.barracks.deviceservice.base_url=" + stubUrl,
+                "--io.barracks.authorizationservice.base_url=" + stubUrl,
+                "--logging.level.io.barracks=INFO"
+        );
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        stub.stop(0);
+    }
+
+    @Test
+    public void get_whenGzipAccepted_shouldCompressResponse() throws Exception {
+        // Given
+        final HttpURLConnection identity = get(null, null);
+        final String plain = StreamUtils.copyToString(identity.getInputStream(), StandardCharsets.UTF_8);
+
+        // When
+        final HttpURLConnection gzip = get("gzip", null);
+
+        // Then
+        final byte[] compressed = StreamUtils.copyToByteArray(gzip.getInputStream());
+        assertThat(identity.getHeaderField(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(gzip.getResponseCode()).isEqualTo(200);
+        assertThat(gzip.getHeaderField(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gzip.getHeaderField(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(compressed.length).isLessThan(plain.length());
+        assertThat(StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(compressed)), StandardCharsets.UTF_8))
+                .isEqualTo(plain);
+        assertThat(gzip.getHeaderField(HttpHeaders.ETAG)).isNotEqualTo(identity.getHeaderField(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void get_whenClientHoldsCompressedContent_shouldReturnNotModified() throws Exception {
+        // Given
+        final HttpURLConnection first = get("gzip", null);
+        final String etag = first.getHeaderField(HttpHeaders.ETAG);
+        StreamUtils.copyToByteArray(first.getInputStream());
+
+        // When
+        final HttpURLConnection second = get("gzip", etag);
+
+        // Then
+        assertThat(etag).startsWith("\"");
+        assertThat(second.getResponseCode()).isEqualTo(304);
+        assertThat(second.getHeaderField(HttpHeaders.ETAG)).isEqualTo(etag);
+    }
+
+    private HttpURLConnection get(String acceptEncoding, String etag) throws IOException {
+        final URL url = new URL("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/stats/devices/perVersionId");
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("X-Auth-Token", "token");
+        if (acceptEncoding != null) {
+            connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        if (etag != null) {
+            connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return connection;
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
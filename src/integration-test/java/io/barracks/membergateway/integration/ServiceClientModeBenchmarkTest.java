@@ -0,0 +1,266 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.barracks.membergateway.Application;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the gateway once with blocking service clients and once with non-blocking ones, both against a stub device,
+ * update and stats service answering after {@link #LATENCY_MS}, and drives each of the {@link #ROUTES} with
+ * {@code io.barracks.test.benchmark.clients} concurrent clients sending {@code io.barracks.test.benchmark.requests}
+ * requests each. The default 256 clients are more than the container, "request-N", "http-blocking-N" and connection
+ * pool sizes, so that none of them hides the cost of the mode under test.
+ * <p>
+ * For each route it reports the throughput, the peak number of live threads in the JVM other than the benchmark's
+ * own clients and stub, and the bytes these threads allocated per request. The allocations are sampled along with
+ * the threads, so the last {@link #SAMPLE_MS} of a thread dying during the run are not counted.
+ * <p>
+ * The figures depend on the machine running the test, only the absence of failures is checked.
+ */
+public class ServiceClientModeBenchmarkTest {
+    static final long LATENCY_MS = 100L;
+    static final long SAMPLE_MS = 10L;
+    static final String[] ROUTES = {"/stats/devices/perVersionId", "/devices", "/updates", "/segments/order"};
+    private static final Logger logger = LoggerFactory.getLogger(ServiceClientModeBenchmarkTest.class);
+    private static final String CLIENT_THREAD_PREFIX = "benchmark-client-";
+    private static final String STUB_THREAD_PREFIX = "benchmark-stub-";
+    private static final String[] HARNESS_THREAD_PREFIXES = {CLIENT_THREAD_PREFIX, STUB_THREAD_PREFIX, "HTTP-Dispatcher"};
+
+    private final int clients = Integer.getInteger("io.barracks.test.benchmark.clients", 256);
+    private final int requests = Integer.getInteger("io.barracks.test.benchmark.requests", 10);
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private HttpServer stub;
+    private ScheduledExecutorService sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        threads.setThreadAllocatedMemoryEnabled(true);
+        sampler = Executors.newSingleThreadScheduledExecutor(namedThreads(STUB_THREAD_PREFIX + "sampler-"));
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), clients * 2);
+        stub.setExecutor(Executors.newCachedThreadPool(namedThreads(STUB_THREAD_PREFIX)));
+        stub.createContext("/me", exchange -> respond(exchange, "{\"id\":\"" + UUID.randomUUID() + "\"}"));
+        stub.createContext("/stats", exchange -> respondLate(exchange, "{\"total\":42,\"values\":{\"v1\":42}}"));
+        stub.createContext("/devices", exchange -> respondLate(exchange,
+                "{\"_embedded\":{\"devices\":[{\"unitId\":\"deadbeef\",\"lastEvent\":{\"unitId\":\"deadbeef\",\"segmentId\":\"aSegment\",\"versionId\":\"aVersion\",\"additionalProperties\":{}},\"configuration\":{}}]},"
+                        + "\"page\":{\"size\":20,\"totalElements\":1,\"totalPages\":1,\"number\":0}}"
+        ));
+        stub.createContext("/updates", exchange -> respondLate(exchange,
+                "{\"page\":{\"size\":20,\"totalElements\":0,\"totalPages\":0,\"number\":0}}"
+        ));
+        stub.createContext("/segments", exchange -> {
+            if (exchange.getRequestURI().getPath().endsWith("/devices/count")) {
+                respondLate(exchange, "{\"aSegment\":3,\"anotherSegment\":4,\"other\":5}");
+            } else if (exchange.getRequestURI().getQuery().contains("status=active")) {
+                respondLate(exchange, "[{\"id\":\"aSegment\",\"name\":\"aName\",\"query\":{\"eq\":{\"key\":\"value\"}}},"
+                        + "{\"id\":\"anotherSegment\",\"name\":\"anotherName\",\"query\":{\"eq\":{\"key\":\"value\"}}}]");
+            } else {
+                respondLate(exchange, "[]");
+            }
+        });
+        stub.start();
+    }
+
+    @After
+    public void tearDown() {
+        stub.stop(0);
+        sampler.shutdownNow();
+    }
+
+    @Test
+    public void compareClientModes_acrossDashboardRoutes() throws Exception {
+        // When
+        final Map<String, Result> blocking = run(false);
+        final Map<String, Result> nonBlocking = run(true);
+
+        // Then
+        logger.info("{} clients x {} requests, {}ms downstream latency", clients, requests, LATENCY_MS);
+        for (String route : ROUTES) {
+            logger.info("{} blocking clients:     {}", route, blocking.get(route));
+            logger.info("{} non-blocking clients: {}", route, nonBlocking.get(route));
+            assertThat(blocking.get(route).failures).isZero();
+            assertThat(nonBlocking.get(route).failures).isZero();
+        }
+    }
+
+    private Map<String, Result> run(boolean nonBlocking) throws Exception {
+        final String stubUrl = "http://localhost:" + stub.getAddress().getPort();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--io.barracks.deviceservice.base_url=" + stubUrl,
+                "--io.barracks.updateservice.base_url=" + stubUrl,
+                "--io.barracks.authorizationservice.base_url=" + stubUrl,
+                "--io.barracks.http.non_blocking=" + nonBlocking,
+                "--io.barracks.circuit_breaker.enabled=false",
+                "--logging.level.io.barracks=INFO"
+        )) {
+            final String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            final String token = UUID.randomUUID().toString();
+            final Map<String, Result> results = new LinkedHashMap<>();
+            for (String route : ROUTES) {
+                final URL url = new URL(base + route);
+                assertThat(call(url, token)).isEqualTo(200);
+                results.put(route, drive(url, token));
+            }
+            return results;
+        }
+    }
+
+    private Result drive(URL url, String token) throws Exception {
+        final ExecutorService clientPool = Executors.newFixedThreadPool(clients, namedThreads(CLIENT_THREAD_PREFIX));
+        final Map<Long, Long> allocatedAtStart = sampleAllocatedBytes();
+        final Map<Long, Long> allocated = new ConcurrentHashMap<>();
+        final AtomicInteger peakThreads = new AtomicInteger();
+        final ScheduledFuture<?> sampling = sampler.scheduleAtFixedRate(() -> {
+            final Map<Long, Long> sample = sampleAllocatedBytes();
+            allocated.putAll(sample);
+            peakThreads.accumulateAndGet(sample.size(), Math::max);
+        }, 0, SAMPLE_MS, TimeUnit.MILLISECONDS);
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(clientPool.submit(() -> {
+                    for (int j = 0; j < requests; j++) {
+                        if (call(url, token) != 200) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.MINUTES);
+            }
+            final long duration = System.nanoTime() - start;
+            sampling.cancel(false);
+            sampler.submit(() -> allocated.putAll(sampleAllocatedBytes())).get();
+            long allocatedBytes = 0;
+            for (Map.Entry<Long, Long> entry : allocated.entrySet()) {
+                allocatedBytes += entry.getValue() - allocatedAtStart.getOrDefault(entry.getKey(), 0L);
+            }
+            return new Result(clients * requests, duration, peakThreads.get(), allocatedBytes, failures.get());
+        } finally {
+            sampling.cancel(false);
+            clientPool.shutdownNow();
+        }
+    }
+
+    private Map<Long, Long> sampleAllocatedBytes() {
+        final Map<Long, Long> sample = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (Arrays.stream(HARNESS_THREAD_PREFIXES).noneMatch(thread.getName()::startsWith)) {
+                final long bytes = threads.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0) {
+                    sample.put(thread.getId(), bytes);
+                }
+            }
+        }
+        return sample;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static int call(URL url, String token) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("X-Auth-Token", token);
+        final int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            while (body != null && body.read() != -1) {
+                // drain so that the connection is kept alive
+            }
+        }
+        return status;
+    }
+
+    private static void respondLate(HttpExchange exchange, String json) throws IOException {
+        try {
+            Thread.sleep(LATENCY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        respond(exchange, json);
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static final class Result {
+        private final int requests;
+        private final long durationNanos;
+        private final int peakThreads;
+        private final long allocatedBytes;
+        private final int failures;
+
+        private Result(int requests, long durationNanos, int peakThreads, long allocatedBytes, int failures) {
+            this.requests = requests;
+            this.durationNanos = durationNanos;
+            this.peakThreads = peakThreads;
+            this.allocatedBytes = allocatedBytes;
+            this.failures = failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d req/s, %d live threads at peak, %d KB allocated per request, %d failures",
+                    requests * TimeUnit.SECONDS.toNanos(1) / durationNanos, peakThreads, allocatedBytes / requests / 1024, failures
+            );
+        }
+    }
+}
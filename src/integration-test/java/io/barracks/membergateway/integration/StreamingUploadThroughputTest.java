@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.integration;
+
+import io.barracks.membergateway.client.AuthorizationServiceClient;
+import io.barracks.membergateway.client.PackageServiceClient;
+import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.model.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * Pushes a synthetic package through the streaming upload path. The payload size defaults to 256MB and can be raised
+ * to several GB with {@code -Dio.barracks.test.upload_throughput.size_mb=4096}.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class StreamingUploadThroughputTest {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingUploadThroughputTest.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Value("${local.server.port}")
+    private int port;
+    @Value("${io.barracks.test.upload_throughput.size_mb:256}")
+    private long sizeMb;
+    @MockBean
+    private AuthorizationServiceClient authorizationServiceClient;
+    @MockBean
+    private PackageServiceClient packageServiceClient;
+
+    private String userId;
+
+    @Before
+    public void setUp() {
+        userId = UUID.randomUUID().toString();
+        doReturn(User.builder().id(userId).build())
+                .when(authorizationServiceClient).requestUserFromToken(any());
+    }
+
+    @Test
+    public void uploadPackage_shouldPipeBodyToPackageServiceWhileReceivingIt() throws Exception {
+        // Given
+        final long size = sizeMb * 1024L * 1024L;
+        final String versionId = UUID.randomUUID().toString();
+        final String boundary = UUID.randomUUID().toString();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong sentWhenPiped = new AtomicLong(-1L);
+        final AtomicLong received = new AtomicLong();
+        doAnswer(invocation -> {
+            sentWhenPiped.set(sent.get());
+            final InputStream inputStream = invocation.getArgumentAt(2, InputStream.class);
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                received.addAndGet(read);
+            }
+            return PackageInfo.builder().id(UUID.randomUUID().toString()).userId(userId).versionId(versionId).size(received.get()).build();
+        }).when(packageServiceClient).uploadPackage(eq("firmware.bin"), eq("application/octet-stream"), isA(InputStream.class), eq(size), eq(versionId), eq(userId));
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/packages?versionId=" + versionId).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+        // When
+        final long start = System.nanoTime();
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"firmware.bin\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + size + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (byte) i;
+            }
+            while (sent.get() < size) {
+                final int length = (int) Math.min(chunk.length, size - sent.get());
+                outputStream.write(chunk, 0, length);
+                sent.addAndGet(length);
+            }
+            outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        final int status = connection.getResponseCode();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Then
+        logger.info("Streamed {}MB in {}s ({} MB/s)", sizeMb, String.format("%.2f", seconds), String.format("%.1f", sizeMb / seconds));
+        assertThat(status).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(received.get()).isEqualTo(size);
+        assertThat(sentWhenPiped.get()).isBetween(0L, size - 1);
+    }
+}
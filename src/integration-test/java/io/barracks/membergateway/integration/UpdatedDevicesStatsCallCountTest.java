@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.integration;
+
+import io.barracks.membergateway.client.AuthorizationServiceClient;
+import io.barracks.membergateway.client.DeviceServiceClient;
+import io.barracks.membergateway.client.PackageServiceClient;
+import io.barracks.membergateway.client.UpdateServiceClient;
+import io.barracks.membergateway.manager.entity.SegmentStatus;
+import io.barracks.membergateway.model.Device;
+import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.model.Segment;
+import io.barracks.membergateway.model.User;
+import io.barracks.membergateway.utils.SegmentUtils;
+import io.barracks.membergateway.utils.UpdateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Counts the calls made to the downstream services to compute the updated devices per segment of a user having
+ * {@code io.barracks.test.updated_devices.segments} active segments, deploying two packages between them.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UpdatedDevicesStatsCallCountTest {
+    private static final Logger logger = LoggerFactory.getLogger(UpdatedDevicesStatsCallCountTest.class);
+
+    @Value("${local.server.port}")
+    private int port;
+    @Value("${io.barracks.test.updated_devices.segments:20}")
+    private int segmentCount;
+    @MockBean
+    private AuthorizationServiceClient authorizationServiceClient;
+    @MockBean
+    private DeviceServiceClient deviceServiceClient;
+    @MockBean
+    private UpdateServiceClient updateServiceClient;
+    @MockBean
+    private PackageServiceClient packageServiceClient;
+
+    private String userId;
+
+    @Before
+    public void setUp() {
+        userId = UUID.randomUUID().toString();
+        doReturn(User.builder().id(userId).build())
+                .when(authorizationServiceClient).requestUserFromToken(any());
+    }
+
+    @Test
+    public void getUpdatedDevicesPerSegmentId_shouldOnlyCallServicesOncePerSegmentAndPackage() throws Exception {
+        // Given
+        final List<Segment> segments = IntStream.range(0, segmentCount)
+                .mapToObj(i -> SegmentUtils.getPredefinedSegmentBuilder(userId).build())
+                .collect(Collectors.toList());
+        final List<PackageInfo> packages = IntStream.range(0, 2)
+                .mapToObj(i -> PackageInfo.builder().id(UUID.randomUUID().toString()).userId(userId).versionId(UUID.randomUUID().toString()).build())
+                .collect(Collectors.toList());
+        doReturn(CompletableFuture.completedFuture(segments)).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        doReturn(CompletableFuture.completedFuture(Collections.emptyList())).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        doReturn(Collections.emptyMap()).when(deviceServiceClient).getDeviceCountsBySegments(eq(userId), anyCollection());
+        doReturn(CompletableFuture.completedFuture(new PagedResources<Device>(Collections.emptyList(), new PagedResources.PageMetadata(1, 0, 42))))
+                .when(deviceServiceClient).getDevicesBySegmentAndVersionAsync(eq(userId), anyString(), anyString(), any());
+        doAnswer(invocation -> CompletableFuture.completedFuture(Optional.of(UpdateUtils.getPredefinedCreatedUpdateBuilder(userId)
+                .segmentId(invocation.getArgumentAt(1, String.class))
+                .packageId(packages.get(Math.abs(String.valueOf(invocation.getArgumentAt(1, String.class)).hashCode()) % packages.size()).getId())
+                .build()
+        ))).when(updateServiceClient).getLatestUpdateForSegmentAsync(eq(userId), anyString());
+        packages.forEach(packageInfo -> doReturn(CompletableFuture.completedFuture(packageInfo)).when(packageServiceClient).getPackageInfoAsync(packageInfo.getId()));
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/stats/devices/perSegmentId?updated=true").openConnection();
+
+        // When
+        final int status = connection.getResponseCode();
+
+        // Then
+        final int deviceCalls = mockingDetails(deviceServiceClient).getInvocations().size();
+        final int updateCalls = mockingDetails(updateServiceClient).getInvocations().size();
+        final int packageCalls = mockingDetails(packageServiceClient).getInvocations().size();
+        logger.info("{} segments: {} device service, {} update service and {} package service calls",
+                segmentCount, deviceCalls, updateCalls, packageCalls);
+        assertThat(status).isEqualTo(HttpStatus.OK.value());
+        verify(updateServiceClient, never()).getUpdateByUuidAndUserId(anyString(), anyString());
+        verify(deviceServiceClient, never()).getSegment(anyString());
+        assertThat(updateCalls).isEqualTo(segmentCount + 1);
+        assertThat(packageCalls).isLessThanOrEqualTo(packages.size());
+        assertThat(deviceCalls).isEqualTo(3 + segmentCount + 1);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.client;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.membergateway.model.Device;
+import io.barracks.membergateway.model.Update;
+import io.barracks.membergateway.utils.DeviceUtils;
+import io.barracks.membergateway.utils.UpdateUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the bodies of the downstream services with the HAL-configured {@link ObjectMapper} of the service clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HalDeserializationBenchmark {
+    private ObjectMapper mapper;
+    private String updateJson;
+    private String deviceJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = createMapper();
+        updateJson = mapper.writeValueAsString(UpdateUtils.getUpdate());
+        deviceJson = mapper.writeValueAsString(DeviceUtils.getDevice());
+    }
+
+    @Benchmark
+    public Update readUpdate() throws IOException {
+        return mapper.readValue(updateJson, Update.class);
+    }
+
+    @Benchmark
+    public Device readDevice() throws IOException {
+        return mapper.readValue(deviceJson, Device.class);
+    }
+
+    @Benchmark
+    public PagedResources<Device> readDevicePage(DevicePage devicePage) throws IOException {
+        return devicePage.mapper.readValue(devicePage.json, devicePage.type);
+    }
+
+    private static ObjectMapper createMapper() {
+        final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        new HateoasRestClient().prepareRestTemplateBuilder(mapper, new RestTemplateBuilder(), new SimpleClientHttpRequestFactory());
+        return mapper;
+    }
+
+    @State(Scope.Benchmark)
+    public static class DevicePage {
+        @Param({"20", "100"})
+        private int pageSize;
+
+        private ObjectMapper mapper;
+        private JavaType type;
+        private String json;
+
+        @Setup
+        public void setUp() throws IOException {
+            mapper = createMapper();
+            type = mapper.getTypeFactory().constructParametricType(PagedResources.class, Device.class);
+            final List<String> devices = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                devices.add(mapper.writeValueAsString(DeviceUtils.getDevice()));
+            }
+            json = "{\"_embedded\":{\"devices\":[" + String.join(",", devices) + "]},"
+                    + "\"page\":{\"size\":" + pageSize + ",\"totalElements\":" + 10 * pageSize + ",\"totalPages\":10,\"number\":0}}";
+        }
+    }
+}
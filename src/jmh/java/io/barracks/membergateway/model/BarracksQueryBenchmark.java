@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.model;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.barracks.membergateway.utils.BarracksQueryUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BarracksQueryBenchmark {
+    private BarracksQuery simpleQuery;
+    private BarracksQuery compositeQuery;
+
+    @Setup
+    public void setUp() {
+        simpleQuery = BarracksQueryUtils.getQuery();
+        final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+        final ObjectNode and = nodeFactory.objectNode();
+        for (int i = 0; i < 10; i++) {
+            and.set("custom.property" + i, nodeFactory.objectNode().put("gte", i));
+        }
+        compositeQuery = new BarracksQuery(nodeFactory.objectNode().set("and", and));
+    }
+
+    @Benchmark
+    public String toJsonString_simple() {
+        return simpleQuery.toJsonString();
+    }
+
+    @Benchmark
+    public String toJsonString_composite() {
+        return compositeQuery.toJsonString();
+    }
+}
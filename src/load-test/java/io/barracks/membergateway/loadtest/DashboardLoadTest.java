@@ -0,0 +1,223 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+import io.barracks.membergateway.Application;
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Boots the gateway against {@link DownstreamStubs} and has virtual users browse the dashboard, each picking its
+ * next page according to the weights of {@link #ROUTES}; "{segment}" stands for the first segment of the user.
+ * <p>
+ * The run is tuned through system properties: {@code loadtest.users}, {@code loadtest.accounts} (the number of
+ * distinct tokens shared by the users), {@code loadtest.duration_s}, {@code loadtest.warmup_s} and
+ * {@code loadtest.think_time_ms}, plus the {@code loadtest.stub.*} settings read by {@link StubSettings}. The pools and
+ * bulkheads of the gateway are sized after the number of users, and any of its properties can be overridden with
+ * {@code loadtest.gateway.<property>}.
+ * <p>
+ * Once done, it logs the throughput and latency percentiles of each route, along with the number of downstream
+ * calls each request triggered, as reported by the gateway's debug headers.
+ */
+public class DashboardLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(DashboardLoadTest.class);
+
+    private static final String GATEWAY_PROPERTY_PREFIX = "loadtest.gateway.";
+
+    private static final List<RouteStats> ROUTES = Arrays.asList(
+            new RouteStats("/segments/order", 10),
+            new RouteStats("/segments?page=0&size=20", 10),
+            new RouteStats("/segments/{segment}/devices?page=0&size=20", 5),
+            new RouteStats("/stats/devices/perVersionId", 15),
+            new RouteStats("/stats/devices/lastSeen", 10),
+            new RouteStats("/stats/devices/seen", 10),
+            new RouteStats("/stats/devices/perSegmentId?updated=true", 10),
+            new RouteStats("/updates?page=0&size=20", 15),
+            new RouteStats("/devices?page=0&size=20", 15)
+    );
+
+    private final int users = Integer.getInteger("loadtest.users", 32);
+    private final int accounts = Integer.getInteger("loadtest.accounts", 16);
+    private final long durationSeconds = Long.getLong("loadtest.duration_s", 30L);
+    private final long warmupSeconds = Long.getLong("loadtest.warmup_s", 5L);
+    private final long thinkTimeMs = Long.getLong("loadtest.think_time_ms", 0L);
+
+    private DownstreamStubs stubs;
+    private ConfigurableApplicationContext context;
+    private String gatewayUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        stubs = new DownstreamStubs();
+        final List<String> arguments = new ArrayList<>(stubs.getGatewayArguments());
+        arguments.add("--server.port=0");
+        arguments.add("--server.tomcat.max-threads=" + Math.max(200, users * 2));
+        arguments.add("--io.barracks.http.max_total=" + Math.max(200, users * 8));
+        arguments.add("--io.barracks.http.max_per_route=" + Math.max(50, users * 2));
+        arguments.add("--io.barracks.circuit_breaker.max_concurrent_calls=" + Math.max(40, users * 2));
+        arguments.add("--io.barracks.monitoring.debug_headers=true");
+        arguments.add("--logging.level.io.barracks=INFO");
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith(GATEWAY_PROPERTY_PREFIX))
+                .forEach(name -> arguments.add("--" + name.substring(GATEWAY_PROPERTY_PREFIX.length()) + "=" + System.getProperty(name)));
+        context = new SpringApplicationBuilder(Application.class).run(arguments.toArray(new String[arguments.size()]));
+        gatewayUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        stubs.close();
+    }
+
+    @Test
+    public void dashboardTraffic() throws Exception {
+        // Given
+        final int totalWeight = ROUTES.stream().mapToInt(RouteStats::getWeight).sum();
+        final ExecutorService virtualUsers = Executors.newFixedThreadPool(users, runnable -> {
+            final Thread thread = new Thread(runnable, "virtual-user");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        logger.info("Load test: {} users on {} accounts, {}s warmup, {}s measured, {}ms think time, stubs {}",
+                users, accounts, warmupSeconds, durationSeconds, thinkTimeMs, stubs.getSettings());
+
+        // When
+        for (int user = 0; user < users; user++) {
+            final String token = "token-" + (user % accounts);
+            virtualUsers.execute(() -> browse(token, totalWeight, end));
+        }
+        TimeUnit.NANOSECONDS.sleep(warmupEnd - System.nanoTime());
+        ROUTES.forEach(RouteStats::reset);
+        final Map<String, Long> warmupCalls = stubs.getCalls();
+        final long measureStart = System.nanoTime();
+        virtualUsers.shutdown();
+        assertThat(virtualUsers.awaitTermination(durationSeconds + 60, TimeUnit.SECONDS)).isTrue();
+        final double elapsedSeconds = (System.nanoTime() - measureStart) / 1e9;
+
+        // Then
+        final Map<String, Long> measuredCalls = new LinkedHashMap<>();
+        stubs.getCalls().forEach((endpoint, count) -> measuredCalls.put(endpoint, count - warmupCalls.getOrDefault(endpoint, 0L)));
+        final boolean reliableStubs = stubs.getSettings().values().stream().allMatch(settings -> settings.getErrorRate() == 0D);
+        long totalRequests = 0;
+        final StringBuilder report = new StringBuilder(String.format("%n%-45s %9s %7s %9s %9s %9s %9s %9s %11s  %s%n",
+                "route", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "downstream", "errors by status"));
+        for (RouteStats route : ROUTES) {
+            final Histogram histogram = route.snapshot();
+            final long requests = route.getRequests();
+            totalRequests += requests;
+            report.append(String.format("%-45s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %11.2f  %s%n",
+                    route.getPath(), requests, route.getErrors(), requests / elapsedSeconds,
+                    histogram.getValueAtPercentile(50D) / 1000D, histogram.getValueAtPercentile(99D) / 1000D,
+                    histogram.getValueAtPercentile(99.9D) / 1000D, histogram.getMaxValue() / 1000D,
+                    route.getMeanDownstreamCalls(), route.getErrorsByStatus()));
+        }
+        final long totalCalls = measuredCalls.values().stream().mapToLong(Long::longValue).sum();
+        report.append(String.format("%-45s %9d %7s %9.1f%n", "total", totalRequests, "", totalRequests / elapsedSeconds));
+        report.append(String.format("%ndownstream calls: %s, %.2f per request%n", measuredCalls, totalRequests == 0 ? 0D : (double) totalCalls / totalRequests));
+        logger.info("Load test report:{}", report);
+        for (RouteStats route : ROUTES) {
+            assertThat(route.getRequests()).as("requests on %s", route.getPath()).isPositive();
+            if (reliableStubs) {
+                // Past its bulkheads the gateway sheds the load with 503s, any other failure is a bug
+                assertThat(route.getErrorsByStatus().keySet()).as("errors on %s", route.getPath()).isSubsetOf(503);
+            }
+        }
+    }
+
+    private void browse(String token, int totalWeight, long end) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String segmentId = StubPayloads.segmentId(StubPayloads.userId(token), 0);
+        while (System.nanoTime() < end) {
+            final RouteStats route = pick(random.nextInt(totalWeight));
+            final long start = System.nanoTime();
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) new URL(gatewayUrl + route.getPath().replace("{segment}", segmentId)).openConnection();
+                connection.setRequestProperty("X-Auth-Token", token);
+                final int status = connection.getResponseCode();
+                drain(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+                final String calls = connection.getHeaderField("X-Downstream-Calls");
+                route.record(System.nanoTime() - start, status, calls == null ? 0L : Long.parseLong(calls));
+            } catch (IOException e) {
+                route.record(System.nanoTime() - start, 599, 0L);
+            }
+            if (thinkTimeMs > 0) {
+                try {
+                    Thread.sleep(random.nextLong(thinkTimeMs * 2));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static RouteStats pick(int draw) {
+        int remaining = draw;
+        for (RouteStats route : ROUTES) {
+            remaining -= route.getWeight();
+            if (remaining < 0) {
+                return route;
+            }
+        }
+        return ROUTES.get(ROUTES.size() - 1);
+    }
+
+    private static void drain(InputStream input) throws IOException {
+        if (input == null) {
+            return;
+        }
+        try (InputStream body = input) {
+            final byte[] buffer = new byte[8192];
+            while (body.read(buffer) != -1) {
+                // read the whole body so that the connection goes back to the keep-alive cache
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process HTTP server standing for one of the downstream services.
+ * <p>
+ * Each call is routed to an endpoint named after the first segment of its path ("me", "segments", "stats"...),
+ * whose {@link StubSettings} tell how long to wait before answering, how often to fail and how many items to return.
+ */
+final class DownstreamStub implements AutoCloseable {
+    private final String service;
+    private final Router router;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, StubSettings> settings = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+    DownstreamStub(String service, Router router) throws IOException {
+        this.service = service;
+        this.router = router;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "stub-" + service);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    String getService() {
+        return service;
+    }
+
+    String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of calls received per endpoint so far
+     */
+    Map<String, Long> getCalls() {
+        final Map<String, Long> counts = new TreeMap<>();
+        calls.forEach((endpoint, count) -> counts.put(endpoint, count.sum()));
+        return counts;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() != -1) {
+                // drain so that the connection is kept alive
+            }
+        }
+        final String path = exchange.getRequestURI().getPath();
+        final String endpoint = path.split("/").length > 1 ? path.split("/")[1] : "";
+        final StubSettings endpointSettings = settings.computeIfAbsent(endpoint, StubSettings::forEndpoint);
+        calls.computeIfAbsent(endpoint, key -> new LongAdder()).increment();
+        if (endpointSettings.getLatencyMs() > 0) {
+            try {
+                Thread.sleep(endpointSettings.getLatencyMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ThreadLocalRandom.current().nextDouble() < endpointSettings.getErrorRate()) {
+            respond(exchange, 503, StubPayloads.error());
+            return;
+        }
+        final Map<String, String> query = UriComponentsBuilder.fromUri(exchange.getRequestURI()).build().getQueryParams().toSingleValueMap();
+        final String response = router.route(path, query, exchange, endpointSettings.getItems());
+        if (response == null) {
+            respond(exchange, 404, "{\"error\":\"Not Found\"}");
+        } else {
+            respond(exchange, 200, response);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    interface Router {
+        /**
+         * @return the body of the response, or {@code null} for a 404
+         */
+        String route(String path, Map<String, String> query, HttpExchange exchange, int items);
+    }
+}
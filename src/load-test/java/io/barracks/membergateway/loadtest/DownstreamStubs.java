@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stands for the four services the gateway depends on, each on its own port: the authorization service, the device
+ * service (which also serves the stats), the update service and the package service.
+ */
+final class DownstreamStubs implements AutoCloseable {
+    static final List<String> ENDPOINTS = Arrays.asList("me", "segments", "devices", "stats", "updates", "packages");
+
+    private final DownstreamStub authorizationService;
+    private final DownstreamStub deviceService;
+    private final DownstreamStub updateService;
+    private final DownstreamStub packageService;
+
+    DownstreamStubs() throws IOException {
+        authorizationService = new DownstreamStub("authorizationservice", (path, query, exchange, items) ->
+                "/me".equals(path) ? StubPayloads.user(exchange.getRequestHeaders().getFirst("X-Auth-Token")) : null
+        );
+        deviceService = new DownstreamStub("deviceservice", (path, query, exchange, items) -> {
+            final String[] segments = path.split("/");
+            if (path.startsWith("/stats/")) {
+                return StubPayloads.dataSet(items);
+            }
+            if ("/segments".equals(path)) {
+                if ("active".equals(query.get("status"))) {
+                    return StubPayloads.segmentList(query.get("userId"), items);
+                }
+                if (query.containsKey("status")) {
+                    return StubPayloads.segmentList(query.get("userId"), Math.max(1, items / 4));
+                }
+                return StubPayloads.segmentPage(query.get("userId"), items);
+            }
+            if ("/segments/devices/count".equals(path)) {
+                return StubPayloads.deviceCounts(query.getOrDefault("segmentIds", ""));
+            }
+            if (path.startsWith("/segments/") && segments.length == 3) {
+                return StubPayloads.segment(segments[2]);
+            }
+            if (path.startsWith("/segments/") && path.endsWith("/devices")) {
+                return StubPayloads.devicePage(query.get("userId"), items);
+            }
+            if ("/devices".equals(path)) {
+                return StubPayloads.devicePage(query.get("userId"), items);
+            }
+            if (path.startsWith("/devices/") && segments.length == 3) {
+                return StubPayloads.device(query.get("userId"), segments[2]);
+            }
+            return null;
+        });
+        updateService = new DownstreamStub("updateservice", (path, query, exchange, items) -> {
+            if ("/updates/latest".equals(path)) {
+                return StubPayloads.update(query.get("userId"), "latest-" + query.get("segmentId"), query.get("segmentId"));
+            }
+            if ("/updates".equals(path)) {
+                return StubPayloads.updatePage(query.get("userId"), items);
+            }
+            if (path.startsWith("/updates/")) {
+                return StubPayloads.update(query.get("userId"), path.substring("/updates/".length()), StubPayloads.segmentId(query.get("userId"), 0));
+            }
+            return null;
+        });
+        packageService = new DownstreamStub("packageservice", (path, query, exchange, items) ->
+                path.startsWith("/packages/") ? StubPayloads.packageInfo(path.substring("/packages/".length())) : null
+        );
+    }
+
+    List<DownstreamStub> all() {
+        return Arrays.asList(authorizationService, deviceService, updateService, packageService);
+    }
+
+    /**
+     * @return the command line arguments pointing the gateway to the stubs
+     */
+    List<String> getGatewayArguments() {
+        final List<String> arguments = new ArrayList<>();
+        for (DownstreamStub stub : all()) {
+            arguments.add("--io.barracks." + stub.getService() + ".base_url=" + stub.getBaseUrl());
+        }
+        return arguments;
+    }
+
+    /**
+     * @return the settings of each endpoint the gateway calls
+     */
+    Map<String, StubSettings> getSettings() {
+        final Map<String, StubSettings> settings = new LinkedHashMap<>();
+        ENDPOINTS.forEach(endpoint -> settings.put(endpoint, StubSettings.forEndpoint(endpoint)));
+        return settings;
+    }
+
+    /**
+     * @return the number of calls received so far per endpoint, all services included
+     */
+    Map<String, Long> getCalls() {
+        final Map<String, Long> calls = new TreeMap<>();
+        all().forEach(stub -> calls.putAll(stub.getCalls()));
+        return calls;
+    }
+
+    @Override
+    public void close() {
+        all().forEach(DownstreamStub::close);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the virtual users observed on one route of the dashboard during the measurement window.
+ */
+final class RouteStats {
+    private final String path;
+    private final int weight;
+    private final Recorder latencies = new Recorder(3);
+    private final LongAdder requests = new LongAdder();
+    private final Map<Integer, LongAdder> errors = new ConcurrentSkipListMap<>();
+    private final LongAdder downstreamCalls = new LongAdder();
+
+    RouteStats(String path, int weight) {
+        this.path = path;
+        this.weight = weight;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getErrors() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @return the number of failed requests per status code, 599 standing for the requests that got no response
+     */
+    Map<Integer, Long> getErrorsByStatus() {
+        final Map<Integer, Long> counts = new TreeMap<>();
+        errors.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+
+    void record(long latencyNanos, int status, long calls) {
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        requests.increment();
+        if (status >= 400) {
+            errors.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+        downstreamCalls.add(calls);
+    }
+
+    void reset() {
+        latencies.reset();
+        requests.reset();
+        errors.clear();
+        downstreamCalls.reset();
+    }
+
+    Histogram snapshot() {
+        return latencies.getIntervalHistogram();
+    }
+
+    double getMeanDownstreamCalls() {
+        final long count = requests.sum();
+        return count == 0 ? 0D : (double) downstreamCalls.sum() / count;
+    }
+}
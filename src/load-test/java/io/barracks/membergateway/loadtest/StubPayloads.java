@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Builds the bodies returned by the stubbed services. The token "token-N" belongs to the user "user-N", whose
+ * segments and packages are named "user-N-segment-I" and "user-N-package-I": the owner of an item can be told from its
+ * id, so that the responses of the different services refer to each other consistently.
+ */
+final class StubPayloads {
+    static final int PACKAGE_COUNT = 4;
+    private static final String DATE = "\"2017-02-02T16:04:17.555Z\"";
+
+    private StubPayloads() {
+    }
+
+    static String userId(String token) {
+        return String.valueOf(token).replaceFirst("^token-", "user-");
+    }
+
+    static String segmentId(String userId, int index) {
+        return userId + "-segment-" + index;
+    }
+
+    static String user(String token) {
+        return "{\"id\":\"" + userId(token) + "\",\"email\":\"" + token + "@load.test\",\"firstName\":\"Load\",\"lastName\":\"Test\"}";
+    }
+
+    static String segment(String segmentId) {
+        return "{\"id\":\"" + segmentId + "\",\"userId\":\"" + ownerOf(segmentId, "-segment-") + "\",\"name\":\"Segment " + segmentId + "\","
+                + "\"query\":{\"eq\":{\"custom.group\":\"" + segmentId + "\"}}}";
+    }
+
+    static String segmentList(String userId, int count) {
+        return "[" + IntStream.range(0, count).mapToObj(i -> segment(segmentId(userId, i))).collect(Collectors.joining(",")) + "]";
+    }
+
+    static String segmentPage(String userId, int count) {
+        return page("segments", IntStream.range(0, count).mapToObj(i -> segment(segmentId(userId, i))).collect(Collectors.joining(",")), count);
+    }
+
+    static String deviceCounts(String segmentIds) {
+        return "{" + Arrays.stream(segmentIds.split(","))
+                .filter(segmentId -> !segmentId.isEmpty())
+                .map(segmentId -> "\"" + segmentId + "\":" + (100 + Math.abs(segmentId.hashCode()) % 900))
+                .collect(Collectors.joining(",")) + "}";
+    }
+
+    static String device(String userId, String unitId) {
+        return "{\"unitId\":\"" + unitId + "\",\"userId\":\"" + userId + "\",\"firstSeen\":" + DATE + ","
+                + "\"lastEvent\":{\"unitId\":\"" + unitId + "\",\"userId\":\"" + userId + "\","
+                + "\"versionId\":\"version-" + Math.abs(unitId.hashCode()) % PACKAGE_COUNT + "\",\"segmentId\":\"" + segmentId(userId, 0) + "\","
+                + "\"receptionDate\":" + DATE + ",\"additionalProperties\":{\"custom\":{\"group\":\"" + segmentId(userId, 0) + "\"}}},"
+                + "\"configuration\":{}}";
+    }
+
+    static String devicePage(String userId, int count) {
+        return page("devices", IntStream.range(0, count).mapToObj(i -> device(userId, "unit-" + i)).collect(Collectors.joining(",")), count * 10);
+    }
+
+    static String dataSet(int count) {
+        return "{\"total\":" + count * 10 + ",\"values\":{" + IntStream.range(0, count)
+                .mapToObj(i -> "\"version-" + i + "\":10")
+                .collect(Collectors.joining(",")) + "}}";
+    }
+
+    static String update(String userId, String uuid, String segmentId) {
+        final String packageId = userId + "-package-" + Math.abs(String.valueOf(segmentId).hashCode()) % PACKAGE_COUNT;
+        return "{\"uuid\":\"" + uuid + "\",\"userId\":\"" + userId + "\",\"name\":\"Update " + uuid + "\",\"description\":\"Load test\","
+                + "\"packageId\":\"" + packageId + "\",\"segmentId\":\"" + segmentId + "\",\"additionalProperties\":{},"
+                + "\"status\":\"published\",\"revisionId\":1,\"creationDate\":" + DATE + "}";
+    }
+
+    static String updatePage(String userId, int count) {
+        return page("updates", IntStream.range(0, count)
+                .mapToObj(i -> update(userId, "update-" + i, segmentId(userId, i)))
+                .collect(Collectors.joining(",")), count);
+    }
+
+    static String packageInfo(String packageId) {
+        final String index = packageId.substring(packageId.lastIndexOf('-') + 1);
+        return "{\"id\":\"" + packageId + "\",\"userId\":\"" + ownerOf(packageId, "-package-") + "\",\"fileName\":\"firmware-" + index + ".bin\","
+                + "\"size\":1048576,\"versionId\":\"version-" + index + "\",\"md5\":\"badc0ffee\"}";
+    }
+
+    static String error() {
+        return "{\"error\":\"Service Unavailable\",\"message\":\"Stubbed failure\"}";
+    }
+
+    private static String ownerOf(String id, String separator) {
+        final int index = id.lastIndexOf(separator);
+        return index < 0 ? id : id.substring(0, index);
+    }
+
+    private static String page(String rel, String items, int totalElements) {
+        return "{\"_embedded\":{\"" + rel + "\":[" + items + "]},"
+                + "\"page\":{\"size\":20,\"totalElements\":" + totalElements + ",\"totalPages\":" + Math.max(1, (totalElements + 19) / 20) + ",\"number\":0}}";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.loadtest;
+
+/**
+ * Behaviour of a stubbed downstream endpoint, read from the {@code loadtest.stub.<endpoint>.*} system properties and
+ * falling back to {@code loadtest.stub.*}:
+ * <ul>
+ * <li>{@code latency_ms}: delay before the response is sent, 20ms by default</li>
+ * <li>{@code error_rate}: share of the calls answered with a 503, none by default</li>
+ * <li>{@code items}: number of items in the collections returned, 20 by default</li>
+ * </ul>
+ */
+final class StubSettings {
+    private final long latencyMs;
+    private final double errorRate;
+    private final int items;
+
+    private StubSettings(long latencyMs, double errorRate, int items) {
+        this.latencyMs = latencyMs;
+        this.errorRate = errorRate;
+        this.items = items;
+    }
+
+    static StubSettings forEndpoint(String endpoint) {
+        return new StubSettings(
+                Long.parseLong(getSetting(endpoint, "latency_ms", "20")),
+                Double.parseDouble(getSetting(endpoint, "error_rate", "0")),
+                Integer.parseInt(getSetting(endpoint, "items", "20"))
+        );
+    }
+
+    private static String getSetting(String endpoint, String key, String defaultValue) {
+        return System.getProperty("loadtest.stub." + endpoint + "." + key, System.getProperty("loadtest.stub." + key, defaultValue));
+    }
+
+    long getLatencyMs() {
+        return latencyMs;
+    }
+
+    double getErrorRate() {
+        return errorRate;
+    }
+
+    int getItems() {
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return latencyMs + "ms, " + (errorRate * 100) + "% errors, " + items + " items";
+    }
+}
@@ -26,6 +26,8 @@ package io.barracks.membergateway.client;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.barracks.commons.util.Endpoint;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import io.barracks.membergateway.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -48,9 +50,11 @@ public class AuthorizationServiceClient extends HateoasRestClient {
     public AuthorizationServiceClient(
             ObjectMapper mapper,
             RestTemplateBuilder restTemplateBuilder,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${io.barracks.authorizationservice.base_url}") String baseUrl
     ) {
-        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder).build();
+        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder, circuitBreakerRegistry.protect("authorizationservice", pooledHttpClientFactory.createRequestFactory("authorizationservice"))).build();
         this.authServiceUrl = baseUrl;
     }
 
@@ -27,6 +27,9 @@ package io.barracks.membergateway.client;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.barracks.commons.util.Endpoint;
 import io.barracks.membergateway.client.exception.DeviceServiceClientException;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import io.barracks.membergateway.manager.entity.SegmentStatus;
 import io.barracks.membergateway.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,7 +44,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class DeviceServiceClient extends HateoasRestClient {
@@ -64,6 +70,7 @@ public class DeviceServiceClient extends HateoasRestClient {
     static final Endpoint GET_SEGMENT_BY_STATUS = Endpoint.from(HttpMethod.GET, "/segments", "userId={userId}&status={status}");
     static final Endpoint UPDATE_SEGMENT_ENDPOINT = Endpoint.from(HttpMethod.PUT, "/segments/{segmentId}");
     static final Endpoint GET_SEGMENT_DEVICES_ENDPOINT = Endpoint.from(HttpMethod.GET, "/segments/{segmentId}/devices", "userId={userId}");
+    static final Endpoint GET_SEGMENTS_DEVICE_COUNT_ENDPOINT = Endpoint.from(HttpMethod.GET, "/segments/devices/count", "userId={userId}&segmentIds={segmentIds}");
     static final Endpoint GET_SEGMENT_DEVICES_FOR_VERSION_ENDPOINT = Endpoint.from(HttpMethod.GET, "/segments/{segmentId}/devices", "userId={userId}&versionId={versionId}");
     static final Endpoint UPDATE_SEGMENT_ORDER_ENDPOINT = Endpoint.from(HttpMethod.PUT, "/segments/order", "userId={userId}");
 
@@ -76,13 +83,18 @@ public class DeviceServiceClient extends HateoasRestClient {
 
     private final RestTemplate restTemplate;
 
+    private final AsyncRestClient asyncRestClient;
+
     @Autowired
     public DeviceServiceClient(
             ObjectMapper mapper,
             RestTemplateBuilder restTemplateBuilder,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${io.barracks.deviceservice.base_url}") String baseUrl
     ) {
-        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder).build();
+        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder, circuitBreakerRegistry.protect("deviceservice", pooledHttpClientFactory.createRequestFactory("deviceservice"))).build();
+        this.asyncRestClient = prepareAsyncRestClient("deviceservice", restTemplate, pooledHttpClientFactory, circuitBreakerRegistry, DeviceServiceClientException::new);
         this.baseUrl = baseUrl;
     }
 
@@ -147,6 +159,13 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<Segment> getSegmentAsync(String segmentId) {
+        return asyncRestClient.exchange(
+                GET_SEGMENT_ENDPOINT.withBase(baseUrl).getRequestEntity(segmentId),
+                Segment.class
+        );
+    }
+
     public Segment updateSegment(String segmentId, Segment segment) {
         try {
             final ResponseEntity<Segment> responseEntity = restTemplate.exchange(
@@ -172,6 +191,14 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PagedResources<Segment>> getSegmentsAsync(String userId, Pageable pageable) {
+        return asyncRestClient.exchange(
+                GET_SEGMENTS_ENDPOINT.withBase(baseUrl).pageable(pageable).getRequestEntity(userId),
+                new ParameterizedTypeReference<PagedResources<Segment>>() {
+                }
+        );
+    }
+
     public List<Segment> getSegmentsByStatus(String userId, SegmentStatus status) {
         try {
             final ResponseEntity<List<Segment>> responseEntity = restTemplate.exchange(
@@ -185,6 +212,14 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<List<Segment>> getSegmentsByStatusAsync(String userId, SegmentStatus status) {
+        return asyncRestClient.exchange(
+                GET_SEGMENT_BY_STATUS.withBase(baseUrl).getRequestEntity(userId, status.getName()),
+                new ParameterizedTypeReference<List<Segment>>() {
+                }
+        );
+    }
+
     public List<String> updateSegmentsOrder(String userId, List<String> order) {
         try {
             final ResponseEntity<List<String>> responseEntity = restTemplate.exchange(
@@ -210,6 +245,13 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<Device> getDeviceByUserIdAndUnitIdAsync(String userId, String unitId) {
+        return asyncRestClient.exchange(
+                GET_DEVICE_ENDPOINT.withBase(baseUrl).getRequestEntity(unitId, userId),
+                Device.class
+        );
+    }
+
     public PagedResources<Device> getDevicesBySegment(String userId, String segmentId, Pageable pageable) {
         try {
             final ResponseEntity<PagedResources<Device>> responseEntity = restTemplate.exchange(
@@ -223,6 +265,35 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PagedResources<Device>> getDevicesBySegmentAsync(String userId, String segmentId, Pageable pageable) {
+        return asyncRestClient.exchange(
+                GET_SEGMENT_DEVICES_ENDPOINT.withBase(baseUrl).pageable(pageable).getRequestEntity(segmentId, userId),
+                new ParameterizedTypeReference<PagedResources<Device>>() {
+                }
+        );
+    }
+
+    public Map<String, Long> getDeviceCountsBySegments(String userId, Collection<String> segmentIds) {
+        try {
+            final ResponseEntity<Map<String, Long>> responseEntity = restTemplate.exchange(
+                    GET_SEGMENTS_DEVICE_COUNT_ENDPOINT.withBase(baseUrl).getRequestEntity(userId, String.join(",", segmentIds)),
+                    new ParameterizedTypeReference<Map<String, Long>>() {
+                    }
+            );
+            return responseEntity.getBody();
+        } catch (HttpStatusCodeException e) {
+            throw new DeviceServiceClientException(e);
+        }
+    }
+
+    public CompletableFuture<Map<String, Long>> getDeviceCountsBySegmentsAsync(String userId, Collection<String> segmentIds) {
+        return asyncRestClient.exchange(
+                GET_SEGMENTS_DEVICE_COUNT_ENDPOINT.withBase(baseUrl).getRequestEntity(userId, String.join(",", segmentIds)),
+                new ParameterizedTypeReference<Map<String, Long>>() {
+                }
+        );
+    }
+
     public PagedResources<Device> getDevicesBySegmentAndVersion(String userId, String segmentId, String versionId, Pageable pageable) {
         try {
             return restTemplate.exchange(
@@ -235,6 +306,14 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PagedResources<Device>> getDevicesBySegmentAndVersionAsync(String userId, String segmentId, String versionId, Pageable pageable) {
+        return asyncRestClient.exchange(
+                GET_SEGMENT_DEVICES_FOR_VERSION_ENDPOINT.withBase(baseUrl).pageable(pageable).getRequestEntity(segmentId, userId, versionId),
+                new ParameterizedTypeReference<PagedResources<Device>>() {
+                }
+        );
+    }
+
     public PagedResources<Device> getDevices(String userId, Pageable pageable, BarracksQuery query) {
         try {
             final ResponseEntity<PagedResources<Device>> responseEntity = restTemplate.exchange(
@@ -248,6 +327,14 @@ public class DeviceServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PagedResources<Device>> getDevicesAsync(String userId, Pageable pageable, BarracksQuery query) {
+        return asyncRestClient.exchange(
+                GET_DEVICES_ENDPOINT.withBase(baseUrl).pageable(pageable).getRequestEntity(userId, query.toJsonString()),
+                new ParameterizedTypeReference<PagedResources<Device>>() {
+                }
+        );
+    }
+
     public Filter createFilter(String userId, Filter filter) {
         try {
             final ResponseEntity<Filter> responseEntity = restTemplate.exchange(
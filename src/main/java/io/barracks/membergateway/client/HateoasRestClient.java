@@ -26,22 +26,46 @@ package io.barracks.membergateway.client;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.hal.Jackson2HalModule;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
 
 import java.util.Arrays;
+import java.util.function.Function;
 
 class HateoasRestClient {
 
-    protected RestTemplateBuilder prepareRestTemplateBuilder(ObjectMapper mapper, RestTemplateBuilder builder) {
+    protected RestTemplateBuilder prepareRestTemplateBuilder(ObjectMapper mapper, RestTemplateBuilder builder, ClientHttpRequestFactory requestFactory) {
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         mapper.registerModule(new Jackson2HalModule());
         final MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter();
         converter.setSupportedMediaTypes(Arrays.asList(MediaTypes.HAL_JSON, MediaType.APPLICATION_OCTET_STREAM));
         converter.setObjectMapper(mapper);
-        return builder.additionalMessageConverters(converter);
+        return builder.additionalMessageConverters(converter).requestFactory(requestFactory);
+    }
+
+    protected AsyncRestClient prepareAsyncRestClient(
+            String service,
+            RestTemplate restTemplate,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
+            Function<HttpStatusCodeException, ? extends RuntimeException> exceptionMapper
+    ) {
+        if (!pooledHttpClientFactory.isNonBlocking(service)) {
+            return new AsyncRestClient(restTemplate, pooledHttpClientFactory.getBlockingExecutor(), exceptionMapper);
+        }
+        return new AsyncRestClient(
+                new AsyncRestTemplate(circuitBreakerRegistry.protectAsync(service, pooledHttpClientFactory.createAsyncRequestFactory(service)), restTemplate),
+                exceptionMapper
+        );
     }
 }
@@ -28,6 +28,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.barracks.commons.util.Endpoint;
 import io.barracks.membergateway.client.exception.PackageServiceClientException;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import io.barracks.membergateway.model.PackageInfo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -36,7 +39,8 @@ import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -46,35 +50,44 @@ import org.springframework.web.client.RestTemplate;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class PackageServiceClient extends HateoasRestClient {
 
     static final Endpoint UPLOAD_PACKAGE_ENDPOINT = Endpoint.from(HttpMethod.POST, "/packages");
     static final Endpoint GET_PACKAGE_ENDPOINT = Endpoint.from(HttpMethod.GET, "/packages/{packageId}");
+    static final String UPLOAD_SERVICE = "packageservice.upload";
 
     private final String baseUrl;
 
     private final RestTemplate restTemplate;
 
+    private final AsyncRestClient asyncRestClient;
+
     @Autowired
     public PackageServiceClient(
             ObjectMapper objectMapper,
             RestTemplateBuilder restTemplateBuilder,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${io.barracks.packageservice.base_url}") String baseUrl
     ) {
-        this.restTemplate = prepareRestTemplateBuilder(objectMapper, restTemplateBuilder).build();
+        final HttpComponentsClientHttpRequestFactory requestFactory = pooledHttpClientFactory.createRequestFactory("packageservice");
+        final ClientHttpRequestFactory calls = circuitBreakerRegistry.protect("packageservice", requestFactory);
+        // Uploads hold their connection for the whole transfer, they get their own pool and bulkhead not to starve the other calls
+        final HttpComponentsClientHttpRequestFactory uploadRequestFactory = pooledHttpClientFactory.createRequestFactory(UPLOAD_SERVICE);
+        uploadRequestFactory.setBufferRequestBody(false);
+        final ClientHttpRequestFactory uploads = circuitBreakerRegistry.protect(UPLOAD_SERVICE, uploadRequestFactory);
+        this.restTemplate = prepareRestTemplateBuilder(
+                objectMapper,
+                restTemplateBuilder,
+                (uri, httpMethod) -> (httpMethod == UPLOAD_PACKAGE_ENDPOINT.getMethod() ? uploads : calls).createRequest(uri, httpMethod)
+        ).build();
+        this.asyncRestClient = prepareAsyncRestClient("packageservice", restTemplate, pooledHttpClientFactory, circuitBreakerRegistry, PackageServiceClientException::new);
         this.baseUrl = baseUrl;
     }
 
-    @Override
-    protected RestTemplateBuilder prepareRestTemplateBuilder(ObjectMapper mapper, RestTemplateBuilder builder) {
-        RestTemplateBuilder restTemplateBuilder = super.prepareRestTemplateBuilder(mapper, builder);
-        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-        requestFactory.setBufferRequestBody(false);
-        return restTemplateBuilder.requestFactory(requestFactory);
-    }
-
     public PackageInfo uploadPackage(String fileName, String contentType, InputStream inputStream, long size, String versionId, String userId) {
         try {
             final MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
@@ -115,4 +128,11 @@ public class PackageServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PackageInfo> getPackageInfoAsync(String packageId) {
+        return asyncRestClient.exchange(
+                GET_PACKAGE_ENDPOINT.withBase(baseUrl).getRequestEntity(packageId),
+                PackageInfo.class
+        );
+    }
+
 }
@@ -27,6 +27,9 @@ package io.barracks.membergateway.client;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.barracks.commons.util.Endpoint;
 import io.barracks.membergateway.client.exception.StatsServiceClientException;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import io.barracks.membergateway.model.DataSet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -37,6 +40,7 @@ import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class StatsServiceClient extends HateoasRestClient {
@@ -45,14 +49,18 @@ public class StatsServiceClient extends HateoasRestClient {
     static final Endpoint DEVICES_SEEN_ENDPOINT = Endpoint.from(HttpMethod.GET, "/stats/{userId}/devices/seen", "start={start}&end={end}");
     private final String baseUrl;
     private final RestTemplate restTemplate;
+    private final AsyncRestClient asyncRestClient;
 
     @Autowired
     public StatsServiceClient(
             ObjectMapper mapper,
             RestTemplateBuilder restTemplateBuilder,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${io.barracks.deviceservice.base_url}") String baseUrl
     ) {
-        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder).build();
+        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder, circuitBreakerRegistry.protect("statsservice", pooledHttpClientFactory.createRequestFactory("statsservice"))).build();
+        this.asyncRestClient = prepareAsyncRestClient("statsservice", restTemplate, pooledHttpClientFactory, circuitBreakerRegistry, StatsServiceClientException::new);
         this.baseUrl = baseUrl;
     }
 
@@ -67,6 +75,13 @@ public class StatsServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<DataSet> getDevicesPerVersionIdAsync(String userId) {
+        return asyncRestClient.exchange(
+                DEVICES_PER_VERSION_ID_ENDPOINT.withBase(baseUrl).getRequestEntity(userId),
+                DataSet.class
+        );
+    }
+
     public DataSet getLastSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
         try {
             return restTemplate.exchange(
@@ -78,6 +93,13 @@ public class StatsServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<DataSet> getLastSeenDevicesAsync(String userId, OffsetDateTime start, OffsetDateTime end) {
+        return asyncRestClient.exchange(
+                DEVICES_LAST_SEEN_ENDPOINT.withBase(baseUrl).getRequestEntity(userId, start, end),
+                DataSet.class
+        );
+    }
+
     public DataSet getSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
         try {
             return restTemplate.exchange(
@@ -88,4 +110,11 @@ public class StatsServiceClient extends HateoasRestClient {
             throw new StatsServiceClientException(e);
         }
     }
+
+    public CompletableFuture<DataSet> getSeenDevicesAsync(String userId, OffsetDateTime start, OffsetDateTime end) {
+        return asyncRestClient.exchange(
+                DEVICES_SEEN_ENDPOINT.withBase(baseUrl).getRequestEntity(userId, start, end),
+                DataSet.class
+        );
+    }
 }
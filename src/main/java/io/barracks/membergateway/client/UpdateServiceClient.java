@@ -27,6 +27,9 @@ package io.barracks.membergateway.client;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.barracks.commons.util.Endpoint;
 import io.barracks.membergateway.client.exception.UpdateServiceClientException;
+import io.barracks.membergateway.client.util.AsyncRestClient;
+import io.barracks.membergateway.client.util.CircuitBreakerRegistry;
+import io.barracks.membergateway.client.util.PooledHttpClientFactory;
 import io.barracks.membergateway.model.Update;
 import io.barracks.membergateway.model.UpdateStatus;
 import io.barracks.membergateway.model.UpdateStatusCompatibility;
@@ -45,6 +48,7 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Component
@@ -61,13 +65,18 @@ public class UpdateServiceClient extends HateoasRestClient {
 
     private final RestTemplate restTemplate;
 
+    private final AsyncRestClient asyncRestClient;
+
     @Autowired
     public UpdateServiceClient(
             ObjectMapper mapper,
             RestTemplateBuilder restTemplateBuilder,
+            PooledHttpClientFactory pooledHttpClientFactory,
+            CircuitBreakerRegistry circuitBreakerRegistry,
             @Value("${io.barracks.updateservice.base_url}") String baseUrl
     ) {
-        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder).build();
+        this.restTemplate = prepareRestTemplateBuilder(mapper, restTemplateBuilder, circuitBreakerRegistry.protect("updateservice", pooledHttpClientFactory.createRequestFactory("updateservice"))).build();
+        this.asyncRestClient = prepareAsyncRestClient("updateservice", restTemplate, pooledHttpClientFactory, circuitBreakerRegistry, UpdateServiceClientException::new);
         this.baseUrl = baseUrl;
     }
 
@@ -82,6 +91,13 @@ public class UpdateServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<Update> getUpdateByUuidAndUserIdAsync(String uuid, String userId) {
+        return asyncRestClient.exchange(
+                GET_UPDATE_ENDPOINT.withBase(baseUrl).getRequestEntity(uuid, userId),
+                Update.class
+        );
+    }
+
     public PagedResources<Update> getUpdatesByStatusesAndSegments(Pageable pageable, String userId, List<UpdateStatus> statuses, List<String> segmentIds) {
         try {
             final String statusesParam = String.join(",", statuses.stream().map(UpdateStatus::getName).collect(Collectors.toList()));
@@ -102,6 +118,22 @@ public class UpdateServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<PagedResources<Update>> getUpdatesByStatusesAndSegmentsAsync(Pageable pageable, String userId, List<UpdateStatus> statuses, List<String> segmentIds) {
+        final String statusesParam = String.join(",", statuses.stream().map(UpdateStatus::getName).collect(Collectors.toList()));
+        final String segmentsParam = String.join(",", segmentIds);
+        return asyncRestClient.exchange(
+                LIST_UPDATES_ENDPOINT.withBase(baseUrl)
+                        .pageable(pageable)
+                        .getRequestEntity(
+                                userId,
+                                statusesParam,
+                                segmentsParam
+                        ),
+                new ParameterizedTypeReference<PagedResources<Update>>() {
+                }
+        );
+    }
+
     public Optional<Update> getLatestUpdateForSegment(String userId, String segmentId) {
         try {
             final ResponseEntity<Update> response = restTemplate.exchange(
@@ -118,6 +150,13 @@ public class UpdateServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<Optional<Update>> getLatestUpdateForSegmentAsync(String userId, String segmentId) {
+        return asyncRestClient.exchange(
+                GET_LATEST_UPDATE_FOR_SEGMENT_ENDPOINT.withBase(baseUrl).getRequestEntity(userId, segmentId),
+                Update.class
+        ).thenApply(Optional::ofNullable);
+    }
+
     public Update createUpdate(Update update) {
         try {
             return restTemplate.exchange(
@@ -152,6 +191,14 @@ public class UpdateServiceClient extends HateoasRestClient {
         }
     }
 
+    public CompletableFuture<List<UpdateStatusCompatibility>> getAllStatusesCompatibilitiesAsync() {
+        return asyncRestClient.exchange(
+                GET_STATUSES_ENDPOINT.withBase(baseUrl).getRequestEntity(),
+                new ParameterizedTypeReference<List<UpdateStatusCompatibility>>() {
+                }
+        );
+    }
+
     public UpdateStatusCompatibility getStatusCompatibilities(UpdateStatus status) {
         try {
             return restTemplate.exchange(
@@ -162,4 +209,11 @@ public class UpdateServiceClient extends HateoasRestClient {
             throw new UpdateServiceClientException(e);
         }
     }
+
+    public CompletableFuture<UpdateStatusCompatibility> getStatusCompatibilitiesAsync(UpdateStatus status) {
+        return asyncRestClient.exchange(
+                GET_STATUS_ENDPOINT.withBase(baseUrl).getRequestEntity(status.getName()),
+                UpdateStatusCompatibility.class
+        );
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import io.barracks.membergateway.monitoring.RequestTrace;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the future-returning variants of the service clients' calls.
+ * <p>
+ * In non-blocking mode the calls go through an {@link AsyncRestTemplate} and no thread waits for their response.
+ * Otherwise the {@link RestTemplate} of the client is used on the given executor. Either way, a
+ * {@link HttpStatusCodeException} is mapped to the client's own exception and the returned future is completed
+ * with it as is.
+ * <p>
+ * Cancelling a returned future aborts the exchange in non-blocking mode, handing its connection and its
+ * bulkhead permit back. In blocking mode a call already running on the executor goes on until it completes.
+ * <p>
+ * The future is completed with the {@link RequestTrace} of the calling thread bound, so that the calls chained to it
+ * are still accounted to the request.
+ */
+public class AsyncRestClient {
+    private final AsyncRestTemplate asyncRestTemplate;
+    private final RestTemplate restTemplate;
+    private final Executor executor;
+    private final Function<HttpStatusCodeException, ? extends RuntimeException> exceptionMapper;
+
+    public AsyncRestClient(AsyncRestTemplate asyncRestTemplate, Function<HttpStatusCodeException, ? extends RuntimeException> exceptionMapper) {
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.restTemplate = null;
+        this.executor = null;
+        this.exceptionMapper = exceptionMapper;
+    }
+
+    public AsyncRestClient(RestTemplate restTemplate, Executor executor, Function<HttpStatusCodeException, ? extends RuntimeException> exceptionMapper) {
+        this.asyncRestTemplate = null;
+        this.restTemplate = restTemplate;
+        this.executor = executor;
+        this.exceptionMapper = exceptionMapper;
+    }
+
+    public boolean isNonBlocking() {
+        return asyncRestTemplate != null;
+    }
+
+    public <T> CompletableFuture<T> exchange(RequestEntity<?> requestEntity, Class<T> responseType) {
+        if (isNonBlocking()) {
+            return toCompletableFuture(() -> asyncRestTemplate.exchange(
+                    requestEntity.getUrl(), requestEntity.getMethod(), new HttpEntity<>(requestEntity.getBody(), requestEntity.getHeaders()), responseType
+            ));
+        }
+        return supply(() -> restTemplate.exchange(requestEntity, responseType));
+    }
+
+    public <T> CompletableFuture<T> exchange(RequestEntity<?> requestEntity, ParameterizedTypeReference<T> responseType) {
+        if (isNonBlocking()) {
+            return toCompletableFuture(() -> asyncRestTemplate.exchange(
+                    requestEntity.getUrl(), requestEntity.getMethod(), new HttpEntity<>(requestEntity.getBody(), requestEntity.getHeaders()), responseType
+            ));
+        }
+        return supply(() -> restTemplate.exchange(requestEntity, responseType));
+    }
+
+    private <T> CompletableFuture<T> toCompletableFuture(Supplier<ListenableFuture<ResponseEntity<T>>> call) {
+        final RequestTrace trace = RequestTrace.current();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            final ListenableFuture<ResponseEntity<T>> response = call.get();
+            response.addCallback(
+                    responseEntity -> RequestTrace.run(trace, () -> future.complete(responseEntity.getBody())),
+                    e -> RequestTrace.run(trace, () -> future.completeExceptionally(map(e)))
+            );
+            future.whenComplete((body, e) -> {
+                if (future.isCancelled()) {
+                    response.cancel(true);
+                }
+            });
+        } catch (Throwable t) {
+            future.completeExceptionally(map(t));
+        }
+        return future;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<ResponseEntity<T>> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(RequestTrace.wrap(() -> {
+                try {
+                    future.complete(call.get().getBody());
+                } catch (Throwable t) {
+                    future.completeExceptionally(map(t));
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private Throwable map(Throwable t) {
+        if (t instanceof HttpStatusCodeException) {
+            return exceptionMapper.apply((HttpStatusCodeException) t);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Guards the calls made to a downstream service.
+ * <p>
+ * The outcome of each call is recorded in a rolling window of {@code window_ms}. Once it holds at least
+ * {@code minimum_calls}, the circuit opens if the rate of failed calls (I/O errors and 5xx responses) or of calls
+ * slower than {@code slow_call_duration_ms} reaches its threshold. Calls are then rejected for
+ * {@code open_duration_ms}, after which {@code half_open_calls} trial calls decide whether it closes again.
+ * <p>
+ * Independently, at most {@code max_concurrent_calls} calls can be in flight, a caller waiting up to
+ * {@code max_wait_ms} for a slot, so that a hung service cannot hold every request thread.
+ * <p>
+ * Rejected calls fail with a 503 {@link HttpServerErrorException}.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final int BUCKETS = 10;
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final Ticker ticker;
+    private final long bucketNanos;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Semaphore bulkhead;
+    private final int maxConcurrentCalls;
+    private final long maxWaitMillis;
+
+    private final long[] bucketEpochs = new long[BUCKETS];
+    private final int[] bucketCalls = new int[BUCKETS];
+    private final int[] bucketFailures = new int[BUCKETS];
+    private final int[] bucketSlowCalls = new int[BUCKETS];
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialCalls;
+    private int trialSuccesses;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong halfOpened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder bulkheadRejected = new LongAdder();
+
+    CircuitBreaker(
+            String name, Ticker ticker, long window, int minimumCalls, int failureRateThreshold, long slowCallDuration,
+            int slowCallRateThreshold, long openDuration, int halfOpenCalls, int maxConcurrentCalls, long maxWait
+    ) {
+        this.name = name;
+        this.ticker = ticker;
+        this.bucketNanos = Math.max(1L, TimeUnit.MILLISECONDS.toNanos(window) / BUCKETS);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.maxWaitMillis = maxWait;
+        Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * Reserves a call, to be given back through {@link #release(long, boolean)} once it is over.
+     *
+     * @return the time at which the call started
+     */
+    public long acquire() {
+        return acquire(maxWaitMillis);
+    }
+
+    /**
+     * Same as {@link #acquire()}, but never waits for a free slot of the bulkhead, so that it can be called from the
+     * I/O threads of a non-blocking client.
+     */
+    public long tryAcquire() {
+        return acquire(0);
+    }
+
+    private long acquire(long waitMillis) {
+        final boolean trial = acquirePermission();
+        boolean acquired = false;
+        try {
+            acquired = waitMillis > 0 ? bulkhead.tryAcquire(waitMillis, TimeUnit.MILLISECONDS) : bulkhead.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            if (trial) {
+                releaseTrial();
+            }
+            bulkheadRejected.increment();
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent calls to " + name);
+        }
+        return ticker.read();
+    }
+
+    public void release(long startTime, boolean failure) {
+        bulkhead.release();
+        record(failure, ticker.read() - startTime >= slowCallNanos);
+    }
+
+    private synchronized boolean acquirePermission() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openNanos) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && trialCalls < halfOpenCalls) {
+            trialCalls++;
+            return true;
+        }
+        rejected.increment();
+        throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Circuit to " + name + " is open");
+    }
+
+    private synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            trialCalls--;
+        }
+    }
+
+    private synchronized void record(boolean failure, boolean slow) {
+        switch (state) {
+            case HALF_OPEN:
+                if (failure || slow) {
+                    transitionTo(State.OPEN);
+                } else if (++trialSuccesses >= halfOpenCalls) {
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                final int bucket = getCurrentBucket();
+                bucketCalls[bucket]++;
+                if (failure) {
+                    bucketFailures[bucket]++;
+                }
+                if (slow) {
+                    bucketSlowCalls[bucket]++;
+                }
+                checkThresholds();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int getCurrentBucket() {
+        // The ticker may read negative values, hence the floored arithmetic
+        final long epoch = Math.floorDiv(ticker.read(), bucketNanos);
+        final int bucket = (int) Math.floorMod(epoch, BUCKETS);
+        if (bucketEpochs[bucket] != epoch) {
+            bucketEpochs[bucket] = epoch;
+            bucketCalls[bucket] = 0;
+            bucketFailures[bucket] = 0;
+            bucketSlowCalls[bucket] = 0;
+        }
+        return bucket;
+    }
+
+    private void checkThresholds() {
+        final long currentEpoch = Math.floorDiv(ticker.read(), bucketNanos);
+        int calls = 0;
+        int failures = 0;
+        int slowCalls = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs[i] > currentEpoch - BUCKETS) {
+                calls += bucketCalls[i];
+                failures += bucketFailures[i];
+                slowCalls += bucketSlowCalls[i];
+            }
+        }
+        if (calls >= minimumCalls && (failures * 100 >= failureRateThreshold * calls || slowCalls * 100 >= slowCallRateThreshold * calls)) {
+            logger.warn("Opening circuit to {} ({} failed and {} slow calls out of {})", name, failures, slowCalls, calls);
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        trialCalls = 0;
+        trialSuccesses = 0;
+        switch (newState) {
+            case OPEN:
+                openedAt = ticker.read();
+                opened.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpened.incrementAndGet();
+                break;
+            case CLOSED:
+                Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+                closed.incrementAndGet();
+                logger.info("Circuit to {} closed", name);
+                break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    Collection<Metric<?>> metrics() {
+        final String prefix = "circuitbreaker." + name;
+        return Arrays.asList(
+                new Metric<>(prefix + ".state", getState().ordinal()),
+                new Metric<>(prefix + ".opened", opened.get()),
+                new Metric<>(prefix + ".half_opened", halfOpened.get()),
+                new Metric<>(prefix + ".closed", closed.get()),
+                new Metric<>(prefix + ".rejected", rejected.sum()),
+                new Metric<>(prefix + ".bulkhead.active", maxConcurrentCalls - bulkhead.availablePermits()),
+                new Metric<>(prefix + ".bulkhead.rejected", bulkheadRejected.sum())
+        );
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import com.google.common.base.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds a {@link CircuitBreaker} per downstream service and wraps the request factories of the service clients with
+ * it.
+ * <p>
+ * Settings are read from {@code io.barracks.<service>.circuit_breaker.*}, falling back to
+ * {@code io.barracks.circuit_breaker.*}. Unless configured, the bulkhead of a service admits as many concurrent calls
+ * as its connection pool has connections per route. A service name can be qualified, as in
+ * {@code packageservice.upload}, to give some of its calls their own circuit breaker. Those calls are then expected to
+ * go through a connection pool of the same name, so that their bulkhead does not admit more calls than connections.
+ */
+@Component
+public class CircuitBreakerRegistry implements PublicMetrics {
+    static final int DEFAULT_WINDOW = 10000;
+    static final int DEFAULT_MINIMUM_CALLS = 20;
+    static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    static final int DEFAULT_SLOW_CALL_DURATION = 5000;
+    static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+    static final int DEFAULT_OPEN_DURATION = 5000;
+    static final int DEFAULT_HALF_OPEN_CALLS = 3;
+    static final int DEFAULT_MAX_WAIT = 250;
+
+    private final Environment environment;
+    private final Ticker ticker;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CircuitBreakerRegistry(Environment environment) {
+        this(environment, Ticker.systemTicker());
+    }
+
+    CircuitBreakerRegistry(Environment environment, Ticker ticker) {
+        this.environment = environment;
+        this.ticker = ticker;
+    }
+
+    public ClientHttpRequestFactory protect(String service, ClientHttpRequestFactory requestFactory) {
+        if (!environment.getProperty("io.barracks.circuit_breaker.enabled", Boolean.class, true)) {
+            return requestFactory;
+        }
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(service);
+        return new ClientHttpRequestFactory() {
+            @Override
+            public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+                return new GuardedClientHttpRequest(requestFactory.createRequest(uri, httpMethod), circuitBreaker);
+            }
+        };
+    }
+
+    public AsyncClientHttpRequestFactory protectAsync(String service, AsyncClientHttpRequestFactory requestFactory) {
+        if (!environment.getProperty("io.barracks.circuit_breaker.enabled", Boolean.class, true)) {
+            return requestFactory;
+        }
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(service);
+        return new AsyncClientHttpRequestFactory() {
+            @Override
+            public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+                return new GuardedAsyncClientHttpRequest(requestFactory.createAsyncRequest(uri, httpMethod), circuitBreaker);
+            }
+        };
+    }
+
+    public CircuitBreaker getCircuitBreaker(String service) {
+        return circuitBreakers.computeIfAbsent(service, name -> new CircuitBreaker(
+                name,
+                ticker,
+                getSetting(name, "window_ms", DEFAULT_WINDOW),
+                getSetting(name, "minimum_calls", DEFAULT_MINIMUM_CALLS),
+                getSetting(name, "failure_rate_threshold", DEFAULT_FAILURE_RATE_THRESHOLD),
+                getSetting(name, "slow_call_duration_ms", DEFAULT_SLOW_CALL_DURATION),
+                getSetting(name, "slow_call_rate_threshold", DEFAULT_SLOW_CALL_RATE_THRESHOLD),
+                getSetting(name, "open_duration_ms", DEFAULT_OPEN_DURATION),
+                getSetting(name, "half_open_calls", DEFAULT_HALF_OPEN_CALLS),
+                getSetting(name, "max_concurrent_calls", getMaxConnectionsPerRoute(name)),
+                getSetting(name, "max_wait_ms", DEFAULT_MAX_WAIT)
+        ));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        circuitBreakers.values().forEach(circuitBreaker -> metrics.addAll(circuitBreaker.metrics()));
+        return metrics;
+    }
+
+    int getMaxConnectionsPerRoute(String service) {
+        final int qualifier = service.lastIndexOf('.');
+        return environment.getProperty(
+                "io.barracks." + service + ".http.max_per_route",
+                Integer.class,
+                qualifier < 0
+                        ? environment.getProperty("io.barracks.http.max_per_route", Integer.class, PooledHttpClientFactory.DEFAULT_MAX_PER_ROUTE)
+                        : getMaxConnectionsPerRoute(service.substring(0, qualifier))
+        );
+    }
+
+    int getSetting(String service, String key, int defaultValue) {
+        return environment.getProperty(
+                "io.barracks." + service + ".circuit_breaker." + key,
+                Integer.class,
+                environment.getProperty("io.barracks.circuit_breaker." + key, Integer.class, defaultValue)
+        );
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Runs a non-blocking request through a {@link CircuitBreaker}, the call being considered over when its response
+ * is closed or when it fails. The request is rejected right away when the bulkhead is full. Cancelling the returned
+ * future aborts the exchange, which releases the call.
+ */
+class GuardedAsyncClientHttpRequest implements AsyncClientHttpRequest {
+    private final AsyncClientHttpRequest request;
+    private final CircuitBreaker circuitBreaker;
+
+    GuardedAsyncClientHttpRequest(AsyncClientHttpRequest request, CircuitBreaker circuitBreaker) {
+        this.request = request;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+        final long startTime = circuitBreaker.tryAcquire();
+        final ListenableFuture<ClientHttpResponse> future;
+        try {
+            future = request.executeAsync();
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.release(startTime, true);
+            throw e;
+        }
+        final SettableListenableFuture<ClientHttpResponse> guarded = new SettableListenableFuture<ClientHttpResponse>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    future.cancel(mayInterruptIfRunning);
+                }
+                return cancelled;
+            }
+        };
+        future.addCallback(
+                response -> {
+                    final boolean failure;
+                    try {
+                        failure = response.getRawStatusCode() >= 500;
+                    } catch (IOException | RuntimeException e) {
+                        circuitBreaker.release(startTime, true);
+                        response.close();
+                        guarded.setException(e);
+                        return;
+                    }
+                    guarded.set(new GuardedClientHttpResponse(response, circuitBreaker, startTime, failure));
+                },
+                e -> {
+                    circuitBreaker.release(startTime, true);
+                    guarded.setException(e);
+                }
+        );
+        return guarded;
+    }
+
+    @Override
+    public OutputStream getBody() throws IOException {
+        return request.getBody();
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+        return request.getMethod();
+    }
+
+    @Override
+    public URI getURI() {
+        return request.getURI();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return request.getHeaders();
+    }
+}
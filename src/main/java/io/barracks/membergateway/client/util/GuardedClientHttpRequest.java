@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Runs a request through a {@link CircuitBreaker}, the call being considered over when its response is closed.
+ * Streaming bodies are handed over as is, so that wrapping a request does not make it buffered.
+ */
+class GuardedClientHttpRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+    private final ClientHttpRequest request;
+    private final CircuitBreaker circuitBreaker;
+
+    GuardedClientHttpRequest(ClientHttpRequest request, CircuitBreaker circuitBreaker) {
+        this.request = request;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public ClientHttpResponse execute() throws IOException {
+        final long startTime = circuitBreaker.acquire();
+        final ClientHttpResponse response;
+        try {
+            response = request.execute();
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.release(startTime, true);
+            throw e;
+        }
+        final boolean failure;
+        try {
+            failure = response.getRawStatusCode() >= 500;
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.release(startTime, true);
+            response.close();
+            throw e;
+        }
+        return new GuardedClientHttpResponse(response, circuitBreaker, startTime, failure);
+    }
+
+    @Override
+    public void setBody(Body body) {
+        if (request instanceof StreamingHttpOutputMessage) {
+            ((StreamingHttpOutputMessage) request).setBody(body);
+        } else {
+            try {
+                body.writeTo(request.getBody());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getBody() throws IOException {
+        return request.getBody();
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+        return request.getMethod();
+    }
+
+    @Override
+    public URI getURI() {
+        return request.getURI();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return request.getHeaders();
+    }
+}
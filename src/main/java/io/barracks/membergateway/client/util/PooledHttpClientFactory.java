@@ -0,0 +1,252 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.client.util;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the request factories used by the service clients, each downstream service getting its own pool
+ * of keep-alive connections.
+ * <p>
+ * The non-blocking request factories share the same settings, their connections being served by
+ * {@code io_threads} I/O reactor threads per service. When {@code non_blocking} is turned off for a service, its
+ * asynchronous calls are made with the blocking request factory on a shared pool of
+ * {@code io.barracks.http.blocking_pool_size} "http-blocking-N" threads instead.
+ * <p>
+ * Settings are read from {@code io.barracks.<service>.http.*}, falling back to {@code io.barracks.http.*}. A service
+ * name can be qualified, as in {@code packageservice.upload}, to give some of its calls their own pool, whose settings
+ * fall back to those of the unqualified service.
+ */
+@Component
+public class PooledHttpClientFactory implements PublicMetrics, DisposableBean {
+    static final int DEFAULT_MAX_TOTAL = 200;
+    static final int DEFAULT_MAX_PER_ROUTE = 50;
+    static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 1000;
+    static final int DEFAULT_READ_TIMEOUT = 30000;
+    static final int DEFAULT_IDLE_TIMEOUT = 30000;
+    static final int DEFAULT_KEEP_ALIVE = 60000;
+    static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+    static final int DEFAULT_IO_THREADS = 2;
+    static final int DEFAULT_BLOCKING_POOL_SIZE = 32;
+    static final int BLOCKING_QUEUE_CAPACITY = 256;
+    static final String BLOCKING_THREAD_NAME_PREFIX = "http-blocking-";
+
+    private final Environment environment;
+    private final Map<String, PoolingHttpClientConnectionManager> pools = new ConcurrentHashMap<>();
+    private final List<CloseableHttpClient> httpClients = new ArrayList<>();
+    private final Map<String, PoolingNHttpClientConnectionManager> asyncPools = new ConcurrentHashMap<>();
+    private final List<CloseableHttpAsyncClient> httpAsyncClients = new ArrayList<>();
+    private ThreadPoolExecutor blockingExecutor;
+
+    @Autowired
+    public PooledHttpClientFactory(Environment environment) {
+        this.environment = environment;
+    }
+
+    public synchronized HttpComponentsClientHttpRequestFactory createRequestFactory(String service) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(getSetting(service, "max_total", DEFAULT_MAX_TOTAL));
+        connectionManager.setDefaultMaxPerRoute(getSetting(service, "max_per_route", DEFAULT_MAX_PER_ROUTE));
+        connectionManager.setValidateAfterInactivity(getSetting(service, "validate_after_inactivity_ms", DEFAULT_VALIDATE_AFTER_INACTIVITY));
+
+        final CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(getKeepAliveStrategy(service))
+                .evictExpiredConnections()
+                .evictIdleConnections((long) getSetting(service, "idle_timeout_ms", DEFAULT_IDLE_TIMEOUT), TimeUnit.MILLISECONDS)
+                .setDefaultRequestConfig(getRequestConfig(service))
+                .build();
+        pools.put(service, connectionManager);
+        httpClients.add(httpClient);
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    public synchronized AsyncClientHttpRequestFactory createAsyncRequestFactory(String service) {
+        final PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                    .setIoThreadCount(getSetting(service, "io_threads", DEFAULT_IO_THREADS))
+                    .setConnectTimeout(getSetting(service, "connect_timeout_ms", DEFAULT_CONNECT_TIMEOUT))
+                    .setSoTimeout(getSetting(service, "read_timeout_ms", DEFAULT_READ_TIMEOUT))
+                    .build()));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to start the I/O reactor of " + service, e);
+        }
+        connectionManager.setMaxTotal(getSetting(service, "max_total", DEFAULT_MAX_TOTAL));
+        connectionManager.setDefaultMaxPerRoute(getSetting(service, "max_per_route", DEFAULT_MAX_PER_ROUTE));
+
+        final CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(getKeepAliveStrategy(service))
+                .setDefaultRequestConfig(getRequestConfig(service))
+                .build();
+        asyncPools.put(service, connectionManager);
+        httpAsyncClients.add(httpAsyncClient);
+        return new HttpComponentsAsyncClientHttpRequestFactory(httpAsyncClient);
+    }
+
+    public boolean isNonBlocking(String service) {
+        return environment.getProperty(
+                "io.barracks." + service + ".http.non_blocking",
+                Boolean.class,
+                environment.getProperty("io.barracks.http.non_blocking", Boolean.class, false)
+        );
+    }
+
+    /**
+     * @return the pool running the asynchronous calls of the services for which {@code non_blocking} is turned off
+     */
+    public synchronized Executor getBlockingExecutor() {
+        if (blockingExecutor == null) {
+            final int poolSize = environment.getProperty("io.barracks.http.blocking_pool_size", Integer.class, DEFAULT_BLOCKING_POOL_SIZE);
+            final AtomicInteger threadCount = new AtomicInteger();
+            blockingExecutor = new ThreadPoolExecutor(
+                    poolSize,
+                    poolSize,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(BLOCKING_QUEUE_CAPACITY),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, BLOCKING_THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, pool) -> {
+                        if (pool.isShutdown()) {
+                            throw new RejectedExecutionException("The blocking HTTP pool is shut down");
+                        }
+                        runnable.run();
+                    }
+            );
+            blockingExecutor.allowCoreThreadTimeOut(true);
+        }
+        return blockingExecutor;
+    }
+
+    private ConnectionKeepAliveStrategy getKeepAliveStrategy(String service) {
+        final long keepAlive = getSetting(service, "keep_alive_ms", DEFAULT_KEEP_ALIVE);
+        return (response, context) -> {
+            final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        };
+    }
+
+    private RequestConfig getRequestConfig(String service) {
+        return RequestConfig.custom()
+                .setConnectTimeout(getSetting(service, "connect_timeout_ms", DEFAULT_CONNECT_TIMEOUT))
+                .setConnectionRequestTimeout(getSetting(service, "connection_request_timeout_ms", DEFAULT_CONNECTION_REQUEST_TIMEOUT))
+                .setSocketTimeout(getSetting(service, "read_timeout_ms", DEFAULT_READ_TIMEOUT))
+                .build();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        pools.forEach((service, connectionManager) -> {
+            final PoolStats stats = connectionManager.getTotalStats();
+            metrics.add(new Metric<>("httpclient." + service + ".leased", stats.getLeased()));
+            metrics.add(new Metric<>("httpclient." + service + ".available", stats.getAvailable()));
+            metrics.add(new Metric<>("httpclient." + service + ".pending", stats.getPending()));
+            metrics.add(new Metric<>("httpclient." + service + ".max", stats.getMax()));
+            metrics.add(new Metric<>("httpclient." + service + ".usage", stats.getMax() == 0 ? 0D : (double) stats.getLeased() / stats.getMax()));
+        });
+        asyncPools.forEach((service, connectionManager) -> {
+            final PoolStats stats = connectionManager.getTotalStats();
+            metrics.add(new Metric<>("httpclient." + service + ".nio.leased", stats.getLeased()));
+            metrics.add(new Metric<>("httpclient." + service + ".nio.available", stats.getAvailable()));
+            metrics.add(new Metric<>("httpclient." + service + ".nio.pending", stats.getPending()));
+            metrics.add(new Metric<>("httpclient." + service + ".nio.max", stats.getMax()));
+        });
+        if (blockingExecutor != null) {
+            metrics.add(new Metric<>("httpclient.blocking.active", blockingExecutor.getActiveCount()));
+            metrics.add(new Metric<>("httpclient.blocking.queue.size", blockingExecutor.getQueue().size()));
+        }
+        return metrics;
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        for (CloseableHttpClient httpClient : httpClients) {
+            httpClient.close();
+        }
+        httpClients.clear();
+        pools.clear();
+        for (CloseableHttpAsyncClient httpAsyncClient : httpAsyncClients) {
+            httpAsyncClient.close();
+        }
+        httpAsyncClients.clear();
+        asyncPools.clear();
+        if (blockingExecutor != null) {
+            blockingExecutor.shutdownNow();
+            blockingExecutor = null;
+        }
+    }
+
+    int getSetting(String service, String key, int defaultValue) {
+        final int qualifier = service.lastIndexOf('.');
+        return environment.getProperty(
+                "io.barracks." + service + ".http." + key,
+                Integer.class,
+                qualifier < 0
+                        ? environment.getProperty("io.barracks.http." + key, Integer.class, defaultValue)
+                        : getSetting(service.substring(0, qualifier), key, defaultValue)
+        );
+    }
+}
@@ -27,6 +27,7 @@ package io.barracks.membergateway.config;
 import cz.jirutka.spring.exhandler.RestHandlerExceptionResolverBuilder;
 import io.barracks.commons.configuration.ExceptionHandlingConfiguration;
 import io.barracks.membergateway.exception.BarracksQueryFormatException;
+import io.barracks.membergateway.exception.FanOutTimeoutException;
 import io.barracks.membergateway.exception.InvalidOwnerException;
 import io.barracks.membergateway.exception.UnknownUpdateStatusException;
 import org.springframework.context.annotation.Configuration;
@@ -40,7 +41,8 @@ public class ExceptionConfig extends ExceptionHandlingConfiguration {
         return super.restExceptionResolver()
                 .addErrorMessageHandler(InvalidOwnerException.class, HttpStatus.FORBIDDEN)
                 .addErrorMessageHandler(UnknownUpdateStatusException.class, HttpStatus.BAD_REQUEST)
-                .addErrorMessageHandler(BarracksQueryFormatException.class, HttpStatus.BAD_REQUEST);
+                .addErrorMessageHandler(BarracksQueryFormatException.class, HttpStatus.BAD_REQUEST)
+                .addErrorMessageHandler(FanOutTimeoutException.class, HttpStatus.GATEWAY_TIMEOUT);
     }
 
     @Override
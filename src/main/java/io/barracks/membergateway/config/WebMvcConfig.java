@@ -24,14 +24,78 @@
 
 package io.barracks.membergateway.config;
 
+import io.barracks.membergateway.monitoring.RequestTraceInterceptor;
+import io.barracks.membergateway.rest.util.CompressionFilter;
+import io.barracks.membergateway.rest.util.ConditionalGetFilter;
+import io.barracks.membergateway.rest.util.ResponseCompressor;
+import io.barracks.membergateway.rest.util.StreamingMultipartFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+
 @Configuration
 public class WebMvcConfig extends WebMvcConfigurerAdapter {
+    static final String PACKAGE_UPLOAD_PATH = "/packages";
+    static final String[] CONDITIONAL_GET_PATHS = {"/segments", "/stats", "/updates", "/devices"};
+
     @Override
     public void configurePathMatch(PathMatchConfigurer configurer) {
         configurer.setUseSuffixPatternMatch(false);
     }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestTraceInterceptor());
+    }
+
+    @Bean
+    public MultipartResolver multipartResolver() {
+        return new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                return !StreamingMultipartFilter.isStreaming(request) && super.isMultipart(request);
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "io.barracks.packageservice.upload.streaming", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean streamingMultipartFilter() {
+        final FilterRegistrationBean registration = new FilterRegistrationBean(new StreamingMultipartFilter(PACKAGE_UPLOAD_PATH));
+        registration.addUrlPatterns(PACKAGE_UPLOAD_PATH);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "io.barracks.conditional_get.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean conditionalGetFilter() {
+        final FilterRegistrationBean registration = new FilterRegistrationBean(new ConditionalGetFilter());
+        for (String path : CONDITIONAL_GET_PATHS) {
+            registration.addUrlPatterns(path + "/*");
+        }
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        return registration;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "io.barracks.compression.enabled", havingValue = "true", matchIfMissing = true)
+    public FilterRegistrationBean compressionFilter(ResponseCompressor responseCompressor) {
+        final FilterRegistrationBean registration = new FilterRegistrationBean(new CompressionFilter(responseCompressor));
+        registration.addUrlPatterns("/*");
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE);
+        return registration;
+    }
 }
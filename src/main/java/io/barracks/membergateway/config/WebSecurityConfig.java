@@ -26,19 +26,37 @@ package io.barracks.membergateway.config;
 
 import io.barracks.membergateway.security.TokenAuthenticationFilter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
+import org.springframework.security.web.header.writers.DelegatingRequestMatcherHeaderWriter;
+import org.springframework.security.web.header.writers.StaticHeadersWriter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.NegatedRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
 @Configuration
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     private final TokenAuthenticationFilter tokenAuthenticationFilter;
+    private final boolean conditionalGet;
 
     @Autowired
-    public WebSecurityConfig(TokenAuthenticationFilter tokenAuthenticationFilter) {
+    public WebSecurityConfig(
+            TokenAuthenticationFilter tokenAuthenticationFilter,
+            @Value("${io.barracks.conditional_get.enabled:true}") boolean conditionalGet
+    ) {
         this.tokenAuthenticationFilter = tokenAuthenticationFilter;
+        this.conditionalGet = conditionalGet;
     }
 
     @Override
@@ -54,5 +72,22 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                         tokenAuthenticationFilter,
                         UsernamePasswordAuthenticationFilter.class
                 );
+        if (conditionalGet) {
+            // The tagged responses may be kept by the client as long as it checks them again, "no-store" would also
+            // prevent the ConditionalGetFilter from tagging them
+            final RequestMatcher conditionalGetRequests = new OrRequestMatcher(Arrays.stream(WebMvcConfig.CONDITIONAL_GET_PATHS)
+                    .map(path -> new AntPathRequestMatcher(path + "/**", HttpMethod.GET.name()))
+                    .collect(Collectors.toList()));
+            http.headers()
+                    .cacheControl().disable()
+                    .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(
+                            conditionalGetRequests,
+                            new StaticHeadersWriter(HttpHeaders.CACHE_CONTROL, "private, no-cache")
+                    ))
+                    .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(
+                            new NegatedRequestMatcher(conditionalGetRequests),
+                            new CacheControlHeadersWriter()
+                    ));
+        }
     }
 }
@@ -35,6 +35,7 @@ import org.springframework.hateoas.PagedResources;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class DeviceManager {
@@ -51,8 +52,17 @@ public class DeviceManager {
         return new PageImpl<>(new ArrayList<>(devices.getContent()), pageable, devices.getMetadata().getTotalElements());
     }
 
+    public CompletableFuture<Page<Device>> getDevicesAsync(String userId, Pageable pageable, BarracksQuery query) {
+        return deviceServiceClient.getDevicesAsync(userId, pageable, query)
+                .thenApply(devices -> new PageImpl<>(new ArrayList<>(devices.getContent()), pageable, devices.getMetadata().getTotalElements()));
+    }
+
     public Device getDeviceByUserIdAndUnitId(String userId, String unitId) {
         return deviceServiceClient.getDeviceByUserIdAndUnitId(userId, unitId);
     }
 
+    public CompletableFuture<Device> getDeviceByUserIdAndUnitIdAsync(String userId, String unitId) {
+        return deviceServiceClient.getDeviceByUserIdAndUnitIdAsync(userId, unitId);
+    }
+
 }
@@ -27,12 +27,19 @@ package io.barracks.membergateway.manager;
 import io.barracks.membergateway.client.PackageServiceClient;
 import io.barracks.membergateway.client.exception.PackageManagerException;
 import io.barracks.membergateway.client.exception.PackageServiceClientException;
+import io.barracks.membergateway.manager.util.DigestingInputStream;
+import io.barracks.membergateway.manager.util.PackageDigester;
+import io.barracks.membergateway.manager.util.PackageInfoCache;
 import io.barracks.membergateway.model.PackageInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 
 import java.io.File;
 import java.io.InputStream;
@@ -41,19 +48,47 @@ import java.util.Optional;
 @Service
 public class PackageManager {
 
+    private static final Logger logger = LoggerFactory.getLogger(PackageManager.class);
+
     private final PackageServiceClient packageServiceClient;
+    private final PackageInfoCache packageInfoCache;
+    private final PackageDigester packageDigester;
 
     @Autowired
-    public PackageManager(PackageServiceClient packageServiceClient) {
+    public PackageManager(PackageServiceClient packageServiceClient, PackageInfoCache packageInfoCache, PackageDigester packageDigester) {
         this.packageServiceClient = packageServiceClient;
+        this.packageInfoCache = packageInfoCache;
+        this.packageDigester = packageDigester;
     }
 
-    public PackageInfo upload(String fileName, String contentType, InputStream inputStream, long size, String versionId, String userId) {
-        return packageServiceClient.uploadPackage(fileName, contentType, inputStream, size, versionId, userId);
+    /**
+     * Uploads a package, verifying it against the size and MD5 declared by the client (-1 and null when unknown) as
+     * it streams through, then against the MD5 computed by the package service.
+     */
+    public PackageInfo upload(String fileName, String contentType, InputStream inputStream, long size, String versionId, String userId, String md5) {
+        final DigestingInputStream digestingInputStream = packageDigester.digest(inputStream, size, md5);
+        final PackageInfo packageInfo;
+        try {
+            packageInfo = packageServiceClient.uploadPackage(fileName, contentType, digestingInputStream, size, versionId, userId);
+        } catch (ResourceAccessException e) {
+            if (e.getCause() instanceof DigestingInputStream.PackageVerificationException) {
+                throw new PackageManagerException(new HttpClientErrorException(HttpStatus.BAD_REQUEST, e.getCause().getMessage()));
+            }
+            throw e;
+        }
+        if (digestingInputStream.isComplete() && packageInfo.getMd5() != null && !packageInfo.getMd5().equalsIgnoreCase(digestingInputStream.getMd5())) {
+            throw new PackageManagerException(new HttpServerErrorException(
+                    HttpStatus.BAD_GATEWAY,
+                    "Package service MD5 " + packageInfo.getMd5() + " differs from the uploaded " + digestingInputStream.getMd5()
+            ));
+        }
+        logger.debug("Package '{}' uploaded ({} bytes, md5={}, sha256={})", packageInfo.getId(), digestingInputStream.getCount(), digestingInputStream.getMd5(), digestingInputStream.getSha256());
+        packageInfoCache.put(packageInfo);
+        return packageInfo;
     }
 
     public PackageInfo getPackageInfoByUuidAndUserId(String uuid, String userId) {
-        final PackageInfo packageInfo = packageServiceClient.getPackageInfo(uuid);
+        final PackageInfo packageInfo = packageInfoCache.getPackageInfo(uuid);
         if (userId.equals(packageInfo.getUserId())) {
             return packageInfo;
         } else {
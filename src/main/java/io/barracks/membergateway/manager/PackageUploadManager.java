@@ -0,0 +1,452 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import io.barracks.membergateway.client.exception.PackageManagerException;
+import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.rest.entity.PackageUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Assembles packages uploaded in chunks, so that a client on a flaky link only has to resend the ranges that did not
+ * make it instead of the whole file.
+ * <p>
+ * An upload is initiated with the size of the package, which is preallocated in {@code staging_dir}. Chunks are then
+ * written at their offset in any order, possibly concurrently, and the bytes of an interrupted chunk that reached the
+ * disk are kept. Once every byte has been received, completing the upload streams the staged file to the package
+ * service through {@link PackageManager}. Uploads untouched for {@code session_ttl_ms} are discarded with their file.
+ * <p>
+ * Since preallocated files are sparse, the declared size of an upload is reserved when it is initiated, until it is
+ * completed, aborted or discarded. A user can hold at most {@code max_sessions_per_user} uploads and
+ * {@code max_staged_bytes_per_user} bytes, and all uploads together at most {@code max_staged_bytes} bytes, without
+ * exceeding the space left in {@code staging_dir}.
+ * <p>
+ * Uploads are only known to the instance which initiated them. The last modification time of a staged file follows
+ * the last access to its upload, so that the files left behind by an instance are recognized on startup as the ones
+ * untouched for {@code session_ttl_ms}. Only those are deleted, which leaves alone the uploads in progress on other
+ * instances sharing {@code staging_dir}.
+ */
+@Service
+public class PackageUploadManager implements PublicMetrics, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(PackageUploadManager.class);
+    static final String STAGING_FILE_SUFFIX = ".upload";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PackageManager packageManager;
+    private final Path stagingDirectory;
+    private final long maxFileSize;
+    private final int maxSessionsPerUser;
+    private final long maxStagedBytesPerUser;
+    private final long maxStagedBytes;
+    private final Cache<String, UploadSession> sessions;
+    private final Map<String, Reservation> reservations = new HashMap<>();
+    private long reservedBytes;
+
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public PackageUploadManager(
+            PackageManager packageManager,
+            @Value("${io.barracks.packageservice.upload.staging_dir:${java.io.tmpdir}/member-gateway-uploads}") String stagingDirectory,
+            @Value("${io.barracks.packageservice.upload.session_ttl_ms:86400000}") long sessionTtl,
+            @Value("${io.barracks.packageservice.upload.max_file_size_bytes:2147483648}") long maxFileSize,
+            @Value("${io.barracks.packageservice.upload.max_sessions_per_user:4}") int maxSessionsPerUser,
+            @Value("${io.barracks.packageservice.upload.max_staged_bytes_per_user:4294967296}") long maxStagedBytesPerUser,
+            @Value("${io.barracks.packageservice.upload.max_staged_bytes:17179869184}") long maxStagedBytes
+    ) throws IOException {
+        this(
+                packageManager, Paths.get(stagingDirectory), sessionTtl, maxFileSize,
+                maxSessionsPerUser, maxStagedBytesPerUser, maxStagedBytes, Ticker.systemTicker()
+        );
+    }
+
+    PackageUploadManager(
+            PackageManager packageManager, Path stagingDirectory, long sessionTtl, long maxFileSize,
+            int maxSessionsPerUser, long maxStagedBytesPerUser, long maxStagedBytes, Ticker ticker
+    ) throws IOException {
+        this.packageManager = packageManager;
+        this.stagingDirectory = Files.createDirectories(stagingDirectory);
+        this.maxFileSize = maxFileSize;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxStagedBytesPerUser = maxStagedBytesPerUser;
+        this.maxStagedBytes = maxStagedBytes;
+        this.sessions = CacheBuilder.newBuilder()
+                .expireAfterAccess(sessionTtl, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .removalListener(this::onRemoval)
+                .build();
+        deleteStaleFiles(sessionTtl);
+    }
+
+    public PackageUpload initiate(String fileName, String contentType, long size, String versionId, String userId, String md5) throws IOException {
+        if (size <= 0 || size > maxFileSize) {
+            throw new PackageManagerException(new HttpClientErrorException(
+                    size > maxFileSize ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.BAD_REQUEST,
+                    "Package size must be between 1 and " + maxFileSize + " bytes"
+            ));
+        }
+        sessions.cleanUp();
+        reserve(userId, size);
+        final String id = UUID.randomUUID().toString();
+        final Path file = stagingDirectory.resolve(id + STAGING_FILE_SUFFIX);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.setLength(size);
+        } catch (IOException | RuntimeException e) {
+            release(userId, size);
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        final UploadSession session = new UploadSession(id, userId, fileName, contentType, versionId, md5, size, file);
+        sessions.put(id, session);
+        logger.debug("Upload '{}' of {} bytes initiated for user '{}'", id, size, userId);
+        return session.toPackageUpload();
+    }
+
+    /**
+     * Writes the content of {@code inputStream} at {@code offset} of the staged file. The bytes written before a
+     * failure, such as a dropped connection, are kept as received.
+     */
+    public PackageUpload append(String uploadId, long offset, InputStream inputStream, String userId) throws IOException {
+        final UploadSession session = getSession(uploadId, userId);
+        if (offset < 0 || offset >= session.size) {
+            throw new PackageManagerException(new HttpClientErrorException(
+                    HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "Offset must be between 0 and " + (session.size - 1)
+            ));
+        }
+        session.startWrite();
+        long position = offset;
+        try (FileChannel channel = FileChannel.open(session.file, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (true) {
+                final int length = (int) Math.min(buffer.capacity(), session.size - position);
+                if (length == 0) {
+                    if (inputStream.read() != -1) {
+                        throw new PackageManagerException(new HttpClientErrorException(
+                                HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+                                "Chunk goes beyond the package size of " + session.size + " bytes"
+                        ));
+                    }
+                    break;
+                }
+                final int read = inputStream.read(buffer.array(), 0, length);
+                if (read == -1) {
+                    break;
+                }
+                buffer.position(0);
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        } finally {
+            session.endWrite(offset, position);
+            chunks.increment();
+            bytes.add(position - offset);
+        }
+        return session.toPackageUpload();
+    }
+
+    public PackageUpload getUpload(String uploadId, String userId) {
+        return getSession(uploadId, userId).toPackageUpload();
+    }
+
+    /**
+     * Streams the staged file to the package service. The upload is kept if this fails, so that completing it can be
+     * retried without sending the package again.
+     */
+    public PackageInfo complete(String uploadId, String userId) throws IOException {
+        final UploadSession session = getSession(uploadId, userId);
+        session.startCompletion();
+        final PackageInfo packageInfo;
+        try (InputStream inputStream = Files.newInputStream(session.file)) {
+            packageInfo = packageManager.upload(
+                    session.fileName, session.contentType, inputStream, session.size, session.versionId, userId, session.md5
+            );
+        } catch (IOException | RuntimeException e) {
+            session.abortCompletion();
+            if (sessions.getIfPresent(uploadId) != session) {
+                session.deleteFile();
+            }
+            throw e;
+        }
+        sessions.asMap().remove(uploadId, session);
+        session.deleteFile();
+        completed.increment();
+        logger.debug("Upload '{}' completed as package '{}'", uploadId, packageInfo.getId());
+        return packageInfo;
+    }
+
+    public void abort(String uploadId, String userId) {
+        final UploadSession session = getSession(uploadId, userId);
+        sessions.asMap().remove(uploadId, session);
+    }
+
+    private synchronized void reserve(String userId, long size) throws IOException {
+        final Reservation reservation = reservations.getOrDefault(userId, new Reservation());
+        if (reservation.sessions >= maxSessionsPerUser || reservation.bytes + size > maxStagedBytesPerUser) {
+            rejected.increment();
+            throw new PackageManagerException(new HttpClientErrorException(
+                    HttpStatus.TOO_MANY_REQUESTS,
+                    "At most " + maxSessionsPerUser + " uploads and " + maxStagedBytesPerUser + " bytes can be staged per user"
+            ));
+        }
+        // The bytes already written to the staged files are no longer part of the usable space
+        long unwrittenBytes = 0;
+        for (UploadSession session : sessions.asMap().values()) {
+            unwrittenBytes += session.getMissingBytes();
+        }
+        if (reservedBytes + size > maxStagedBytes || Files.getFileStore(stagingDirectory).getUsableSpace() - unwrittenBytes < size) {
+            rejected.increment();
+            throw new PackageManagerException(new HttpServerErrorException(HttpStatus.INSUFFICIENT_STORAGE, "Not enough space to stage the package"));
+        }
+        reservation.sessions++;
+        reservation.bytes += size;
+        reservations.put(userId, reservation);
+        reservedBytes += size;
+    }
+
+    private synchronized void release(String userId, long size) {
+        final Reservation reservation = reservations.get(userId);
+        if (reservation != null) {
+            reservation.sessions--;
+            reservation.bytes -= size;
+            if (reservation.sessions == 0) {
+                reservations.remove(userId);
+            }
+        }
+        reservedBytes -= size;
+    }
+
+    synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    private UploadSession getSession(String uploadId, String userId) {
+        final UploadSession session = sessions.getIfPresent(uploadId);
+        if (session == null) {
+            sessions.cleanUp();
+        }
+        if (session == null || !session.userId.equals(userId)) {
+            throw new PackageManagerException(new HttpClientErrorException(HttpStatus.NOT_FOUND, "Unknown upload " + uploadId));
+        }
+        session.touchFile();
+        return session;
+    }
+
+    private void onRemoval(RemovalNotification<String, UploadSession> notification) {
+        final UploadSession session = notification.getValue();
+        release(session.userId, session.size);
+        if (notification.wasEvicted()) {
+            expired.increment();
+            if (session.isCompleting()) {
+                return;
+            }
+        }
+        session.deleteFile();
+    }
+
+    private void deleteStaleFiles(long sessionTtl) throws IOException {
+        final long staleBefore = System.currentTimeMillis() - sessionTtl;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingDirectory, "*" + STAGING_FILE_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < staleBefore) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Deleted meanwhile by the instance which staged it
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sessions.invalidateAll();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("upload.chunked.sessions", sessions.size()),
+                new Metric<>("upload.chunked.chunks", chunks.sum()),
+                new Metric<>("upload.chunked.bytes", bytes.sum()),
+                new Metric<>("upload.chunked.completed", completed.sum()),
+                new Metric<>("upload.chunked.expired", expired.sum()),
+                new Metric<>("upload.chunked.rejected", rejected.sum()),
+                new Metric<>("upload.chunked.reserved_bytes", getReservedBytes())
+        );
+    }
+
+    private static final class Reservation {
+        private int sessions;
+        private long bytes;
+    }
+
+    private static final class UploadSession {
+        private final String id;
+        private final String userId;
+        private final String fileName;
+        private final String contentType;
+        private final String versionId;
+        private final String md5;
+        private final long size;
+        private final Path file;
+        private final RangeSet<Long> received = TreeRangeSet.create();
+        private int pendingWrites;
+        private boolean completing;
+
+        private UploadSession(String id, String userId, String fileName, String contentType, String versionId, String md5, long size, Path file) {
+            this.id = id;
+            this.userId = userId;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.versionId = versionId;
+            this.md5 = md5;
+            this.size = size;
+            this.file = file;
+        }
+
+        private synchronized void startWrite() {
+            if (completing) {
+                throw new PackageManagerException(new HttpClientErrorException(HttpStatus.CONFLICT, "Upload " + id + " is being completed"));
+            }
+            pendingWrites++;
+        }
+
+        private synchronized void endWrite(long start, long end) {
+            pendingWrites--;
+            if (end > start) {
+                received.add(Range.closedOpen(start, end));
+            }
+        }
+
+        private synchronized void startCompletion() {
+            if (completing || pendingWrites > 0) {
+                throw new PackageManagerException(new HttpClientErrorException(HttpStatus.CONFLICT, "Upload " + id + " is being written"));
+            }
+            final RangeSet<Long> missing = getMissing();
+            if (!missing.isEmpty()) {
+                throw new PackageManagerException(new HttpClientErrorException(HttpStatus.CONFLICT, "Upload " + id + " is missing " + missing));
+            }
+            completing = true;
+        }
+
+        private synchronized void abortCompletion() {
+            completing = false;
+        }
+
+        private synchronized boolean isCompleting() {
+            return completing;
+        }
+
+        private RangeSet<Long> getMissing() {
+            return received.complement().subRangeSet(Range.closedOpen(0L, size));
+        }
+
+        private synchronized long getMissingBytes() {
+            long missingBytes = 0;
+            for (Range<Long> range : getMissing().asRanges()) {
+                missingBytes += range.upperEndpoint() - range.lowerEndpoint();
+            }
+            return missingBytes;
+        }
+
+        private void touchFile() {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile by the completion or the removal of the upload
+            } catch (IOException e) {
+                logger.warn("Failed to touch staged upload '{}'", file, e);
+            }
+        }
+
+        private void deleteFile() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Failed to delete staged upload '{}'", file, e);
+            }
+        }
+
+        private synchronized PackageUpload toPackageUpload() {
+            final PackageUpload.PackageUploadBuilder builder = PackageUpload.builder()
+                    .id(id)
+                    .fileName(fileName)
+                    .contentType(contentType)
+                    .versionId(versionId)
+                    .md5(md5)
+                    .size(size);
+            long missingBytes = 0;
+            for (Range<Long> range : getMissing().asRanges()) {
+                builder.addMissing(new PackageUpload.ByteRange(range.lowerEndpoint(), range.upperEndpoint()));
+                missingBytes += range.upperEndpoint() - range.lowerEndpoint();
+            }
+            return builder.received(size - missingBytes).build();
+        }
+    }
+}
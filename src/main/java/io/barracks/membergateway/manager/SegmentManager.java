@@ -24,38 +24,77 @@
 
 package io.barracks.membergateway.manager;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.barracks.membergateway.client.DeviceServiceClient;
+import io.barracks.membergateway.client.exception.DeviceServiceClientException;
 import io.barracks.membergateway.exception.InvalidOwnerException;
 import io.barracks.membergateway.manager.entity.SegmentStatus;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.LastKnownGoodCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.Device;
 import io.barracks.membergateway.model.Segment;
 import io.barracks.membergateway.rest.entity.SegmentsOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.hateoas.PagedResources;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpStatusCodeException;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class SegmentManager {
 
     public static final String OTHER_SEGMENT_KEYWORD = "other";
+    static final String ORDERED_SEGMENTS = "segments.order";
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentManager.class);
 
     private final DeviceServiceClient deviceServiceClient;
+    private final FanOutExecutor fanOutExecutor;
+    private final LastKnownGoodCache lastKnownGoodCache;
+    private final StatsSnapshotStore statsSnapshotStore;
+    private final AtomicBoolean batchCountSupported = new AtomicBoolean(true);
+    private final Cache<String, Set<String>> activeSegmentIds;
 
     @Autowired
-    public SegmentManager(DeviceServiceClient deviceServiceClient) {
+    public SegmentManager(
+            DeviceServiceClient deviceServiceClient,
+            FanOutExecutor fanOutExecutor,
+            LastKnownGoodCache lastKnownGoodCache,
+            StatsSnapshotStore statsSnapshotStore,
+            @Value("${io.barracks.deviceservice.active_segments_cache.ttl_ms:5000}") long activeSegmentsTtl
+    ) {
         this.deviceServiceClient = deviceServiceClient;
+        this.fanOutExecutor = fanOutExecutor;
+        this.lastKnownGoodCache = lastKnownGoodCache;
+        this.statsSnapshotStore = statsSnapshotStore;
+        this.activeSegmentIds = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(activeSegmentsTtl, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     public Segment createSegment(String userId, Segment segment) {
@@ -65,6 +104,7 @@ public class SegmentManager {
                 .query(segment.getQuery())
                 .build();
         Segment result = deviceServiceClient.createSegment(toCreate);
+        invalidate(userId);
         return enhanceSegment(result);
     }
 
@@ -76,6 +116,7 @@ public class SegmentManager {
                 .query(segment.getQuery())
                 .build();
         final Segment result = deviceServiceClient.updateSegment(segmentId, update);
+        invalidate(userId);
         return enhanceSegment(result);
     }
 
@@ -88,12 +129,28 @@ public class SegmentManager {
         }
     }
 
+    public CompletableFuture<Segment> getSegmentForUserAsync(String userId, String segmentId) {
+        if (OTHER_SEGMENT_KEYWORD.equals(segmentId)) {
+            return getOtherSegmentAsync(userId);
+        } else {
+            return getSegmentAndCheckOwnershipAsync(userId, segmentId).thenCompose(this::enhanceSegmentAsync);
+        }
+    }
+
     public Page<Segment> getSegmentsForUser(String userId, Pageable pageable) {
         PagedResources<Segment> pagedResources = deviceServiceClient.getSegments(userId, pageable);
         List<Segment> enhancedSegments = enhanceSegments(pagedResources.getContent());
         return new PageImpl<>(enhancedSegments, pageable, pagedResources.getMetadata().getTotalElements());
     }
 
+    public CompletableFuture<Page<Segment>> getSegmentsForUserAsync(String userId, Pageable pageable) {
+        return deviceServiceClient.getSegmentsAsync(userId, pageable).thenCompose(pagedResources ->
+                enhanceSegmentsAsync(pagedResources.getContent()).thenApply(enhancedSegments ->
+                        new PageImpl<>(enhancedSegments, pageable, pagedResources.getMetadata().getTotalElements())
+                )
+        );
+    }
+
     public Page<Device> getDevicesBySegment(String userId, String segmentId, Pageable pageable) {
         PagedResources<Device> devicePagedResources;
         if (!OTHER_SEGMENT_KEYWORD.equals(segmentId)) {
@@ -107,16 +164,48 @@ public class SegmentManager {
         );
     }
 
+    public CompletableFuture<Page<Device>> getDevicesBySegmentAsync(String userId, String segmentId, Pageable pageable) {
+        final CompletableFuture<?> ownershipCheck = OTHER_SEGMENT_KEYWORD.equals(segmentId)
+                ? CompletableFuture.completedFuture(null)
+                : getSegmentAndCheckOwnershipAsync(userId, segmentId);
+        return ownershipCheck
+                .thenCompose(ignored -> deviceServiceClient.getDevicesBySegmentAsync(userId, segmentId, pageable))
+                .thenApply(devicePagedResources -> new PageImpl<>(
+                        Lists.newArrayList(devicePagedResources.getContent()),
+                        pageable,
+                        devicePagedResources.getMetadata().getTotalElements()
+                ));
+    }
+
     public SegmentsOrder getOrderedSegments(String userId) {
+        return lastKnownGoodCache.get(ORDERED_SEGMENTS, userId, () -> loadOrderedSegments(userId));
+    }
+
+    public CompletableFuture<SegmentsOrder> getOrderedSegmentsAsync(String userId) {
+        return lastKnownGoodCache.getAsync(ORDERED_SEGMENTS, userId, () -> loadOrderedSegments(userId));
+    }
+
+    SegmentsOrder loadOrderedSegments(String userId) {
+        final CompletableFuture<List<Segment>> activeFuture = deviceServiceClient.getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        final CompletableFuture<List<Segment>> inactiveFuture = deviceServiceClient.getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        final List<List<Segment>> segments = fanOutExecutor.joinAll(Arrays.asList(activeFuture, inactiveFuture));
+        final List<Segment> active = segments.get(0);
+        final List<Segment> inactive = segments.get(1);
+        final List<String> segmentIds = Stream.concat(active.stream(), inactive.stream())
+                .map(Segment::getId)
+                .collect(Collectors.toCollection(ArrayList::new));
+        segmentIds.add(OTHER_SEGMENT_KEYWORD);
+        activeSegmentIds.put(userId, ImmutableSet.copyOf(Lists.transform(active, Segment::getId)));
+        final Map<String, Long> deviceCounts = getDeviceCounts(userId, segmentIds);
         return SegmentsOrder.builder()
                 .active(
-                        enhanceSegments(deviceServiceClient.getSegmentsByStatus(userId, SegmentStatus.ACTIVE))
+                        enhanceSegments(active, true, deviceCounts)
                 )
                 .inactive(
-                        enhanceSegments(deviceServiceClient.getSegmentsByStatus(userId, SegmentStatus.INACTIVE))
+                        enhanceSegments(inactive, false, deviceCounts)
                 )
                 .other(
-                        getOtherSegment(userId)
+                        getOtherSegment(userId, deviceCounts.getOrDefault(OTHER_SEGMENT_KEYWORD, 0L))
                 )
                 .build();
     }
@@ -125,16 +214,36 @@ public class SegmentManager {
         for (String segmentId : order) {
             getSegmentAndCheckOwnership(userId, segmentId);
         }
-        return deviceServiceClient.updateSegmentsOrder(userId, order);
+        final List<String> result = deviceServiceClient.updateSegmentsOrder(userId, order);
+        invalidate(userId);
+        return result;
+    }
+
+    private void invalidate(String userId) {
+        activeSegmentIds.invalidate(userId);
+        lastKnownGoodCache.invalidate(ORDERED_SEGMENTS, userId);
+        statsSnapshotStore.invalidate(userId);
     }
 
     Segment getOtherSegment(String userId) {
+        return getOtherSegment(
+                userId,
+                getDeviceCounts(userId, Collections.singletonList(OTHER_SEGMENT_KEYWORD)).getOrDefault(OTHER_SEGMENT_KEYWORD, 0L)
+        );
+    }
+
+    CompletableFuture<Segment> getOtherSegmentAsync(String userId) {
+        return getDeviceCountsAsync(userId, Collections.singletonList(OTHER_SEGMENT_KEYWORD))
+                .thenApply(deviceCounts -> getOtherSegment(userId, deviceCounts.getOrDefault(OTHER_SEGMENT_KEYWORD, 0L)));
+    }
+
+    Segment getOtherSegment(String userId, long deviceCount) {
         return Segment.builder()
                 .id(OTHER_SEGMENT_KEYWORD)
                 .userId(userId)
                 .name(StringUtils.capitalize(OTHER_SEGMENT_KEYWORD))
                 .active(true)
-                .deviceCount(getDeviceCount(userId, OTHER_SEGMENT_KEYWORD))
+                .deviceCount(deviceCount)
                 .build();
     }
 
@@ -146,19 +255,51 @@ public class SegmentManager {
         if (segments.size() == 0) {
             return Collections.emptyList();
         }
-        List<Segment> activeSegments = deviceServiceClient.getSegmentsByStatus(
-                Iterables.get(segments, 0).getUserId(),
-                SegmentStatus.ACTIVE
+        final String userId = Iterables.get(segments, 0).getUserId();
+        final Set<String> activeSegmentIds = getActiveSegmentIds(userId);
+        final Map<String, Long> deviceCounts = getDeviceCounts(
+                userId,
+                segments.stream().map(Segment::getId).collect(Collectors.toList())
         );
+        return enhanceSegments(segments, activeSegmentIds, deviceCounts);
+    }
+
+    CompletableFuture<Segment> enhanceSegmentAsync(Segment segment) {
+        return enhanceSegmentsAsync(Collections.singletonList(segment)).thenApply(segments -> segments.get(0));
+    }
+
+    /**
+     * Same as {@link #enhanceSegments(Collection)}, the active segments and the device counts being fetched
+     * concurrently without waiting on any thread.
+     */
+    CompletableFuture<List<Segment>> enhanceSegmentsAsync(Collection<Segment> segments) {
+        if (segments.size() == 0) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        final String userId = Iterables.get(segments, 0).getUserId();
+        return getActiveSegmentIdsAsync(userId).thenCombine(
+                getDeviceCountsAsync(userId, segments.stream().map(Segment::getId).collect(Collectors.toList())),
+                (activeSegmentIds, deviceCounts) -> enhanceSegments(segments, activeSegmentIds, deviceCounts)
+        );
+    }
+
+    private static List<Segment> enhanceSegments(Collection<Segment> segments, Set<String> activeSegmentIds, Map<String, Long> deviceCounts) {
+        return segments.stream()
+                .map(segment ->
+                        segment.toBuilder()
+                                .active(activeSegmentIds.contains(segment.getId()))
+                                .deviceCount(deviceCounts.getOrDefault(segment.getId(), 0L))
+                                .build()
+                )
+                .collect(Collectors.toList());
+    }
+
+    List<Segment> enhanceSegments(Collection<Segment> segments, boolean active, Map<String, Long> deviceCounts) {
         return segments.stream()
                 .map(segment ->
                         segment.toBuilder()
-                                .active(activeSegments.stream().anyMatch(activeSegment ->
-                                        activeSegment.getId().equals(segment.getId())
-                                ))
-                                .deviceCount(
-                                        getDeviceCount(segment.getUserId(), segment.getId())
-                                )
+                                .active(active)
+                                .deviceCount(deviceCounts.getOrDefault(segment.getId(), 0L))
                                 .build()
                 )
                 .collect(Collectors.toList());
@@ -172,6 +313,126 @@ public class SegmentManager {
         return segment;
     }
 
+    CompletableFuture<Segment> getSegmentAndCheckOwnershipAsync(String userId, String segmentId) {
+        return deviceServiceClient.getSegmentAsync(segmentId).thenApply(segment -> {
+            if (!segment.getUserId().equals(userId)) {
+                throw new InvalidOwnerException("Segment owner differs from user");
+            }
+            return segment;
+        });
+    }
+
+    /**
+     * Returns the ids of the active segments of a user. The set is kept for {@code ttl_ms} so that the segments
+     * enhanced while serving a single request share one call to the device service, and is dropped whenever the
+     * user's segments are modified through this gateway.
+     */
+    Set<String> getActiveSegmentIds(String userId) {
+        try {
+            return activeSegmentIds.get(userId, () -> ImmutableSet.copyOf(
+                    Lists.transform(deviceServiceClient.getSegmentsByStatus(userId, SegmentStatus.ACTIVE), Segment::getId)
+            ));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    CompletableFuture<Set<String>> getActiveSegmentIdsAsync(String userId) {
+        final Set<String> cached = activeSegmentIds.getIfPresent(userId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return deviceServiceClient.getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE).thenApply(active -> {
+            final Set<String> ids = ImmutableSet.copyOf(Lists.transform(active, Segment::getId));
+            activeSegmentIds.put(userId, ids);
+            return ids;
+        });
+    }
+
+    /**
+     * Counts the devices of several segments (the "other" pseudo-segment included) in a single call to the device
+     * service. Segments missing from the response have no devices. If the device service does not expose the batch
+     * endpoint, the counts are fetched one segment at a time and the batch endpoint is not tried again.
+     */
+    Map<String, Long> getDeviceCounts(String userId, Collection<String> segmentIds) {
+        if (segmentIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (batchCountSupported.get()) {
+            try {
+                return deviceServiceClient.getDeviceCountsBySegments(userId, segmentIds);
+            } catch (DeviceServiceClientException e) {
+                if (!isUnsupportedEndpoint(e)) {
+                    throw e;
+                }
+                logger.warn("Device service does not support batch device counts, falling back to one call per segment");
+                batchCountSupported.set(false);
+            }
+        }
+        final List<String> distinctIds = segmentIds.stream().distinct().collect(Collectors.toList());
+        final List<Long> counts = fanOutExecutor.map(distinctIds, segmentId -> getDeviceCount(userId, segmentId));
+        final Map<String, Long> deviceCounts = new HashMap<>();
+        for (int i = 0; i < distinctIds.size(); i++) {
+            deviceCounts.put(distinctIds.get(i), counts.get(i));
+        }
+        return deviceCounts;
+    }
+
+    /**
+     * Same as {@link #getDeviceCounts(String, Collection)}, the per-segment fallback calls being made concurrently
+     * without waiting on any thread.
+     */
+    CompletableFuture<Map<String, Long>> getDeviceCountsAsync(String userId, Collection<String> segmentIds) {
+        if (segmentIds.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        if (!batchCountSupported.get()) {
+            return getDeviceCountsPerSegmentAsync(userId, segmentIds);
+        }
+        return deviceServiceClient.getDeviceCountsBySegmentsAsync(userId, segmentIds)
+                .handle((deviceCounts, throwable) -> {
+                    if (throwable == null) {
+                        return CompletableFuture.completedFuture(deviceCounts);
+                    }
+                    final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    if (!(cause instanceof DeviceServiceClientException) || !isUnsupportedEndpoint((DeviceServiceClientException) cause)) {
+                        final CompletableFuture<Map<String, Long>> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(cause);
+                        return failed;
+                    }
+                    logger.warn("Device service does not support batch device counts, falling back to one call per segment");
+                    batchCountSupported.set(false);
+                    return getDeviceCountsPerSegmentAsync(userId, segmentIds);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Map<String, Long>> getDeviceCountsPerSegmentAsync(String userId, Collection<String> segmentIds) {
+        final List<String> distinctIds = segmentIds.stream().distinct().collect(Collectors.toList());
+        final List<CompletableFuture<Long>> counts = distinctIds.stream()
+                .map(segmentId -> deviceServiceClient.getDevicesBySegmentAsync(userId, segmentId, new PageRequest(0, 1))
+                        .thenApply(devices -> devices.getMetadata().getTotalElements()))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(counts.toArray(new CompletableFuture[counts.size()])).thenApply(ignored -> {
+            final Map<String, Long> deviceCounts = new HashMap<>();
+            for (int i = 0; i < distinctIds.size(); i++) {
+                deviceCounts.put(distinctIds.get(i), counts.get(i).join());
+            }
+            return deviceCounts;
+        });
+    }
+
+    private static boolean isUnsupportedEndpoint(DeviceServiceClientException e) {
+        if (!(e.getCause() instanceof HttpStatusCodeException)) {
+            return false;
+        }
+        final HttpStatus status = ((HttpStatusCodeException) e.getCause()).getStatusCode();
+        return status == HttpStatus.NOT_FOUND || status == HttpStatus.METHOD_NOT_ALLOWED || status == HttpStatus.NOT_IMPLEMENTED;
+    }
+
     long getDeviceCount(String userId, String segmentId) {
         return deviceServiceClient.getDevicesBySegment(userId, segmentId, new PageRequest(0, 1))
                 .getMetadata()
@@ -27,6 +27,10 @@ package io.barracks.membergateway.manager;
 import io.barracks.membergateway.client.DeviceServiceClient;
 import io.barracks.membergateway.client.StatsServiceClient;
 import io.barracks.membergateway.client.UpdateServiceClient;
+import io.barracks.membergateway.manager.entity.SegmentStatus;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.LastKnownGoodCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.DataSet;
 import io.barracks.membergateway.model.Segment;
 import io.barracks.membergateway.rest.entity.SegmentsOrder;
@@ -37,76 +41,152 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static io.barracks.membergateway.manager.SegmentManager.OTHER_SEGMENT_KEYWORD;
 
 @Service
 public class StatsManager {
+    static final String DEVICES_PER_SEGMENT = "stats.devices.perSegmentId";
+    static final String UPDATED_DEVICES_PER_SEGMENT = "stats.devices.perSegmentId.updated";
+
     private final StatsServiceClient statsServiceClient;
     private final UpdateServiceClient updateServiceClient;
     private final SegmentManager segmentManager;
     private final UpdateManager updateManager;
     private final DeviceServiceClient deviceServiceClient;
-
+    private final FanOutExecutor fanOutExecutor;
+    private final LastKnownGoodCache lastKnownGoodCache;
+    private final StatsSnapshotStore statsSnapshotStore;
     @Autowired
     public StatsManager(
             StatsServiceClient statsServiceClient,
             SegmentManager segmentManager,
             UpdateServiceClient updateServiceClient,
             UpdateManager updateManager,
-            DeviceServiceClient deviceServiceClient
+            DeviceServiceClient deviceServiceClient,
+            FanOutExecutor fanOutExecutor,
+            LastKnownGoodCache lastKnownGoodCache,
+            StatsSnapshotStore statsSnapshotStore
     ) {
         this.statsServiceClient = statsServiceClient;
         this.updateServiceClient = updateServiceClient;
         this.segmentManager = segmentManager;
         this.updateManager = updateManager;
         this.deviceServiceClient = deviceServiceClient;
+        this.fanOutExecutor = fanOutExecutor;
+        this.lastKnownGoodCache = lastKnownGoodCache;
+        this.statsSnapshotStore = statsSnapshotStore;
     }
 
-    public DataSet getDevicesPerVersionId(String userId) {
-        return statsServiceClient.getDevicesPerVersionId(userId);
+    public CompletableFuture<DataSet> getDevicesPerVersionId(String userId) {
+        return statsServiceClient.getDevicesPerVersionIdAsync(userId);
     }
 
-    public DataSet getLastSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
-        return statsServiceClient.getLastSeenDevices(userId, start, end);
+    public CompletableFuture<DataSet> getLastSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
+        return statsServiceClient.getLastSeenDevicesAsync(userId, start, end);
     }
 
-    public DataSet getSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
-        return statsServiceClient.getSeenDevices(userId, start, end);
+    public CompletableFuture<DataSet> getSeenDevices(String userId, OffsetDateTime start, OffsetDateTime end) {
+        return statsServiceClient.getSeenDevicesAsync(userId, start, end);
     }
 
     public DataSet getDevicesPerSegmentId(String userId) {
-        final SegmentsOrder segmentOrder = segmentManager.getOrderedSegments(userId);
-        final Map<String, BigDecimal> stats = segmentOrder.getActive().stream().collect(Collectors.toMap(
+        return lastKnownGoodCache.get(DEVICES_PER_SEGMENT, userId, () -> loadDevicesPerSegmentId(userId));
+    }
+
+    DataSet loadDevicesPerSegmentId(String userId) {
+        final List<Segment> active = deviceServiceClient.getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        final List<String> segmentIds = active.stream().map(Segment::getId).collect(Collectors.toCollection(ArrayList::new));
+        segmentIds.add(OTHER_SEGMENT_KEYWORD);
+        final Map<String, Long> deviceCounts = segmentManager.getDeviceCounts(userId, segmentIds);
+        final Map<String, BigDecimal> stats = active.stream().collect(Collectors.toMap(
                 Segment::getName,
-                segment -> BigDecimal.valueOf(segment.getDeviceCount())
+                segment -> BigDecimal.valueOf(deviceCounts.getOrDefault(segment.getId(), 0L))
         ));
-        stats.put(segmentOrder.getOther().getName(), BigDecimal.valueOf(segmentOrder.getOther().getDeviceCount()));
+        final Segment other = segmentManager.getOtherSegment(userId, deviceCounts.getOrDefault(OTHER_SEGMENT_KEYWORD, 0L));
+        stats.put(other.getName(), BigDecimal.valueOf(other.getDeviceCount()));
         final BigDecimal total = stats.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
         return DataSet.builder().total(total).values(stats).build();
     }
 
-    public DataSet getUpdatedDevicesPerSegmentId(String userId) {
+    /**
+     * Served from a snapshot kept up to date in the background by {@link StatsSnapshotStore}, along with the tag of
+     * the stats actually returned.
+     */
+    public StatsSnapshotStore.TaggedDataSet getUpdatedDevicesPerSegmentId(String userId) {
+        final StatsSnapshotStore.TaggedDataSet snapshot = statsSnapshotStore.getIfFresh(userId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return lastKnownGoodCache.get(UPDATED_DEVICES_PER_SEGMENT, userId, () -> statsSnapshotStore.load(userId, updatedDevicesSource()));
+    }
+
+    /**
+     * @return the stats {@link #getUpdatedDevicesPerSegmentId(String)} would serve from memory, or null if they have
+     * to be loaded
+     */
+    public StatsSnapshotStore.TaggedDataSet getUpdatedDevicesPerSegmentIdIfFresh(String userId) {
+        return statsSnapshotStore.getIfFresh(userId);
+    }
+
+    private StatsSnapshotStore.Source updatedDevicesSource() {
+        return new StatsSnapshotStore.Source() {
+            @Override
+            public Map<String, StatsSnapshotStore.SegmentStats> loadAll(String userId) {
+                return loadUpdatedDevicesPerSegment(userId);
+            }
+
+            @Override
+            public StatsSnapshotStore.SegmentStats load(String userId, String segmentId, StatsSnapshotStore.SegmentStats previous) {
+                return new StatsSnapshotStore.SegmentStats(
+                        previous.getName(),
+                        previous.getDeviceCount(),
+                        getUpdatedDevicesCountForSegment(userId, segmentId, previous.getDeviceCount())
+                );
+            }
+        };
+    }
+
+    Map<String, StatsSnapshotStore.SegmentStats> loadUpdatedDevicesPerSegment(String userId) {
         final SegmentsOrder segmentOrder = segmentManager.getOrderedSegments(userId);
-        final Map<String, BigDecimal> stats = segmentOrder.getActive().stream()
-                .collect(Collectors.toMap(
-                        Segment::getName,
-                        segment -> getUpdatedDevicesCountForSegment(userId, segment.getId(), segment.getDeviceCount())
-                ));
-        stats.put(segmentOrder.getOther().getName(), getUpdatedDevicesCountForSegment(userId, OTHER_SEGMENT_KEYWORD, segmentOrder.getOther().getDeviceCount()));
-        final BigDecimal total = stats.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
-        return DataSet.builder().values(stats).total(total).build();
+        final List<Segment> segments = new ArrayList<>(segmentOrder.getActive());
+        segments.add(segmentOrder.getOther());
+        final List<BigDecimal> counts = fanOutExecutor.joinAll(segments.stream()
+                .map(segment -> getUpdatedDevicesCountForSegmentAsync(userId, segment.getId(), segment.getDeviceCount()))
+                .collect(Collectors.toList())
+        );
+        final Map<String, StatsSnapshotStore.SegmentStats> stats = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            final Segment segment = segments.get(i);
+            stats.put(segment.getId(), new StatsSnapshotStore.SegmentStats(segment.getName(), segment.getDeviceCount(), counts.get(i)));
+        }
+        return stats;
     }
 
     BigDecimal getUpdatedDevicesCountForSegment(String userId, String segmentId, long defaultValue) {
+        return fanOutExecutor.join(getUpdatedDevicesCountForSegmentAsync(userId, segmentId, defaultValue));
+    }
+
+    /**
+     * Chains the non-blocking calls resolving the latest update of a segment, its version and the devices running
+     * it, so that no thread waits for them.
+     */
+    CompletableFuture<BigDecimal> getUpdatedDevicesCountForSegmentAsync(String userId, String segmentId, long defaultValue) {
         final Pageable pageable = new PageRequest(0, 1);
-        return BigDecimal.valueOf(
-                updateServiceClient.getLatestUpdateForSegment(userId, segmentId.equals(OTHER_SEGMENT_KEYWORD) ? null : segmentId)
-                        .map(update -> updateManager.getUpdateByUuidAndUserId(update.getUuid(), userId).getPackageInfo().getVersionId())
-                        .map(versionId -> deviceServiceClient.getDevicesBySegmentAndVersion(userId, segmentId, versionId, pageable).getMetadata().getTotalElements())
-                        .orElse(defaultValue)
-        );
+        return updateServiceClient.getLatestUpdateForSegmentAsync(userId, segmentId.equals(OTHER_SEGMENT_KEYWORD) ? null : segmentId)
+                .thenCompose(update -> update.isPresent()
+                        ? updateManager.getPackageVersionIdAsync(update.get())
+                        : CompletableFuture.completedFuture(null))
+                .thenCompose(versionId -> versionId != null
+                        ? deviceServiceClient.getDevicesBySegmentAndVersionAsync(userId, segmentId, versionId, pageable)
+                                .thenApply(devices -> devices.getMetadata().getTotalElements())
+                        : CompletableFuture.completedFuture(defaultValue))
+                .thenApply(BigDecimal::valueOf);
     }
 }
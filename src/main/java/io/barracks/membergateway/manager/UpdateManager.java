@@ -24,9 +24,11 @@
 
 package io.barracks.membergateway.manager;
 
-import io.barracks.membergateway.client.PackageServiceClient;
 import io.barracks.membergateway.client.UpdateServiceClient;
 import io.barracks.membergateway.exception.InvalidOwnerException;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.PackageInfoCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -40,55 +42,100 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
 public class UpdateManager {
     private final UpdateServiceClient updateServiceClient;
-    private final PackageServiceClient packageServiceClient;
+    private final PackageInfoCache packageInfoCache;
     private final SegmentManager segmentManager;
+    private final FanOutExecutor fanOutExecutor;
+    private final StatsSnapshotStore statsSnapshotStore;
 
     @Autowired
-    public UpdateManager(UpdateServiceClient updateServiceClient, PackageServiceClient packageServiceClient, SegmentManager segmentManager) {
+    public UpdateManager(
+            UpdateServiceClient updateServiceClient,
+            PackageInfoCache packageInfoCache,
+            SegmentManager segmentManager,
+            FanOutExecutor fanOutExecutor,
+            StatsSnapshotStore statsSnapshotStore
+    ) {
         this.updateServiceClient = updateServiceClient;
-        this.packageServiceClient = packageServiceClient;
+        this.packageInfoCache = packageInfoCache;
         this.segmentManager = segmentManager;
+        this.fanOutExecutor = fanOutExecutor;
+        this.statsSnapshotStore = statsSnapshotStore;
     }
 
     public Page<DetailedUpdate> getUpdatesByStatusesAndSegments(Pageable pageable, String userId, List<UpdateStatus> statuses, List<String> segmentIds) {
         final PagedResources<Update> pagedResources = updateServiceClient.getUpdatesByStatusesAndSegments(pageable, userId, statuses, segmentIds);
-        final List<DetailedUpdate> detailedUpdates = pagedResources.getContent().parallelStream().map(
+        final List<DetailedUpdate> detailedUpdates = fanOutExecutor.map(
+                pagedResources.getContent(),
                 update -> new DetailedUpdate(
                         update,
-                        packageServiceClient.getPackageInfo(update.getPackageId()),
+                        packageInfoCache.getPackageInfo(update.getPackageId()),
                         getSegmentForUpdate(update)
                 )
-        ).collect(Collectors.toList());
+        );
         return new PageImpl<>(new ArrayList<>(detailedUpdates), pageable, pagedResources.getMetadata().getTotalElements());
     }
 
+    /**
+     * Same as {@link #getUpdatesByStatusesAndSegments(Pageable, String, List, List)}, the details of the updates being
+     * fetched concurrently without waiting on any thread.
+     */
+    public CompletableFuture<Page<DetailedUpdate>> getUpdatesByStatusesAndSegmentsAsync(Pageable pageable, String userId, List<UpdateStatus> statuses, List<String> segmentIds) {
+        return updateServiceClient.getUpdatesByStatusesAndSegmentsAsync(pageable, userId, statuses, segmentIds).thenCompose(pagedResources -> {
+            final List<CompletableFuture<DetailedUpdate>> detailedUpdates = pagedResources.getContent().stream()
+                    .map(this::getDetailedUpdateAsync)
+                    .collect(Collectors.toList());
+            return CompletableFuture.allOf(detailedUpdates.toArray(new CompletableFuture[detailedUpdates.size()])).thenApply(ignored -> new PageImpl<>(
+                    detailedUpdates.stream().map(CompletableFuture::join).collect(Collectors.toList()),
+                    pageable,
+                    pagedResources.getMetadata().getTotalElements()
+            ));
+        });
+    }
+
     public DetailedUpdate getUpdateByUuidAndUserId(String uuid, String userId) {
         final Update update = updateServiceClient.getUpdateByUuidAndUserId(uuid, userId);
         return new DetailedUpdate(
                 update,
-                packageServiceClient.getPackageInfo(update.getPackageId()),
+                packageInfoCache.getPackageInfo(update.getPackageId()),
                 getSegmentForUpdate(update)
         );
     }
 
+    public CompletableFuture<DetailedUpdate> getUpdateByUuidAndUserIdAsync(String uuid, String userId) {
+        return updateServiceClient.getUpdateByUuidAndUserIdAsync(uuid, userId).thenCompose(this::getDetailedUpdateAsync);
+    }
+
+    /**
+     * Resolves the version deployed by an update from the package metadata cache only, without fetching the update
+     * again nor its segment as {@link #getUpdateByUuidAndUserId(String, String)} does.
+     */
+    public CompletableFuture<String> getPackageVersionIdAsync(Update update) {
+        return packageInfoCache.getPackageInfoAsync(update.getPackageId()).thenApply(PackageInfo::getVersionId);
+    }
+
     public DetailedUpdate createUpdate(Update update) {
         update = normalizeUpdate(update);
         final PackageInfo packageInfo = checkPackageInfoOwnershipOnUpdate(update);
         final Segment segment = getSegmentForUpdate(update);
-        return new DetailedUpdate(updateServiceClient.createUpdate(update), packageInfo, segment);
+        final Update createdUpdate = updateServiceClient.createUpdate(update);
+        invalidateStats(update);
+        return new DetailedUpdate(createdUpdate, packageInfo, segment);
     }
 
     public DetailedUpdate editUpdate(Update update) {
         update = normalizeUpdate(update);
-        checkUpdateOwnership(update.getUuid(), update.getUserId());
+        final Update previousUpdate = checkUpdateOwnership(update.getUuid(), update.getUserId());
         final PackageInfo packageInfo = checkPackageInfoOwnershipOnUpdate(update);
         final Segment segment = getSegmentForUpdate(update);
         final Update updatedUpdate = updateServiceClient.editUpdate(update);
+        invalidateStats(previousUpdate);
+        invalidateStats(update);
         return new DetailedUpdate(updatedUpdate, packageInfo, segment);
     }
 
@@ -104,15 +151,30 @@ public class UpdateManager {
         return this.updateServiceClient.getAllStatusesCompatibilities();
     }
 
+    public CompletableFuture<List<UpdateStatusCompatibility>> getAllStatusesCompatibilitiesAsync() {
+        return this.updateServiceClient.getAllStatusesCompatibilitiesAsync();
+    }
+
     public UpdateStatusCompatibility getStatusCompatibilities(UpdateStatus status) {
         return this.updateServiceClient.getStatusCompatibilities(status);
     }
 
+    public CompletableFuture<UpdateStatusCompatibility> getStatusCompatibilitiesAsync(UpdateStatus status) {
+        return this.updateServiceClient.getStatusCompatibilitiesAsync(status);
+    }
+
     void changeUpdateStatus(String uuid, UpdateStatus status, Optional<OffsetDateTime> scheduledTime, String userId) {
         final Update update = checkUpdateOwnership(uuid, userId);
         final Update.UpdateBuilder updateWithNewStatusBuilder = update.toBuilder().status(status);
         scheduledTime.ifPresent(offsetDateTime -> updateWithNewStatusBuilder.scheduledDate(Date.from(offsetDateTime.toInstant())));
         updateServiceClient.editUpdate(updateWithNewStatusBuilder.build());
+        invalidateStats(update);
+    }
+
+    private void invalidateStats(Update update) {
+        if (update != null) {
+            statsSnapshotStore.invalidateSegment(update.getUserId(), update.hasSegment() ? update.getSegmentId() : SegmentManager.OTHER_SEGMENT_KEYWORD);
+        }
     }
 
     Update normalizeUpdate(Update original) {
@@ -130,8 +192,23 @@ public class UpdateManager {
         }
     }
 
+    CompletableFuture<Segment> getSegmentForUpdateAsync(Update update) {
+        if (update.hasSegment()) {
+            return segmentManager.getSegmentForUserAsync(update.getUserId(), update.getSegmentId());
+        } else {
+            return segmentManager.getOtherSegmentAsync(update.getUserId());
+        }
+    }
+
+    CompletableFuture<DetailedUpdate> getDetailedUpdateAsync(Update update) {
+        return packageInfoCache.getPackageInfoAsync(update.getPackageId()).thenCombine(
+                getSegmentForUpdateAsync(update),
+                (packageInfo, segment) -> new DetailedUpdate(update, packageInfo, segment)
+        );
+    }
+
     PackageInfo checkPackageInfoOwnershipOnUpdate(Update update) {
-        final PackageInfo packageInfo = packageServiceClient.getPackageInfo(update.getPackageId());
+        final PackageInfo packageInfo = packageInfoCache.getPackageInfo(update.getPackageId());
         if (!packageInfo.getUserId().equals(update.getUserId())) {
             throw new InvalidOwnerException("Package owner differs from the update owner");
         }
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Feeds the bytes read from the wrapped stream to the package digests as they go through, and verifies the upload
+ * once the end of the stream is reached. A verification failure is raised from {@code read} so that the request
+ * forwarding the stream is aborted before the package service stores the package.
+ */
+public class DigestingInputStream extends FilterInputStream {
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private final long expectedSize;
+    private final String expectedMd5;
+    private final PackageDigester digester;
+
+    private long count;
+    private boolean verified;
+    private String md5Hex;
+    private String sha256Hex;
+
+    DigestingInputStream(InputStream in, MessageDigest md5, MessageDigest sha256, long expectedSize, String expectedMd5, PackageDigester digester) {
+        super(in);
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.expectedSize = expectedSize;
+        this.expectedMd5 = expectedMd5;
+        this.digester = digester;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b == -1) {
+            verify();
+        } else {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read == -1) {
+            verify();
+        } else {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("Skipping bytes would corrupt the package digest");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Tells whether the end of the stream was reached, that is whether the digests cover the whole package.
+     */
+    public boolean isComplete() {
+        return verified;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getMd5() {
+        if (md5Hex == null) {
+            md5Hex = BaseEncoding.base16().lowerCase().encode(md5.digest());
+        }
+        return md5Hex;
+    }
+
+    public String getSha256() {
+        if (sha256Hex == null && sha256 != null) {
+            sha256Hex = BaseEncoding.base16().lowerCase().encode(sha256.digest());
+        }
+        return sha256Hex;
+    }
+
+    private void update(byte[] b, int off, int len) throws IOException {
+        final long start = System.nanoTime();
+        md5.update(b, off, len);
+        if (sha256 != null) {
+            sha256.update(b, off, len);
+        }
+        count += len;
+        digester.recordDigest(len, System.nanoTime() - start);
+        if (expectedSize >= 0 && count > expectedSize) {
+            throw fail("Package is larger than the declared " + expectedSize + " bytes");
+        }
+    }
+
+    private void verify() throws PackageVerificationException {
+        if (verified) {
+            return;
+        }
+        verified = true;
+        if (expectedSize >= 0 && count != expectedSize) {
+            throw fail("Package has " + count + " bytes instead of the declared " + expectedSize);
+        }
+        if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(getMd5())) {
+            throw fail("Package MD5 " + getMd5() + " differs from the declared " + expectedMd5);
+        }
+    }
+
+    private PackageVerificationException fail(String message) {
+        digester.recordFailure();
+        return new PackageVerificationException(message);
+    }
+
+    public static class PackageVerificationException extends IOException {
+        public PackageVerificationException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import io.barracks.membergateway.exception.FanOutTimeoutException;
+import io.barracks.membergateway.monitoring.RequestTrace;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the blocking calls the managers fan out to the downstream services on a dedicated, bounded pool of
+ * "fanout-io-N" threads rather than on the JVM-wide common ForkJoinPool.
+ * <p>
+ * A fan-out is given {@code timeout_ms} to complete as a whole, after which its pending calls are cancelled and a
+ * {@link FanOutTimeoutException} is thrown. Branches started with {@link #supply(Supplier)} should be collected
+ * together with {@link #joinAll(List)}, so that they share that deadline. When the queue is full, or when a fan-out
+ * is started from one of the pool threads, the calls run on the calling thread instead.
+ * <p>
+ * Cancelling a pending call interrupts the thread running it. This frees it while it waits for a pooled
+ * connection or a bulkhead permit, but a call already blocked reading a response still runs until the read timeout.
+ */
+@Component
+public class FanOutExecutor implements PublicMetrics, DisposableBean {
+    static final String THREAD_NAME_PREFIX = "fanout-io-";
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutNanos;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    @Autowired
+    public FanOutExecutor(
+            @Value("${io.barracks.fanout.pool_size:32}") int poolSize,
+            @Value("${io.barracks.fanout.queue_capacity:256}") int queueCapacity,
+            @Value("${io.barracks.fanout.timeout_ms:10000}") long timeout
+    ) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    if (!pool.isShutdown()) {
+                        runnable.run();
+                    }
+                }
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Applies {@code function} to every item concurrently and returns the results in the order of the items. The
+     * first failure is rethrown as is.
+     */
+    public <T, R> List<R> map(Collection<T> items, Function<? super T, ? extends R> function) {
+        if (items.size() <= 1 || isFanOutThread()) {
+            return items.stream().map(function).collect(Collectors.toList());
+        }
+        final List<Future<? extends R>> futures = new ArrayList<>(items.size());
+        try {
+            for (T item : items) {
+                futures.add(executor.submit(RequestTrace.wrap(() -> function.apply(item))::get));
+            }
+            final long deadline = System.nanoTime() + timeoutNanos;
+            final List<R> results = new ArrayList<>(futures.size());
+            for (Future<? extends R> future : futures) {
+                results.add(future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            throw new FanOutTimeoutException("Downstream calls did not complete within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for downstream calls", e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Starts an independent branch of a fan-out, to be collected with {@link #joinAll(List)}. Cancelling the returned
+     * future interrupts the branch if it is running.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        final Branch<T> branch = new Branch<>();
+        final Supplier<T> traced = RequestTrace.wrap(supplier);
+        final Runnable task = () -> {
+            try {
+                branch.complete(traced.get());
+            } catch (Throwable t) {
+                branch.completeExceptionally(t);
+            }
+        };
+        if (isFanOutThread()) {
+            task.run();
+        } else {
+            branch.task = executor.submit(task);
+        }
+        return branch;
+    }
+
+    /**
+     * Waits for a single future, rethrowing its failure as is. Several futures are joined with {@link #joinAll(List)}
+     * instead, so that they are given one deadline rather than one each.
+     */
+    public <T> T join(CompletableFuture<T> future) {
+        return joinAll(Collections.singletonList(future)).get(0);
+    }
+
+    /**
+     * Waits for futures started with {@link #supply(Supplier)} or elsewhere, typically non-blocking downstream calls,
+     * and returns their results in order. They are given {@code timeout_ms} as a whole, after which the pending ones
+     * are cancelled.
+     */
+    public <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+        try {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            final List<T> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            futures.forEach(future -> future.cancel(true));
+            throw new FanOutTimeoutException("Downstream calls did not complete within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for downstream calls", e);
+        }
+    }
+
+    private static final class Branch<T> extends CompletableFuture<T> {
+        private volatile Future<?> task;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            final Future<?> task = this.task;
+            if (cancelled && task != null) {
+                task.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new IllegalStateException(e.getCause());
+    }
+
+    static boolean isFanOutThread() {
+        return Thread.currentThread().getName().startsWith(THREAD_NAME_PREFIX);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("fanout.pool.size", executor.getPoolSize()),
+                new Metric<>("fanout.pool.max", executor.getMaximumPoolSize()),
+                new Metric<>("fanout.active", executor.getActiveCount()),
+                new Metric<>("fanout.queue.size", executor.getQueue().size()),
+                new Metric<>("fanout.queue.remaining", executor.getQueue().remainingCapacity()),
+                new Metric<>("fanout.completed", executor.getCompletedTaskCount()),
+                new Metric<>("fanout.rejected", rejected.sum()),
+                new Metric<>("fanout.timeout", timedOut.sum())
+        );
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.barracks.commons.exceptions.BarracksServiceClientException;
+import io.barracks.membergateway.exception.FanOutTimeoutException;
+import io.barracks.membergateway.monitoring.RequestTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the last successful result of the idempotent reads of a user, to be served when the downstream services
+ * fail or do not answer within {@code deadline_ms}.
+ * <p>
+ * Reads are always made live, on a pool of "revalidate-N" threads, concurrent reads of the same key sharing the same
+ * call. A read that misses its deadline keeps running in the background and refreshes the entry when it completes.
+ * Client errors are never hidden, and without a previous result the read is simply awaited.
+ * {@link #getAsync(String, String, Supplier)} returns the same outcome as a future, its deadline being kept by a
+ * single "stale-deadline" timer thread instead of by a waiting request thread.
+ * <p>
+ * Entries are dropped after {@code max_staleness_ms}. Serving one flags the current request with its age in
+ * {@link #STALE_AGE_ATTRIBUTE}.
+ */
+@Component
+public class LastKnownGoodCache implements PublicMetrics, DisposableBean {
+    public static final String STALE_AGE_ATTRIBUTE = LastKnownGoodCache.class.getName() + ".STALE_AGE";
+    static final String THREAD_NAME_PREFIX = "revalidate-";
+    private static final Logger logger = LoggerFactory.getLogger(LastKnownGoodCache.class);
+
+    private final Cache<String, Entry> cache;
+    private final ConcurrentMap<String, CompletableFuture<Object>> pendingReads = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService deadlineTimer;
+    private final Ticker ticker;
+    private final long deadlineNanos;
+
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder deadlinesMissed = new LongAdder();
+
+    @Autowired
+    public LastKnownGoodCache(
+            @Value("${io.barracks.stale_cache.max_size:10000}") long maxSize,
+            @Value("${io.barracks.stale_cache.max_staleness_ms:300000}") long maxStaleness,
+            @Value("${io.barracks.stale_cache.deadline_ms:3000}") long deadline,
+            @Value("${io.barracks.stale_cache.pool_size:16}") int poolSize
+    ) {
+        this(maxSize, maxStaleness, deadline, poolSize, Ticker.systemTicker());
+    }
+
+    LastKnownGoodCache(long maxSize, long maxStaleness, long deadline, int poolSize, Ticker ticker) {
+        this.ticker = ticker;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadline);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxStaleness, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolSize * 4),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    if (!pool.isShutdown()) {
+                        runnable.run();
+                    }
+                }
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.deadlineTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "stale-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name, String userId, Supplier<T> loader) {
+        final String key = name + ':' + userId;
+        final Entry entry = cache.getIfPresent(key);
+        if (isRevalidationThread()) {
+            try {
+                return (T) load(key, (Supplier<Object>) loader);
+            } catch (RuntimeException e) {
+                return (T) fallBack(key, entry, e, RequestContextHolder.getRequestAttributes());
+            }
+        }
+        final CompletableFuture<Object> read = read(key, (Supplier<Object>) loader);
+        try {
+            if (entry == null) {
+                return (T) read.get();
+            }
+            return (T) read.get(deadlineNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            deadlinesMissed.increment();
+            return (T) fallBack(key, entry, deadlineMissed(name), RequestContextHolder.getRequestAttributes());
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                return (T) fallBack(key, entry, (RuntimeException) cause, RequestContextHolder.getRequestAttributes());
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(String name, String userId, Supplier<T> loader) {
+        final String key = name + ':' + userId;
+        final Entry entry = cache.getIfPresent(key);
+        // The attributes of the calling thread may be completed by the time the read is, so only the request is kept
+        final RequestAttributes current = RequestContextHolder.getRequestAttributes();
+        final RequestAttributes attributes = current instanceof ServletRequestAttributes
+                ? new ServletRequestAttributes(((ServletRequestAttributes) current).getRequest())
+                : null;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final CompletableFuture<Object> read = read(key, (Supplier<Object>) loader);
+        read.whenComplete((value, throwable) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (throwable == null) {
+                result.complete((T) value);
+            } else if (throwable instanceof RuntimeException) {
+                completeWithFallBack(result, key, entry, (RuntimeException) throwable, attributes);
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+        if (entry != null && !result.isDone()) {
+            final ScheduledFuture<?> deadline = deadlineTimer.schedule(() -> {
+                if (!result.isDone()) {
+                    deadlinesMissed.increment();
+                    completeWithFallBack(result, key, entry, deadlineMissed(name), attributes);
+                }
+            }, deadlineNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((value, throwable) -> deadline.cancel(false));
+        }
+        return result;
+    }
+
+    public void invalidate(String name, String userId) {
+        cache.invalidate(name + ':' + userId);
+    }
+
+    private CompletableFuture<Object> read(String key, Supplier<Object> loader) {
+        final CompletableFuture<Object> read = new CompletableFuture<>();
+        final CompletableFuture<Object> pending = pendingReads.putIfAbsent(key, read);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            executor.execute(RequestTrace.wrap(() -> {
+                Object value = null;
+                Throwable failure = null;
+                try {
+                    value = load(key, loader);
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    // Released before completion, so that a read issued right after this one is not handed its outcome
+                    pendingReads.remove(key, read);
+                }
+                if (failure == null) {
+                    read.complete(value);
+                } else {
+                    read.completeExceptionally(failure);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            pendingReads.remove(key, read);
+            read.completeExceptionally(e);
+        }
+        return read;
+    }
+
+    private Object load(String key, Supplier<Object> loader) {
+        final Object value = loader.get();
+        if (value != null) {
+            cache.put(key, new Entry(value, ticker.read()));
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void completeWithFallBack(CompletableFuture<T> result, String key, Entry entry, RuntimeException e, RequestAttributes attributes) {
+        try {
+            result.complete((T) fallBack(key, entry, e, attributes));
+        } catch (RuntimeException fallBackFailure) {
+            result.completeExceptionally(fallBackFailure);
+        }
+    }
+
+    private FanOutTimeoutException deadlineMissed(String name) {
+        return new FanOutTimeoutException(name + " did not complete within " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + "ms");
+    }
+
+    private Object fallBack(String key, Entry entry, RuntimeException e, RequestAttributes attributes) {
+        if (entry == null || !isDownstreamFailure(e)) {
+            throw e;
+        }
+        staleServed.increment();
+        final long age = TimeUnit.NANOSECONDS.toSeconds(ticker.read() - entry.loadTime);
+        logger.warn("Serving '{}' from {}s ago ({})", key, age, e.getMessage());
+        markStale(attributes, age);
+        return entry.value;
+    }
+
+    private static boolean isDownstreamFailure(RuntimeException e) {
+        return e instanceof ResourceAccessException
+                || e instanceof FanOutTimeoutException
+                || e instanceof HttpServerErrorException
+                || e instanceof BarracksServiceClientException && e.getCause() instanceof HttpServerErrorException;
+    }
+
+    private static void markStale(RequestAttributes attributes, long age) {
+        if (attributes != null) {
+            final Long previous = (Long) attributes.getAttribute(STALE_AGE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            attributes.setAttribute(STALE_AGE_ATTRIBUTE, previous == null ? age : Math.max(age, previous), RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    static boolean isRevalidationThread() {
+        return Thread.currentThread().getName().startsWith(THREAD_NAME_PREFIX);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("cache.lastknowngood.size", cache.size()),
+                new Metric<>("cache.lastknowngood.stale", staleServed.sum()),
+                new Metric<>("cache.lastknowngood.deadline_missed", deadlinesMissed.sum()),
+                new Metric<>("cache.lastknowngood.pending", pendingReads.size())
+        );
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        deadlineTimer.shutdownNow();
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long loadTime;
+
+        private Entry(Object value, long loadTime) {
+            this.value = value;
+            this.loadTime = loadTime;
+        }
+    }
+}
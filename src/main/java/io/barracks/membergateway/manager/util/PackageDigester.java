@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates the {@link DigestingInputStream}s wrapping the uploaded packages, always computing their MD5 and, when
+ * {@code io.barracks.packageservice.upload.sha256} is set, their SHA-256.
+ */
+@Component
+public class PackageDigester implements PublicMetrics {
+    private final boolean sha256;
+
+    private final LongAdder digestedBytes = new LongAdder();
+    private final LongAdder digestNanos = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @Autowired
+    public PackageDigester(@Value("${io.barracks.packageservice.upload.sha256:false}") boolean sha256) {
+        this.sha256 = sha256;
+    }
+
+    /**
+     * @param expectedSize the size declared by the client, or -1 if unknown
+     * @param expectedMd5  the MD5 declared by the client, or null if unknown
+     */
+    public DigestingInputStream digest(InputStream inputStream, long expectedSize, String expectedMd5) {
+        return new DigestingInputStream(
+                inputStream,
+                getMessageDigest("MD5"),
+                sha256 ? getMessageDigest("SHA-256") : null,
+                expectedSize,
+                expectedMd5,
+                this
+        );
+    }
+
+    void recordDigest(int bytes, long nanos) {
+        digestedBytes.add(bytes);
+        digestNanos.add(nanos);
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    private static MessageDigest getMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final long bytes = digestedBytes.sum();
+        final long nanos = digestNanos.sum();
+        return Arrays.asList(
+                new Metric<>("upload.digest.bytes", bytes),
+                new Metric<>("upload.digest.time_ms", TimeUnit.NANOSECONDS.toMillis(nanos)),
+                new Metric<>("upload.digest.throughput_mbps", nanos == 0 ? 0D : bytes / 1048576D / (nanos / 1e9)),
+                new Metric<>("upload.verification.failure", failures.sum())
+        );
+    }
+}
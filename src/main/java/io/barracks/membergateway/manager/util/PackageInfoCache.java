@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.barracks.membergateway.client.PackageServiceClient;
+import io.barracks.membergateway.model.PackageInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps the package metadata returned by the package service. A package never changes once uploaded, so entries
+ * are only evicted when the cache exceeds {@code max_weight_bytes}, an entry weighing roughly the memory taken by
+ * its strings.
+ */
+@Component
+public class PackageInfoCache implements PublicMetrics {
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final PackageServiceClient packageServiceClient;
+    private final Cache<String, PackageInfo> cache;
+    private final ConcurrentMap<String, CompletableFuture<PackageInfo>> pendingLoads = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PackageInfoCache(
+            PackageServiceClient packageServiceClient,
+            @Value("${io.barracks.packageservice.package_cache.max_weight_bytes:67108864}") long maxWeight
+    ) {
+        this.packageServiceClient = packageServiceClient;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String id, PackageInfo packageInfo) -> weigh(id, packageInfo))
+                .recordStats()
+                .build();
+    }
+
+    public PackageInfo getPackageInfo(String packageId) {
+        if (packageId == null) {
+            return packageServiceClient.getPackageInfo(null);
+        }
+        try {
+            return cache.get(packageId, () -> packageServiceClient.getPackageInfo(packageId));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Serves a cached entry right away, or starts a non-blocking call whose result is then cached. Concurrent misses
+     * on the same package share that call.
+     */
+    public CompletableFuture<PackageInfo> getPackageInfoAsync(String packageId) {
+        if (packageId == null) {
+            return packageServiceClient.getPackageInfoAsync(null);
+        }
+        final PackageInfo cached = cache.getIfPresent(packageId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<PackageInfo> loading = new CompletableFuture<>();
+        final CompletableFuture<PackageInfo> pending = pendingLoads.putIfAbsent(packageId, loading);
+        if (pending != null) {
+            return pending;
+        }
+        packageServiceClient.getPackageInfoAsync(packageId).whenComplete((packageInfo, throwable) -> {
+            if (packageInfo != null) {
+                cache.put(packageId, packageInfo);
+            }
+            pendingLoads.remove(packageId, loading);
+            if (throwable != null) {
+                loading.completeExceptionally(throwable);
+            } else {
+                loading.complete(packageInfo);
+            }
+        });
+        return loading;
+    }
+
+    public void put(PackageInfo packageInfo) {
+        if (packageInfo != null && packageInfo.getId() != null) {
+            cache.put(packageInfo.getId(), packageInfo);
+        }
+    }
+
+    static int weigh(String id, PackageInfo packageInfo) {
+        return ENTRY_OVERHEAD_BYTES + 2 * (length(id)
+                + length(packageInfo.getId())
+                + length(packageInfo.getVersionId())
+                + length(packageInfo.getMd5())
+                + length(packageInfo.getFileName())
+                + length(packageInfo.getUserId()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final CacheStats stats = cache.stats();
+        return Arrays.asList(
+                new Metric<>("cache.packages.size", cache.size()),
+                new Metric<>("cache.packages.hit", stats.hitCount()),
+                new Metric<>("cache.packages.miss", stats.missCount()),
+                new Metric<>("cache.packages.eviction", stats.evictionCount()),
+                new Metric<>("cache.packages.hit.ratio", stats.hitRate())
+        );
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.barracks.membergateway.model.DataSet;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a materialized snapshot of the per segment stats of the users, so that reading them does not cost a call to
+ * the downstream services per segment.
+ * <p>
+ * A snapshot is built on the first read through {@link #load(String, Source)}. Past {@code refresh_ms}, it is rebuilt in
+ * the background only if it was read since it was last built, so that a snapshot nobody looks at costs no call to the
+ * downstream services. A write through the gateway invalidates either a single segment, which is reloaded on its own,
+ * or the whole snapshot. A snapshot which could not be rebuilt for {@code max_age_ms} is no longer served, and a
+ * snapshot not read for {@code idle_ms} is dropped.
+ * <p>
+ * Rebuilds run on {@code refresh_pool_size} "stats-snapshot" threads. At most {@code max_refreshes_per_cycle} of them
+ * are queued at once, the least recently built snapshots first, the others waiting for the next cycle.
+ */
+@Component
+public class StatsSnapshotStore implements PublicMetrics, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(StatsSnapshotStore.class);
+
+    private static final String THREAD_NAME_PREFIX = "stats-snapshot-";
+
+    private final Cache<String, Snapshot> snapshots;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService refreshExecutor;
+    private final Ticker ticker;
+    private final long refreshNanos;
+    private final long maxAgeNanos;
+    private final int maxRefreshesPerCycle;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder fullRefreshes = new LongAdder();
+    private final LongAdder segmentRefreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+
+    @Autowired
+    public StatsSnapshotStore(
+            @Value("${io.barracks.stats.snapshot.max_users:10000}") long maxUsers,
+            @Value("${io.barracks.stats.snapshot.refresh_ms:60000}") long refresh,
+            @Value("${io.barracks.stats.snapshot.max_age_ms:300000}") long maxAge,
+            @Value("${io.barracks.stats.snapshot.idle_ms:1800000}") long idle,
+            @Value("${io.barracks.stats.snapshot.refresh_pool_size:4}") int refreshPoolSize,
+            @Value("${io.barracks.stats.snapshot.max_refreshes_per_cycle:64}") int maxRefreshesPerCycle
+    ) {
+        this(maxUsers, refresh, maxAge, idle, maxRefreshesPerCycle, Ticker.systemTicker(), newRefreshExecutor(refreshPoolSize, maxRefreshesPerCycle), true);
+    }
+
+    StatsSnapshotStore(
+            long maxUsers, long refresh, long maxAge, long idle, int maxRefreshesPerCycle,
+            Ticker ticker, ExecutorService refreshExecutor, boolean scheduled
+    ) {
+        this.ticker = ticker;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refresh);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        this.maxRefreshesPerCycle = maxRefreshesPerCycle;
+        this.snapshots = CacheBuilder.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idle, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        this.refreshExecutor = refreshExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + "scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (scheduled) {
+            final long period = Math.max(100L, Math.min(refresh, 1000L));
+            scheduler.scheduleWithFixedDelay(this::refreshAll, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ExecutorService newRefreshExecutor(int poolSize, int queueCapacity) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the snapshot of the user with its tag, or null if there is none or if it could not be rebuilt for too long
+     */
+    public TaggedDataSet getIfFresh(String userId) {
+        final Snapshot snapshot = snapshots.getIfPresent(userId);
+        if (snapshot != null && ticker.read() - snapshot.refreshedAt < maxAgeNanos) {
+            snapshot.read = true;
+            hits.increment();
+            return snapshot.content;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Builds the snapshot of the user, concurrent calls for the same user sharing the same load.
+     */
+    public TaggedDataSet load(String userId, Source source) {
+        final Snapshot snapshot = snapshots.getIfPresent(userId);
+        if (snapshot != null && ticker.read() - snapshot.refreshedAt >= maxAgeNanos) {
+            snapshots.asMap().remove(userId, snapshot);
+        }
+        try {
+            final Snapshot loaded = snapshots.get(userId, () -> new Snapshot(source, source.loadAll(userId), ticker.read()));
+            if (loaded == snapshot) {
+                loaded.read = true;
+            }
+            return loaded.content;
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Reloads the whole snapshot of the user in the background, the segments having changed.
+     */
+    public void invalidate(String userId) {
+        final Snapshot snapshot = userId == null ? null : snapshots.asMap().get(userId);
+        if (snapshot != null) {
+            snapshot.fullRefresh = true;
+            scheduleRefresh(userId, snapshot);
+        }
+    }
+
+    /**
+     * Reloads the stats of a single segment of the user in the background.
+     */
+    public void invalidateSegment(String userId, String segmentId) {
+        final Snapshot snapshot = userId == null ? null : snapshots.asMap().get(userId);
+        if (snapshot != null) {
+            snapshot.dirtySegments.add(segmentId);
+            scheduleRefresh(userId, snapshot);
+        }
+    }
+
+    private boolean scheduleRefresh(String userId, Snapshot snapshot) {
+        if (snapshot.queued.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> refresh(userId, snapshot));
+                return true;
+            } catch (RejectedExecutionException e) {
+                snapshot.queued.set(false);
+                deferred.increment();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues the rebuild of the snapshots which were invalidated, or which are due and were read since they were last
+     * built, up to {@code max_refreshes_per_cycle}.
+     */
+    void refreshAll() {
+        final long now = ticker.read();
+        final List<Map.Entry<String, Snapshot>> due = new ArrayList<>();
+        snapshots.asMap().forEach((userId, snapshot) -> {
+            if (!snapshot.queued.get() && (snapshot.fullRefresh
+                    || !snapshot.dirtySegments.isEmpty()
+                    || (snapshot.read && now - snapshot.refreshedAt >= refreshNanos))) {
+                due.add(new AbstractMap.SimpleImmutableEntry<>(userId, snapshot));
+            }
+        });
+        due.sort(Comparator.comparingLong(entry -> entry.getValue().refreshedAt));
+        int queued = 0;
+        for (Map.Entry<String, Snapshot> entry : due) {
+            if (queued >= maxRefreshesPerCycle) {
+                deferred.add(due.size() - queued);
+                break;
+            }
+            if (scheduleRefresh(entry.getKey(), entry.getValue())) {
+                queued++;
+            }
+        }
+    }
+
+    void refresh(String userId, Snapshot snapshot) {
+        snapshot.queued.set(false);
+        final boolean invalidated = snapshot.fullRefresh;
+        final Set<String> segmentIds = new HashSet<>(snapshot.dirtySegments);
+        snapshot.dirtySegments.removeAll(segmentIds);
+        final boolean full = snapshot.fullRefresh
+                || ticker.read() - snapshot.refreshedAt >= refreshNanos
+                || !snapshot.segments.keySet().containsAll(segmentIds);
+        snapshot.fullRefresh = false;
+        try {
+            if (full) {
+                snapshot.read = false;
+                snapshot.update(snapshot.source.loadAll(userId), ticker.read());
+                fullRefreshes.increment();
+            } else if (!segmentIds.isEmpty()) {
+                final Map<String, SegmentStats> segments = new LinkedHashMap<>(snapshot.segments);
+                for (String segmentId : segmentIds) {
+                    segments.put(segmentId, snapshot.source.load(userId, segmentId, segments.get(segmentId)));
+                    segmentRefreshes.increment();
+                }
+                snapshot.update(segments, snapshot.refreshedAt);
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+            if (invalidated) {
+                snapshot.fullRefresh = true;
+            } else if (full) {
+                snapshot.read = true;
+            }
+            snapshot.dirtySegments.addAll(segmentIds);
+            logger.warn("Failed to refresh the stats snapshot of user '{}' ({})", userId, e.getMessage());
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("stats.snapshot.size", snapshots.size()),
+                new Metric<>("stats.snapshot.hit", hits.sum()),
+                new Metric<>("stats.snapshot.miss", misses.sum()),
+                new Metric<>("stats.snapshot.refresh.full", fullRefreshes.sum()),
+                new Metric<>("stats.snapshot.refresh.segment", segmentRefreshes.sum()),
+                new Metric<>("stats.snapshot.refresh.failure", failures.sum()),
+                new Metric<>("stats.snapshot.refresh.deferred", deferred.sum())
+        );
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Loads the stats the snapshots are made of.
+     */
+    public interface Source {
+        /**
+         * @return the stats of every segment of the user, by segment id
+         */
+        Map<String, SegmentStats> loadAll(String userId);
+
+        SegmentStats load(String userId, String segmentId, SegmentStats previous);
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    @AllArgsConstructor
+    public static class SegmentStats {
+        private final String name;
+        private final long deviceCount;
+        private final BigDecimal value;
+    }
+
+    /**
+     * Stats of a snapshot along with a strong tag of their content, read together so that they always match.
+     */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    @AllArgsConstructor
+    public static class TaggedDataSet {
+        private final DataSet dataSet;
+        private final String etag;
+    }
+
+    static final class Snapshot {
+        private final Source source;
+        private final Set<String> dirtySegments = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private volatile boolean fullRefresh;
+        private volatile boolean read;
+        private volatile Map<String, SegmentStats> segments;
+        private volatile TaggedDataSet content;
+        private volatile long refreshedAt;
+
+        private Snapshot(Source source, Map<String, SegmentStats> segments, long refreshedAt) {
+            this.source = source;
+            update(segments, refreshedAt);
+        }
+
+        private void update(Map<String, SegmentStats> segments, long refreshedAt) {
+            final Map<String, BigDecimal> values = new HashMap<>();
+            segments.values().forEach(stats -> values.put(stats.getName(), stats.getValue()));
+            final BigDecimal total = values.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+            this.segments = Collections.unmodifiableMap(new LinkedHashMap<>(segments));
+            this.content = new TaggedDataSet(DataSet.builder().values(values).total(total).build(), tag(values, total));
+            this.refreshedAt = refreshedAt;
+        }
+
+        private static String tag(Map<String, BigDecimal> values, BigDecimal total) {
+            final Hasher hasher = Hashing.murmur3_128().newHasher();
+            values.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey(Comparator.nullsFirst(Comparator.naturalOrder())))
+                    .forEach(entry -> hasher.putUnencodedChars(String.valueOf(entry.getKey())).putChar('\0')
+                            .putUnencodedChars(String.valueOf(entry.getValue())).putChar('\0'));
+            return hasher.putUnencodedChars(total.toString()).hash().toString();
+        }
+    }
+}
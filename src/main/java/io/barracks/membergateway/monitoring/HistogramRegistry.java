@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import com.google.common.base.Ticker;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latency and call count histograms of the service client and resource methods, and exposes their
+ * percentiles over the last {@code window_ms} to {@code 2 * window_ms} as metrics.
+ * <p>
+ * Latencies are recorded with a microsecond resolution and reported in milliseconds. For each histogram, the
+ * {@code <name>.count} metric is the number of values recorded since startup.
+ */
+@Component
+public class HistogramRegistry implements PublicMetrics {
+    private static final double[] PERCENTILES = {50D, 90D, 99D};
+
+    private final Map<String, RollingHistogram> latencies = new ConcurrentSkipListMap<>();
+    private final Map<String, RollingHistogram> counts = new ConcurrentSkipListMap<>();
+    private final Ticker ticker;
+    private final long windowNanos;
+
+    @Autowired
+    public HistogramRegistry(@Value("${io.barracks.monitoring.histogram_window_ms:60000}") long window) {
+        this(window, Ticker.systemTicker());
+    }
+
+    HistogramRegistry(long window, Ticker ticker) {
+        this.ticker = ticker;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+    }
+
+    public void recordLatency(String name, long nanos) {
+        latencies.computeIfAbsent(name, key -> new RollingHistogram(ticker, windowNanos)).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordCount(String name, long count) {
+        counts.computeIfAbsent(name, key -> new RollingHistogram(ticker, windowNanos)).record(count);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        latencies.forEach((name, histogram) -> addMetrics(metrics, name, histogram, TimeUnit.MILLISECONDS.toMicros(1)));
+        counts.forEach((name, histogram) -> addMetrics(metrics, name, histogram, 1L));
+        return metrics;
+    }
+
+    private static void addMetrics(List<Metric<?>> metrics, String name, RollingHistogram histogram, long unit) {
+        final Histogram snapshot = histogram.snapshot();
+        metrics.add(new Metric<>(name + ".count", histogram.getCount()));
+        for (double percentile : PERCENTILES) {
+            metrics.add(new Metric<>(name + ".p" + (int) percentile, (double) snapshot.getValueAtPercentile(percentile) / unit));
+        }
+        metrics.add(new Metric<>(name + ".max", (double) snapshot.getMaxValue() / unit));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import com.google.common.base.Ticker;
+
+import java.util.function.Supplier;
+
+/**
+ * Accounts for the downstream calls made on behalf of one inbound request.
+ * <p>
+ * The trace is bound to the threads working for the request: the container thread by {@link RequestTraceFilter},
+ * and the pool threads by the executors the work is handed to, through {@link #wrap(Runnable)} and
+ * {@link #wrap(Supplier)}. The downstream time is the time during which at least one call was in flight, so that
+ * concurrent calls are not counted twice; the remainder of the request is its own time.
+ */
+public final class RequestTrace {
+    public static final String ATTRIBUTE = RequestTrace.class.getName() + ".TRACE";
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final Ticker ticker;
+    private final long startTime;
+    private volatile String handler;
+    private int calls;
+    private int inFlight;
+    private long busySince;
+    private long downstreamNanos;
+
+    public RequestTrace(Ticker ticker) {
+        this.ticker = ticker;
+        this.startTime = ticker.read();
+    }
+
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs {@code runnable} with {@code trace} bound to the calling thread, typically to complete a future whose
+     * dependent stages may issue further downstream calls.
+     */
+    public static void run(RequestTrace trace, Runnable runnable) {
+        final RequestTrace previous = CURRENT.get();
+        bind(trace);
+        try {
+            runnable.run();
+        } finally {
+            bind(previous);
+        }
+    }
+
+    /**
+     * @return a runnable running {@code runnable} with the trace of the calling thread bound
+     */
+    public static Runnable wrap(Runnable runnable) {
+        final RequestTrace trace = current();
+        if (trace == null) {
+            return runnable;
+        }
+        return () -> run(trace, runnable);
+    }
+
+    /**
+     * @return a supplier calling {@code supplier} with the trace of the calling thread bound
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> supplier) {
+        final RequestTrace trace = current();
+        if (trace == null) {
+            return supplier;
+        }
+        return () -> {
+            final RequestTrace previous = CURRENT.get();
+            bind(trace);
+            try {
+                return supplier.get();
+            } finally {
+                bind(previous);
+            }
+        };
+    }
+
+    static void bind(RequestTrace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    public String getHandler() {
+        return handler;
+    }
+
+    public void setHandler(String handler) {
+        this.handler = handler;
+    }
+
+    public synchronized void callStarted() {
+        calls++;
+        if (inFlight++ == 0) {
+            busySince = ticker.read();
+        }
+    }
+
+    public synchronized void callEnded() {
+        if (inFlight > 0 && --inFlight == 0) {
+            downstreamNanos += ticker.read() - busySince;
+        }
+    }
+
+    public synchronized int getCalls() {
+        return calls;
+    }
+
+    public long getElapsedNanos() {
+        return ticker.read() - startTime;
+    }
+
+    public synchronized long getDownstreamNanos() {
+        return inFlight == 0 ? downstreamNanos : downstreamNanos + ticker.read() - busySince;
+    }
+
+    public long getOwnNanos() {
+        return Math.max(0L, getElapsedNanos() - getDownstreamNanos());
+    }
+}
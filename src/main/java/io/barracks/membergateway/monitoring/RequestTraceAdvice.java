@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When {@code io.barracks.monitoring.debug_headers} is set, tells in the response how many downstream calls the
+ * request triggered, and how its time so far splits between the downstream services and the gateway itself.
+ */
+@ControllerAdvice
+public class RequestTraceAdvice implements ResponseBodyAdvice<Object> {
+    static final String CALLS_HEADER = "X-Downstream-Calls";
+    static final String DOWNSTREAM_TIME_HEADER = "X-Downstream-Time-Ms";
+    static final String OWN_TIME_HEADER = "X-Own-Time-Ms";
+
+    private final boolean enabled;
+
+    public RequestTraceAdvice(@Value("${io.barracks.monitoring.debug_headers:false}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return enabled;
+    }
+
+    @Override
+    public Object beforeBodyWrite(
+            Object body, MethodParameter returnType, MediaType selectedContentType,
+            Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response
+    ) {
+        if (request instanceof ServletServerHttpRequest) {
+            final Object attribute = ((ServletServerHttpRequest) request).getServletRequest().getAttribute(RequestTrace.ATTRIBUTE);
+            if (attribute instanceof RequestTrace) {
+                final RequestTrace trace = (RequestTrace) attribute;
+                response.getHeaders().set(CALLS_HEADER, Integer.toString(trace.getCalls()));
+                response.getHeaders().set(DOWNSTREAM_TIME_HEADER, Long.toString(TimeUnit.NANOSECONDS.toMillis(trace.getDownstreamNanos())));
+                response.getHeaders().set(OWN_TIME_HEADER, Long.toString(TimeUnit.NANOSECONDS.toMillis(trace.getOwnNanos())));
+            }
+        }
+        return body;
+    }
+}
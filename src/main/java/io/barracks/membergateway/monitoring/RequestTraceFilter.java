@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import com.google.common.base.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Opens a {@link RequestTrace} for every inbound request and, once its response is complete, records the latency,
+ * number of downstream calls, downstream time and own time of the resource method that handled it.
+ * <p>
+ * It runs ahead of the security filters, so that the resolution of the user's token is accounted for. Requests that
+ * were not handled by a resource method, such as the rejected ones, are not recorded.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RequestTraceFilter extends OncePerRequestFilter {
+    private final HistogramRegistry histogramRegistry;
+    private final Ticker ticker;
+
+    @Autowired
+    public RequestTraceFilter(HistogramRegistry histogramRegistry) {
+        this(histogramRegistry, Ticker.systemTicker());
+    }
+
+    RequestTraceFilter(HistogramRegistry histogramRegistry, Ticker ticker) {
+        this.histogramRegistry = histogramRegistry;
+        this.ticker = ticker;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        final RequestTrace trace = new RequestTrace(ticker);
+        request.setAttribute(RequestTrace.ATTRIBUTE, trace);
+        RequestTrace.bind(trace);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestTrace.bind(null);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompletionListener(trace));
+            } else {
+                record(trace);
+            }
+        }
+    }
+
+    void record(RequestTrace trace) {
+        final String handler = trace.getHandler();
+        if (handler == null) {
+            return;
+        }
+        histogramRegistry.recordLatency("latency.resource." + handler, trace.getElapsedNanos());
+        histogramRegistry.recordCount("calls.resource." + handler, trace.getCalls());
+        histogramRegistry.recordLatency("downstream.resource." + handler, trace.getDownstreamNanos());
+        histogramRegistry.recordLatency("own.resource." + handler, trace.getOwnNanos());
+    }
+
+    private final class CompletionListener implements AsyncListener {
+        private final RequestTrace trace;
+
+        private CompletionListener(RequestTrace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            record(trace);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // Recorded on completion
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // Recorded on completion
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
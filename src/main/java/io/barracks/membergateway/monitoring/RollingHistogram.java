@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import com.google.common.base.Ticker;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records values without locking and reports them over the last one to two windows of {@code windowNanos}.
+ * <p>
+ * The windows are rotated when a snapshot is taken, values recorded since the previous snapshot being accounted for
+ * in the current window.
+ */
+final class RollingHistogram {
+    static final int SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder count = new LongAdder();
+    private final Ticker ticker;
+    private final long windowNanos;
+
+    private Histogram interval;
+    private Histogram current = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram previous = new Histogram(SIGNIFICANT_DIGITS);
+    private long windowStart;
+
+    RollingHistogram(Ticker ticker, long windowNanos) {
+        this.ticker = ticker;
+        this.windowNanos = windowNanos;
+        this.windowStart = ticker.read();
+    }
+
+    void record(long value) {
+        recorder.recordValue(Math.max(0L, value));
+        count.increment();
+    }
+
+    /**
+     * @return the number of values recorded since startup
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    synchronized Histogram snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        final long now = ticker.read();
+        if (now - windowStart >= 2 * windowNanos) {
+            previous.reset();
+            current.reset();
+            windowStart = now;
+        } else if (now - windowStart >= windowNanos) {
+            final Histogram expired = previous;
+            previous = current;
+            current = expired;
+            current.reset();
+            windowStart = now;
+        }
+        current.add(interval);
+        final Histogram snapshot = previous.copy();
+        snapshot.add(current);
+        return snapshot;
+    }
+}
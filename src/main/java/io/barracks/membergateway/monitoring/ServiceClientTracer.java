@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import com.google.common.base.Ticker;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records the latency of every service client method, and counts its calls in the {@link RequestTrace} of the
+ * calling thread, if any. The calls returning a {@link CompletableFuture} last until the future is complete.
+ */
+@Aspect
+@Component
+public class ServiceClientTracer {
+    private final HistogramRegistry histogramRegistry;
+    private final Ticker ticker;
+
+    @Autowired
+    public ServiceClientTracer(HistogramRegistry histogramRegistry) {
+        this(histogramRegistry, Ticker.systemTicker());
+    }
+
+    ServiceClientTracer(HistogramRegistry histogramRegistry, Ticker ticker) {
+        this.histogramRegistry = histogramRegistry;
+        this.ticker = ticker;
+    }
+
+    @Around("execution(public * io.barracks.membergateway.client.*Client.*(..))")
+    public Object trace(ProceedingJoinPoint joinPoint) throws Throwable {
+        final String name = "latency.client." + joinPoint.getSignature().getDeclaringType().getSimpleName() + '.' + joinPoint.getSignature().getName();
+        final RequestTrace trace = RequestTrace.current();
+        final long start = ticker.read();
+        if (trace != null) {
+            trace.callStarted();
+        }
+        boolean pending = false;
+        try {
+            final Object result = joinPoint.proceed();
+            if (result instanceof CompletableFuture) {
+                pending = true;
+                ((CompletableFuture<?>) result).whenComplete((value, failure) -> callEnded(name, trace, start));
+            }
+            return result;
+        } finally {
+            if (!pending) {
+                callEnded(name, trace, start);
+            }
+        }
+    }
+
+    private void callEnded(String name, RequestTrace trace, long start) {
+        if (trace != null) {
+            trace.callEnded();
+        }
+        histogramRegistry.recordLatency(name, ticker.read() - start);
+    }
+}
@@ -30,8 +30,8 @@ import io.barracks.membergateway.exception.BarracksQueryFormatException;
 import io.barracks.membergateway.manager.DeviceManager;
 import io.barracks.membergateway.model.BarracksQuery;
 import io.barracks.membergateway.model.Device;
+import io.barracks.membergateway.rest.util.AsyncRequestExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.hateoas.PagedResources;
@@ -40,6 +40,8 @@ import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/devices")
@@ -47,29 +49,38 @@ public class DeviceResource {
     private final DeviceManager deviceManager;
     private final PagedResourcesAssembler<Device> devicePagedResourcesAssembler;
     private final ObjectMapper mapper;
+    private final AsyncRequestExecutor asyncRequestExecutor;
 
     @Autowired
-    public DeviceResource(ObjectMapper mapper, DeviceManager deviceManager, PagedResourcesAssembler<Device> devicePagedResourcesAssembler) {
+    public DeviceResource(
+            ObjectMapper mapper,
+            DeviceManager deviceManager,
+            PagedResourcesAssembler<Device> devicePagedResourcesAssembler,
+            AsyncRequestExecutor asyncRequestExecutor
+    ) {
         this.mapper = mapper;
         this.deviceManager = deviceManager;
         this.devicePagedResourcesAssembler = devicePagedResourcesAssembler;
+        this.asyncRequestExecutor = asyncRequestExecutor;
     }
 
     @RequestMapping(method = RequestMethod.GET)
-    public PagedResources<?> getDevices(@RequestParam(required = false, defaultValue = "") String query, Pageable pageable, Principal principal) {
-        final Page<Device> devices;
+    public CompletableFuture<PagedResources<?>> getDevices(@RequestParam(required = false, defaultValue = "") String query, Pageable pageable, Principal principal) {
+        final JsonNode jsonQuery;
         try {
-            final JsonNode jsonQuery = StringUtils.isEmpty(query) ? null : mapper.readTree(query);
-            devices = deviceManager.getDevices(principal.getName(), pageable, new BarracksQuery(jsonQuery));
-            return devicePagedResourcesAssembler.toResource(devices);
+            jsonQuery = StringUtils.isEmpty(query) ? null : mapper.readTree(query);
         } catch (IOException e) {
             throw new BarracksQueryFormatException(query, e);
         }
+        return asyncRequestExecutor.thenApply(
+                deviceManager.getDevicesAsync(principal.getName(), pageable, new BarracksQuery(jsonQuery)),
+                devicePagedResourcesAssembler::toResource
+        );
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{unitId}")
-    public Device getDevice(Principal principal, @PathVariable("unitId") String unitId) {
-        return deviceManager.getDeviceByUserIdAndUnitId(principal.getName(), unitId);
+    public CompletableFuture<Device> getDevice(Principal principal, @PathVariable("unitId") String unitId) {
+        return asyncRequestExecutor.thenApply(deviceManager.getDeviceByUserIdAndUnitIdAsync(principal.getName(), unitId), Function.identity());
     }
 
 }
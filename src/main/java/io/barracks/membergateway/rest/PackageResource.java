@@ -25,14 +25,31 @@
 package io.barracks.membergateway.rest;
 
 import io.barracks.membergateway.manager.PackageManager;
+import io.barracks.membergateway.manager.PackageUploadManager;
 import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.rest.entity.PackageUpload;
+import io.barracks.membergateway.rest.util.StreamingMultipartFilter;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.support.MissingServletRequestPartException;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 
 @RestController
@@ -42,21 +59,142 @@ public class PackageResource {
     @Autowired
     private PackageManager packageManager;
 
+    @Autowired
+    private PackageUploadManager packageUploadManager;
+
+    @Value("${io.barracks.packageservice.upload.max_file_size_bytes:2147483648}")
+    private long maxFileSize;
+
     @RequestMapping(method = RequestMethod.POST)
-    public ResponseEntity<?> uploadPackage(@RequestParam("file") MultipartFile multipartFile, @RequestParam("versionId") String versionId, Principal principal) {
+    public ResponseEntity<?> uploadPackage(
+            @RequestParam(value = "file", required = false) MultipartFile multipartFile,
+            @RequestParam(value = "versionId", required = false) String versionId,
+            @RequestParam(value = "md5", required = false) String md5,
+            HttpServletRequest request,
+            Principal principal
+    ) throws ServletException {
         try {
+            if (multipartFile == null) {
+                return new ResponseEntity<>(streamPackage(request, versionId, md5, principal), HttpStatus.CREATED);
+            }
+            if (versionId == null) {
+                throw new MissingServletRequestParameterException("versionId", String.class.getSimpleName());
+            }
             final PackageInfo packageInfo = packageManager.upload(
                     multipartFile.getOriginalFilename(),
                     multipartFile.getContentType(),
                     multipartFile.getInputStream(),
                     multipartFile.getSize(),
                     versionId,
-                    principal.getName()
+                    principal.getName(),
+                    md5
             );
             return new ResponseEntity<>(packageInfo, HttpStatus.CREATED);
-        } catch (IOException e) {
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (FileUploadBase.FileUploadIOException e) {
+            return getUploadError(e.getCause());
+        } catch (IOException | FileUploadException e) {
+            return getUploadError(e);
+        } catch (ResourceAccessException e) {
+            if (e.getCause() instanceof FileUploadBase.FileUploadIOException) {
+                return getUploadError(e.getCause().getCause());
+            }
+            throw e;
+        }
+    }
+
+    private static ResponseEntity<?> getUploadError(Throwable e) {
+        if (e instanceof FileUploadBase.FileSizeLimitExceededException) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Pipes the "file" part of a request left unparsed by {@link StreamingMultipartFilter} straight to the package
+     * service. The version id and the optional MD5 have to be given in the query string or in parts preceding the file.
+     */
+    PackageInfo streamPackage(HttpServletRequest request, String versionId, String md5, Principal principal) throws ServletException, IOException, FileUploadException {
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            throw new MissingServletRequestPartException("file");
+        }
+        final ServletFileUpload fileUpload = new ServletFileUpload();
+        fileUpload.setFileSizeMax(maxFileSize);
+        final FileItemIterator items = fileUpload.getItemIterator(request);
+        while (items.hasNext()) {
+            final FileItemStream item = items.next();
+            if (item.isFormField()) {
+                if ("versionId".equals(item.getFieldName())) {
+                    versionId = Streams.asString(item.openStream(), StandardCharsets.UTF_8.name());
+                } else if ("md5".equals(item.getFieldName())) {
+                    md5 = Streams.asString(item.openStream(), StandardCharsets.UTF_8.name());
+                }
+            } else if ("file".equals(item.getFieldName())) {
+                if (versionId == null) {
+                    throw new MissingServletRequestParameterException("versionId", String.class.getSimpleName());
+                }
+                return packageManager.upload(
+                        item.getName(),
+                        item.getContentType(),
+                        item.openStream(),
+                        getPartSize(item),
+                        versionId,
+                        principal.getName(),
+                        md5
+                );
+            }
+        }
+        throw new MissingServletRequestPartException("file");
+    }
+
+    private static long getPartSize(FileItemStream item) {
+        final String contentLength = item.getHeaders() == null ? null : item.getHeaders().getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1L;
         }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.POST, path = "/uploads")
+    public ResponseEntity<PackageUpload> initiateUpload(
+            @RequestParam(value = "fileName") String fileName,
+            @RequestParam(value = "size") long size,
+            @RequestParam(value = "versionId") String versionId,
+            @RequestParam(value = "contentType", defaultValue = "application/octet-stream") String contentType,
+            @RequestParam(value = "md5", required = false) String md5,
+            Principal principal
+    ) throws IOException {
+        final PackageUpload upload = packageUploadManager.initiate(fileName, contentType, size, versionId, principal.getName(), md5);
+        return new ResponseEntity<>(upload, HttpStatus.CREATED);
+    }
+
+    @RequestMapping(method = RequestMethod.PUT, path = "/uploads/{uploadId}")
+    public PackageUpload appendChunk(
+            @PathVariable("uploadId") String uploadId,
+            @RequestParam(value = "offset") long offset,
+            HttpServletRequest request,
+            Principal principal
+    ) throws IOException {
+        return packageUploadManager.append(uploadId, offset, request.getInputStream(), principal.getName());
+    }
+
+    @RequestMapping(method = RequestMethod.GET, path = "/uploads/{uploadId}")
+    public PackageUpload getUpload(@PathVariable("uploadId") String uploadId, Principal principal) {
+        return packageUploadManager.getUpload(uploadId, principal.getName());
+    }
+
+    @RequestMapping(method = RequestMethod.POST, path = "/uploads/{uploadId}/complete")
+    public ResponseEntity<PackageInfo> completeUpload(@PathVariable("uploadId") String uploadId, Principal principal) throws IOException {
+        return new ResponseEntity<>(packageUploadManager.complete(uploadId, principal.getName()), HttpStatus.CREATED);
+    }
+
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @RequestMapping(method = RequestMethod.DELETE, path = "/uploads/{uploadId}")
+    public void abortUpload(@PathVariable("uploadId") String uploadId, Principal principal) {
+        packageUploadManager.abort(uploadId, principal.getName());
     }
 
     @ResponseStatus(HttpStatus.OK)
@@ -30,6 +30,7 @@ import io.barracks.membergateway.model.DetailedUpdate;
 import io.barracks.membergateway.model.Device;
 import io.barracks.membergateway.model.Segment;
 import io.barracks.membergateway.rest.entity.SegmentsOrder;
+import io.barracks.membergateway.rest.util.AsyncRequestExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
@@ -40,6 +41,8 @@ import org.springframework.web.bind.annotation.*;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/segments")
@@ -49,6 +52,7 @@ public class SegmentResource {
     private final PagedResourcesAssembler<Segment> segmentPagedResourcesAssembler;
     private final PagedResourcesAssembler<Device> devicePagedResourcesAssembler;
     private final PagedResourcesAssembler<DetailedUpdate> detailedUpdatePagedResourcesAssembler;
+    private final AsyncRequestExecutor asyncRequestExecutor;
 
     @Autowired
     public SegmentResource(
@@ -56,53 +60,56 @@ public class SegmentResource {
             UpdateManager updateManager,
             PagedResourcesAssembler<Segment> segmentPagedResourcesAssembler,
             PagedResourcesAssembler<DetailedUpdate> detailedUpdatePagedResourcesAssembler,
-            PagedResourcesAssembler<Device> devicePagedResourcesAssembler) {
+            PagedResourcesAssembler<Device> devicePagedResourcesAssembler,
+            AsyncRequestExecutor asyncRequestExecutor) {
         this.segmentManager = segmentManager;
         this.updateManager = updateManager;
         this.segmentPagedResourcesAssembler = segmentPagedResourcesAssembler;
         this.detailedUpdatePagedResourcesAssembler = detailedUpdatePagedResourcesAssembler;
         this.devicePagedResourcesAssembler = devicePagedResourcesAssembler;
+        this.asyncRequestExecutor = asyncRequestExecutor;
     }
 
     @RequestMapping(method = RequestMethod.POST)
-    public Segment createSegment(@RequestBody Segment segment, Principal authentication) {
-        return segmentManager.createSegment(authentication.getName(), segment);
+    public CompletableFuture<Segment> createSegment(@RequestBody Segment segment, Principal authentication) {
+        return asyncRequestExecutor.supply(() -> segmentManager.createSegment(authentication.getName(), segment));
     }
 
     @RequestMapping(method = RequestMethod.PUT, path = "/{id}")
-    public Segment updateSegment(@PathVariable("id") String segmentId, @RequestBody Segment segment, Principal authentication) {
-        return segmentManager.updateSegment(authentication.getName(), segmentId, segment);
+    public CompletableFuture<Segment> updateSegment(@PathVariable("id") String segmentId, @RequestBody Segment segment, Principal authentication) {
+        return asyncRequestExecutor.supply(() -> segmentManager.updateSegment(authentication.getName(), segmentId, segment));
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{id}")
-    public Segment getSegment(@PathVariable("id") String segmentId, Principal authentication) {
-        return segmentManager.getSegmentForUser(authentication.getName(), segmentId);
+    public CompletableFuture<Segment> getSegment(@PathVariable("id") String segmentId, Principal authentication) {
+        return asyncRequestExecutor.thenApply(segmentManager.getSegmentForUserAsync(authentication.getName(), segmentId), Function.identity());
     }
 
     @RequestMapping
-    public PagedResources<Resource<Segment>> getSegments(Pageable pageable, Principal authentication) {
-        return segmentPagedResourcesAssembler.toResource(segmentManager.getSegmentsForUser(authentication.getName(), pageable));
+    public CompletableFuture<PagedResources<Resource<Segment>>> getSegments(Pageable pageable, Principal authentication) {
+        return asyncRequestExecutor.thenApply(segmentManager.getSegmentsForUserAsync(authentication.getName(), pageable), segmentPagedResourcesAssembler::toResource);
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{id}/devices")
-    public PagedResources<Resource<Device>> getSegmentDevices(@PathVariable("id") String segmentId, Pageable pageable, Principal authentication) {
-        return devicePagedResourcesAssembler.toResource(segmentManager.getDevicesBySegment(authentication.getName(), segmentId, pageable));
+    public CompletableFuture<PagedResources<Resource<Device>>> getSegmentDevices(@PathVariable("id") String segmentId, Pageable pageable, Principal authentication) {
+        return asyncRequestExecutor.thenApply(segmentManager.getDevicesBySegmentAsync(authentication.getName(), segmentId, pageable), devicePagedResourcesAssembler::toResource);
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{id}/updates")
-    public PagedResources<Resource<DetailedUpdate>> getSegmentUpdates(@PathVariable("id") String segmentId, Pageable pageable, Principal authentication) {
-        return detailedUpdatePagedResourcesAssembler.toResource(
-                updateManager.getUpdatesByStatusesAndSegments(pageable, authentication.getName(), Collections.emptyList(), Collections.singletonList(segmentId))
+    public CompletableFuture<PagedResources<Resource<DetailedUpdate>>> getSegmentUpdates(@PathVariable("id") String segmentId, Pageable pageable, Principal authentication) {
+        return asyncRequestExecutor.thenApply(
+                updateManager.getUpdatesByStatusesAndSegmentsAsync(pageable, authentication.getName(), Collections.emptyList(), Collections.singletonList(segmentId)),
+                detailedUpdatePagedResourcesAssembler::toResource
         );
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/order")
-    public SegmentsOrder getOrderedSegments(Principal authentication) {
-        return segmentManager.getOrderedSegments(authentication.getName());
+    public CompletableFuture<SegmentsOrder> getOrderedSegments(Principal authentication) {
+        return asyncRequestExecutor.thenApply(segmentManager.getOrderedSegmentsAsync(authentication.getName()), Function.identity());
     }
 
     @RequestMapping(method = RequestMethod.POST, path = "/order")
-    public List<String> updateSegmentsOrder(@RequestBody List<String> order, Principal authentication) {
-        return segmentManager.updateSegmentsOrder(authentication.getName(), order);
+    public CompletableFuture<List<String>> updateSegmentsOrder(@RequestBody List<String> order, Principal authentication) {
+        return asyncRequestExecutor.supply(() -> segmentManager.updateSegmentsOrder(authentication.getName(), order));
     }
 }
@@ -25,15 +25,19 @@
 package io.barracks.membergateway.rest;
 
 import io.barracks.membergateway.manager.StatsManager;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.DataSet;
+import io.barracks.membergateway.rest.util.AsyncRequestExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.security.Principal;
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/stats")
@@ -41,19 +45,21 @@ public class StatsResource {
     static final OffsetDateTime DEFAULT_START = OffsetDateTime.MIN;
     static final OffsetDateTime DEFAULT_END = OffsetDateTime.MAX;
     private final StatsManager statsManager;
+    private final AsyncRequestExecutor asyncRequestExecutor;
 
     @Autowired
-    public StatsResource(StatsManager statsManager) {
+    public StatsResource(StatsManager statsManager, AsyncRequestExecutor asyncRequestExecutor) {
         this.statsManager = statsManager;
+        this.asyncRequestExecutor = asyncRequestExecutor;
     }
 
     @RequestMapping("/devices/perVersionId")
-    public DataSet getDeviceCountPerVersionId(Principal principal) {
+    public CompletableFuture<DataSet> getDeviceCountPerVersionId(Principal principal) {
         return statsManager.getDevicesPerVersionId(principal.getName());
     }
 
     @RequestMapping("/devices/lastSeen")
-    public DataSet getLastSeenDevices(
+    public CompletableFuture<DataSet> getLastSeenDevices(
             Principal principal,
             @RequestParam(required = false, name = "start")
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
@@ -62,17 +68,13 @@ public class StatsResource {
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
                     OffsetDateTime end
     ) {
-        if (start == null) {
-            start = DEFAULT_START;
-        }
-        if (end == null) {
-            end = DEFAULT_END;
-        }
-        return statsManager.getLastSeenDevices(principal.getName(), start, end);
+        final OffsetDateTime from = start == null ? DEFAULT_START : start;
+        final OffsetDateTime to = end == null ? DEFAULT_END : end;
+        return statsManager.getLastSeenDevices(principal.getName(), from, to);
     }
 
     @RequestMapping("/devices/seen")
-    public DataSet getSeenDevices(
+    public CompletableFuture<DataSet> getSeenDevices(
             Principal principal,
             @RequestParam(required = false, name = "start")
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
@@ -81,26 +83,34 @@ public class StatsResource {
             @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
                     OffsetDateTime end
     ) {
-        if (start == null) {
-            start = DEFAULT_START;
-        }
-        if (end == null) {
-            end = DEFAULT_END;
-        }
-        return statsManager.getSeenDevices(principal.getName(), start, end);
+        final OffsetDateTime from = start == null ? DEFAULT_START : start;
+        final OffsetDateTime to = end == null ? DEFAULT_END : end;
+        return statsManager.getSeenDevices(principal.getName(), from, to);
     }
 
+    /**
+     * The updated devices are tagged with the ETag of the snapshot they come from, a client already holding them
+     * getting a 304 instead.
+     */
     @RequestMapping("/devices/perSegmentId")
-    public DataSet getDevicesPerSegmentId(
+    public CompletableFuture<ResponseEntity<DataSet>> getDevicesPerSegmentId(
             Principal principal,
             @RequestParam(name = "updated", defaultValue = "false", required = false)
                     boolean updated
     ) {
         if (updated) {
-            return statsManager.getUpdatedDevicesPerSegmentId(principal.getName());
+            final StatsSnapshotStore.TaggedDataSet snapshot = statsManager.getUpdatedDevicesPerSegmentIdIfFresh(principal.getName());
+            if (snapshot != null) {
+                return CompletableFuture.completedFuture(toTaggedResponse(snapshot));
+            }
+            return asyncRequestExecutor.supply(() -> toTaggedResponse(statsManager.getUpdatedDevicesPerSegmentId(principal.getName())));
         } else {
-            return statsManager.getDevicesPerSegmentId(principal.getName());
+            return asyncRequestExecutor.supply(() -> ResponseEntity.ok(statsManager.getDevicesPerSegmentId(principal.getName())));
         }
     }
 
+    private static ResponseEntity<DataSet> toTaggedResponse(StatsSnapshotStore.TaggedDataSet stats) {
+        return ResponseEntity.ok().eTag(stats.getEtag()).body(stats.getDataSet());
+    }
+
 }
@@ -29,8 +29,8 @@ import io.barracks.membergateway.model.DetailedUpdate;
 import io.barracks.membergateway.model.Update;
 import io.barracks.membergateway.model.UpdateStatus;
 import io.barracks.membergateway.model.UpdateStatusCompatibility;
+import io.barracks.membergateway.rest.util.AsyncRequestExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -46,6 +46,8 @@ import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @RestController
@@ -58,67 +60,83 @@ public class UpdateResource {
     @Autowired
     private PagedResourcesAssembler<DetailedUpdate> assembler;
 
+    @Autowired
+    private AsyncRequestExecutor asyncRequestExecutor;
+
     @ResponseStatus(HttpStatus.OK)
     @RequestMapping(method = RequestMethod.GET)
-    public PagedResources<Resource<DetailedUpdate>> getAllUpdates(
+    public CompletableFuture<PagedResources<Resource<DetailedUpdate>>> getAllUpdates(
             Pageable pageable,
             Principal principal,
             @RequestParam(name = "status", required = false, defaultValue = "") String[] statuses
     ) {
         final List<UpdateStatus> updateStatuses = Arrays.asList(statuses).parallelStream().map(s -> UpdateStatus.fromName(s)).collect(Collectors.toList());
-        final Page<DetailedUpdate> page = updateManager.getUpdatesByStatusesAndSegments(pageable, principal.getName(), updateStatuses, Collections.emptyList());
-        return assembler.toResource(page);
+        return asyncRequestExecutor.thenApply(
+                updateManager.getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), updateStatuses, Collections.emptyList()),
+                assembler::toResource
+        );
     }
 
     @RequestMapping(method = RequestMethod.POST)
-    public ResponseEntity<?> createUpdate(@Valid @RequestBody Update update, Principal principal) {
+    public CompletableFuture<ResponseEntity<?>> createUpdate(@Valid @RequestBody Update update, Principal principal) {
         final Update updateWithUser = update.toBuilder().userId(principal.getName()).build();
-        final DetailedUpdate createdUpdate = updateManager.createUpdate(updateWithUser);
-        return new ResponseEntity<>(createdUpdate, HttpStatus.CREATED);
+        return asyncRequestExecutor.supply(() -> {
+            final DetailedUpdate createdUpdate = updateManager.createUpdate(updateWithUser);
+            return new ResponseEntity<>(createdUpdate, HttpStatus.CREATED);
+        });
     }
 
     @RequestMapping(method = RequestMethod.PUT, path = "/{uuid}")
-    public ResponseEntity<?> editUpdate(@Valid @RequestBody Update update, @PathVariable("uuid") String uuid, Principal principal) {
+    public CompletableFuture<ResponseEntity<?>> editUpdate(@Valid @RequestBody Update update, @PathVariable("uuid") String uuid, Principal principal) {
         final Update updateWithUuidAndUserId = update.toBuilder().userId(principal.getName()).uuid(uuid).build();
-        final DetailedUpdate updatedUpdate = updateManager.editUpdate(updateWithUuidAndUserId);
-        return new ResponseEntity<>(updatedUpdate, HttpStatus.OK);
+        return asyncRequestExecutor.supply(() -> {
+            final DetailedUpdate updatedUpdate = updateManager.editUpdate(updateWithUuidAndUserId);
+            return new ResponseEntity<>(updatedUpdate, HttpStatus.OK);
+        });
     }
 
     @ResponseStatus(HttpStatus.OK)
     @RequestMapping(method = RequestMethod.GET, path = "/{uuid}")
-    public ResponseEntity<DetailedUpdate> getUpdateByUuidAndUserId(@PathVariable("uuid") String uuid, Principal principal) {
-        final DetailedUpdate result = updateManager.getUpdateByUuidAndUserId(uuid, principal.getName());
-        return new ResponseEntity<>(result, HttpStatus.OK);
+    public CompletableFuture<ResponseEntity<DetailedUpdate>> getUpdateByUuidAndUserId(@PathVariable("uuid") String uuid, Principal principal) {
+        return asyncRequestExecutor.thenApply(
+                updateManager.getUpdateByUuidAndUserIdAsync(uuid, principal.getName()),
+                result -> new ResponseEntity<>(result, HttpStatus.OK)
+        );
     }
 
     @RequestMapping(method = RequestMethod.PUT, path = "/{uuid}/status/{status}")
-    public ResponseEntity<?> changeUpdateStatus(
+    public CompletableFuture<ResponseEntity<?>> changeUpdateStatus(
             @PathVariable("uuid") String uuid,
             @PathVariable("status") String status,
             Principal principal
     ) {
         final UpdateStatus updateStatus = UpdateStatus.fromName(status);
-        updateManager.changeUpdateStatus(uuid, updateStatus, principal.getName());
-        return new ResponseEntity<>(HttpStatus.OK);
+        return asyncRequestExecutor.supply(() -> {
+            updateManager.changeUpdateStatus(uuid, updateStatus, principal.getName());
+            return new ResponseEntity<>(HttpStatus.OK);
+        });
     }
 
     @RequestMapping(method = RequestMethod.PUT, path = "/{uuid}/status/scheduled")
-    public ResponseEntity<?> scheduleUpdate(
+    public CompletableFuture<ResponseEntity<?>> scheduleUpdate(
             @PathVariable("uuid") String uuid,
             @RequestParam(name = "time") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime scheduledTime,
             Principal principal
     ) {
-        updateManager.scheduleUpdatePublication(uuid, scheduledTime, principal.getName());
-        return new ResponseEntity<>(HttpStatus.OK);
+        return asyncRequestExecutor.supply(() -> {
+            updateManager.scheduleUpdatePublication(uuid, scheduledTime, principal.getName());
+            return new ResponseEntity<>(HttpStatus.OK);
+        });
     }
 
     @RequestMapping(path = "/status", method = RequestMethod.GET)
-    public List<UpdateStatusCompatibility> getAllStatusesCompatibilities() {
-        return updateManager.getAllStatusesCompatibilities();
+    public CompletableFuture<List<UpdateStatusCompatibility>> getAllStatusesCompatibilities() {
+        return asyncRequestExecutor.thenApply(updateManager.getAllStatusesCompatibilitiesAsync(), Function.identity());
     }
 
     @RequestMapping(path = "/status/{statusName}", method = RequestMethod.GET)
-    public UpdateStatusCompatibility getStatusCompatibilities(@PathVariable String statusName) {
-        return updateManager.getStatusCompatibilities(UpdateStatus.fromName(statusName));
+    public CompletableFuture<UpdateStatusCompatibility> getStatusCompatibilities(@PathVariable String statusName) {
+        final UpdateStatus status = UpdateStatus.fromName(statusName);
+        return asyncRequestExecutor.thenApply(updateManager.getStatusCompatibilitiesAsync(status), Function.identity());
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.rest.util;
+
+import io.barracks.membergateway.monitoring.RequestTrace;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the work of the asynchronous endpoints on a bounded pool of "request-N" threads, so that the servlet container
+ * threads are handed back while the downstream services respond.
+ * <p>
+ * The request is exposed to the pool threads through {@link RequestContextHolder} for the duration of the call, so
+ * that links can still be built and stale results flagged. When the queue is full, the call runs on the container
+ * thread instead. A failure completes the returned future as is, without being wrapped.
+ * <p>
+ * Endpoints whose managers return futures of non-blocking downstream calls use {@link #thenApply(CompletableFuture,
+ * Function)} instead, which takes no pool thread at all.
+ */
+@Component
+public class AsyncRequestExecutor implements PublicMetrics, DisposableBean {
+    static final String THREAD_NAME_PREFIX = "request-";
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public AsyncRequestExecutor(
+            @Value("${io.barracks.async_requests.pool_size:64}") int poolSize,
+            @Value("${io.barracks.async_requests.queue_capacity:2048}") int queueCapacity
+    ) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("The request pool is shut down");
+                    }
+                    runnable.run();
+                }
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        final HttpServletRequest request = currentRequest();
+        final Supplier<T> traced = RequestTrace.wrap(supplier);
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        final Runnable task = () -> {
+            final RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+            if (request != null) {
+                // The attributes of the container thread are completed once it is handed back, so they cannot be shared
+                RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            }
+            try {
+                future.complete(traced.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                RequestContextHolder.setRequestAttributes(previous);
+                inFlight.decrementAndGet();
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Applies {@code function} to the result of {@code future} on the thread completing it, with the request exposed as
+     * for {@link #supply(Supplier)}. A failure completes the returned future with its cause, unwrapped from any
+     * {@link CompletionException}, and cancelling the returned future cancels {@code future}.
+     */
+    public <T, R> CompletableFuture<R> thenApply(CompletableFuture<T> future, Function<? super T, ? extends R> function) {
+        final HttpServletRequest request = currentRequest();
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        future.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                return;
+            }
+            final RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+            if (request != null) {
+                RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            }
+            try {
+                result.complete(function.apply(value));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                RequestContextHolder.setRequestAttributes(previous);
+            }
+        });
+        result.whenComplete((value, throwable) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static HttpServletRequest currentRequest() {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getRequest() : null;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("async.requests.pool.size", executor.getPoolSize()),
+                new Metric<>("async.requests.pool.max", executor.getMaximumPoolSize()),
+                new Metric<>("async.requests.active", executor.getActiveCount()),
+                new Metric<>("async.requests.queue.size", executor.getQueue().size()),
+                new Metric<>("async.requests.inflight", inFlight.get()),
+                new Metric<>("async.requests.inflight.peak", peakInFlight.get()),
+                new Metric<>("async.requests.rejected", rejected.sum())
+        );
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
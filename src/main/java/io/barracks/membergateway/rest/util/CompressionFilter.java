@@ -0,0 +1,349 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.FastByteArrayOutputStream;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Gzips the responses the {@link ResponseCompressor} deems worth it, for the clients accepting this encoding.
+ * <p>
+ * Whether a response is compressible is decided from its content type when its body starts being written: only those
+ * bodies are buffered, the others (package downloads for instance) being streamed as usual. Running after the
+ * {@link ConditionalGetFilter}, the ETag of a compressed response is the one of its compressed body. A strong ETag set
+ * by the handler itself is suffixed with {@code -gzip} when the body gets compressed, the suffix being removed from the
+ * {@code If-None-Match} header the handler is given, so that both encodings are told apart by caches.
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+    static final String GZIP = "gzip";
+    static final String ETAG_SUFFIX = "-" + GZIP;
+
+    private final ResponseCompressor responseCompressor;
+
+    public CompressionFilter(ResponseCompressor responseCompressor) {
+        this.responseCompressor = responseCompressor;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        CompressingResponse compressingResponse = WebUtils.getNativeResponse(response, CompressingResponse.class);
+        if (compressingResponse == null) {
+            // Also when the result of an asynchronous handler is not dispatched with the response the request started with
+            final boolean acceptsGzip = acceptsGzip(request);
+            final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+            final boolean suffixed = acceptsGzip && ifNoneMatch != null && ifNoneMatch.contains(ETAG_SUFFIX + "\"");
+            compressingResponse = new CompressingResponse(response, responseCompressor, acceptsGzip, suffixed);
+            filterChain.doFilter(suffixed ? new UnsuffixedETagRequest(request) : request, compressingResponse);
+        } else {
+            filterChain.doFilter(request, response);
+        }
+        if (!isAsyncStarted(request)) {
+            compressingResponse.finish();
+        }
+    }
+
+    static String suffix(String etag) {
+        if (etag == null || etag.startsWith("W/") || !etag.endsWith("\"") || etag.endsWith(ETAG_SUFFIX + "\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + "\"";
+    }
+
+    static String unsuffix(String ifNoneMatch) {
+        return ifNoneMatch.replace(ETAG_SUFFIX + "\"", "\"");
+    }
+
+    static boolean acceptsGzip(HttpServletRequest request) {
+        final Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String coding : headers.nextElement().split(",")) {
+                final String[] parameters = coding.split(";");
+                if (GZIP.equalsIgnoreCase(parameters[0].trim())) {
+                    return parameters.length < 2 || !isZeroQuality(parameters[1]);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        final String[] quality = parameter.split("=");
+        try {
+            return quality.length == 2 && "q".equals(quality[0].trim()) && Double.parseDouble(quality[1].trim()) == 0D;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static final class CompressingResponse extends HttpServletResponseWrapper {
+        private final ResponseCompressor responseCompressor;
+        private final boolean acceptsGzip;
+        private final boolean suffixed;
+        private boolean decided;
+        private FastByteArrayOutputStream buffer;
+        private long contentLength = -1L;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CompressingResponse(HttpServletResponse response, ResponseCompressor responseCompressor, boolean acceptsGzip, boolean suffixed) {
+            super(response);
+            this.responseCompressor = responseCompressor;
+            this.acceptsGzip = acceptsGzip;
+            this.suffixed = suffixed;
+        }
+
+        private void decide() {
+            if (decided) {
+                return;
+            }
+            decided = true;
+            if (responseCompressor.isCompressible(getContentType())) {
+                final String vary = getHeader(HttpHeaders.VARY);
+                if (vary == null || !vary.contains(HttpHeaders.ACCEPT_ENCODING)) {
+                    addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                }
+                if (acceptsGzip && getHeader(HttpHeaders.CONTENT_ENCODING) == null) {
+                    buffer = new FastByteArrayOutputStream(1024);
+                    return;
+                }
+            }
+            if (contentLength >= 0) {
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called on this response");
+            }
+            if (outputStream == null) {
+                decide();
+                outputStream = buffer == null ? super.getOutputStream() : new BufferedOutputStream(buffer);
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (outputStream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called on this response");
+            }
+            if (writer == null) {
+                decide();
+                writer = buffer == null ? super.getWriter() : new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setContentLengthLong(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            if (decided && buffer == null) {
+                super.setContentLengthLong(length);
+            } else {
+                contentLength = length;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            buffer = null;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            buffer = null;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (buffer == null) {
+                super.flushBuffer();
+            } else if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (buffer != null) {
+                buffer.reset();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            decided = false;
+            buffer = null;
+            contentLength = -1L;
+            outputStream = null;
+            writer = null;
+        }
+
+        /**
+         * Writes the buffered body, compressed if it is large enough.
+         */
+        void finish() throws IOException {
+            final HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (buffer == null) {
+                if (suffixed && getStatus() == HttpServletResponse.SC_NOT_MODIFIED && !isCommitted()) {
+                    // The client holds the compressed body the handler's ETag was matched against
+                    response.setHeader(HttpHeaders.ETAG, suffix(getHeader(HttpHeaders.ETAG)));
+                }
+                return;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            final int length = buffer.size();
+            final byte[] body = buffer.toByteArrayUnsafe();
+            buffer = null;
+            if (responseCompressor.isCompressible(getContentType(), length)) {
+                final byte[] compressed = responseCompressor.compress(body, length);
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+                if (getHeader(HttpHeaders.ETAG) != null) {
+                    response.setHeader(HttpHeaders.ETAG, suffix(getHeader(HttpHeaders.ETAG)));
+                }
+                response.setContentLength(compressed.length);
+                response.getOutputStream().write(compressed);
+            } else {
+                response.setContentLength(length);
+                response.getOutputStream().write(body, 0, length);
+            }
+        }
+    }
+
+    private static final class UnsuffixedETagRequest extends HttpServletRequestWrapper {
+        private UnsuffixedETagRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            final String value = super.getHeader(name);
+            return value != null && HttpHeaders.IF_NONE_MATCH.equalsIgnoreCase(name) ? unsuffix(value) : value;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            final Enumeration<String> values = super.getHeaders(name);
+            if (values == null || !HttpHeaders.IF_NONE_MATCH.equalsIgnoreCase(name)) {
+                return values;
+            }
+            final List<String> unsuffixed = new ArrayList<>();
+            while (values.hasMoreElements()) {
+                unsuffixed.add(unsuffix(values.nextElement()));
+            }
+            return Collections.enumeration(unsuffixed);
+        }
+    }
+
+    private static final class BufferedOutputStream extends ServletOutputStream {
+        private final FastByteArrayOutputStream buffer;
+
+        private BufferedOutputStream(FastByteArrayOutputStream buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            buffer.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException("The body of a compressed response is buffered");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips the response bodies of the {@code mime_types} weighing at least {@code min_response_size} bytes.
+ * <p>
+ * The compressed bodies are kept, up to {@code cache.max_weight_bytes}, under the SHA-256 hash of the uncompressed
+ * ones: the payloads polled over and over by the dashboards, and the ones shared by several users, are only
+ * compressed once.
+ */
+@Component
+public class ResponseCompressor implements PublicMetrics {
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final List<MimeType> mimeTypes;
+    private final int minResponseSize;
+    private final int level;
+    private final Cache<HashCode, byte[]> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    @Autowired
+    public ResponseCompressor(
+            @Value("${io.barracks.compression.mime_types:application/json,application/hal+json}") String[] mimeTypes,
+            @Value("${io.barracks.compression.min_response_size:2048}") int minResponseSize,
+            @Value("${io.barracks.compression.level:6}") int level,
+            @Value("${io.barracks.compression.cache.max_weight_bytes:16777216}") long maxWeight
+    ) {
+        this.mimeTypes = MimeTypeUtils.parseMimeTypes(String.join(",", mimeTypes));
+        this.minResponseSize = minResponseSize;
+        this.level = level;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((HashCode hash, byte[] compressed) -> ENTRY_OVERHEAD_BYTES + compressed.length)
+                .build();
+    }
+
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final MimeType mimeType;
+        try {
+            mimeType = MimeTypeUtils.parseMimeType(contentType);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return mimeTypes.stream().anyMatch(compressible -> compressible.includes(mimeType));
+    }
+
+    public boolean isCompressible(String contentType, int length) {
+        return length >= minResponseSize && isCompressible(contentType);
+    }
+
+    /**
+     * @return the gzip encoding of the {@code length} first bytes of {@code body}
+     */
+    public byte[] compress(byte[] body, int length) {
+        final HashCode hash = Hashing.sha256().hashBytes(body, 0, length);
+        final byte[] cached = cache.getIfPresent(hash);
+        bytesIn.add(length);
+        if (cached != null) {
+            hits.increment();
+            bytesOut.add(cached.length);
+            return cached;
+        }
+        misses.increment();
+        try {
+            final byte[] compressed = cache.get(hash, () -> gzip(body, length));
+            bytesOut.add(compressed.length);
+            return compressed;
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private byte[] gzip(byte[] body, int length) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(body, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final long in = bytesIn.sum();
+        return Arrays.asList(
+                new Metric<>("compression.cache.size", cache.size()),
+                new Metric<>("compression.cache.hit", hits.sum()),
+                new Metric<>("compression.cache.miss", misses.sum()),
+                new Metric<>("compression.bytes.in", in),
+                new Metric<>("compression.bytes.out", bytesOut.sum()),
+                new Metric<>("compression.ratio", in == 0 ? 0D : (double) bytesOut.sum() / in)
+        );
+    }
+}
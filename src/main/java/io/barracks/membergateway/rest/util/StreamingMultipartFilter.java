@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+
+/**
+ * Marks the multipart requests sent to {@code path} as streamed, so that neither the container nor the
+ * {@link org.springframework.web.multipart.MultipartResolver} spool their parts to disk before the handler reads the
+ * body with the commons-fileupload streaming API.
+ * <p>
+ * Until the handler runs, the request parameters of a streamed request only come from its query string: a call to
+ * {@code getParameter} on a multipart request would otherwise make the container parse, and spool, the whole body.
+ */
+public class StreamingMultipartFilter extends OncePerRequestFilter {
+    public static final String STREAMING_ATTRIBUTE = StreamingMultipartFilter.class.getName() + ".STREAMING";
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final String path;
+
+    public StreamingMultipartFilter(String path) {
+        this.path = path;
+    }
+
+    public static boolean isStreaming(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(STREAMING_ATTRIBUTE));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request instanceof MultipartHttpServletRequest
+                || !ServletFileUpload.isMultipartContent(request)
+                || !path.equals(urlPathHelper.getPathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        request.setAttribute(STREAMING_ATTRIBUTE, Boolean.TRUE);
+        filterChain.doFilter(new StreamingRequest(request), response);
+    }
+
+    static final class StreamingRequest extends HttpServletRequestWrapper {
+        private final Map<String, String[]> parameters;
+
+        StreamingRequest(HttpServletRequest request) throws UnsupportedEncodingException {
+            super(request);
+            this.parameters = parseQueryString(request.getQueryString());
+        }
+
+        private static Map<String, String[]> parseQueryString(String queryString) throws UnsupportedEncodingException {
+            if (queryString == null) {
+                return Collections.emptyMap();
+            }
+            final MultiValueMap<String, String> query = UriComponentsBuilder.newInstance().query(queryString).build().getQueryParams();
+            final Map<String, String[]> parameters = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> entry : query.entrySet()) {
+                final String[] values = new String[entry.getValue().size()];
+                for (int i = 0; i < values.length; i++) {
+                    final String value = entry.getValue().get(i);
+                    values[i] = value == null ? "" : URLDecoder.decode(value, "UTF-8");
+                }
+                parameters.put(URLDecoder.decode(entry.getKey(), "UTF-8"), values);
+            }
+            return Collections.unmodifiableMap(parameters);
+        }
+
+        @Override
+        public String getParameter(String name) {
+            final String[] values = parameters.get(name);
+            return values == null ? null : values[0];
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return parameters;
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.enumeration(parameters.keySet());
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            return parameters.get(name);
+        }
+
+        @Override
+        public Collection<Part> getParts() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Part getPart(String name) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.security;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the tokens recently rejected by the authorization service, so that a client replaying an invalid
+ * token is turned down without reaching the "/me" endpoint again.
+ * <p>
+ * Only a 64 bits fingerprint of each token is stored, in two open-addressing tables of {@code capacity} slots
+ * each. The tables are rotated every half {@code ttl_ms}, so a rejected token is remembered for at most
+ * {@code ttl_ms}, and for less if more than {@code capacity} tokens get rejected in the meantime. The capacity must
+ * be at least 1.
+ */
+@Component
+public class RejectedTokenCache implements PublicMetrics {
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final int capacity;
+    private final long rotationNanos;
+    private final Ticker ticker;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    @Autowired
+    public RejectedTokenCache(
+            @Value("${io.barracks.authorizationservice.rejected_token_cache.capacity:100000}") int capacity,
+            @Value("${io.barracks.authorizationservice.rejected_token_cache.ttl_ms:60000}") long ttl
+    ) {
+        this(capacity, ttl, Ticker.systemTicker());
+    }
+
+    RejectedTokenCache(int capacity, long ttl, Ticker ticker) {
+        Assert.isTrue(capacity >= 1, "The rejected token cache capacity must be at least 1");
+        this.capacity = capacity;
+        this.rotationNanos = TimeUnit.MILLISECONDS.toNanos(ttl) / 2;
+        this.ticker = ticker;
+        this.current = new Generation(capacity, ticker.read());
+        this.previous = new Generation(0, ticker.read());
+    }
+
+    public boolean contains(String token) {
+        if (token == null) {
+            return false;
+        }
+        rotateIfExpired();
+        final long fingerprint = fingerprint(token);
+        if (current.contains(fingerprint) || previous.contains(fingerprint)) {
+            shortCircuited.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public void add(String token) {
+        if (token == null) {
+            return;
+        }
+        rotateIfExpired();
+        final long fingerprint = fingerprint(token);
+        while (!current.add(fingerprint)) {
+            rotate(current);
+        }
+        recorded.increment();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("cache.rejectedtokens.size", current.size() + previous.size()),
+                new Metric<>("cache.rejectedtokens.recorded", recorded.sum()),
+                new Metric<>("cache.rejectedtokens.shortcircuited", shortCircuited.sum())
+        );
+    }
+
+    private void rotateIfExpired() {
+        final Generation generation = current;
+        if (ticker.read() - generation.start >= rotationNanos) {
+            rotate(generation);
+        }
+    }
+
+    private synchronized void rotate(Generation expected) {
+        if (current == expected) {
+            previous = current;
+            current = new Generation(capacity, ticker.read());
+        }
+    }
+
+    private static long fingerprint(String token) {
+        final long fingerprint = FINGERPRINT.hashString(token, StandardCharsets.UTF_8).asLong();
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static final class Generation {
+        private final AtomicLongArray slots;
+        private final AtomicInteger size = new AtomicInteger();
+        private final int maxSize;
+        private final long start;
+
+        private Generation(int maxSize, long start) {
+            this.slots = new AtomicLongArray(Math.max(1, maxSize * 2));
+            this.maxSize = maxSize;
+            this.start = start;
+        }
+
+        private boolean contains(long fingerprint) {
+            final int length = slots.length();
+            int index = index(fingerprint, length);
+            for (int probes = 0; probes < length; probes++) {
+                final long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    return true;
+                } else if (slot == 0) {
+                    return false;
+                }
+                index = (index + 1) % length;
+            }
+            return false;
+        }
+
+        private boolean add(long fingerprint) {
+            final int length = slots.length();
+            int index = index(fingerprint, length);
+            for (int probes = 0; probes < length; probes++) {
+                final long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    return true;
+                } else if (slot == 0) {
+                    if (size.incrementAndGet() > maxSize) {
+                        size.decrementAndGet();
+                        return false;
+                    }
+                    if (slots.compareAndSet(index, 0, fingerprint)) {
+                        return true;
+                    }
+                    size.decrementAndGet();
+                    continue;
+                }
+                index = (index + 1) % length;
+            }
+            return false;
+        }
+
+        private int size() {
+            return size.get();
+        }
+
+        private static int index(long fingerprint, int length) {
+            return (int) ((fingerprint >>> 1) % length);
+        }
+    }
+}
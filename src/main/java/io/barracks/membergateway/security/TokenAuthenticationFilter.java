@@ -24,11 +24,11 @@
 
 package io.barracks.membergateway.security;
 
-import io.barracks.membergateway.client.AuthorizationServiceClient;
 import io.barracks.membergateway.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
@@ -44,21 +44,30 @@ import java.io.IOException;
 public class TokenAuthenticationFilter extends OncePerRequestFilter {
     public final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final AuthorizationServiceClient authorizationServiceClient;
+    private final UserTokenCache userTokenCache;
+    private final RejectedTokenCache rejectedTokenCache;
 
     @Autowired
-    public TokenAuthenticationFilter(AuthorizationServiceClient authorizationServiceClient) {
-        this.authorizationServiceClient = authorizationServiceClient;
+    public TokenAuthenticationFilter(UserTokenCache userTokenCache, RejectedTokenCache rejectedTokenCache) {
+        this.userTokenCache = userTokenCache;
+        this.rejectedTokenCache = rejectedTokenCache;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         final String token = request.getHeader("X-Auth-Token");
-        try {
-            User user = authorizationServiceClient.requestUserFromToken(token);
-            SecurityContextHolder.getContext().setAuthentication(new UserAuthentication(user));
-        } catch (HttpClientErrorException e) {
-            logger.warn("Authentication of token '{}' from '{}' thrown '{}'", token, request.getRemoteAddr(), e);
+        if (rejectedTokenCache.contains(token)) {
+            logger.debug("Token '{}' from '{}' was recently rejected", token, request.getRemoteAddr());
+        } else {
+            try {
+                User user = userTokenCache.getUser(token);
+                SecurityContextHolder.getContext().setAuthentication(new UserAuthentication(user));
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() == HttpStatus.UNAUTHORIZED || e.getStatusCode() == HttpStatus.FORBIDDEN) {
+                    rejectedTokenCache.add(token);
+                }
+                logger.warn("Authentication of token '{}' from '{}' thrown '{}'", token, request.getRemoteAddr(), e);
+            }
         }
         filterChain.doFilter(request, response);
         SecurityContextHolder.getContext().setAuthentication(null);
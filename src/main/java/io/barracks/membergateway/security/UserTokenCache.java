@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.security;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.barracks.membergateway.client.AuthorizationServiceClient;
+import io.barracks.membergateway.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the users resolved by the authorization service for a short while, so that consecutive requests
+ * bearing the same token do not all go through the "/me" endpoint.
+ * <p>
+ * An entry is considered fresh during {@code ttl_ms}. Past this delay the token is resolved again, but the
+ * previous user can still be served if the authorization service is unreachable, as long as the entry is not
+ * older than {@code max_staleness_ms}. A rejected token is always evicted.
+ * <p>
+ * Concurrent resolutions of the same token share a single call to the authorization service, its outcome
+ * being handed to every waiting request.
+ */
+@Component
+public class UserTokenCache implements PublicMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(UserTokenCache.class);
+
+    private final AuthorizationServiceClient authorizationServiceClient;
+    private final Cache<String, CachedUser> cache;
+    private final ConcurrentMap<String, CompletableFuture<User>> pendingResolutions = new ConcurrentHashMap<>();
+    private final Ticker ticker;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @Autowired
+    public UserTokenCache(
+            AuthorizationServiceClient authorizationServiceClient,
+            @Value("${io.barracks.authorizationservice.token_cache.max_size:10000}") long maxSize,
+            @Value("${io.barracks.authorizationservice.token_cache.ttl_ms:30000}") long ttl,
+            @Value("${io.barracks.authorizationservice.token_cache.max_staleness_ms:300000}") long maxStaleness
+    ) {
+        this(authorizationServiceClient, maxSize, ttl, maxStaleness, Ticker.systemTicker());
+    }
+
+    UserTokenCache(AuthorizationServiceClient authorizationServiceClient, long maxSize, long ttl, long maxStaleness, Ticker ticker) {
+        this.authorizationServiceClient = authorizationServiceClient;
+        this.ticker = ticker;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Math.max(ttl, maxStaleness), TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    public User getUser(String token) {
+        if (token == null) {
+            return authorizationServiceClient.requestUserFromToken(null);
+        }
+        final CachedUser cached = cache.getIfPresent(token);
+        if (cached != null && ticker.read() - cached.loadTime < ttlNanos) {
+            hits.increment();
+            return cached.user;
+        }
+        misses.increment();
+        try {
+            return resolve(token);
+        } catch (HttpClientErrorException e) {
+            cache.invalidate(token);
+            throw e;
+        } catch (RestClientException e) {
+            if (cached == null) {
+                throw e;
+            }
+            logger.warn("Authorization service failed, serving stale user '{}' ({})", cached.user.getId(), e.getMessage());
+            staleHits.increment();
+            return cached.user;
+        }
+    }
+
+    User resolve(String token) {
+        final CompletableFuture<User> resolution = new CompletableFuture<>();
+        final CompletableFuture<User> pending = pendingResolutions.putIfAbsent(token, resolution);
+        if (pending != null) {
+            coalesced.increment();
+            return await(pending);
+        }
+        try {
+            // A resolution may have completed between the caller's cache lookup and this one being registered
+            final CachedUser cached = cache.getIfPresent(token);
+            if (cached != null && ticker.read() - cached.loadTime < ttlNanos) {
+                coalesced.increment();
+                resolution.complete(cached.user);
+                return cached.user;
+            }
+            final User user = authorizationServiceClient.requestUserFromToken(token);
+            if (user != null) {
+                cache.put(token, new CachedUser(user, ticker.read()));
+            }
+            resolution.complete(user);
+            return user;
+        } catch (Throwable t) {
+            resolution.completeExceptionally(t);
+            throw t;
+        } finally {
+            pendingResolutions.remove(token, resolution);
+        }
+    }
+
+    private static User await(CompletableFuture<User> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final long hitCount = hits.sum();
+        final long requestCount = hitCount + misses.sum();
+        return Arrays.asList(
+                new Metric<>("cache.tokens.size", cache.size()),
+                new Metric<>("cache.tokens.hit", hitCount),
+                new Metric<>("cache.tokens.miss", misses.sum()),
+                new Metric<>("cache.tokens.stale", staleHits.sum()),
+                new Metric<>("cache.tokens.coalesced", coalesced.sum()),
+                new Metric<>("cache.tokens.eviction", cache.stats().evictionCount()),
+                new Metric<>("cache.tokens.hit.ratio", requestCount == 0 ? 0D : (double) hitCount / requestCount)
+        );
+    }
+
+    private static final class CachedUser {
+        private final User user;
+        private final long loadTime;
+
+        private CachedUser(User user, long loadTime) {
+            this.user = user;
+            this.loadTime = loadTime;
+        }
+    }
+}
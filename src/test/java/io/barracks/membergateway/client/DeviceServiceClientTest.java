@@ -40,20 +40,20 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.PagedResources;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.client.MockRestServiceServer;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -62,7 +62,7 @@ import static org.springframework.test.web.client.match.MockRestRequestMatchers.
 import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
 
 @RunWith(SpringRunner.class)
-@RestClientTest(DeviceServiceClient.class)
+@BarracksClientTest(DeviceServiceClient.class)
 public class DeviceServiceClientTest {
     @Autowired
     private ObjectMapper mapper;
@@ -342,6 +342,40 @@ public class DeviceServiceClientTest {
         mockServer.verify();
     }
 
+    @Test
+    public void getSegmentAsync_whenSucceeds_shouldCompleteWithSegment() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENT_ENDPOINT;
+        final String segmentId = UUID.randomUUID().toString();
+        final Segment expected = mapper.readValue(this.segment.getInputStream(), Segment.class);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(segmentId)))
+                .andRespond(withSuccess().body(this.segment));
+
+        // When
+        final Segment result = deviceServiceClient.getSegmentAsync(segmentId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getSegmentAsync_whenFails_shouldCompleteWithException() {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENT_ENDPOINT;
+        final String segmentId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(segmentId)))
+                .andRespond(withBadRequest());
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> deviceServiceClient.getSegmentAsync(segmentId).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class);
+        mockServer.verify();
+    }
+
     @Test
     public void getSegments_whenSucceeds_shouldReturnSegments() throws Exception {
         // Given
@@ -363,6 +397,24 @@ public class DeviceServiceClientTest {
         assertThat(result).isEqualTo(resources);
     }
 
+    @Test
+    public void getSegmentsAsync_whenSucceeds_shouldCompleteWithSegments() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENTS_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final Pageable pageable = new PageRequest(0, 10);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).pageable(pageable).getURI(userId)))
+                .andRespond(withSuccess().body(segments));
+
+        // When
+        final PagedResources<Segment> result = deviceServiceClient.getSegmentsAsync(userId, pageable).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty();
+    }
+
     @Test
     public void getSegments_whenFails_shouldThrowException() throws Exception {
         // Given
@@ -413,6 +465,41 @@ public class DeviceServiceClientTest {
         mockServer.verify();
     }
 
+    @Test
+    public void getSegmentsByStatusAsync_whenSucceeds_shouldCompleteWithSegments() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENT_BY_STATUS;
+        final String userId = UUID.randomUUID().toString();
+        final SegmentStatus status = SegmentStatus.ACTIVE;
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId, status.getName())))
+                .andRespond(withSuccess().body(segmentList));
+
+        // When
+        final List<Segment> result = deviceServiceClient.getSegmentsByStatusAsync(userId, status).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty();
+    }
+
+    @Test
+    public void getSegmentsByStatusAsync_whenFails_shouldCompleteWithException() {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENT_BY_STATUS;
+        final String userId = UUID.randomUUID().toString();
+        final SegmentStatus status = SegmentStatus.INACTIVE;
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId, status.getName())))
+                .andRespond(withBadRequest());
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> deviceServiceClient.getSegmentsByStatusAsync(userId, status).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class);
+        mockServer.verify();
+    }
+
     @Test
     public void updateSegmentsOrder_whenSucceeds_shouldReturnUpdatedList() throws Exception {
         // Given
@@ -471,6 +558,25 @@ public class DeviceServiceClientTest {
         assertThat(result).isNotEmpty();
     }
 
+    @Test
+    public void getDevicesInSegmentAsync_whenSucceeds_shouldCompleteWithDevices() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENT_DEVICES_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final Pageable pageable = new PageRequest(0, 10);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).pageable(pageable).getURI(segmentId, userId)))
+                .andRespond(withSuccess().body(devices));
+
+        // When
+        final PagedResources<Device> result = deviceServiceClient.getDevicesBySegmentAsync(userId, segmentId, pageable).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty();
+    }
+
     @Test
     public void getDevicesInSegment_whenFails_shouldThrowException() throws Exception {
         // Given
@@ -489,6 +595,66 @@ public class DeviceServiceClientTest {
         mockServer.verify();
     }
 
+    @Test
+    public void getDeviceCountsBySegments_whenSucceeds_shouldReturnCounts() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENTS_DEVICE_COUNT_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Arrays.asList(UUID.randomUUID().toString(), "other");
+        final Map<String, Long> expected = new HashMap<>();
+        expected.put(segmentIds.get(0), 42L);
+        expected.put("other", 24L);
+
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId, String.join(",", segmentIds))))
+                .andRespond(withSuccess().contentType(MediaType.APPLICATION_JSON).body(mapper.writeValueAsString(expected)));
+
+        // When
+        final Map<String, Long> result = deviceServiceClient.getDeviceCountsBySegments(userId, segmentIds);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getDeviceCountsBySegmentsAsync_whenSucceeds_shouldCompleteWithCounts() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENTS_DEVICE_COUNT_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Arrays.asList(UUID.randomUUID().toString(), "other");
+        final Map<String, Long> expected = new HashMap<>();
+        expected.put(segmentIds.get(0), 42L);
+        expected.put("other", 24L);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId, String.join(",", segmentIds))))
+                .andRespond(withSuccess().contentType(MediaType.APPLICATION_JSON).body(mapper.writeValueAsString(expected)));
+
+        // When
+        final Map<String, Long> result = deviceServiceClient.getDeviceCountsBySegmentsAsync(userId, segmentIds).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getDeviceCountsBySegments_whenFails_shouldThrowException() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_SEGMENTS_DEVICE_COUNT_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Collections.singletonList(UUID.randomUUID().toString());
+
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId, String.join(",", segmentIds))))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        // Then When
+        assertThatExceptionOfType(DeviceServiceClientException.class)
+                .isThrownBy(() -> deviceServiceClient.getDeviceCountsBySegments(userId, segmentIds));
+        mockServer.verify();
+    }
+
     @Test
     public void getDevicesBySegmentAndVersion_whenSucceeds_shouldReturnDevices() throws Exception {
         // Given
@@ -550,6 +716,42 @@ public class DeviceServiceClientTest {
         assertThat(result).isEqualTo(expected);
     }
 
+    @Test
+    public void getDeviceByUserIdAndUnitIdAsync_whenSucceeds_shouldCompleteWithDevice() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_DEVICE_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final String unitId = UUID.randomUUID().toString();
+        final Device expected = mapper.readValue(device.getInputStream(), Device.class);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(unitId, userId)))
+                .andRespond(withSuccess().body(device));
+
+        // When
+        final Device result = deviceServiceClient.getDeviceByUserIdAndUnitIdAsync(userId, unitId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getDeviceByUserIdAndUnitIdAsync_whenFails_shouldCompleteWithException() {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_DEVICE_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final String unitId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(unitId, userId)))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> deviceServiceClient.getDeviceByUserIdAndUnitIdAsync(userId, unitId).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class);
+        mockServer.verify();
+    }
+
     @Test
     public void getDeviceByUserIdAndUnitId_whenFails_shouldThrowException() throws UnsupportedEncodingException {
         // Given
@@ -587,6 +789,25 @@ public class DeviceServiceClientTest {
         assertThat(devices).isNotEmpty();
     }
 
+    @Test
+    public void getDevicesWithQueryAsync_whenRequestSucceed_shouldCompleteWithDevices() throws Exception {
+        // Given
+        final Endpoint endpoint = DeviceServiceClient.GET_DEVICES_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final Pageable pageable = new PageRequest(0, 10);
+        final BarracksQuery query = BarracksQueryUtils.getQuery();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).pageable(pageable).getURI(userId, query.toJsonString())))
+                .andRespond(withSuccess().body(devices));
+
+        // When
+        final PagedResources<Device> result = deviceServiceClient.getDevicesAsync(userId, pageable, query).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty();
+    }
+
     @Test
     public void getDevicesWithQuery_whenRequestFailed_shouldThrowException() throws Exception {
         // Given
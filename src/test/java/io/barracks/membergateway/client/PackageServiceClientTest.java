@@ -33,7 +33,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -43,6 +42,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.client.MockRestServiceServer;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static io.barracks.membergateway.client.PackageServiceClient.GET_PACKAGE_ENDPOINT;
 import static io.barracks.membergateway.client.PackageServiceClient.UPLOAD_PACKAGE_ENDPOINT;
@@ -54,7 +54,7 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 @RunWith(SpringRunner.class)
-@RestClientTest(PackageServiceClient.class)
+@BarracksClientTest(PackageServiceClient.class)
 public class PackageServiceClientTest {
     @Autowired
     private ObjectMapper mapper;
@@ -133,4 +133,20 @@ public class PackageServiceClientTest {
         // Then
         assertThat(result).isEqualTo(mapper.readValue(packageRes.getInputStream(), PackageInfo.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getPackageInfoAsync_whenExists_shouldCompleteWithInfo() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_PACKAGE_ENDPOINT;
+        final String packageId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(packageId)))
+                .andRespond(withSuccess().body(packageRes));
+
+        // When
+        final PackageInfo result = packageServiceClient.getPackageInfoAsync(packageId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(result).isEqualTo(mapper.readValue(packageRes.getInputStream(), PackageInfo.class));
+    }
+}
@@ -32,13 +32,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
 import org.springframework.core.io.Resource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.client.MockRestServiceServer;
 
 import java.time.OffsetDateTime;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static io.barracks.membergateway.client.StatsServiceClient.*;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -49,7 +50,7 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 @RunWith(SpringRunner.class)
-@RestClientTest(StatsServiceClient.class)
+@BarracksClientTest(StatsServiceClient.class)
 public class StatsServiceClientTest {
     @Value("${io.barracks.deviceservice.base_url}")
     private String baseUrl;
@@ -94,6 +95,40 @@ public class StatsServiceClientTest {
         mockServer.verify();
     }
 
+    @Test
+    public void getDevicePerVersionIdAsync_shouldCompleteWithDataSet() throws Exception {
+        // Given
+        final Endpoint endpoint = DEVICES_PER_VERSION_ID_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final DataSet expected = mapper.readValue(dataSet.getInputStream(), DataSet.class);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId)))
+                .andRespond(withSuccess().body(dataSet));
+
+        // When
+        final DataSet result = statsServiceClient.getDevicesPerVersionIdAsync(userId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getDevicePerVersionIdAsync_whenFails_shouldCompleteWithException() {
+        // Given
+        final Endpoint endpoint = DEVICES_PER_VERSION_ID_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(userId)))
+                .andRespond(withBadRequest());
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> statsServiceClient.getDevicesPerVersionIdAsync(userId).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(BarracksServiceClientException.class);
+        mockServer.verify();
+    }
+
     @Test
     public void getLastSeenDevices_shouldReturnDataSet() throws Exception {
         // Given
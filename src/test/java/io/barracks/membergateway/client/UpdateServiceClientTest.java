@@ -36,7 +36,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -47,6 +46,8 @@ import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.HttpClientErrorException;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static io.barracks.membergateway.client.UpdateServiceClient.*;
@@ -56,7 +57,7 @@ import static org.springframework.test.web.client.match.MockRestRequestMatchers.
 import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
 
 @RunWith(SpringRunner.class)
-@RestClientTest(UpdateServiceClient.class)
+@BarracksClientTest(UpdateServiceClient.class)
 public class UpdateServiceClientTest {
     @Autowired
     private ObjectMapper mapper;
@@ -153,6 +154,30 @@ public class UpdateServiceClientTest {
         assertThat(result).isNotEmpty();
     }
 
+    @Test
+    public void getUpdatesByStatusesAndSegmentsAsync_whenSuccessful_shouldCompleteWithAListOfUpdates() throws Exception {
+        // Given
+        final Endpoint endpoint = LIST_UPDATES_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segments = Collections.singletonList(UUID.randomUUID().toString());
+        final List<UpdateStatus> statuses = Arrays.asList(UpdateStatus.DRAFT, UpdateStatus.PUBLISHED);
+        final Pageable pageable = new PageRequest(0, 10);
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).pageable(pageable).getURI(
+                        userId,
+                        String.join(",", statuses.stream().map(UpdateStatus::getName).collect(Collectors.toList())),
+                        String.join(",", segments)))
+                )
+                .andRespond(withSuccess().body(updates));
+
+        // When
+        final PagedResources<Update> result = updateServiceClient.getUpdatesByStatusesAndSegmentsAsync(pageable, userId, statuses, segments).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty();
+    }
+
     @Test
     public void getUpdateByUuidAndUserId_whenServiceReturn404_shouldReturnNullObject() {
         // Given
@@ -203,6 +228,41 @@ public class UpdateServiceClientTest {
         assertThat(updateInfo).isEqualTo(mapper.readValue(update.getInputStream(), Update.class));
     }
 
+    @Test
+    public void getUpdateByUuidAndUserIdAsync_whenServiceReturnAnUpdate_shouldCompleteWithIt() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_UPDATE_ENDPOINT;
+        final String uuid = UUID.randomUUID().toString();
+        final String userId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(uuid, userId)))
+                .andRespond(withSuccess().body(update));
+
+        // When
+        final Update updateInfo = updateServiceClient.getUpdateByUuidAndUserIdAsync(uuid, userId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(updateInfo).isEqualTo(mapper.readValue(update.getInputStream(), Update.class));
+    }
+
+    @Test
+    public void getUpdateByUuidAndUserIdAsync_whenServiceFails_shouldCompleteWithException() {
+        // Given
+        final Endpoint endpoint = GET_UPDATE_ENDPOINT;
+        final String uuid = UUID.randomUUID().toString();
+        final String userId = UUID.randomUUID().toString();
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(uuid, userId)))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> updateServiceClient.getUpdateByUuidAndUserIdAsync(uuid, userId).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(UpdateServiceClientException.class);
+        mockServer.verify();
+    }
+
     @Test
     public void editUpdate_whenEditSucceedAndUpdateContainsProperties_shouldReturnAnUpdatedUpdate() throws Exception {
         // Given
@@ -291,6 +351,43 @@ public class UpdateServiceClientTest {
         mockServer.verify();
     }
 
+    @Test
+    public void getLatestUpdateBySegmentIdAsync_whenSuccessful_shouldCompleteWithUpdate() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_LATEST_UPDATE_FOR_SEGMENT_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final Update expected = mapper.readValue(update.getInputStream(), Update.class);
+        mockServer.expect(requestTo(endpoint.withBase(baseUrl).getURI(userId, segmentId)))
+                .andExpect(method(endpoint.getMethod()))
+                .andRespond(withSuccess().body(update));
+
+        // When
+        final Optional<Update> result = updateServiceClient.getLatestUpdateForSegmentAsync(userId, segmentId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).hasValue(expected);
+    }
+
+    @Test
+    public void getLatestUpdateBySegmentIdAsync_whenNoUpdate_shouldCompleteWithEmpty() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_LATEST_UPDATE_FOR_SEGMENT_ENDPOINT;
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        mockServer.expect(requestTo(endpoint.withBase(baseUrl).getURI(userId, segmentId)))
+                .andExpect(method(endpoint.getMethod()))
+                .andRespond(withNoContent());
+
+        // When
+        final Optional<Update> result = updateServiceClient.getLatestUpdateForSegmentAsync(userId, segmentId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEmpty();
+    }
+
     @Test
     public void getAllStatusesCompatibilities_whenUpdateServiceReturnBadRequest_shouldThrowUpdateServiceClientException() {
         // Given
@@ -325,6 +422,23 @@ public class UpdateServiceClientTest {
         }));
     }
 
+    @Test
+    public void getAllStatusesCompatibilitiesAsync_whenUpdateServiceReturnListOfCompatibilities_shouldCompleteWithThatList() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_STATUSES_ENDPOINT;
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI()))
+                .andRespond(withSuccess().body(statuses));
+
+        // When
+        final List<UpdateStatusCompatibility> result = updateServiceClient.getAllStatusesCompatibilitiesAsync().get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isNotEmpty().isEqualTo(mapper.readValue(statuses.getInputStream(), new TypeReference<List<UpdateStatusCompatibility>>() {
+        }));
+    }
+
     @Test
     public void getStatusCompatibilities_whenUpdateServiceReturnBadRequest_shouldThrowUpdateServiceClientException() {
         // Given
@@ -359,4 +473,21 @@ public class UpdateServiceClientTest {
         mockServer.verify();
         assertThat(result).isEqualToComparingFieldByFieldRecursively(mapper.readValue(status.getInputStream(), UpdateStatusCompatibility.class));
     }
+
+    @Test
+    public void getStatusCompatibilitiesAsync_whenUpdateServiceReturnCompatibilityObject_shouldCompleteWithThatObject() throws Exception {
+        // Given
+        final Endpoint endpoint = GET_STATUS_ENDPOINT;
+        final UpdateStatus draft = UpdateStatus.DRAFT;
+        mockServer.expect(method(endpoint.getMethod()))
+                .andExpect(requestTo(endpoint.withBase(baseUrl).getURI(draft.getName())))
+                .andRespond(withSuccess().body(status));
+
+        // When
+        final UpdateStatusCompatibility result = updateServiceClient.getStatusCompatibilitiesAsync(draft).get(5, TimeUnit.SECONDS);
+
+        // Then
+        mockServer.verify();
+        assertThat(result).isEqualToComparingFieldByFieldRecursively(mapper.readValue(status.getInputStream(), UpdateStatusCompatibility.class));
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import io.barracks.membergateway.client.exception.DeviceServiceClientException;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withBadRequest;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class AsyncRestClientTest {
+    private static final URI URL = URI.create("http://not.barracks.io/segments");
+
+    @Test
+    public void exchange_whenNonBlocking_shouldCompleteWithBody() throws Exception {
+        // Given
+        final AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate();
+        final MockRestServiceServer mockServer = MockRestServiceServer.bindTo(asyncRestTemplate).build();
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(asyncRestTemplate, DeviceServiceClientException::new);
+        mockServer.expect(method(HttpMethod.GET))
+                .andExpect(requestTo(URL))
+                .andRespond(withSuccess("42", MediaType.TEXT_PLAIN));
+
+        // When
+        final CompletableFuture<String> result = asyncRestClient.exchange(RequestEntity.get(URL).build(), String.class);
+
+        // Then
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("42");
+        mockServer.verify();
+    }
+
+    @Test
+    public void exchange_whenNonBlockingAndCallFails_shouldCompleteWithMappedException() {
+        // Given
+        final AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate();
+        final MockRestServiceServer mockServer = MockRestServiceServer.bindTo(asyncRestTemplate).build();
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(asyncRestTemplate, DeviceServiceClientException::new);
+        mockServer.expect(method(HttpMethod.GET))
+                .andExpect(requestTo(URL))
+                .andRespond(withBadRequest());
+
+        // Then When
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> asyncRestClient.exchange(RequestEntity.get(URL).build(), String.class).get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class)
+                .matches(e -> e.getCause().getCause() instanceof HttpClientErrorException);
+        mockServer.verify();
+    }
+
+    @Test
+    public void exchange_whenNonBlockingAndFutureCancelled_shouldCancelExchange() {
+        // Given
+        final AsyncRestTemplate asyncRestTemplate = mock(AsyncRestTemplate.class);
+        final SettableListenableFuture<ResponseEntity<String>> response = new SettableListenableFuture<>();
+        doReturn(response).when(asyncRestTemplate).exchange(eq(URL), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class));
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(asyncRestTemplate, DeviceServiceClientException::new);
+        final CompletableFuture<String> result = asyncRestClient.exchange(RequestEntity.get(URL).build(), String.class);
+
+        // When
+        result.cancel(true);
+
+        // Then
+        assertThat(response.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void exchange_whenBlocking_shouldCallRestTemplateOnExecutor() throws Exception {
+        // Given
+        final RestTemplate restTemplate = new RestTemplate();
+        final MockRestServiceServer mockServer = MockRestServiceServer.bindTo(restTemplate).build();
+        final AtomicInteger executions = new AtomicInteger();
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(
+                restTemplate,
+                runnable -> {
+                    executions.incrementAndGet();
+                    runnable.run();
+                },
+                DeviceServiceClientException::new
+        );
+        mockServer.expect(method(HttpMethod.GET))
+                .andExpect(requestTo(URL))
+                .andRespond(withBadRequest());
+
+        // When
+        final CompletableFuture<String> result = asyncRestClient.exchange(RequestEntity.get(URL).build(), String.class);
+
+        // Then
+        assertThat(executions.get()).isEqualTo(1);
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class);
+        mockServer.verify();
+    }
+
+    @Test
+    public void exchange_whenExecutorRejectsCall_shouldCompleteExceptionally() {
+        // Given
+        final AsyncRestClient asyncRestClient = new AsyncRestClient(
+                new RestTemplate(),
+                runnable -> {
+                    throw new RejectedExecutionException();
+                },
+                DeviceServiceClientException::new
+        );
+
+        // When
+        final CompletableFuture<String> result = asyncRestClient.exchange(RequestEntity.get(URL).build(), String.class);
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(RejectedExecutionException.class);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class CircuitBreakerRegistryTest {
+    private MockEnvironment environment;
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    private HttpStatus status;
+
+    private final ClientHttpRequestFactory requestFactory = (uri, httpMethod) -> {
+        final MockClientHttpRequest request = new MockClientHttpRequest(httpMethod, uri);
+        request.setResponse(new MockClientHttpResponse(new byte[0], status));
+        return request;
+    };
+
+    @Before
+    public void setUp() {
+        environment = new MockEnvironment();
+        environment.setProperty("io.barracks.circuit_breaker.minimum_calls", "2");
+        environment.setProperty("io.barracks.deviceservice.circuit_breaker.max_concurrent_calls", "1");
+        circuitBreakerRegistry = new CircuitBreakerRegistry(environment, new FakeTicker());
+    }
+
+    private void call(ClientHttpRequestFactory factory) throws IOException {
+        try (ClientHttpResponse ignored = factory.createRequest(URI.create("http://localhost/"), HttpMethod.GET).execute()) {
+            // The call is over once the response is closed
+        }
+    }
+
+    @Test
+    public void protect_whenServiceReturnsServerErrors_shouldOpenCircuit() throws IOException {
+        // Given
+        final ClientHttpRequestFactory factory = circuitBreakerRegistry.protect("deviceservice", requestFactory);
+        status = HttpStatus.INTERNAL_SERVER_ERROR;
+
+        // When
+        call(factory);
+        call(factory);
+
+        // Then
+        assertThat(circuitBreakerRegistry.getCircuitBreaker("deviceservice").getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(() -> call(factory));
+        assertThat(circuitBreakerRegistry.getCircuitBreaker("statsservice").getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void protect_whenServiceReturnsClientErrors_shouldStayClosed() throws IOException {
+        // Given
+        final ClientHttpRequestFactory factory = circuitBreakerRegistry.protect("deviceservice", requestFactory);
+        status = HttpStatus.NOT_FOUND;
+
+        // When
+        call(factory);
+        call(factory);
+
+        // Then
+        assertThat(circuitBreakerRegistry.getCircuitBreaker("deviceservice").getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void protect_whenResponseIsNotClosed_shouldHoldBulkheadSlot() throws IOException {
+        // Given
+        final ClientHttpRequestFactory factory = circuitBreakerRegistry.protect("deviceservice", requestFactory);
+        status = HttpStatus.OK;
+        final ClientHttpResponse response = factory.createRequest(URI.create("http://localhost/"), HttpMethod.GET).execute();
+
+        // Then When
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(() -> call(factory));
+        response.close();
+        call(factory);
+    }
+
+    @Test
+    public void getMaxConnectionsPerRoute_whenServiceIsQualified_shouldReadSettingOfItsPool() {
+        // Given
+        environment.setProperty("io.barracks.http.max_per_route", "50");
+        environment.setProperty("io.barracks.packageservice.http.max_per_route", "12");
+        environment.setProperty("io.barracks.packageservice.upload.http.max_per_route", "4");
+
+        // Then
+        assertThat(circuitBreakerRegistry.getMaxConnectionsPerRoute("packageservice.upload")).isEqualTo(4);
+        assertThat(circuitBreakerRegistry.getMaxConnectionsPerRoute("packageservice")).isEqualTo(12);
+        assertThat(circuitBreakerRegistry.getMaxConnectionsPerRoute("statsservice")).isEqualTo(50);
+    }
+
+    @Test
+    public void getMaxConnectionsPerRoute_whenQualifiedPoolNotConfigured_shouldFallBackToService() {
+        // Given
+        environment.setProperty("io.barracks.packageservice.http.max_per_route", "12");
+
+        // Then
+        assertThat(circuitBreakerRegistry.getMaxConnectionsPerRoute("packageservice.upload")).isEqualTo(12);
+    }
+
+    @Test
+    public void getCircuitBreaker_whenMaxConcurrentCallsNotSet_shouldAdmitAsManyCallsAsConnectionsPerRoute() throws IOException {
+        // Given
+        environment.setProperty("io.barracks.statsservice.http.max_per_route", "2");
+        environment.setProperty("io.barracks.circuit_breaker.max_wait_ms", "0");
+        final CircuitBreaker circuitBreaker = circuitBreakerRegistry.getCircuitBreaker("statsservice");
+
+        // When
+        circuitBreaker.acquire();
+        circuitBreaker.acquire();
+
+        // Then
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(circuitBreaker::acquire);
+        assertThat(circuitBreaker.metrics()).extracting("name", "value").contains(tuple("circuitbreaker.statsservice.bulkhead.active", 2));
+    }
+
+    @Test
+    public void protect_whenDisabled_shouldReturnRequestFactory() {
+        // Given
+        environment.setProperty("io.barracks.circuit_breaker.enabled", "false");
+
+        // When
+        final ClientHttpRequestFactory result = circuitBreakerRegistry.protect("deviceservice", requestFactory);
+
+        // Then
+        assertThat(result).isSameAs(requestFactory);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.client.util;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class CircuitBreakerTest {
+    private static final long WINDOW = 10000L;
+    private static final long SLOW_CALL_DURATION = 1000L;
+    private static final long OPEN_DURATION = 5000L;
+
+    private FakeTicker ticker;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        circuitBreaker = new CircuitBreaker("service", ticker, WINDOW, 4, 50, SLOW_CALL_DURATION, 50, OPEN_DURATION, 2, 2, 0);
+    }
+
+    private void call(boolean failure) {
+        circuitBreaker.release(circuitBreaker.acquire(), failure);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+    }
+
+    @Test
+    public void acquire_whenFailureRateReachesThreshold_shouldOpenAndReject() {
+        // Given
+        call(false);
+        call(false);
+        call(true);
+
+        // When
+        call(true);
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatExceptionOfType(HttpServerErrorException.class)
+                .isThrownBy(() -> circuitBreaker.acquire())
+                .matches(e -> e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    public void acquire_whenFailuresAreOutsideWindow_shouldStayClosed() {
+        // Given
+        call(true);
+        call(true);
+        ticker.advance(WINDOW, TimeUnit.MILLISECONDS);
+
+        // When
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void acquire_whenTickerReadsNegativeTime_shouldRollWindow() {
+        // Given
+        ticker = new FakeTicker(-TimeUnit.MILLISECONDS.toNanos(WINDOW / 2));
+        circuitBreaker = new CircuitBreaker("service", ticker, WINDOW, 4, 50, SLOW_CALL_DURATION, 50, OPEN_DURATION, 2, 2, 0);
+        call(true);
+        call(true);
+        ticker.advance(WINDOW, TimeUnit.MILLISECONDS);
+
+        // When
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void acquire_whenCallsAreSlow_shouldOpen() {
+        // When
+        for (int i = 0; i < 4; i++) {
+            final long startTime = circuitBreaker.acquire();
+            ticker.advance(SLOW_CALL_DURATION, TimeUnit.MILLISECONDS);
+            circuitBreaker.release(startTime, false);
+        }
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void acquire_whenTrialCallsSucceed_shouldClose() {
+        // Given
+        open();
+        ticker.advance(OPEN_DURATION, TimeUnit.MILLISECONDS);
+
+        // When
+        final long first = circuitBreaker.acquire();
+        final long second = circuitBreaker.acquire();
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatExceptionOfType(HttpServerErrorException.class).isThrownBy(() -> circuitBreaker.acquire());
+        circuitBreaker.release(first, false);
+        circuitBreaker.release(second, false);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void acquire_whenTrialCallFails_shouldOpenAgain() {
+        // Given
+        open();
+        ticker.advance(OPEN_DURATION, TimeUnit.MILLISECONDS);
+
+        // When
+        call(true);
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.metrics()).extracting("name", "value")
+                .contains(tuple("circuitbreaker.service.opened", 2L))
+                .contains(tuple("circuitbreaker.service.half_opened", 1L));
+    }
+
+    @Test
+    public void acquire_whenBulkheadIsFull_shouldReject() {
+        // Given
+        final long first = circuitBreaker.acquire();
+        circuitBreaker.acquire();
+
+        // Then When
+        assertThatExceptionOfType(HttpServerErrorException.class)
+                .isThrownBy(() -> circuitBreaker.acquire())
+                .matches(e -> e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE);
+        circuitBreaker.release(first, false);
+        circuitBreaker.acquire();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.client.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Collection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PooledHttpClientFactoryTest {
+    private MockEnvironment environment;
+    private PooledHttpClientFactory pooledHttpClientFactory;
+
+    @Before
+    public void setUp() {
+        environment = new MockEnvironment();
+        pooledHttpClientFactory = new PooledHttpClientFactory(environment);
+    }
+
+    @Test
+    public void getSetting_whenServiceSettingDefined_shouldReturnServiceSetting() {
+        // Given
+        environment.setProperty("io.barracks.http.max_total", "12");
+        environment.setProperty("io.barracks.deviceservice.http.max_total", "42");
+
+        // When
+        final int result = pooledHttpClientFactory.getSetting("deviceservice", "max_total", PooledHttpClientFactory.DEFAULT_MAX_TOTAL);
+
+        // Then
+        assertThat(result).isEqualTo(42);
+    }
+
+    @Test
+    public void getSetting_whenOnlyGlobalSettingDefined_shouldReturnGlobalSetting() {
+        // Given
+        environment.setProperty("io.barracks.http.max_total", "12");
+
+        // When
+        final int result = pooledHttpClientFactory.getSetting("deviceservice", "max_total", PooledHttpClientFactory.DEFAULT_MAX_TOTAL);
+
+        // Then
+        assertThat(result).isEqualTo(12);
+    }
+
+    @Test
+    public void getSetting_whenServiceIsQualified_shouldFallBackToServiceSetting() {
+        // Given
+        environment.setProperty("io.barracks.http.read_timeout_ms", "1000");
+        environment.setProperty("io.barracks.packageservice.http.read_timeout_ms", "600000");
+        environment.setProperty("io.barracks.packageservice.upload.http.max_per_route", "16");
+
+        // Then
+        assertThat(pooledHttpClientFactory.getSetting("packageservice.upload", "read_timeout_ms", PooledHttpClientFactory.DEFAULT_READ_TIMEOUT)).isEqualTo(600000);
+        assertThat(pooledHttpClientFactory.getSetting("packageservice.upload", "max_per_route", PooledHttpClientFactory.DEFAULT_MAX_PER_ROUTE)).isEqualTo(16);
+        assertThat(pooledHttpClientFactory.getSetting("packageservice", "max_per_route", PooledHttpClientFactory.DEFAULT_MAX_PER_ROUTE)).isEqualTo(PooledHttpClientFactory.DEFAULT_MAX_PER_ROUTE);
+    }
+
+    @Test
+    public void getSetting_whenNoSettingDefined_shouldReturnDefaultValue() {
+        // When
+        final int result = pooledHttpClientFactory.getSetting("deviceservice", "max_total", PooledHttpClientFactory.DEFAULT_MAX_TOTAL);
+
+        // Then
+        assertThat(result).isEqualTo(PooledHttpClientFactory.DEFAULT_MAX_TOTAL);
+    }
+
+    @Test
+    public void metrics_shouldReportPoolUsagePerService() throws Exception {
+        // Given
+        environment.setProperty("io.barracks.updateservice.http.max_total", "7");
+        pooledHttpClientFactory.createRequestFactory("deviceservice");
+        pooledHttpClientFactory.createRequestFactory("updateservice");
+
+        // When
+        final Collection<Metric<?>> result = pooledHttpClientFactory.metrics();
+
+        // Then
+        assertThat(result).extracting(Metric::getName).contains(
+                "httpclient.deviceservice.leased",
+                "httpclient.deviceservice.available",
+                "httpclient.deviceservice.pending",
+                "httpclient.deviceservice.usage",
+                "httpclient.updateservice.max"
+        );
+        assertThat(result).filteredOn(metric -> metric.getName().equals("httpclient.updateservice.max"))
+                .extracting(metric -> metric.getValue().intValue())
+                .containsExactly(7);
+        pooledHttpClientFactory.destroy();
+        assertThat(pooledHttpClientFactory.metrics()).isEmpty();
+    }
+
+    @Test
+    public void isNonBlocking_whenNotConfigured_shouldBeOff() {
+        // Then
+        assertThat(pooledHttpClientFactory.isNonBlocking("deviceservice")).isFalse();
+    }
+
+    @Test
+    public void isNonBlocking_whenServiceSettingDefined_shouldOverrideGlobalSetting() {
+        // Given
+        environment.setProperty("io.barracks.http.non_blocking", "true");
+        environment.setProperty("io.barracks.packageservice.http.non_blocking", "false");
+
+        // Then
+        assertThat(pooledHttpClientFactory.isNonBlocking("packageservice")).isFalse();
+        assertThat(pooledHttpClientFactory.isNonBlocking("deviceservice")).isTrue();
+    }
+
+    @Test
+    public void metrics_shouldReportNonBlockingPoolUsagePerService() throws Exception {
+        // Given
+        environment.setProperty("io.barracks.deviceservice.http.max_total", "9");
+        pooledHttpClientFactory.createAsyncRequestFactory("deviceservice");
+        pooledHttpClientFactory.getBlockingExecutor();
+
+        // When
+        final Collection<Metric<?>> result = pooledHttpClientFactory.metrics();
+
+        // Then
+        assertThat(result).extracting(Metric::getName).contains(
+                "httpclient.deviceservice.nio.leased",
+                "httpclient.deviceservice.nio.pending",
+                "httpclient.blocking.active"
+        );
+        assertThat(result).filteredOn(metric -> metric.getName().equals("httpclient.deviceservice.nio.max"))
+                .extracting(metric -> metric.getValue().intValue())
+                .containsExactly(9);
+        pooledHttpClientFactory.destroy();
+        assertThat(pooledHttpClientFactory.metrics()).isEmpty();
+    }
+}
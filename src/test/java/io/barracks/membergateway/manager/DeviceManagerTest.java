@@ -46,6 +46,8 @@ import org.springframework.web.client.HttpServerErrorException;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -108,6 +110,24 @@ public class DeviceManagerTest {
         assertThat(result).isEqualTo(device);
     }
 
+    @Test
+    public void getDevicesAsync_whenClientReturnDevices_shouldCompleteWithThem() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<Device> devices = Lists.newArrayList(
+                buildDevice("unit1"), buildDevice("unit2")
+        );
+        when(deviceServiceClient.getDevicesAsync(userId, pageable, query))
+                .thenReturn(CompletableFuture.completedFuture(PagedResourcesUtils.buildPagedResources(pageable, devices)));
+
+        // When
+        final Page<Device> result = deviceManager.getDevicesAsync(userId, pageable, query).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(result).hasSize(2);
+        assertThat(result.getContent()).containsAll(devices);
+    }
+
     private Device buildDevice(String unitId) {
         return Device.builder()
                 .unitId(unitId)
@@ -27,28 +27,37 @@ package io.barracks.membergateway.manager;
 import io.barracks.membergateway.client.PackageServiceClient;
 import io.barracks.membergateway.client.exception.PackageManagerException;
 import io.barracks.membergateway.client.exception.PackageServiceClientException;
+import io.barracks.membergateway.manager.util.DigestingInputStream;
+import io.barracks.membergateway.manager.util.PackageDigester;
+import io.barracks.membergateway.manager.util.PackageInfoCache;
 import io.barracks.membergateway.model.PackageInfo;
 import io.barracks.membergateway.utils.RandomPrincipal;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
-import org.springframework.mock.web.MockMultipartFile;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.Principal;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PackageManagerTest {
@@ -56,44 +65,92 @@ public class PackageManagerTest {
     @Mock
     private PackageServiceClient packageServiceClient;
 
-    @InjectMocks
+    @Mock
+    private PackageInfoCache packageInfoCache;
+
     private PackageManager packageManager;
 
     private Principal principal;
 
     @Before
     public void setUp() {
+        packageManager = new PackageManager(packageServiceClient, packageInfoCache, new PackageDigester(true));
         principal = new RandomPrincipal();
     }
 
+    private static Answer<PackageInfo> drainAndReturn(PackageInfo packageInfo) {
+        return invocation -> {
+            StreamUtils.drain(invocation.getArgumentAt(2, InputStream.class));
+            return packageInfo;
+        };
+    }
+
     @Test
     public void upload_whenUpdateServiceClientReturnPackageInfo_shouldReturnItToo() throws IOException {
         // Given
-        final File file = getPackageFile();
-        final PackageInfo packageInfo = new PackageInfo("ObjectID", principal.getName(), "Example.exe", "MD5", 123, "Version");
-        final FileInputStream inputStream = new FileInputStream(file);
-        final MockMultipartFile multipartFile = new MockMultipartFile("file", packageInfo.getFileName(), "application/x-msdownload", inputStream);
+        final byte[] content = Files.readAllBytes(getPackageFile().toPath());
+        final String md5 = DigestUtils.md5DigestAsHex(content);
+        final PackageInfo packageInfo = new PackageInfo("ObjectID", principal.getName(), "Example.exe", md5, content.length, "Version");
         final String versionId = UUID.randomUUID().toString();
-        when(packageServiceClient.uploadPackage(packageInfo.getFileName(), multipartFile.getContentType(), inputStream, file.length(), versionId, principal.getName())).thenReturn(packageInfo);
+        doAnswer(drainAndReturn(packageInfo))
+                .when(packageServiceClient).uploadPackage(eq(packageInfo.getFileName()), eq("application/x-msdownload"), isA(DigestingInputStream.class), eq((long) content.length), eq(versionId), eq(principal.getName()));
 
         // When
-        final PackageInfo result = packageManager.upload(packageInfo.getFileName(), multipartFile.getContentType(), inputStream, file.length(), versionId, principal.getName());
+        final PackageInfo result = packageManager.upload(packageInfo.getFileName(), "application/x-msdownload", new ByteArrayInputStream(content), content.length, versionId, principal.getName(), md5.toUpperCase());
 
         // Then
         assertThat(result).isEqualTo(packageInfo);
-        verify(packageServiceClient).uploadPackage(packageInfo.getFileName(), multipartFile.getContentType(), inputStream, file.length(), versionId, principal.getName());
+        verify(packageServiceClient).uploadPackage(eq(packageInfo.getFileName()), eq("application/x-msdownload"), isA(DigestingInputStream.class), eq((long) content.length), eq(versionId), eq(principal.getName()));
+        verify(packageInfoCache).put(packageInfo);
+    }
+
+    @Test
+    public void upload_whenPackageServiceMd5Differs_shouldThrowBadGateway() throws IOException {
+        // Given
+        final byte[] content = Files.readAllBytes(getPackageFile().toPath());
+        final PackageInfo packageInfo = new PackageInfo("ObjectID", principal.getName(), "Example.exe", "d41d8cd98f00b204e9800998ecf8427e", content.length, "Version");
+        final String versionId = UUID.randomUUID().toString();
+        doAnswer(drainAndReturn(packageInfo))
+                .when(packageServiceClient).uploadPackage(eq(packageInfo.getFileName()), eq("application/x-msdownload"), isA(DigestingInputStream.class), eq((long) content.length), eq(versionId), eq(principal.getName()));
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageManager.upload(packageInfo.getFileName(), "application/x-msdownload", new ByteArrayInputStream(content), content.length, versionId, principal.getName(), null))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.BAD_GATEWAY);
+        verify(packageInfoCache, never()).put(packageInfo);
+    }
+
+    @Test
+    public void upload_whenDeclaredMd5Differs_shouldAbortUploadAndThrowBadRequest() throws IOException {
+        // Given
+        final byte[] content = Files.readAllBytes(getPackageFile().toPath());
+        final String versionId = UUID.randomUUID().toString();
+        doAnswer(invocation -> {
+            try {
+                StreamUtils.drain(invocation.getArgumentAt(2, InputStream.class));
+            } catch (IOException e) {
+                throw new ResourceAccessException("I/O error on POST request", e);
+            }
+            throw new IllegalStateException("Upload should have been aborted");
+        }).when(packageServiceClient).uploadPackage(eq("Example.exe"), eq("application/x-msdownload"), isA(DigestingInputStream.class), eq((long) content.length), eq(versionId), eq(principal.getName()));
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageManager.upload("Example.exe", "application/x-msdownload", new ByteArrayInputStream(content), content.length, versionId, principal.getName(), "d41d8cd98f00b204e9800998ecf8427e"))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.BAD_REQUEST);
+        verifyZeroInteractions(packageInfoCache);
     }
 
     @Test
     public void getPackageInfoByUuidAndUserId_whenClientThrowAnException_shouldThrowAnExceptionToo() {
         // Given
         final String packageId = UUID.randomUUID().toString();
-        when(packageServiceClient.getPackageInfo(packageId)).thenThrow(PackageServiceClientException.class);
+        when(packageInfoCache.getPackageInfo(packageId)).thenThrow(PackageServiceClientException.class);
 
         // When & Then
         assertThatExceptionOfType(PackageServiceClientException.class)
                 .isThrownBy(() -> packageManager.getPackageInfoByUuidAndUserId(packageId, principal.getName()));
-        verify(packageServiceClient).getPackageInfo(packageId);
+        verify(packageInfoCache).getPackageInfo(packageId);
     }
 
     @Test
@@ -101,12 +158,12 @@ public class PackageManagerTest {
         // Given
         final String packageId = UUID.randomUUID().toString();
         final PackageInfo packageInfo = new PackageInfo(packageId, "NotTheGoodUser", "Example.exe", "MD5", 123, "Version");
-        when(packageServiceClient.getPackageInfo(packageId)).thenReturn(packageInfo);
+        when(packageInfoCache.getPackageInfo(packageId)).thenReturn(packageInfo);
 
         // When & Then
         assertThatExceptionOfType(PackageManagerException.class)
                 .isThrownBy(() -> packageManager.getPackageInfoByUuidAndUserId(packageId, principal.getName()));
-        verify(packageServiceClient).getPackageInfo(packageId);
+        verify(packageInfoCache).getPackageInfo(packageId);
     }
 
     @Test
@@ -114,13 +171,13 @@ public class PackageManagerTest {
         // Given
         final String packageId = UUID.randomUUID().toString();
         final PackageInfo packageInfo = new PackageInfo(packageId, principal.getName(), "Example.exe", "MD5", 123, "Version");
-        when(packageServiceClient.getPackageInfo(packageId)).thenReturn(packageInfo);
+        when(packageInfoCache.getPackageInfo(packageId)).thenReturn(packageInfo);
 
         // When
         final PackageInfo result = packageManager.getPackageInfoByUuidAndUserId(packageId, principal.getName());
 
         // Then
-        verify(packageServiceClient).getPackageInfo(packageId);
+        verify(packageInfoCache).getPackageInfo(packageId);
         Assert.assertNotNull(result);
         Assert.assertEquals(packageInfo, result);
     }
@@ -0,0 +1,354 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager;
+
+import io.barracks.membergateway.client.exception.PackageManagerException;
+import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.rest.entity.PackageUpload;
+import io.barracks.membergateway.utils.FakeTicker;
+import io.barracks.membergateway.utils.RandomPrincipal;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PackageUploadManagerTest {
+    private static final long TTL = 60000L;
+    private static final int MAX_SESSIONS_PER_USER = 3;
+    private static final long MAX_STAGED_BYTES_PER_USER = 500 * 1024;
+    private static final long MAX_STAGED_BYTES = 1000 * 1024;
+
+    @Rule
+    public TemporaryFolder stagingFolder = new TemporaryFolder();
+
+    @Mock
+    private PackageManager packageManager;
+
+    private FakeTicker ticker;
+    private PackageUploadManager packageUploadManager;
+    private Principal principal;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        ticker = new FakeTicker();
+        packageUploadManager = new PackageUploadManager(
+                packageManager, stagingFolder.getRoot().toPath(), TTL, 1024 * 1024,
+                MAX_SESSIONS_PER_USER, MAX_STAGED_BYTES_PER_USER, MAX_STAGED_BYTES, ticker
+        );
+        principal = new RandomPrincipal();
+        content = new byte[200 * 1024];
+        new Random().nextBytes(content);
+    }
+
+    private PackageUpload initiate() throws IOException {
+        return initiate(principal.getName(), content.length);
+    }
+
+    private PackageUpload initiate(String userId, long size) throws IOException {
+        return packageUploadManager.initiate("file.bin", "application/octet-stream", size, "version", userId, null);
+    }
+
+    private PackageUpload append(String uploadId, int from, int to) throws IOException {
+        return packageUploadManager.append(uploadId, from, new ByteArrayInputStream(Arrays.copyOfRange(content, from, to)), principal.getName());
+    }
+
+    private Path[] stagedFiles() throws IOException {
+        return Files.list(stagingFolder.getRoot().toPath()).toArray(Path[]::new);
+    }
+
+    @Test
+    public void initiate_whenSizeIsValid_shouldPreallocateStagedFile() throws IOException {
+        // When
+        final PackageUpload upload = initiate();
+
+        // Then
+        assertThat(upload.getReceived()).isEqualTo(0L);
+        assertThat(upload.getMissing()).containsExactly(new PackageUpload.ByteRange(0, content.length));
+        assertThat(stagedFiles()).hasSize(1);
+        assertThat(Files.size(stagedFiles()[0])).isEqualTo(content.length);
+    }
+
+    @Test
+    public void initiate_whenSizeExceedsMaximum_shouldThrowException() {
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageUploadManager.initiate("file.bin", "application/octet-stream", 2 * 1024 * 1024, "version", principal.getName(), null))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @Test
+    public void initiate_whenUserHoldsMaxSessions_shouldThrowTooManyRequests() throws IOException {
+        // Given
+        for (int i = 0; i < MAX_SESSIONS_PER_USER; i++) {
+            initiate(principal.getName(), 1);
+        }
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> initiate(principal.getName(), 1))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.TOO_MANY_REQUESTS);
+        initiate(UUID.randomUUID().toString(), 1);
+        assertThat(stagedFiles()).hasSize(MAX_SESSIONS_PER_USER + 1);
+    }
+
+    @Test
+    public void initiate_whenUserStagedBytesExceedQuota_shouldThrowTooManyRequests() throws IOException {
+        // Given
+        initiate(principal.getName(), MAX_STAGED_BYTES_PER_USER - 1);
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> initiate(principal.getName(), 2))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.TOO_MANY_REQUESTS);
+        initiate(principal.getName(), 1);
+    }
+
+    @Test
+    public void initiate_whenGlobalBudgetIsReserved_shouldThrowInsufficientStorage() throws IOException {
+        // Given
+        initiate(UUID.randomUUID().toString(), MAX_STAGED_BYTES_PER_USER);
+        initiate(UUID.randomUUID().toString(), MAX_STAGED_BYTES - MAX_STAGED_BYTES_PER_USER);
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> initiate(principal.getName(), 1))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.INSUFFICIENT_STORAGE);
+        assertThat(packageUploadManager.getReservedBytes()).isEqualTo(MAX_STAGED_BYTES);
+    }
+
+    @Test
+    public void initiate_whenUploadsAreAbortedOrExpired_shouldReleaseReservations() throws IOException {
+        // Given
+        final String aborted = initiate().getId();
+        initiate(principal.getName(), 1);
+        initiate(principal.getName(), 1);
+        packageUploadManager.abort(aborted, principal.getName());
+        initiate();
+        ticker.advance(TTL, TimeUnit.MILLISECONDS);
+
+        // When
+        for (int i = 0; i < MAX_SESSIONS_PER_USER; i++) {
+            initiate(principal.getName(), 1);
+        }
+
+        // Then
+        assertThat(packageUploadManager.getReservedBytes()).isEqualTo(MAX_SESSIONS_PER_USER);
+    }
+
+    @Test
+    public void initiate_whenUploadCompleted_shouldReleaseReservation() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        append(uploadId, 0, content.length);
+        doReturn(PackageInfo.builder().id(UUID.randomUUID().toString()).build())
+                .when(packageManager).upload(anyString(), anyString(), any(InputStream.class), anyLong(), anyString(), anyString(), anyString());
+
+        // When
+        packageUploadManager.complete(uploadId, principal.getName());
+
+        // Then
+        assertThat(packageUploadManager.getReservedBytes()).isEqualTo(0L);
+    }
+
+    @Test
+    public void append_whenChunksAreSentOutOfOrder_shouldReportMissingRanges() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+
+        // When
+        append(uploadId, 150000, content.length);
+        final PackageUpload upload = append(uploadId, 0, 50000);
+
+        // Then
+        assertThat(upload.getReceived()).isEqualTo(50000L + content.length - 150000L);
+        assertThat(upload.getMissing()).containsExactly(new PackageUpload.ByteRange(50000, 150000));
+        assertThat(packageUploadManager.getUpload(uploadId, principal.getName())).isEqualTo(upload);
+    }
+
+    @Test
+    public void append_whenStreamFails_shouldKeepBytesWritten() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        final InputStream failing = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (count == 1000) {
+                    throw new IOException("Connection reset");
+                }
+                return content[count++] & 0xFF;
+            }
+        };
+
+        // Then When
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> packageUploadManager.append(uploadId, 0, failing, principal.getName()));
+        assertThat(packageUploadManager.getUpload(uploadId, principal.getName()).getMissing())
+                .containsExactly(new PackageUpload.ByteRange(1000, content.length));
+    }
+
+    @Test
+    public void append_whenChunkGoesBeyondSize_shouldThrowException() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        final byte[] chunk = new byte[2000];
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageUploadManager.append(uploadId, content.length - 1000, new ByteArrayInputStream(chunk), principal.getName()))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    @Test
+    public void append_whenUserDoesNotOwnUpload_shouldThrowNotFound() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageUploadManager.append(uploadId, 0, new ByteArrayInputStream(content), UUID.randomUUID().toString()))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void complete_whenRangesAreMissing_shouldThrowConflict() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        append(uploadId, 0, 1000);
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class)
+                .isThrownBy(() -> packageUploadManager.complete(uploadId, principal.getName()))
+                .matches(e -> e.getCause().getStatusCode() == HttpStatus.CONFLICT);
+        verifyZeroInteractions(packageManager);
+    }
+
+    @Test
+    public void complete_whenAllBytesReceived_shouldStreamAssembledFileAndDeleteIt() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        final PackageInfo packageInfo = PackageInfo.builder().id(UUID.randomUUID().toString()).build();
+        final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        append(uploadId, 100000, content.length);
+        append(uploadId, 0, 100000);
+        doAnswer(invocation -> {
+            StreamUtils.copy(invocation.getArgumentAt(2, InputStream.class), uploaded);
+            return packageInfo;
+        }).when(packageManager).upload(eq("file.bin"), eq("application/octet-stream"), any(InputStream.class), eq((long) content.length), eq("version"), eq(principal.getName()), isNull(String.class));
+
+        // When
+        final PackageInfo result = packageUploadManager.complete(uploadId, principal.getName());
+
+        // Then
+        assertThat(result).isEqualTo(packageInfo);
+        assertThat(uploaded.toByteArray()).isEqualTo(content);
+        assertThat(stagedFiles()).isEmpty();
+        assertThatExceptionOfType(PackageManagerException.class).isThrownBy(() -> packageUploadManager.getUpload(uploadId, principal.getName()));
+    }
+
+    @Test
+    public void complete_whenPackageServiceFails_shouldKeepUploadForRetry() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        append(uploadId, 0, content.length);
+        doThrow(new PackageManagerException(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)))
+                .when(packageManager).upload(anyString(), anyString(), any(InputStream.class), anyLong(), anyString(), anyString(), anyString());
+
+        // Then When
+        assertThatExceptionOfType(PackageManagerException.class).isThrownBy(() -> packageUploadManager.complete(uploadId, principal.getName()));
+        assertThat(packageUploadManager.getUpload(uploadId, principal.getName()).getReceived()).isEqualTo(content.length);
+        assertThat(stagedFiles()).hasSize(1);
+    }
+
+    @Test
+    public void getUpload_whenSessionExpired_shouldDeleteStagedFile() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+
+        // When
+        ticker.advance(TTL + 1, TimeUnit.MILLISECONDS);
+
+        // Then
+        assertThatExceptionOfType(PackageManagerException.class).isThrownBy(() -> packageUploadManager.getUpload(uploadId, principal.getName()));
+        assertThat(stagedFiles()).isEmpty();
+    }
+
+    @Test
+    public void new_whenStagingDirectoryIsShared_shouldOnlyDeleteFilesUntouchedForTtl() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        final Path stale = stagingFolder.newFile("stale" + PackageUploadManager.STAGING_FILE_SUFFIX).toPath();
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TTL - 1000));
+
+        // When
+        new PackageUploadManager(
+                packageManager, stagingFolder.getRoot().toPath(), TTL, 1024 * 1024,
+                MAX_SESSIONS_PER_USER, MAX_STAGED_BYTES_PER_USER, MAX_STAGED_BYTES, ticker
+        );
+
+        // Then
+        assertThat(stagedFiles()).hasSize(1);
+        assertThat(packageUploadManager.getUpload(uploadId, principal.getName()).getSize()).isEqualTo(content.length);
+    }
+
+    @Test
+    public void getUpload_shouldTouchStagedFile() throws IOException {
+        // Given
+        final String uploadId = initiate().getId();
+        final Path file = stagedFiles()[0];
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - TTL - 1000));
+
+        // When
+        packageUploadManager.getUpload(uploadId, principal.getName());
+
+        // Then
+        assertThat(Files.getLastModifiedTime(file).toMillis()).isGreaterThan(System.currentTimeMillis() - TTL);
+    }
+}
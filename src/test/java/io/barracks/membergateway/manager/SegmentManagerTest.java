@@ -25,8 +25,12 @@
 package io.barracks.membergateway.manager;
 
 import io.barracks.membergateway.client.DeviceServiceClient;
+import io.barracks.membergateway.client.exception.DeviceServiceClientException;
 import io.barracks.membergateway.exception.InvalidOwnerException;
 import io.barracks.membergateway.manager.entity.SegmentStatus;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.LastKnownGoodCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.Device;
 import io.barracks.membergateway.model.DeviceConfiguration;
 import io.barracks.membergateway.model.DeviceEvent;
@@ -41,10 +45,15 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.hateoas.PagedResources;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -55,11 +64,13 @@ import static org.mockito.Mockito.*;
 public class SegmentManagerTest {
     @Mock
     private DeviceServiceClient deviceServiceClient;
+    @Mock
+    private StatsSnapshotStore statsSnapshotStore;
     private SegmentManager segmentManager;
 
     @Before
     public void setup() {
-        this.segmentManager = spy(new SegmentManager(deviceServiceClient));
+        this.segmentManager = spy(new SegmentManager(deviceServiceClient, new FanOutExecutor(4, 16, 10000L), new LastKnownGoodCache(1000L, 300000L, 3000L, 4), statsSnapshotStore, 5000L));
     }
 
     @Test
@@ -138,6 +149,42 @@ public class SegmentManagerTest {
         assertThat(result).isEqualTo(expected);
     }
 
+    @Test
+    public void getSegmentForUserAsync_shouldCheckOwnershipAndReturnEnhancedSegment() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final Segment segment = Segment.builder().id(segmentId).name("name").userId(userId).build();
+        final Segment enhanced = segment.toBuilder().active(true).deviceCount(42).build();
+        doReturn(CompletableFuture.completedFuture(segment)).when(deviceServiceClient).getSegmentAsync(segmentId);
+        doReturn(CompletableFuture.completedFuture(enhanced)).when(segmentManager).enhanceSegmentAsync(segment);
+
+        // When
+        final Segment result = segmentManager.getSegmentForUserAsync(userId, segmentId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(deviceServiceClient).getSegmentAsync(segmentId);
+        verify(deviceServiceClient, never()).getSegment(anyString());
+        assertThat(result).isEqualTo(enhanced);
+    }
+
+    @Test
+    public void getSegmentForUserAsync_whenUserIsNotOwner_shouldFail() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final Segment segment = Segment.builder().id(segmentId).userId(UUID.randomUUID().toString()).build();
+        doReturn(CompletableFuture.completedFuture(segment)).when(deviceServiceClient).getSegmentAsync(segmentId);
+
+        // When
+        final CompletableFuture<Segment> result = segmentManager.getSegmentForUserAsync(userId, segmentId);
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(InvalidOwnerException.class);
+        verify(segmentManager, never()).enhanceSegmentAsync(any());
+    }
+
     @Test
     public void getSegmentsForUser_shouldCallClientAndReturnEnhancedSegments() {
         // Given
@@ -159,6 +206,26 @@ public class SegmentManagerTest {
         assertThat(result).hasSize(1).contains(enhanced);
     }
 
+    @Test
+    public void getSegmentsForUserAsync_shouldCallClientAndReturnEnhancedSegments() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Pageable pageable = new PageRequest(0, 10);
+        final Segment segment = Segment.builder().id(UUID.randomUUID().toString()).name("name").userId(userId).build();
+        final Segment enhanced = segment.toBuilder().active(true).deviceCount(42).build();
+        final PagedResources<Segment> segmentPagedResources = new PagedResources<>(Collections.singleton(segment), new PagedResources.PageMetadata(1, 0, 1));
+        doReturn(CompletableFuture.completedFuture(segmentPagedResources)).when(deviceServiceClient).getSegmentsAsync(userId, pageable);
+        doReturn(CompletableFuture.completedFuture(Collections.singletonList(enhanced)))
+                .when(segmentManager).enhanceSegmentsAsync((Collection<Segment>) argThat(hasItem(segment)));
+
+        // When
+        final Page<Segment> result = segmentManager.getSegmentsForUserAsync(userId, pageable).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(deviceServiceClient).getSegmentsAsync(userId, pageable);
+        assertThat(result).hasSize(1).contains(enhanced);
+    }
+
     @Test
     public void getDevicesBySegment_whitSegmentId_shouldCallClientAndReturnEvents() {
         // Given
@@ -202,7 +269,43 @@ public class SegmentManagerTest {
     }
 
     @Test
-    public void getOrderedSegments_shouldCallClient_andReturnSegmentList() {
+    public void getDevicesBySegmentAsync_whenUserIsNotOwner_shouldFailWithoutListingDevices() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final Pageable pageable = new PageRequest(0, 10);
+        doReturn(failedFuture(new InvalidOwnerException("Segment owner differs from user")))
+                .when(segmentManager).getSegmentAndCheckOwnershipAsync(userId, segmentId);
+
+        // When
+        final CompletableFuture<Page<Device>> result = segmentManager.getDevicesBySegmentAsync(userId, segmentId, pageable);
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(InvalidOwnerException.class);
+        verify(deviceServiceClient, never()).getDevicesBySegmentAsync(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void getDevicesBySegmentAsync_forOtherSegment_shouldCallClientAndReturnDevices() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = "other";
+        final Pageable pageable = new PageRequest(0, 10);
+        final Device device = Device.builder().unitId(UUID.randomUUID().toString()).build();
+        doReturn(CompletableFuture.completedFuture(new PagedResources<>(Collections.singletonList(device), new PagedResources.PageMetadata(1, 0, 1))))
+                .when(deviceServiceClient).getDevicesBySegmentAsync(userId, segmentId, pageable);
+
+        // When
+        final Page<Device> result = segmentManager.getDevicesBySegmentAsync(userId, segmentId, pageable).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(segmentManager, never()).getSegmentAndCheckOwnershipAsync(anyString(), anyString());
+        assertThat(result).hasSize(1).contains(device);
+    }
+
+    @Test
+    public void getOrderedSegments_shouldCountAllDevicesInOneCall_andReturnSegmentList() {
         // Given
         final String otherId = "other";
         final String userId = UUID.randomUUID().toString();
@@ -214,6 +317,10 @@ public class SegmentManagerTest {
                 Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build(),
                 Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build()
         );
+        final List<String> segmentIds = Arrays.asList(
+                active.get(0).getId(), active.get(1).getId(), inactive.get(0).getId(), inactive.get(1).getId(), otherId
+        );
+        final Map<String, Long> counts = Collections.singletonMap(otherId, 42L);
         final Segment other = Segment.builder()
                 .id(otherId)
                 .name("other")
@@ -226,23 +333,63 @@ public class SegmentManagerTest {
                 .inactive(inactive)
                 .other(other)
                 .build();
-        doReturn(active).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
-        doReturn(inactive).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.INACTIVE);
-        Stream.of(active, inactive).forEach(segments -> doReturn(segments).when(segmentManager).enhanceSegments(segments));
-        doReturn(other).when(segmentManager).getOtherSegment(userId);
-
+        doReturn(CompletableFuture.completedFuture(active)).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        doReturn(CompletableFuture.completedFuture(inactive)).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        doReturn(counts).when(segmentManager).getDeviceCounts(userId, segmentIds);
+        doReturn(active).when(segmentManager).enhanceSegments(active, true, counts);
+        doReturn(inactive).when(segmentManager).enhanceSegments(inactive, false, counts);
+        doReturn(other).when(segmentManager).getOtherSegment(userId, 42L);
 
         // When
         final SegmentsOrder result = segmentManager.getOrderedSegments(userId);
 
         // Then
-        verify(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
-        verify(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.INACTIVE);
-        Stream.of(active, inactive).forEach(segments -> verify(segmentManager).enhanceSegments(segments));
-        verify(segmentManager).getOtherSegment(userId);
+        verify(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        verify(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        verify(segmentManager).getDeviceCounts(userId, segmentIds);
+        verify(segmentManager).enhanceSegments(active, true, counts);
+        verify(segmentManager).enhanceSegments(inactive, false, counts);
+        verify(segmentManager).getOtherSegment(userId, 42L);
         assertThat(result).isEqualTo(expected);
     }
 
+    @Test
+    public void getOrderedSegments_shouldFetchActiveAndInactiveSegmentsConcurrently() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final CompletableFuture<List<Segment>> active = new CompletableFuture<>();
+        doReturn(active).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        doAnswer(invocation -> {
+            active.complete(Collections.emptyList());
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        doReturn(Collections.emptyMap()).when(segmentManager).getDeviceCounts(eq(userId), anyListOf(String.class));
+
+        // When
+        final SegmentsOrder result = segmentManager.getOrderedSegments(userId);
+
+        // Then
+        verify(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        verify(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        assertThat(result.getActive()).isEmpty();
+        assertThat(result.getInactive()).isEmpty();
+    }
+
+    @Test
+    public void getOrderedSegmentsAsync_shouldLoadOrderedSegmentsThroughLastKnownGoodCache() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final SegmentsOrder expected = SegmentsOrder.builder().build();
+        doReturn(expected).when(segmentManager).loadOrderedSegments(userId);
+
+        // When
+        final SegmentsOrder result = segmentManager.getOrderedSegmentsAsync(userId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(segmentManager).loadOrderedSegments(userId);
+        assertThat(result).isSameAs(expected);
+    }
+
     @Test
     public void updateSegmentsOrder_shouldCallClient_andReturnIdxList() {
         // Given
@@ -284,13 +431,13 @@ public class SegmentManagerTest {
                 .name("Other")
                 .userId(userId)
                 .build();
-        doReturn(count).when(segmentManager).getDeviceCount(userId, segmentId);
+        doReturn(Collections.singletonMap(segmentId, count)).when(segmentManager).getDeviceCounts(userId, Collections.singletonList(segmentId));
 
         // When
         final Segment result = segmentManager.getOtherSegment(userId);
 
         // Then
-        verify(segmentManager).getDeviceCount(userId, segmentId);
+        verify(segmentManager).getDeviceCounts(userId, Collections.singletonList(segmentId));
         assertThat(result).isEqualTo(expected);
     }
 
@@ -324,7 +471,7 @@ public class SegmentManagerTest {
     }
 
     @Test
-    public void enhanceSegments_whenSegmentList_shouldCheckForStatusAndGetDeviceCount() {
+    public void enhanceSegments_whenSegmentList_shouldCheckForStatusAndGetDeviceCounts() {
         // Given
         final String userId = UUID.randomUUID().toString();
         final Segment active = Segment.builder()
@@ -335,24 +482,207 @@ public class SegmentManagerTest {
                 .id(UUID.randomUUID().toString())
                 .userId(userId)
                 .build();
-        final List<Segment> segments = Arrays.asList(inactive, active);
+        final Segment empty = Segment.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(userId)
+                .build();
+        final List<Segment> segments = Arrays.asList(inactive, active, empty);
+        final List<String> segmentIds = Arrays.asList(inactive.getId(), active.getId(), empty.getId());
         final List<Segment> activeSegments = Collections.singletonList(active);
+        final Map<String, Long> counts = new HashMap<>();
+        counts.put(active.getId(), 42L);
+        counts.put(inactive.getId(), 24L);
         final List<Segment> expected = Arrays.asList(
                 inactive.toBuilder().active(false).deviceCount(24L).build(),
-                active.toBuilder().active(true).deviceCount(42L).build()
+                active.toBuilder().active(true).deviceCount(42L).build(),
+                empty.toBuilder().active(false).deviceCount(0L).build()
         );
         doReturn(activeSegments).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
-        doReturn(42L).when(segmentManager).getDeviceCount(userId, active.getId());
-        doReturn(24L).when(segmentManager).getDeviceCount(userId, inactive.getId());
+        doReturn(counts).when(segmentManager).getDeviceCounts(userId, segmentIds);
 
         // When
         final List<Segment> result = segmentManager.enhanceSegments(segments);
 
         // Then
         verify(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
-        verify(segmentManager).getDeviceCount(userId, active.getId());
-        verify(segmentManager).getDeviceCount(userId, inactive.getId());
+        verify(segmentManager).getDeviceCounts(userId, segmentIds);
+        verify(segmentManager, never()).getDeviceCount(anyString(), anyString());
+        assertThat(result).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void enhanceSegmentsAsync_whenSegmentList_shouldCheckForStatusAndGetDeviceCounts() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Segment active = Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build();
+        final Segment inactive = Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build();
+        final List<Segment> segments = Arrays.asList(inactive, active);
+        final List<String> segmentIds = Arrays.asList(inactive.getId(), active.getId());
+        final List<Segment> expected = Arrays.asList(
+                inactive.toBuilder().active(false).deviceCount(0L).build(),
+                active.toBuilder().active(true).deviceCount(42L).build()
+        );
+        doReturn(CompletableFuture.completedFuture(Collections.singletonList(active))).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        doReturn(CompletableFuture.completedFuture(Collections.singletonMap(active.getId(), 42L))).when(deviceServiceClient).getDeviceCountsBySegmentsAsync(userId, segmentIds);
+
+        // When
+        final List<Segment> result = segmentManager.enhanceSegmentsAsync(segments).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(deviceServiceClient, never()).getSegmentsByStatus(anyString(), any());
+        verify(deviceServiceClient, never()).getDeviceCountsBySegments(anyString(), any());
         assertThat(result).containsExactlyElementsOf(expected);
+        assertThat(segmentManager.getActiveSegmentIds(userId)).containsOnly(active.getId());
+    }
+
+    @Test
+    public void getActiveSegmentIds_shouldCallClientOnce_andReturnIdSet() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<Segment> active = Arrays.asList(
+                Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build(),
+                Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build()
+        );
+        doReturn(active).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+
+        // When
+        final Set<String> first = segmentManager.getActiveSegmentIds(userId);
+        final Set<String> second = segmentManager.getActiveSegmentIds(userId);
+
+        // Then
+        verify(deviceServiceClient, times(1)).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        assertThat(first).containsOnly(active.get(0).getId(), active.get(1).getId());
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void getActiveSegmentIds_whenOrderUpdated_shouldCallClientAgain() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<String> order = Collections.singletonList(UUID.randomUUID().toString());
+        doReturn(Collections.emptyList()).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        doReturn(null).when(segmentManager).getSegmentAndCheckOwnership(userId, order.get(0));
+        doReturn(order).when(deviceServiceClient).updateSegmentsOrder(userId, order);
+        segmentManager.getActiveSegmentIds(userId);
+
+        // When
+        segmentManager.updateSegmentsOrder(userId, order);
+        segmentManager.getActiveSegmentIds(userId);
+
+        // Then
+        verify(deviceServiceClient, times(2)).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+    }
+
+    @Test
+    public void getActiveSegmentIds_afterGetOrderedSegments_shouldNotCallClient() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Segment active = Segment.builder().id(UUID.randomUUID().toString()).userId(userId).build();
+        doReturn(CompletableFuture.completedFuture(Collections.singletonList(active))).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.ACTIVE);
+        doReturn(CompletableFuture.completedFuture(Collections.emptyList())).when(deviceServiceClient).getSegmentsByStatusAsync(userId, SegmentStatus.INACTIVE);
+        doReturn(Collections.emptyMap()).when(segmentManager).getDeviceCounts(eq(userId), anyListOf(String.class));
+        segmentManager.getOrderedSegments(userId);
+
+        // When
+        final Set<String> result = segmentManager.getActiveSegmentIds(userId);
+
+        // Then
+        verify(deviceServiceClient, never()).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        assertThat(result).containsOnly(active.getId());
+    }
+
+    @Test
+    public void getDeviceCounts_whenBatchSupported_shouldCallClientOnce() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Arrays.asList(UUID.randomUUID().toString(), "other");
+        final Map<String, Long> expected = Collections.singletonMap("other", 42L);
+        doReturn(expected).when(deviceServiceClient).getDeviceCountsBySegments(userId, segmentIds);
+
+        // When
+        final Map<String, Long> result = segmentManager.getDeviceCounts(userId, segmentIds);
+
+        // Then
+        verify(deviceServiceClient).getDeviceCountsBySegments(userId, segmentIds);
+        verify(segmentManager, never()).getDeviceCount(anyString(), anyString());
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getDeviceCounts_whenBatchNotFound_shouldCountEachSegment_andNotRetryBatch() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Arrays.asList(segmentId, "other");
+        doThrow(new DeviceServiceClientException(new HttpClientErrorException(HttpStatus.NOT_FOUND)))
+                .when(deviceServiceClient).getDeviceCountsBySegments(userId, segmentIds);
+        doReturn(42L).when(segmentManager).getDeviceCount(userId, segmentId);
+        doReturn(24L).when(segmentManager).getDeviceCount(userId, "other");
+
+        // When
+        final Map<String, Long> first = segmentManager.getDeviceCounts(userId, segmentIds);
+        final Map<String, Long> second = segmentManager.getDeviceCounts(userId, segmentIds);
+
+        // Then
+        verify(deviceServiceClient, times(1)).getDeviceCountsBySegments(userId, segmentIds);
+        verify(segmentManager, times(2)).getDeviceCount(userId, segmentId);
+        verify(segmentManager, times(2)).getDeviceCount(userId, "other");
+        assertThat(first).containsEntry(segmentId, 42L).containsEntry("other", 24L).hasSize(2);
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    public void getDeviceCounts_whenBatchFails_shouldThrowException() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Collections.singletonList(UUID.randomUUID().toString());
+        doThrow(new DeviceServiceClientException(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)))
+                .when(deviceServiceClient).getDeviceCountsBySegments(userId, segmentIds);
+
+        // Then When
+        assertThatExceptionOfType(DeviceServiceClientException.class)
+                .isThrownBy(() -> segmentManager.getDeviceCounts(userId, segmentIds));
+        verify(segmentManager, never()).getDeviceCount(anyString(), anyString());
+    }
+
+    @Test
+    public void getDeviceCountsAsync_whenBatchNotFound_shouldCountEachSegment_andNotRetryBatch() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String segmentId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Arrays.asList(segmentId, "other");
+        doReturn(failedFuture(new DeviceServiceClientException(new HttpClientErrorException(HttpStatus.NOT_FOUND))))
+                .when(deviceServiceClient).getDeviceCountsBySegmentsAsync(userId, segmentIds);
+        doReturn(CompletableFuture.completedFuture(new PagedResources<>(Collections.emptyList(), new PagedResources.PageMetadata(1, 0, 42))))
+                .when(deviceServiceClient).getDevicesBySegmentAsync(userId, segmentId, new PageRequest(0, 1));
+        doReturn(CompletableFuture.completedFuture(new PagedResources<>(Collections.emptyList(), new PagedResources.PageMetadata(1, 0, 24))))
+                .when(deviceServiceClient).getDevicesBySegmentAsync(userId, "other", new PageRequest(0, 1));
+
+        // When
+        final Map<String, Long> first = segmentManager.getDeviceCountsAsync(userId, segmentIds).get(5, TimeUnit.SECONDS);
+        final Map<String, Long> second = segmentManager.getDeviceCountsAsync(userId, segmentIds).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(deviceServiceClient, times(1)).getDeviceCountsBySegmentsAsync(userId, segmentIds);
+        assertThat(first).containsEntry(segmentId, 42L).containsEntry("other", 24L).hasSize(2);
+        assertThat(second).isEqualTo(first);
+    }
+
+    @Test
+    public void getDeviceCountsAsync_whenBatchFails_shouldFail() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final List<String> segmentIds = Collections.singletonList(UUID.randomUUID().toString());
+        doReturn(failedFuture(new DeviceServiceClientException(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))))
+                .when(deviceServiceClient).getDeviceCountsBySegmentsAsync(userId, segmentIds);
+
+        // When
+        final CompletableFuture<Map<String, Long>> result = segmentManager.getDeviceCountsAsync(userId, segmentIds);
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(DeviceServiceClientException.class);
+        verify(deviceServiceClient, never()).getDevicesBySegmentAsync(anyString(), anyString(), any());
     }
 
     @Test
@@ -424,4 +754,10 @@ public class SegmentManagerTest {
         verify(deviceServiceClient).getDevicesBySegment(userId, segmentId, request);
         assertThat(result).isEqualTo(42L);
     }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
 }
\ No newline at end of file
@@ -27,9 +27,13 @@ package io.barracks.membergateway.manager;
 import io.barracks.membergateway.client.DeviceServiceClient;
 import io.barracks.membergateway.client.StatsServiceClient;
 import io.barracks.membergateway.client.UpdateServiceClient;
+import io.barracks.membergateway.manager.entity.SegmentStatus;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.LastKnownGoodCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.DataSet;
-import io.barracks.membergateway.model.DetailedUpdate;
 import io.barracks.membergateway.model.Device;
+import io.barracks.membergateway.model.Segment;
 import io.barracks.membergateway.model.Update;
 import io.barracks.membergateway.rest.entity.SegmentsOrder;
 import io.barracks.membergateway.utils.DeviceUtils;
@@ -50,9 +54,8 @@ import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
-import java.util.Collections;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -74,7 +77,7 @@ public class StatsManagerTest {
 
     @Before
     public void setUp() {
-        this.statsManager = spy(new StatsManager(statsServiceClient, segmentManager, updateServiceClient, updateManager, deviceServiceClient));
+        this.statsManager = spy(new StatsManager(statsServiceClient, segmentManager, updateServiceClient, updateManager, deviceServiceClient, new FanOutExecutor(4, 16, 10000L), new LastKnownGoodCache(1000L, 300000L, 3000L, 4), new StatsSnapshotStore(100L, 60000L, 300000L, 1800000L, 4, 64)));
     }
 
     @Test
@@ -82,14 +85,14 @@ public class StatsManagerTest {
         // Given
         final String userId = UUID.randomUUID().toString();
         final DataSet expected = RandomDataSet.create();
-        doReturn(expected).when(statsServiceClient).getDevicesPerVersionId(userId);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsServiceClient).getDevicesPerVersionIdAsync(userId);
 
         // When
-        final DataSet result = statsManager.getDevicesPerVersionId(userId);
+        final CompletableFuture<DataSet> result = statsManager.getDevicesPerVersionId(userId);
 
         // Then
-        verify(statsServiceClient).getDevicesPerVersionId(userId);
-        assertThat(result).isEqualTo(expected);
+        verify(statsServiceClient).getDevicesPerVersionIdAsync(userId);
+        assertThat(result).isCompletedWithValue(expected);
     }
 
     @Test
@@ -99,14 +102,14 @@ public class StatsManagerTest {
         final DataSet expected = RandomDataSet.create();
         final OffsetDateTime start = randomDate();
         final OffsetDateTime end = randomDate();
-        doReturn(expected).when(statsServiceClient).getLastSeenDevices(userId, start, end);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsServiceClient).getLastSeenDevicesAsync(userId, start, end);
 
         // When
-        final DataSet result = statsManager.getLastSeenDevices(userId, start, end);
+        final CompletableFuture<DataSet> result = statsManager.getLastSeenDevices(userId, start, end);
 
         // Then
-        verify(statsServiceClient).getLastSeenDevices(userId, start, end);
-        assertThat(result).isEqualTo(expected);
+        verify(statsServiceClient).getLastSeenDevicesAsync(userId, start, end);
+        assertThat(result).isCompletedWithValue(expected);
     }
 
     @Test
@@ -116,31 +119,34 @@ public class StatsManagerTest {
         final DataSet expected = RandomDataSet.create();
         final OffsetDateTime start = randomDate();
         final OffsetDateTime end = randomDate();
-        doReturn(expected).when(statsServiceClient).getSeenDevices(userId, start, end);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsServiceClient).getSeenDevicesAsync(userId, start, end);
 
         // When
-        final DataSet result = statsManager.getSeenDevices(userId, start, end);
+        final CompletableFuture<DataSet> result = statsManager.getSeenDevices(userId, start, end);
 
         // Then
-        verify(statsServiceClient).getSeenDevices(userId, start, end);
-        assertThat(result).isEqualTo(expected);
+        verify(statsServiceClient).getSeenDevicesAsync(userId, start, end);
+        assertThat(result).isCompletedWithValue(expected);
     }
 
     @Test
-    public void getDevicesPerSegmentId_shouldMapSegmentOrder_andReturnResult() {
+    public void getDevicesPerSegmentId_shouldCountActiveAndOtherDevicesInOneCall_andReturnResult() {
         // Given
         final String userId = UUID.randomUUID().toString();
-        final SegmentsOrder order = SegmentsOrder.builder()
-                .addActive(SegmentUtils.getSegment().toBuilder().deviceCount(20).build())
-                .addActive(SegmentUtils.getSegment().toBuilder().deviceCount(1).build())
-                .other(SegmentUtils.getSegment().toBuilder().id("other").name("Other").deviceCount(21).build())
-                .addInactive(SegmentUtils.getSegment().toBuilder().deviceCount(9000).build())
-                .build();
-        doReturn(order).when(segmentManager).getOrderedSegments(userId);
+        final List<Segment> active = Arrays.asList(SegmentUtils.getSegment(), SegmentUtils.getSegment());
+        final List<String> segmentIds = Arrays.asList(active.get(0).getId(), active.get(1).getId(), "other");
+        final Map<String, Long> counts = new HashMap<>();
+        counts.put(active.get(0).getId(), 20L);
+        counts.put(active.get(1).getId(), 1L);
+        counts.put("other", 21L);
+        final Segment other = SegmentUtils.getSegment().toBuilder().id("other").name("Other").deviceCount(21).build();
+        doReturn(active).when(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        doReturn(counts).when(segmentManager).getDeviceCounts(userId, segmentIds);
+        doReturn(other).when(segmentManager).getOtherSegment(userId, 21L);
         final DataSet expected = DataSet.builder()
-                .value(order.getActive().get(0).getName(), BigDecimal.valueOf(order.getActive().get(0).getDeviceCount()))
-                .value(order.getActive().get(1).getName(), BigDecimal.valueOf(order.getActive().get(1).getDeviceCount()))
-                .value("Other", BigDecimal.valueOf(order.getOther().getDeviceCount()))
+                .value(active.get(0).getName(), BigDecimal.valueOf(20))
+                .value(active.get(1).getName(), BigDecimal.valueOf(1))
+                .value("Other", BigDecimal.valueOf(21))
                 .total(BigDecimal.valueOf(42))
                 .build();
 
@@ -148,7 +154,9 @@ public class StatsManagerTest {
         final DataSet result = statsManager.getDevicesPerSegmentId(userId);
 
         // Then
-        verify(segmentManager).getOrderedSegments(userId);
+        verify(deviceServiceClient).getSegmentsByStatus(userId, SegmentStatus.ACTIVE);
+        verify(segmentManager).getDeviceCounts(userId, segmentIds);
+        verify(segmentManager, never()).getOrderedSegments(userId);
         assertThat(result.getValues()).containsAll(expected.getValues());
         assertThat(result.getTotal()).isEqualTo(expected.getTotal());
     }
@@ -164,9 +172,9 @@ public class StatsManagerTest {
                 .addInactive(SegmentUtils.getSegment().toBuilder().deviceCount(9000).build())
                 .build();
         doReturn(order).when(segmentManager).getOrderedSegments(userId);
-        doReturn(BigDecimal.valueOf(20)).when(statsManager).getUpdatedDevicesCountForSegment(userId, order.getActive().get(0).getId(), order.getActive().get(0).getDeviceCount());
-        doReturn(BigDecimal.valueOf(1)).when(statsManager).getUpdatedDevicesCountForSegment(userId, order.getActive().get(1).getId(), order.getActive().get(1).getDeviceCount());
-        doReturn(BigDecimal.valueOf(21)).when(statsManager).getUpdatedDevicesCountForSegment(userId, order.getOther().getId(), order.getOther().getDeviceCount());
+        doReturn(CompletableFuture.completedFuture(BigDecimal.valueOf(20))).when(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getActive().get(0).getId(), order.getActive().get(0).getDeviceCount());
+        doReturn(CompletableFuture.completedFuture(BigDecimal.valueOf(1))).when(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getActive().get(1).getId(), order.getActive().get(1).getDeviceCount());
+        doReturn(CompletableFuture.completedFuture(BigDecimal.valueOf(21))).when(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getOther().getId(), order.getOther().getDeviceCount());
         final DataSet expected = DataSet.builder()
                 .value(order.getActive().get(0).getName(), BigDecimal.valueOf(20))
                 .value(order.getActive().get(1).getName(), BigDecimal.valueOf(1))
@@ -175,17 +183,40 @@ public class StatsManagerTest {
                 .build();
 
         // When
-        final DataSet result = statsManager.getUpdatedDevicesPerSegmentId(userId);
+        final DataSet result = statsManager.getUpdatedDevicesPerSegmentId(userId).getDataSet();
 
         // Then
         verify(segmentManager).getOrderedSegments(userId);
-        verify(statsManager).getUpdatedDevicesCountForSegment(userId, order.getActive().get(0).getId(), order.getActive().get(0).getDeviceCount());
-        verify(statsManager).getUpdatedDevicesCountForSegment(userId, order.getActive().get(1).getId(), order.getActive().get(1).getDeviceCount());
-        verify(statsManager).getUpdatedDevicesCountForSegment(userId, order.getOther().getId(), order.getOther().getDeviceCount());
+        verify(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getActive().get(0).getId(), order.getActive().get(0).getDeviceCount());
+        verify(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getActive().get(1).getId(), order.getActive().get(1).getDeviceCount());
+        verify(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getOther().getId(), order.getOther().getDeviceCount());
         assertThat(result.getValues()).containsAll(expected.getValues());
         assertThat(result.getTotal()).isEqualTo(expected.getTotal());
     }
 
+    @Test
+    public void getUpdatedDevicesPerSegmentId_whenSnapshotLoaded_shouldNotCallServicesAgain() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final SegmentsOrder order = SegmentsOrder.builder()
+                .addActive(SegmentUtils.getSegment().toBuilder().deviceCount(10).build())
+                .other(SegmentUtils.getSegment().toBuilder().id("other").name("Other").deviceCount(30).build())
+                .build();
+        doReturn(order).when(segmentManager).getOrderedSegments(userId);
+        doReturn(CompletableFuture.completedFuture(BigDecimal.valueOf(20))).when(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getActive().get(0).getId(), order.getActive().get(0).getDeviceCount());
+        doReturn(CompletableFuture.completedFuture(BigDecimal.valueOf(21))).when(statsManager).getUpdatedDevicesCountForSegmentAsync(userId, order.getOther().getId(), order.getOther().getDeviceCount());
+        final DataSet expected = statsManager.getUpdatedDevicesPerSegmentId(userId).getDataSet();
+
+        // When
+        final DataSet result = statsManager.getUpdatedDevicesPerSegmentId(userId).getDataSet();
+
+        // Then
+        verify(segmentManager, times(1)).getOrderedSegments(userId);
+        verify(statsManager, times(1)).getUpdatedDevicesCountForSegmentAsync(userId, order.getOther().getId(), order.getOther().getDeviceCount());
+        assertThat(result).isEqualTo(expected);
+        assertThat(result.getTotal()).isEqualTo(BigDecimal.valueOf(41));
+    }
+
     @Test
     public void getUpdatedDevicesCountForSegment_whenLatestUpdateExists_shouldCallClientAndReturnResult() {
         // Given
@@ -193,19 +224,20 @@ public class StatsManagerTest {
         final String segmentId = UUID.randomUUID().toString();
         final Pageable pageable = new PageRequest(0, 1);
         final Update update = UpdateUtils.getUpdate();
-        final DetailedUpdate detailedUpdate = UpdateUtils.getDetailedUpdate();
+        final String versionId = UUID.randomUUID().toString();
         final PagedResources<Device> devices = new PagedResources<>(Collections.singleton(DeviceUtils.getDevice()), new PagedResources.PageMetadata(1, 0, 42));
-        doReturn(Optional.of(update)).when(updateServiceClient).getLatestUpdateForSegment(userId, segmentId);
-        doReturn(detailedUpdate).when(updateManager).getUpdateByUuidAndUserId(update.getUuid(), userId);
-        doReturn(devices).when(deviceServiceClient).getDevicesBySegmentAndVersion(userId, segmentId, detailedUpdate.getPackageInfo().getVersionId(), pageable);
+        doReturn(CompletableFuture.completedFuture(Optional.of(update))).when(updateServiceClient).getLatestUpdateForSegmentAsync(userId, segmentId);
+        doReturn(CompletableFuture.completedFuture(versionId)).when(updateManager).getPackageVersionIdAsync(update);
+        doReturn(CompletableFuture.completedFuture(devices)).when(deviceServiceClient).getDevicesBySegmentAndVersionAsync(userId, segmentId, versionId, pageable);
 
         // When
         final BigDecimal result = statsManager.getUpdatedDevicesCountForSegment(userId, segmentId, 24);
 
         // Then
-        verify(updateServiceClient).getLatestUpdateForSegment(userId, segmentId);
-        verify(updateManager).getUpdateByUuidAndUserId(update.getUuid(), userId);
-        verify(deviceServiceClient).getDevicesBySegmentAndVersion(userId, segmentId, detailedUpdate.getPackageInfo().getVersionId(), pageable);
+        verify(updateServiceClient).getLatestUpdateForSegmentAsync(userId, segmentId);
+        verify(updateManager).getPackageVersionIdAsync(update);
+        verify(updateManager, never()).getUpdateByUuidAndUserId(anyString(), anyString());
+        verify(deviceServiceClient).getDevicesBySegmentAndVersionAsync(userId, segmentId, versionId, pageable);
         assertThat(result).isEqualTo(BigDecimal.valueOf(42));
     }
 
@@ -214,13 +246,13 @@ public class StatsManagerTest {
         // Given
         final String userId = UUID.randomUUID().toString();
         final String segmentId = UUID.randomUUID().toString();
-        doReturn(Optional.empty()).when(updateServiceClient).getLatestUpdateForSegment(userId, segmentId);
+        doReturn(CompletableFuture.completedFuture(Optional.empty())).when(updateServiceClient).getLatestUpdateForSegmentAsync(userId, segmentId);
 
         // When
         final BigDecimal result = statsManager.getUpdatedDevicesCountForSegment(userId, segmentId, 24);
 
         // Then
-        verify(updateServiceClient).getLatestUpdateForSegment(userId, segmentId);
+        verify(updateServiceClient).getLatestUpdateForSegmentAsync(userId, segmentId);
         assertThat(result).isEqualTo(BigDecimal.valueOf(24));
     }
 
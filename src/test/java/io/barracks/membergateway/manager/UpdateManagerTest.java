@@ -25,9 +25,11 @@
 package io.barracks.membergateway.manager;
 
 import io.barracks.commons.test.PagedResourcesUtils;
-import io.barracks.membergateway.client.PackageServiceClient;
 import io.barracks.membergateway.client.UpdateServiceClient;
 import io.barracks.membergateway.exception.InvalidOwnerException;
+import io.barracks.membergateway.manager.util.FanOutExecutor;
+import io.barracks.membergateway.manager.util.PackageInfoCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.*;
 import org.junit.Before;
 import org.junit.Test;
@@ -42,6 +44,9 @@ import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static io.barracks.membergateway.utils.PackageUtils.getPredefinedCreatedPackageInfoBuilder;
 import static io.barracks.membergateway.utils.SegmentUtils.getPredefinedSegmentBuilder;
@@ -58,17 +63,20 @@ public class UpdateManagerTest {
     private UpdateServiceClient updateServiceClient;
 
     @Mock
-    private PackageServiceClient packageServiceClient;
+    private PackageInfoCache packageInfoCache;
 
     @Mock
     private SegmentManager segmentManager;
 
+    @Mock
+    private StatsSnapshotStore statsSnapshotStore;
+
     private UpdateManager updateManager;
 
 
     @Before
     public void setUp() {
-        updateManager = spy(new UpdateManager(updateServiceClient, packageServiceClient, segmentManager));
+        updateManager = spy(new UpdateManager(updateServiceClient, packageInfoCache, segmentManager, new FanOutExecutor(4, 16, 10000L), statsSnapshotStore));
     }
 
     @Test
@@ -98,9 +106,9 @@ public class UpdateManagerTest {
         when(updateServiceClient.getUpdatesByStatusesAndSegments(pageable, userId, statuses, Collections.emptyList()))
                 .thenReturn(PagedResourcesUtils.buildPagedResources(pageable, Arrays.asList(publishedUpdate, scheduledUpdate)));
 
-        when(packageServiceClient.getPackageInfo(publishedUpdate.getPackageId()))
+        when(packageInfoCache.getPackageInfo(publishedUpdate.getPackageId()))
                 .thenReturn(publishedUpdatePackage);
-        when(packageServiceClient.getPackageInfo(scheduledUpdate.getPackageId()))
+        when(packageInfoCache.getPackageInfo(scheduledUpdate.getPackageId()))
                 .thenReturn(scheduledUpdatePackage);
 
         doReturn(segment).when(updateManager).getSegmentForUpdate(publishedUpdate);
@@ -111,8 +119,8 @@ public class UpdateManagerTest {
 
         // Then
         verify(updateServiceClient).getUpdatesByStatusesAndSegments(pageable, userId, Collections.emptyList(), Collections.emptyList());
-        verify(packageServiceClient).getPackageInfo(publishedUpdatePackage.getId());
-        verify(packageServiceClient).getPackageInfo(scheduledUpdatePackage.getId());
+        verify(packageInfoCache).getPackageInfo(publishedUpdatePackage.getId());
+        verify(packageInfoCache).getPackageInfo(scheduledUpdatePackage.getId());
         verify(updateManager).getSegmentForUpdate(publishedUpdate);
         verify(updateManager).getSegmentForUpdate(scheduledUpdate);
 
@@ -122,6 +130,67 @@ public class UpdateManagerTest {
         );
     }
 
+    @Test
+    public void getUpdatesByStatusesAndSegmentsAsync_whenUpdateServiceClientReturnsUpdates_shouldCompleteWithPackageAndSegmentInformation() throws Exception {
+        // Given
+        final Pageable pageable = new PageRequest(0, 20);
+        final String userId = UUID.randomUUID().toString();
+        final List<UpdateStatus> statuses = Collections.singletonList(UpdateStatus.PUBLISHED);
+        final Segment segment = getPredefinedSegmentBuilder(userId).build();
+        final PackageInfo updatePackage = getPredefinedCreatedPackageInfoBuilder(userId).build();
+        final Update update = getPredefinedCreatedUpdateBuilder(userId)
+                .status(UpdateStatus.PUBLISHED)
+                .segmentId(segment.getId())
+                .packageId(updatePackage.getId())
+                .build();
+        final Segment other = Segment.builder().id(SegmentManager.OTHER_SEGMENT_KEYWORD).userId(userId).build();
+        final Update otherUpdate = getPredefinedCreatedUpdateBuilder(userId)
+                .status(UpdateStatus.PUBLISHED)
+                .segmentId(null)
+                .packageId(updatePackage.getId())
+                .build();
+        doReturn(CompletableFuture.completedFuture(PagedResourcesUtils.buildPagedResources(pageable, Arrays.asList(update, otherUpdate))))
+                .when(updateServiceClient).getUpdatesByStatusesAndSegmentsAsync(pageable, userId, statuses, Collections.emptyList());
+        doReturn(CompletableFuture.completedFuture(updatePackage)).when(packageInfoCache).getPackageInfoAsync(updatePackage.getId());
+        doReturn(CompletableFuture.completedFuture(segment)).when(segmentManager).getSegmentForUserAsync(userId, segment.getId());
+        doReturn(CompletableFuture.completedFuture(other)).when(segmentManager).getOtherSegmentAsync(userId);
+
+        // When
+        final Page<DetailedUpdate> result = updateManager.getUpdatesByStatusesAndSegmentsAsync(pageable, userId, statuses, Collections.emptyList())
+                .get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(updateServiceClient, never()).getUpdatesByStatusesAndSegments(any(), anyString(), anyListOf(UpdateStatus.class), anyListOf(String.class));
+        verify(packageInfoCache, never()).getPackageInfo(anyString());
+        assertThat(result).containsExactly(
+                new DetailedUpdate(update, updatePackage, segment),
+                new DetailedUpdate(otherUpdate, updatePackage, other)
+        );
+    }
+
+    @Test
+    public void getUpdatesByStatusesAndSegmentsAsync_whenSegmentFails_shouldFail() {
+        // Given
+        final Pageable pageable = new PageRequest(0, 20);
+        final String userId = UUID.randomUUID().toString();
+        final Segment segment = getPredefinedSegmentBuilder(userId).build();
+        final PackageInfo updatePackage = getPredefinedCreatedPackageInfoBuilder(userId).build();
+        final Update update = getPredefinedCreatedUpdateBuilder(userId).segmentId(segment.getId()).packageId(updatePackage.getId()).build();
+        final CompletableFuture<Segment> failedSegment = new CompletableFuture<>();
+        failedSegment.completeExceptionally(new InvalidOwnerException("Segment owner differs from user"));
+        doReturn(CompletableFuture.completedFuture(PagedResourcesUtils.buildPagedResources(pageable, Collections.singletonList(update))))
+                .when(updateServiceClient).getUpdatesByStatusesAndSegmentsAsync(pageable, userId, Collections.emptyList(), Collections.emptyList());
+        doReturn(CompletableFuture.completedFuture(updatePackage)).when(packageInfoCache).getPackageInfoAsync(updatePackage.getId());
+        doReturn(failedSegment).when(segmentManager).getSegmentForUserAsync(userId, segment.getId());
+
+        // When
+        final CompletableFuture<Page<DetailedUpdate>> result = updateManager.getUpdatesByStatusesAndSegmentsAsync(pageable, userId, Collections.emptyList(), Collections.emptyList());
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCauseInstanceOf(InvalidOwnerException.class);
+    }
+
     @Test
     public void getUpdateByUuidAndUserId_whenUpdateHasSegment_shouldReturnUpdateWithSegment() {
         // Given
@@ -135,7 +204,7 @@ public class UpdateManagerTest {
                 .build();
 
         doReturn(update).when(updateServiceClient).getUpdateByUuidAndUserId(update.getUuid(), userId);
-        doReturn(updatePackage).when(packageServiceClient).getPackageInfo(updatePackage.getId());
+        doReturn(updatePackage).when(packageInfoCache).getPackageInfo(updatePackage.getId());
         doReturn(updateSegment).when(updateManager).getSegmentForUpdate(update);
 
         // When
@@ -143,11 +212,53 @@ public class UpdateManagerTest {
 
         // Then
         verify(updateServiceClient).getUpdateByUuidAndUserId(update.getUuid(), userId);
-        verify(packageServiceClient).getPackageInfo(updatePackage.getId());
+        verify(packageInfoCache).getPackageInfo(updatePackage.getId());
         verify(updateManager).getSegmentForUpdate(update);
         assertThat(result).isEqualTo(new DetailedUpdate(update, updatePackage, updateSegment));
     }
 
+    @Test
+    public void getUpdateByUuidAndUserIdAsync_whenUpdateHasSegment_shouldCompleteWithUpdateAndSegment() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final Segment updateSegment = getPredefinedSegmentBuilder(userId).build();
+        final PackageInfo updatePackage = getPredefinedCreatedPackageInfoBuilder(userId).build();
+        final Update update = getPredefinedCreatedUpdateBuilder(userId)
+                .segmentId(updateSegment.getId())
+                .packageId(updatePackage.getId())
+                .build();
+        doReturn(CompletableFuture.completedFuture(update)).when(updateServiceClient).getUpdateByUuidAndUserIdAsync(update.getUuid(), userId);
+        doReturn(CompletableFuture.completedFuture(updatePackage)).when(packageInfoCache).getPackageInfoAsync(updatePackage.getId());
+        doReturn(CompletableFuture.completedFuture(updateSegment)).when(segmentManager).getSegmentForUserAsync(userId, updateSegment.getId());
+
+        // When
+        final DetailedUpdate result = updateManager.getUpdateByUuidAndUserIdAsync(update.getUuid(), userId).get(5, TimeUnit.SECONDS);
+
+        // Then
+        verify(updateServiceClient, never()).getUpdateByUuidAndUserId(anyString(), anyString());
+        verify(segmentManager, never()).getSegmentForUser(anyString(), anyString());
+        assertThat(result).isEqualTo(new DetailedUpdate(update, updatePackage, updateSegment));
+    }
+
+    @Test
+    public void getPackageVersionIdAsync_shouldOnlyUsePackageInfoCache() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final PackageInfo updatePackage = getPredefinedCreatedPackageInfoBuilder(userId).build();
+        final Update update = getPredefinedCreatedUpdateBuilder(userId)
+                .packageId(updatePackage.getId())
+                .build();
+        doReturn(CompletableFuture.completedFuture(updatePackage)).when(packageInfoCache).getPackageInfoAsync(updatePackage.getId());
+
+        // When
+        final CompletableFuture<String> result = updateManager.getPackageVersionIdAsync(update);
+
+        // Then
+        verify(packageInfoCache).getPackageInfoAsync(updatePackage.getId());
+        verifyZeroInteractions(updateServiceClient, segmentManager);
+        assertThat(result).isCompletedWithValue(updatePackage.getVersionId());
+    }
+
     @Test
     public void createUpdate_shouldNormalizeCheckPackageAndSegmentOwnership_shouldReturnResponseFromClient() {
         // Given
@@ -179,6 +290,7 @@ public class UpdateManagerTest {
         verify(updateManager).checkPackageInfoOwnershipOnUpdate(update);
         verify(updateManager).getSegmentForUpdate(update);
         verify(updateServiceClient).createUpdate(update);
+        verify(statsSnapshotStore).invalidateSegment(userId, segment.getId());
         assertThat(result).isEqualTo(
                 new DetailedUpdate(
                         updateAfterCreation,
@@ -214,6 +326,7 @@ public class UpdateManagerTest {
         verify(updateManager).checkPackageInfoOwnershipOnUpdate(update);
         verify(updateManager).getSegmentForUpdate(update);
         verify(updateServiceClient).editUpdate(update);
+        verify(statsSnapshotStore).invalidateSegment(userId, segment.getId());
         assertThat(result).isEqualTo(
                 new DetailedUpdate(
                         update,
@@ -239,6 +352,7 @@ public class UpdateManagerTest {
         // Then
         verify(updateManager).checkUpdateOwnership(update.getUuid(), userId);
         verify(updateServiceClient).editUpdate(expected);
+        verify(statsSnapshotStore).invalidateSegment(userId, update.hasSegment() ? update.getSegmentId() : SegmentManager.OTHER_SEGMENT_KEYWORD);
     }
 
     @Test
@@ -400,13 +514,13 @@ public class UpdateManagerTest {
         final String packageId = UUID.randomUUID().toString();
         final Update update = Update.builder().userId(userId).packageId(packageId).build();
         final PackageInfo expected = PackageInfo.builder().id(UUID.randomUUID().toString()).userId(userId).build();
-        doReturn(expected).when(packageServiceClient).getPackageInfo(packageId);
+        doReturn(expected).when(packageInfoCache).getPackageInfo(packageId);
 
         // When
         final PackageInfo result = updateManager.checkPackageInfoOwnershipOnUpdate(update);
 
         // Then
-        verify(packageServiceClient).getPackageInfo(packageId);
+        verify(packageInfoCache).getPackageInfo(packageId);
         assertThat(result).isEqualTo(expected);
     }
 
@@ -417,13 +531,13 @@ public class UpdateManagerTest {
         final String packageId = UUID.randomUUID().toString();
         final Update update = Update.builder().userId(userId).packageId(packageId).build();
         final PackageInfo expected = PackageInfo.builder().id(UUID.randomUUID().toString()).userId(UUID.randomUUID().toString()).build();
-        doReturn(expected).when(packageServiceClient).getPackageInfo(packageId);
+        doReturn(expected).when(packageInfoCache).getPackageInfo(packageId);
 
         // Then When
         assertThatExceptionOfType(InvalidOwnerException.class).isThrownBy(() ->
                 updateManager.checkPackageInfoOwnershipOnUpdate(update)
         );
-        verify(packageServiceClient).getPackageInfo(packageId);
+        verify(packageInfoCache).getPackageInfo(packageId);
     }
 
     @Test
@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class DigestingInputStreamTest {
+    private static final byte[] CONTENT = "barracks package content".getBytes(StandardCharsets.UTF_8);
+
+    private final PackageDigester packageDigester = new PackageDigester(true);
+
+    @Test
+    public void read_shouldComputeDigestsAndCount() throws Exception {
+        // Given
+        final DigestingInputStream inputStream = packageDigester.digest(new ByteArrayInputStream(CONTENT), CONTENT.length, DigestUtils.md5DigestAsHex(CONTENT));
+
+        // When
+        final byte[] result = StreamUtils.copyToByteArray(inputStream);
+
+        // Then
+        assertThat(result).isEqualTo(CONTENT);
+        assertThat(inputStream.getCount()).isEqualTo(CONTENT.length);
+        assertThat(inputStream.getMd5()).isEqualTo(DigestUtils.md5DigestAsHex(CONTENT));
+        assertThat(inputStream.getSha256()).isEqualTo(Hashing.sha256().hashBytes(CONTENT).toString());
+        assertThat(metricValue("upload.digest.bytes")).isEqualTo(CONTENT.length);
+    }
+
+    @Test
+    public void read_whenMoreBytesThanDeclared_shouldFailBeforeEndOfStream() {
+        // Given
+        final DigestingInputStream inputStream = packageDigester.digest(new ByteArrayInputStream(CONTENT), CONTENT.length - 1, null);
+
+        // Then When
+        assertThatExceptionOfType(DigestingInputStream.PackageVerificationException.class)
+                .isThrownBy(() -> StreamUtils.copyToByteArray(inputStream));
+        assertThat(metricValue("upload.verification.failure")).isEqualTo(1);
+    }
+
+    @Test
+    public void read_whenFewerBytesThanDeclared_shouldFailAtEndOfStream() {
+        // Given
+        final DigestingInputStream inputStream = packageDigester.digest(new ByteArrayInputStream(CONTENT), CONTENT.length + 1, null);
+
+        // Then When
+        assertThatExceptionOfType(DigestingInputStream.PackageVerificationException.class)
+                .isThrownBy(() -> StreamUtils.copyToByteArray(inputStream));
+    }
+
+    @Test
+    public void read_whenMd5Differs_shouldFailAtEndOfStream() {
+        // Given
+        final DigestingInputStream inputStream = packageDigester.digest(new ByteArrayInputStream(CONTENT), -1, "d41d8cd98f00b204e9800998ecf8427e");
+
+        // Then When
+        assertThatExceptionOfType(DigestingInputStream.PackageVerificationException.class)
+                .isThrownBy(() -> StreamUtils.copyToByteArray(inputStream));
+    }
+
+    private long metricValue(String name) {
+        return packageDigester.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .map(Number::longValue)
+                .orElseThrow(IllegalStateException::new);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import io.barracks.membergateway.exception.FanOutTimeoutException;
+import io.barracks.membergateway.monitoring.RequestTrace;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class FanOutExecutorTest {
+    private FanOutExecutor fanOutExecutor;
+
+    @After
+    public void tearDown() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.destroy();
+        }
+    }
+
+    @Test
+    public void map_shouldRunOnFanOutThreads_andKeepItemsOrder() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final List<Integer> items = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+
+        // When
+        final List<String> result = fanOutExecutor.map(items, item -> item + "@" + Thread.currentThread().getName());
+
+        // Then
+        assertThat(result).hasSize(10);
+        for (int i = 0; i < 10; i++) {
+            assertThat(result.get(i)).startsWith(i + "@" + FanOutExecutor.THREAD_NAME_PREFIX);
+        }
+    }
+
+    @Test
+    public void map_shouldBindRequestTraceOnFanOutThreads() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final RequestTrace trace = new RequestTrace(new FakeTicker());
+        final AtomicReference<List<RequestTrace>> result = new AtomicReference<>();
+
+        // When
+        RequestTrace.run(trace, () -> result.set(fanOutExecutor.map(Arrays.asList(1, 2, 3), item -> RequestTrace.current())));
+
+        // Then
+        assertThat(result.get()).containsOnly(trace);
+    }
+
+    @Test
+    public void map_whenCallFails_shouldRethrowCause() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final IllegalArgumentException exception = new IllegalArgumentException("boom");
+
+        // Then When
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> fanOutExecutor.map(Arrays.asList(1, 2, 3), item -> {
+                    if (item == 2) {
+                        throw exception;
+                    }
+                    return item;
+                }))
+                .isSameAs(exception);
+    }
+
+    @Test
+    public void map_whenDeadlineExceeded_shouldThrowTimeoutException() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 50L);
+        final CountDownLatch never = new CountDownLatch(1);
+
+        // Then When
+        assertThatExceptionOfType(FanOutTimeoutException.class)
+                .isThrownBy(() -> fanOutExecutor.map(Arrays.asList(1, 2), item -> {
+                    try {
+                        return never.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }));
+        assertThat(metricValue("fanout.timeout")).isEqualTo(1L);
+    }
+
+    @Test
+    public void map_whenCalledFromFanOutThread_shouldRunInline() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(1, 1, 10000L);
+
+        // When
+        final List<List<String>> result = fanOutExecutor.map(Arrays.asList(1, 2), outer ->
+                fanOutExecutor.map(Arrays.asList(1, 2), inner -> Thread.currentThread().getName())
+        );
+
+        // Then
+        result.forEach(threads -> assertThat(threads).hasSize(2).allMatch(thread -> thread.equals(threads.get(0))));
+    }
+
+    @Test
+    public void map_whenQueueIsFull_shouldRunOnCallerThread_andCountRejection() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(1, 1, 10000L);
+        final String caller = Thread.currentThread().getName();
+
+        // When
+        final List<String> result = fanOutExecutor.map(Arrays.asList(1, 2, 3, 4), item -> {
+            sleep(20);
+            return Thread.currentThread().getName();
+        });
+
+        // Then
+        assertThat(result).contains(caller);
+        assertThat(metricValue("fanout.rejected")).isGreaterThan(0L);
+    }
+
+    @Test
+    public void supply_shouldRunBranchesConcurrently() throws Exception {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+
+        // When
+        final CompletableFuture<Integer> first = fanOutExecutor.supply(() -> await(barrier));
+        final CompletableFuture<Integer> second = fanOutExecutor.supply(() -> await(barrier));
+
+        // Then
+        assertThat(fanOutExecutor.join(first) + fanOutExecutor.join(second)).isEqualTo(1);
+    }
+
+    @Test
+    public void join_whenBranchTimesOut_shouldThrowTimeoutException() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 50L);
+        final CountDownLatch never = new CountDownLatch(1);
+        final CompletableFuture<Boolean> branch = fanOutExecutor.supply(() -> {
+            try {
+                return never.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        });
+
+        // Then When
+        assertThatExceptionOfType(FanOutTimeoutException.class)
+                .isThrownBy(() -> fanOutExecutor.join(branch));
+        assertThat(metricValue("fanout.timeout")).isEqualTo(1L);
+    }
+
+    @Test
+    public void joinAll_whenBranchTimesOut_shouldInterruptIt() throws Exception {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 50L);
+        final CountDownLatch never = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CompletableFuture<Boolean> branch = fanOutExecutor.supply(() -> {
+            try {
+                return never.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return false;
+            }
+        });
+
+        // When
+        assertThatExceptionOfType(FanOutTimeoutException.class)
+                .isThrownBy(() -> fanOutExecutor.joinAll(Arrays.asList(branch, new CompletableFuture<>())));
+
+        // Then
+        assertThat(branch).isCancelled();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void join_whenBranchFails_shouldRethrowCause() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final IllegalArgumentException exception = new IllegalArgumentException("boom");
+        final CompletableFuture<Object> branch = fanOutExecutor.supply(() -> {
+            throw exception;
+        });
+
+        // Then When
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> fanOutExecutor.join(branch))
+                .isSameAs(exception);
+    }
+
+    @Test
+    public void joinAll_shouldReturnResultsInOrder() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 10000L);
+        final CompletableFuture<Integer> first = new CompletableFuture<>();
+        final CompletableFuture<Integer> second = CompletableFuture.completedFuture(2);
+        first.complete(1);
+
+        // When
+        final List<Integer> result = fanOutExecutor.joinAll(Arrays.asList(first, second));
+
+        // Then
+        assertThat(result).containsExactly(1, 2);
+    }
+
+    @Test
+    public void joinAll_whenDeadlineExceeded_shouldCancelPendingFutures() {
+        // Given
+        fanOutExecutor = new FanOutExecutor(4, 16, 50L);
+        final CompletableFuture<Integer> done = CompletableFuture.completedFuture(1);
+        final CompletableFuture<Integer> pending = new CompletableFuture<>();
+
+        // Then When
+        assertThatExceptionOfType(FanOutTimeoutException.class)
+                .isThrownBy(() -> fanOutExecutor.joinAll(Arrays.asList(done, pending)));
+        assertThat(pending).isCancelled();
+        assertThat(metricValue("fanout.timeout")).isEqualTo(1L);
+    }
+
+    private static int await(CyclicBarrier barrier) {
+        try {
+            return barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long metricValue(String name) {
+        return fanOutExecutor.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .map(Number::longValue)
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
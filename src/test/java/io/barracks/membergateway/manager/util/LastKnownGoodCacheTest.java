@@ -0,0 +1,249 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager.util;
+
+import io.barracks.membergateway.client.exception.DeviceServiceClientException;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class LastKnownGoodCacheTest {
+    private static final long MAX_STALENESS = 300000L;
+    private static final long DEADLINE = 1000L;
+
+    private FakeTicker ticker;
+    private LastKnownGoodCache lastKnownGoodCache;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        lastKnownGoodCache = new LastKnownGoodCache(100L, MAX_STALENESS, DEADLINE, 2, ticker);
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        lastKnownGoodCache.destroy();
+    }
+
+    @Test
+    public void get_whenLiveCallSucceeds_shouldReturnFreshValue() {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // When
+        final String result = lastKnownGoodCache.get("name", "user", () -> "new");
+
+        // Then
+        assertThat(result).isEqualTo("new");
+        assertThat(request.getAttribute(LastKnownGoodCache.STALE_AGE_ATTRIBUTE)).isNull();
+    }
+
+    @Test
+    public void get_whenLiveCallFailsOnServerError_shouldServeLastKnownGoodAndFlagRequest() {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+        ticker.advance(30, TimeUnit.SECONDS);
+
+        // When
+        final String result = lastKnownGoodCache.get("name", "user", () -> {
+            throw new DeviceServiceClientException(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+        });
+
+        // Then
+        assertThat(result).isEqualTo("old");
+        assertThat(request.getAttribute(LastKnownGoodCache.STALE_AGE_ATTRIBUTE)).isEqualTo(30L);
+    }
+
+    @Test
+    public void get_whenLiveCallFailsOnClientError_shouldRethrow() {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // Then When
+        assertThatExceptionOfType(DeviceServiceClientException.class).isThrownBy(() -> lastKnownGoodCache.get("name", "user", () -> {
+            throw new DeviceServiceClientException(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+        }));
+    }
+
+    @Test
+    public void get_whenNoPreviousValue_shouldRethrow() {
+        // Then When
+        assertThatExceptionOfType(ResourceAccessException.class).isThrownBy(() -> lastKnownGoodCache.get("name", "user", () -> {
+            throw new ResourceAccessException("I/O error");
+        }));
+    }
+
+    @Test
+    public void get_whenPreviousValueIsTooOld_shouldRethrow() {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+        ticker.advance(MAX_STALENESS, TimeUnit.MILLISECONDS);
+
+        // Then When
+        assertThatExceptionOfType(ResourceAccessException.class).isThrownBy(() -> lastKnownGoodCache.get("name", "user", () -> {
+            throw new ResourceAccessException("I/O error");
+        }));
+    }
+
+    @Test
+    public void get_whenLiveCallMissesDeadline_shouldServeLastKnownGoodAndRefreshInBackground() throws InterruptedException {
+        // Given
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // When
+        final String result = lastKnownGoodCache.get("name", "user", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refreshed.countDown();
+            return "new";
+        });
+        release.countDown();
+
+        // Then
+        assertThat(result).isEqualTo("old");
+        assertThat(refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+        final String refreshedResult = lastKnownGoodCache.get("name", "user", () -> {
+            throw new ResourceAccessException("I/O error");
+        });
+        assertThat(refreshedResult).isEqualTo("new");
+    }
+
+    @Test
+    public void get_whenReadsAreConcurrent_shouldShareLiveCall() throws InterruptedException {
+        // Given
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            lastKnownGoodCache.get("name", "user", () -> {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "new";
+            });
+        }
+        release.countDown();
+
+        // Then
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void getAsync_whenLiveCallSucceeds_shouldCompleteWithFreshValue() throws Exception {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // When
+        final String result = lastKnownGoodCache.getAsync("name", "user", () -> "new").get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(result).isEqualTo("new");
+        assertThat(request.getAttribute(LastKnownGoodCache.STALE_AGE_ATTRIBUTE)).isNull();
+    }
+
+    @Test
+    public void getAsync_whenLiveCallMissesDeadline_shouldServeLastKnownGoodAndFlagRequest() throws Exception {
+        // Given
+        final CountDownLatch release = new CountDownLatch(1);
+        lastKnownGoodCache.get("name", "user", () -> "old");
+        ticker.advance(30, TimeUnit.SECONDS);
+        final CompletableFuture<String> result = lastKnownGoodCache.getAsync("name", "user", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "new";
+        });
+        ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).requestCompleted();
+
+        // When
+        final String value = result.get(DEADLINE * 5, TimeUnit.MILLISECONDS);
+        release.countDown();
+
+        // Then
+        assertThat(value).isEqualTo("old");
+        assertThat(request.getAttribute(LastKnownGoodCache.STALE_AGE_ATTRIBUTE)).isEqualTo(30L);
+    }
+
+    @Test
+    public void getAsync_whenNoPreviousValue_shouldCompleteWithFailure() {
+        // Given
+        final ResourceAccessException exception = new ResourceAccessException("I/O error");
+
+        // When
+        final CompletableFuture<String> result = lastKnownGoodCache.getAsync("name", "user", () -> {
+            throw exception;
+        });
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCause(exception);
+    }
+
+    @Test
+    public void invalidate_whenLiveCallFails_shouldNotServePreviousValue() {
+        // Given
+        lastKnownGoodCache.get("name", "user", () -> "old");
+
+        // When
+        lastKnownGoodCache.invalidate("name", "user");
+
+        // Then
+        assertThatExceptionOfType(ResourceAccessException.class).isThrownBy(() -> lastKnownGoodCache.get("name", "user", () -> {
+            throw new ResourceAccessException("I/O error");
+        }));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.manager.util;
+
+import io.barracks.membergateway.client.PackageServiceClient;
+import io.barracks.membergateway.client.exception.PackageServiceClientException;
+import io.barracks.membergateway.model.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PackageInfoCacheTest {
+    @Mock
+    private PackageServiceClient packageServiceClient;
+
+    private PackageInfoCache packageInfoCache;
+
+    @Before
+    public void setUp() {
+        packageInfoCache = new PackageInfoCache(packageServiceClient, 1024L * 1024L);
+    }
+
+    @Test
+    public void getPackageInfo_shouldCallClientOnce_andServeFromCache() {
+        // Given
+        final PackageInfo expected = getPackageInfo();
+        doReturn(expected).when(packageServiceClient).getPackageInfo(expected.getId());
+
+        // When
+        final PackageInfo first = packageInfoCache.getPackageInfo(expected.getId());
+        final PackageInfo second = packageInfoCache.getPackageInfo(expected.getId());
+
+        // Then
+        verify(packageServiceClient, times(1)).getPackageInfo(expected.getId());
+        assertThat(first).isEqualTo(expected);
+        assertThat(second).isSameAs(first);
+        assertThat(metricValue("cache.packages.hit")).isEqualTo(1D);
+        assertThat(metricValue("cache.packages.miss")).isEqualTo(1D);
+        assertThat(metricValue("cache.packages.hit.ratio")).isEqualTo(0.5D);
+    }
+
+    @Test
+    public void getPackageInfo_whenClientFails_shouldRethrowAndNotCache() {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageServiceClientException exception = new PackageServiceClientException(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+        doThrow(exception).when(packageServiceClient).getPackageInfo(packageId);
+
+        // Then When
+        assertThatExceptionOfType(PackageServiceClientException.class)
+                .isThrownBy(() -> packageInfoCache.getPackageInfo(packageId))
+                .isSameAs(exception);
+        assertThatExceptionOfType(PackageServiceClientException.class)
+                .isThrownBy(() -> packageInfoCache.getPackageInfo(packageId));
+        verify(packageServiceClient, times(2)).getPackageInfo(packageId);
+    }
+
+    @Test
+    public void put_shouldPopulateCache() {
+        // Given
+        final PackageInfo expected = getPackageInfo();
+
+        // When
+        packageInfoCache.put(expected);
+        final PackageInfo result = packageInfoCache.getPackageInfo(expected.getId());
+
+        // Then
+        verifyZeroInteractions(packageServiceClient);
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getPackageInfo_whenMaxWeightExceeded_shouldEvictEntries() {
+        // Given
+        final PackageInfo packageInfo = getPackageInfo();
+        packageInfoCache = new PackageInfoCache(packageServiceClient, 10L * PackageInfoCache.weigh(packageInfo.getId(), packageInfo));
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            packageInfoCache.put(getPackageInfo());
+        }
+
+        // Then
+        assertThat(metricValue("cache.packages.size")).isLessThanOrEqualTo(10D);
+        assertThat(metricValue("cache.packages.eviction")).isGreaterThanOrEqualTo(90D);
+    }
+
+    @Test
+    public void getPackageInfoAsync_shouldCallClientOnce_andServeFromCache() {
+        // Given
+        final PackageInfo expected = getPackageInfo();
+        doReturn(CompletableFuture.completedFuture(expected)).when(packageServiceClient).getPackageInfoAsync(expected.getId());
+
+        // When
+        final CompletableFuture<PackageInfo> first = packageInfoCache.getPackageInfoAsync(expected.getId());
+        final CompletableFuture<PackageInfo> second = packageInfoCache.getPackageInfoAsync(expected.getId());
+
+        // Then
+        verify(packageServiceClient, times(1)).getPackageInfoAsync(expected.getId());
+        assertThat(first).isCompletedWithValue(expected);
+        assertThat(second).isCompletedWithValue(expected);
+        assertThat(packageInfoCache.getPackageInfo(expected.getId())).isEqualTo(expected);
+        verify(packageServiceClient, never()).getPackageInfo(anyString());
+    }
+
+    @Test
+    public void getPackageInfoAsync_whenMissesAreConcurrent_shouldShareCall() {
+        // Given
+        final PackageInfo expected = getPackageInfo();
+        final CompletableFuture<PackageInfo> call = new CompletableFuture<>();
+        doReturn(call).when(packageServiceClient).getPackageInfoAsync(expected.getId());
+
+        // When
+        final CompletableFuture<PackageInfo> first = packageInfoCache.getPackageInfoAsync(expected.getId());
+        final CompletableFuture<PackageInfo> second = packageInfoCache.getPackageInfoAsync(expected.getId());
+        call.complete(expected);
+
+        // Then
+        verify(packageServiceClient, times(1)).getPackageInfoAsync(expected.getId());
+        assertThat(first).isCompletedWithValue(expected);
+        assertThat(second).isCompletedWithValue(expected);
+    }
+
+    @Test
+    public void getPackageInfoAsync_whenClientFails_shouldFailAndNotCache() {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final CompletableFuture<PackageInfo> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new PackageServiceClientException(new HttpClientErrorException(HttpStatus.NOT_FOUND)));
+        doReturn(failed).when(packageServiceClient).getPackageInfoAsync(packageId);
+
+        // When
+        final CompletableFuture<PackageInfo> result = packageInfoCache.getPackageInfoAsync(packageId);
+
+        // Then
+        assertThat(result).isCompletedExceptionally();
+        assertThat(metricValue("cache.packages.size")).isEqualTo(0D);
+    }
+
+    private double metricValue(String name) {
+        return packageInfoCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .map(Number::doubleValue)
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    private static PackageInfo getPackageInfo() {
+        return PackageInfo.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(UUID.randomUUID().toString())
+                .versionId(UUID.randomUUID().toString())
+                .fileName(UUID.randomUUID().toString())
+                .md5(UUID.randomUUID().toString())
+                .size(42L)
+                .build();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.manager.util;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.membergateway.model.DataSet;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatsSnapshotStoreTest {
+    private static final long REFRESH = 60000L;
+    private static final long MAX_AGE = 300000L;
+    private static final long IDLE = 1800000L;
+    private static final int MAX_REFRESHES_PER_CYCLE = 2;
+
+    @Mock
+    private StatsSnapshotStore.Source source;
+
+    private FakeTicker ticker;
+    private StatsSnapshotStore statsSnapshotStore;
+    private String userId;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        statsSnapshotStore = new StatsSnapshotStore(
+                100L, REFRESH, MAX_AGE, IDLE, MAX_REFRESHES_PER_CYCLE, ticker, MoreExecutors.newDirectExecutorService(), false
+        );
+        userId = UUID.randomUUID().toString();
+    }
+
+    @After
+    public void tearDown() {
+        statsSnapshotStore.destroy();
+    }
+
+    private static Map<String, StatsSnapshotStore.SegmentStats> getStats(long first, long other) {
+        final Map<String, StatsSnapshotStore.SegmentStats> stats = new LinkedHashMap<>();
+        stats.put("segment", new StatsSnapshotStore.SegmentStats("Segment", 10L, BigDecimal.valueOf(first)));
+        stats.put("other", new StatsSnapshotStore.SegmentStats("Other", 20L, BigDecimal.valueOf(other)));
+        return stats;
+    }
+
+    @Test
+    public void getIfFresh_whenSnapshotLoaded_shouldServeItWithoutCallingSource() {
+        // Given
+        doReturn(getStats(3L, 4L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+
+        // When
+        final DataSet result = statsSnapshotStore.getIfFresh(userId).getDataSet();
+
+        // Then
+        verify(source, times(1)).loadAll(userId);
+        assertThat(result.getTotal()).isEqualTo(BigDecimal.valueOf(7L));
+        assertThat(result.getValues()).containsOnly(
+                DataSet.Metric.builder().name("Segment").value(BigDecimal.valueOf(3L)).build(),
+                DataSet.Metric.builder().name("Other").value(BigDecimal.valueOf(4L)).build()
+        );
+    }
+
+    @Test
+    public void getIfFresh_whenNoSnapshot_shouldReturnNull() {
+        // Then When
+        assertThat(statsSnapshotStore.getIfFresh(userId)).isNull();
+    }
+
+    @Test
+    public void invalidateSegment_whenSnapshotLoaded_shouldOnlyReloadThatSegmentInBackground() throws Exception {
+        // Given
+        final Map<String, StatsSnapshotStore.SegmentStats> stats = getStats(3L, 4L);
+        doReturn(stats).when(source).loadAll(userId);
+        doReturn(new StatsSnapshotStore.SegmentStats("Segment", 10L, BigDecimal.valueOf(8L))).when(source).load(userId, "segment", stats.get("segment"));
+        statsSnapshotStore.load(userId, source);
+
+        // When
+        statsSnapshotStore.invalidateSegment(userId, "segment");
+
+        // Then
+        verify(source, timeout(1000)).load(userId, "segment", stats.get("segment"));
+        final long deadline = System.currentTimeMillis() + 1000L;
+        while (BigDecimal.valueOf(7L).equals(statsSnapshotStore.getIfFresh(userId).getDataSet().getTotal()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        verify(source, times(1)).loadAll(userId);
+        assertThat(statsSnapshotStore.getIfFresh(userId).getDataSet().getTotal()).isEqualTo(BigDecimal.valueOf(12L));
+        assertThat(statsSnapshotStore.getIfFresh(userId).getDataSet().getValues())
+                .contains(DataSet.Metric.builder().name("Segment").value(BigDecimal.valueOf(8L)).build());
+    }
+
+    @Test
+    public void refresh_whenSnapshotIsDue_shouldReloadEverything() {
+        // Given
+        doReturn(getStats(3L, 4L)).doReturn(getStats(5L, 6L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+        statsSnapshotStore.getIfFresh(userId);
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        verify(source, times(2)).loadAll(userId);
+        assertThat(statsSnapshotStore.getIfFresh(userId).getDataSet().getTotal()).isEqualTo(BigDecimal.valueOf(11L));
+    }
+
+    @Test
+    public void refresh_whenSourceFails_shouldKeepServingSnapshotUntilMaxAge() {
+        // Given
+        doReturn(getStats(3L, 4L)).doThrow(new ResourceAccessException("I/O error")).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+        statsSnapshotStore.getIfFresh(userId);
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        verify(source, times(2)).loadAll(userId);
+        assertThat(statsSnapshotStore.getIfFresh(userId).getDataSet().getTotal()).isEqualTo(BigDecimal.valueOf(7L));
+        ticker.advance(MAX_AGE - REFRESH, TimeUnit.MILLISECONDS);
+        assertThat(statsSnapshotStore.getIfFresh(userId)).isNull();
+    }
+
+    @Test
+    public void refresh_whenSnapshotIsNotDue_shouldNotCallSource() {
+        // Given
+        doReturn(getStats(3L, 4L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        verify(source, times(1)).loadAll(userId);
+        verifyNoMoreInteractions(source);
+    }
+
+    @Test
+    public void refresh_whenSnapshotNotReadSinceBuilt_shouldNotReloadIt() {
+        // Given
+        doReturn(getStats(3L, 4L)).doReturn(getStats(5L, 6L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+        statsSnapshotStore.getIfFresh(userId);
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+        statsSnapshotStore.refreshAll();
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        verify(source, times(2)).loadAll(userId);
+        assertThat(metric("stats.snapshot.refresh.full")).isEqualTo(1L);
+    }
+
+    @Test
+    public void refresh_whenMoreSnapshotsDueThanCap_shouldRefreshLeastRecentlyBuiltFirst() {
+        // Given
+        final String[] userIds = new String[MAX_REFRESHES_PER_CYCLE + 1];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = UUID.randomUUID().toString();
+            doReturn(getStats(3L, 4L)).when(source).loadAll(userIds[i]);
+            statsSnapshotStore.load(userIds[i], source);
+            statsSnapshotStore.getIfFresh(userIds[i]);
+            ticker.advance(1L, TimeUnit.MILLISECONDS);
+        }
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        for (int i = 0; i < userIds.length; i++) {
+            verify(source, times(i < MAX_REFRESHES_PER_CYCLE ? 2 : 1)).loadAll(userIds[i]);
+        }
+        assertThat(metric("stats.snapshot.refresh.deferred")).isEqualTo(1L);
+        statsSnapshotStore.refreshAll();
+        verify(source, times(2)).loadAll(userIds[MAX_REFRESHES_PER_CYCLE]);
+    }
+
+    @Test
+    public void getIfFresh_whenRefreshedWithSameStats_shouldKeepTag() {
+        // Given
+        doReturn(getStats(3L, 4L)).doReturn(getStats(3L, 4L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+        final String etag = statsSnapshotStore.getIfFresh(userId).getEtag();
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        verify(source, times(2)).loadAll(userId);
+        assertThat(etag).isNotEmpty();
+        assertThat(statsSnapshotStore.getIfFresh(userId).getEtag()).isEqualTo(etag);
+    }
+
+    @Test
+    public void getIfFresh_whenRefreshedWithOtherStats_shouldChangeTag() {
+        // Given
+        doReturn(getStats(3L, 4L)).doReturn(getStats(4L, 3L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+        final String etag = statsSnapshotStore.getIfFresh(userId).getEtag();
+        ticker.advance(REFRESH, TimeUnit.MILLISECONDS);
+
+        // When
+        statsSnapshotStore.refreshAll();
+
+        // Then
+        assertThat(statsSnapshotStore.getIfFresh(userId).getEtag()).isNotEqualTo(etag);
+    }
+
+    @Test
+    public void getIfFresh_whenSnapshotTooOld_shouldReturnNull() {
+        // Given
+        doReturn(getStats(3L, 4L)).when(source).loadAll(userId);
+        statsSnapshotStore.load(userId, source);
+
+        // When
+        ticker.advance(MAX_AGE, TimeUnit.MILLISECONDS);
+
+        // Then
+        assertThat(statsSnapshotStore.getIfFresh(userId)).isNull();
+    }
+
+    private Object metric(String name) {
+        return statsSnapshotStore.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}
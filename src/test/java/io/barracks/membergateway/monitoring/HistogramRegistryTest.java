@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class HistogramRegistryTest {
+    private FakeTicker ticker;
+    private HistogramRegistry histogramRegistry;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        histogramRegistry = new HistogramRegistry(60000, ticker);
+    }
+
+    @Test
+    public void metrics_shouldReportLatencyPercentilesInMilliseconds() {
+        // Given
+        for (int i = 1; i <= 100; i++) {
+            histogramRegistry.recordLatency("latency.client.Client.call", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        // When
+        final Map<String, Number> metrics = toMap(histogramRegistry);
+
+        // Then
+        assertThat(metrics.get("latency.client.Client.call.count")).isEqualTo(100L);
+        assertThat(metrics.get("latency.client.Client.call.p50").doubleValue()).isCloseTo(50D, within(1D));
+        assertThat(metrics.get("latency.client.Client.call.p90").doubleValue()).isCloseTo(90D, within(1D));
+        assertThat(metrics.get("latency.client.Client.call.p99").doubleValue()).isCloseTo(99D, within(1D));
+        assertThat(metrics.get("latency.client.Client.call.max").doubleValue()).isCloseTo(100D, within(1D));
+    }
+
+    @Test
+    public void metrics_shouldReportCountsAsIs() {
+        // Given
+        histogramRegistry.recordCount("calls.resource.Resource.get", 1);
+        histogramRegistry.recordCount("calls.resource.Resource.get", 12);
+
+        // When
+        final Map<String, Number> metrics = toMap(histogramRegistry);
+
+        // Then
+        assertThat(metrics.get("calls.resource.Resource.get.count")).isEqualTo(2L);
+        assertThat(metrics.get("calls.resource.Resource.get.max")).isEqualTo(12D);
+    }
+
+    @Test
+    public void metrics_shouldForgetValuesOlderThanTwoWindows() {
+        // Given
+        histogramRegistry.recordCount("calls", 40);
+        toMap(histogramRegistry);
+        ticker.advance(60, TimeUnit.SECONDS);
+        histogramRegistry.recordCount("calls", 3);
+        final Map<String, Number> previousWindow = toMap(histogramRegistry);
+        ticker.advance(60, TimeUnit.SECONDS);
+
+        // When
+        final Map<String, Number> metrics = toMap(histogramRegistry);
+
+        // Then
+        assertThat(previousWindow.get("calls.max")).isEqualTo(40D);
+        assertThat(metrics.get("calls.max")).isEqualTo(3D);
+        assertThat(metrics.get("calls.count")).isEqualTo(2L);
+    }
+
+    private static Map<String, Number> toMap(HistogramRegistry histogramRegistry) {
+        return histogramRegistry.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+}
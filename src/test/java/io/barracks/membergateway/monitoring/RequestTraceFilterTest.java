@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequestTraceFilterTest {
+    @Mock
+    private HistogramRegistry histogramRegistry;
+
+    private FakeTicker ticker;
+    private RequestTraceFilter requestTraceFilter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        requestTraceFilter = new RequestTraceFilter(histogramRegistry, ticker);
+        request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void doFilter_shouldBindTraceAndRecordHandledRequest() throws Exception {
+        // Given
+        final AtomicReference<RequestTrace> bound = new AtomicReference<>();
+        final FilterChain filterChain = (servletRequest, servletResponse) -> {
+            final RequestTrace trace = RequestTrace.current();
+            bound.set(trace);
+            trace.setHandler("StatsResource.getDevicesPerVersionId");
+            ticker.advance(5, TimeUnit.MILLISECONDS);
+            trace.callStarted();
+            trace.callStarted();
+            ticker.advance(20, TimeUnit.MILLISECONDS);
+            trace.callEnded();
+            trace.callEnded();
+        };
+
+        // When
+        requestTraceFilter.doFilter(request, response, filterChain);
+
+        // Then
+        assertThat(bound.get()).isSameAs(request.getAttribute(RequestTrace.ATTRIBUTE));
+        assertThat(RequestTrace.current()).isNull();
+        verify(histogramRegistry).recordLatency("latency.resource.StatsResource.getDevicesPerVersionId", TimeUnit.MILLISECONDS.toNanos(25));
+        verify(histogramRegistry).recordCount("calls.resource.StatsResource.getDevicesPerVersionId", 2);
+        verify(histogramRegistry).recordLatency("downstream.resource.StatsResource.getDevicesPerVersionId", TimeUnit.MILLISECONDS.toNanos(20));
+        verify(histogramRegistry).recordLatency("own.resource.StatsResource.getDevicesPerVersionId", TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    @Test
+    public void doFilter_whenAsyncStarted_shouldRecordOnCompletion() throws Exception {
+        // Given
+        final FilterChain filterChain = (servletRequest, servletResponse) -> {
+            RequestTrace.current().setHandler("SegmentResource.getSegments");
+            servletRequest.startAsync();
+        };
+        requestTraceFilter.doFilter(request, response, filterChain);
+        verify(histogramRegistry, never()).recordLatency(anyString(), anyLong());
+        ticker.advance(30, TimeUnit.MILLISECONDS);
+
+        // When
+        ((MockAsyncContext) request.getAsyncContext()).complete();
+
+        // Then
+        verify(histogramRegistry).recordLatency("latency.resource.SegmentResource.getSegments", TimeUnit.MILLISECONDS.toNanos(30));
+        verify(histogramRegistry).recordCount("calls.resource.SegmentResource.getSegments", 0);
+    }
+
+    @Test
+    public void doFilter_whenNoResourceHandledRequest_shouldNotRecord() throws Exception {
+        // When
+        requestTraceFilter.doFilter(request, response, (servletRequest, servletResponse) -> {
+        });
+
+        // Then
+        verifyZeroInteractions(histogramRegistry);
+    }
+}
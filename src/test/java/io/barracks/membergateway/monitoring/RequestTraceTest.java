@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestTraceTest {
+    private FakeTicker ticker;
+    private RequestTrace trace;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        trace = new RequestTrace(ticker);
+    }
+
+    @Test
+    public void callEnded_whenCallsOverlap_shouldCountDownstreamTimeOnce() {
+        // Given
+        trace.callStarted();
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+        trace.callStarted();
+        ticker.advance(20, TimeUnit.MILLISECONDS);
+        trace.callEnded();
+        ticker.advance(5, TimeUnit.MILLISECONDS);
+
+        // When
+        trace.callEnded();
+        ticker.advance(15, TimeUnit.MILLISECONDS);
+
+        // Then
+        assertThat(trace.getCalls()).isEqualTo(2);
+        assertThat(trace.getElapsedNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(trace.getDownstreamNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(35));
+        assertThat(trace.getOwnNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(15));
+    }
+
+    @Test
+    public void getDownstreamNanos_whenCallIsInFlight_shouldIncludeItsTimeSoFar() {
+        // Given
+        ticker.advance(5, TimeUnit.MILLISECONDS);
+        trace.callStarted();
+
+        // When
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+
+        // Then
+        assertThat(trace.getDownstreamNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(trace.getOwnNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    @Test
+    public void wrap_shouldBindTraceOfCallingThreadWhileRunning() {
+        // Given
+        final AtomicReference<RequestTrace> bound = new AtomicReference<>();
+        final AtomicReference<Supplier<RequestTrace>> wrapped = new AtomicReference<>();
+        RequestTrace.run(trace, () -> wrapped.set(RequestTrace.wrap(RequestTrace::current)));
+
+        // When
+        RequestTrace.run(null, () -> bound.set(wrapped.get().get()));
+
+        // Then
+        assertThat(bound.get()).isSameAs(trace);
+        assertThat(RequestTrace.current()).isNull();
+    }
+
+    @Test
+    public void wrap_whenNoTraceIsBound_shouldReturnRunnableAsIs() {
+        // Given
+        final Runnable runnable = () -> {
+        };
+
+        // When
+        final Runnable result = RequestTrace.wrap(runnable);
+
+        // Then
+        assertThat(result).isSameAs(runnable);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.monitoring;
+
+import io.barracks.membergateway.client.StatsServiceClient;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ServiceClientTracerTest {
+    private static final String NAME = "latency.client.StatsServiceClient.getDevicesPerVersionId";
+
+    @Mock
+    private HistogramRegistry histogramRegistry;
+    @Mock
+    private ProceedingJoinPoint joinPoint;
+    @Mock
+    private Signature signature;
+
+    private FakeTicker ticker;
+    private ServiceClientTracer serviceClientTracer;
+    private RequestTrace trace;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        serviceClientTracer = new ServiceClientTracer(histogramRegistry, ticker);
+        trace = new RequestTrace(ticker);
+        doReturn(signature).when(joinPoint).getSignature();
+        doReturn(StatsServiceClient.class).when(signature).getDeclaringType();
+        doReturn("getDevicesPerVersionId").when(signature).getName();
+    }
+
+    @Test
+    public void trace_whenCallIsBlocking_shouldRecordItsLatencyInCurrentTrace() throws Throwable {
+        // Given
+        doAnswer(invocation -> {
+            ticker.advance(3, TimeUnit.MILLISECONDS);
+            return "result";
+        }).when(joinPoint).proceed();
+
+        // When
+        final Object[] result = new Object[1];
+        RequestTrace.run(trace, () -> result[0] = trace(joinPoint));
+
+        // Then
+        assertThat(result[0]).isEqualTo("result");
+        assertThat(trace.getCalls()).isEqualTo(1);
+        verify(histogramRegistry).recordLatency(NAME, TimeUnit.MILLISECONDS.toNanos(3));
+    }
+
+    @Test
+    public void trace_whenCallReturnsFuture_shouldRecordItsLatencyOnCompletion() throws Throwable {
+        // Given
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        doReturn(future).when(joinPoint).proceed();
+        RequestTrace.run(trace, () -> trace(joinPoint));
+        ticker.advance(40, TimeUnit.MILLISECONDS);
+        assertThat(trace.getDownstreamNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(40));
+        verify(histogramRegistry, never()).recordLatency(anyString(), anyLong());
+
+        // When
+        future.complete("result");
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+
+        // Then
+        verify(histogramRegistry).recordLatency(NAME, TimeUnit.MILLISECONDS.toNanos(40));
+        assertThat(trace.getCalls()).isEqualTo(1);
+        assertThat(trace.getDownstreamNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    @Test
+    public void trace_whenCallFails_shouldRecordItsLatencyAndRethrow() throws Throwable {
+        // Given
+        final IllegalStateException exception = new IllegalStateException();
+        doThrow(exception).when(joinPoint).proceed();
+
+        // When / Then
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> serviceClientTracer.trace(joinPoint));
+        verify(histogramRegistry).recordLatency(NAME, 0L);
+    }
+
+    private Object trace(ProceedingJoinPoint joinPoint) {
+        try {
+            return serviceClientTracer.trace(joinPoint);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -24,11 +24,15 @@
 
 package io.barracks.membergateway.rest;
 
+import io.barracks.membergateway.monitoring.HistogramRegistry;
+import io.barracks.membergateway.rest.util.AsyncRequestExecutor;
+import io.barracks.membergateway.rest.util.ResponseCompressor;
 import io.barracks.membergateway.security.TokenAuthenticationFilter;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.annotation.AliasFor;
 import org.springframework.data.web.config.EnableSpringDataWebSupport;
 import org.springframework.hateoas.config.EnableHypermediaSupport;
@@ -44,6 +48,7 @@ import java.lang.annotation.*;
         includeFilters = @ComponentScan.Filter(classes = {EnableSpringDataWebSupport.class}, type = FilterType.ANNOTATION)
 )
 @EnableSpringDataWebSupport
+@Import({AsyncRequestExecutor.class, HistogramRegistry.class, ResponseCompressor.class})
 @AutoConfigureRestDocs(uriScheme = "https", uriHost = "app.barracks.io", uriPort = 443)
 public @interface BarracksResourceTest {
     @AliasFor(annotation = WebMvcTest.class, attribute = "controllers")
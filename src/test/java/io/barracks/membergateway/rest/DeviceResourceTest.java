@@ -50,6 +50,7 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.security.Principal;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.Mockito.*;
@@ -82,17 +83,18 @@ public class DeviceResourceTest {
         final String unitId = UUID.randomUUID().toString();
         final Device device = DeviceUtils.buildDevice(unitId);
         final String expected = mapper.writeValueAsString(device);
-        doReturn(device).when(deviceManager).getDeviceByUserIdAndUnitId(principal.getName(), unitId);
+        doReturn(CompletableFuture.completedFuture(device)).when(deviceManager).getDeviceByUserIdAndUnitIdAsync(principal.getName(), unitId);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/devices/{unitId}", unitId)
                         .accept(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
         );
 
         // Then
-        verify(deviceManager).getDeviceByUserIdAndUnitId(principal.getName(), unitId);
+        verify(deviceManager).getDeviceByUserIdAndUnitIdAsync(principal.getName(), unitId);
         result.andExpect(status().isOk()).andExpect(content().json(expected));
     }
 
@@ -103,17 +105,18 @@ public class DeviceResourceTest {
         final Device unit2 = DeviceUtils.buildDevice("unit2");
         final Page<Device> page = new PageImpl<>(Lists.newArrayList(unit1, unit2));
         final BarracksQuery query = new BarracksQuery(null);
-        when(deviceManager.getDevices(principal.getName(), pageable, query)).thenReturn(page);
+        doReturn(CompletableFuture.completedFuture(page)).when(deviceManager).getDevicesAsync(principal.getName(), pageable, query);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/devices?" + PageableHelper.toUriQuery(pageable))
                         .accept(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
         );
 
         // Then
-        verify(deviceManager).getDevices(principal.getName(), pageable, query);
+        verify(deviceManager).getDevicesAsync(principal.getName(), pageable, query);
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("$._embedded.devices", hasSize(page.getNumberOfElements())))
                 .andExpect(jsonPath("$._embedded.devices[0].unitId").value(unit1.getUnitId()))
@@ -127,17 +130,18 @@ public class DeviceResourceTest {
         final Device unit2 = DeviceUtils.buildDevice("unit2");
         final Page<Device> page = new PageImpl<>(Lists.newArrayList(unit1, unit2));
         final BarracksQuery query = BarracksQueryUtils.getQuery();
-        when(deviceManager.getDevices(principal.getName(), pageable, query)).thenReturn(page);
+        doReturn(CompletableFuture.completedFuture(page)).when(deviceManager).getDevicesAsync(principal.getName(), pageable, query);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/devices?query={query}&" + PageableHelper.toUriQuery(pageable), query.toJsonString())
                         .accept(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
         );
 
         // Then
-        verify(deviceManager).getDevices(principal.getName(), pageable, query);
+        verify(deviceManager).getDevicesAsync(principal.getName(), pageable, query);
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("$._embedded.devices", hasSize(page.getNumberOfElements())))
                 .andExpect(jsonPath("$._embedded.devices[0].unitId").value(unit1.getUnitId()))
@@ -150,7 +154,8 @@ public class DeviceResourceTest {
         final String query = "{ coucou { ca } va? }";
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/devices?query={query}&" + PageableHelper.toUriQuery(pageable), query)
                         .accept(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
@@ -27,7 +27,9 @@ package io.barracks.membergateway.rest;
 import io.barracks.membergateway.client.exception.PackageManagerException;
 import io.barracks.membergateway.client.exception.PackageServiceClientException;
 import io.barracks.membergateway.manager.PackageManager;
+import io.barracks.membergateway.manager.PackageUploadManager;
 import io.barracks.membergateway.model.PackageInfo;
+import io.barracks.membergateway.rest.entity.PackageUpload;
 import io.barracks.membergateway.utils.RandomPrincipal;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
@@ -43,17 +45,23 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.UUID;
 
 import static org.hamcrest.Matchers.anyOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -65,6 +73,8 @@ public class PackageResourceTest {
     private MockMvc mvc;
     @MockBean
     private PackageManager packageManager;
+    @MockBean
+    private PackageUploadManager packageUploadManager;
     @Autowired
     private PackageResource packageResource;
     @Value("classpath:/package.exe")
@@ -77,7 +87,7 @@ public class PackageResourceTest {
         // Given
         final PackageInfo packageInfo = new PackageInfo("OBJECTID", principal.getName(), "Example.exe", "MD5", packageFile.contentLength(), "Version");
         final MockMultipartFile multipartFile = new MockMultipartFile("file", packageInfo.getFileName(), "application/x-msdownload", packageFile.getInputStream());
-        when(packageManager.upload(eq(packageInfo.getFileName()), eq(multipartFile.getContentType()), isA(InputStream.class), eq(packageFile.contentLength()), eq(packageInfo.getVersionId()), eq(principal.getName()))).thenReturn(packageInfo);
+        when(packageManager.upload(eq(packageInfo.getFileName()), eq(multipartFile.getContentType()), isA(InputStream.class), eq(packageFile.contentLength()), eq(packageInfo.getVersionId()), eq(principal.getName()), isNull(String.class))).thenReturn(packageInfo);
 
         // When
         final ResultActions result = mvc.perform(
@@ -85,7 +95,7 @@ public class PackageResourceTest {
         );
 
         // Then
-        verify(packageManager).upload(eq(packageInfo.getFileName()), eq(multipartFile.getContentType()), isA(InputStream.class), eq(packageFile.contentLength()), eq(packageInfo.getVersionId()), eq(principal.getName()));
+        verify(packageManager).upload(eq(packageInfo.getFileName()), eq(multipartFile.getContentType()), isA(InputStream.class), eq(packageFile.contentLength()), eq(packageInfo.getVersionId()), eq(principal.getName()), isNull(String.class));
         result.andExpect(status().isCreated())
                 .andExpect(jsonPath("$.id").value(packageInfo.getId()))
                 .andExpect(jsonPath("$.userId").value(packageInfo.getUserId()))
@@ -97,6 +107,72 @@ public class PackageResourceTest {
                 )));
     }
 
+    @Test
+    public void uploadPackage_whenRequestIsStreamed_shouldPipeFilePartToManager() throws Exception {
+        // Given
+        final byte[] content = StreamUtils.copyToByteArray(packageFile.getInputStream());
+        final PackageInfo packageInfo = new PackageInfo("OBJECTID", principal.getName(), "Example.exe", "MD5", content.length, "Version");
+        final String boundary = UUID.randomUUID().toString();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"versionId\"\r\n\r\n"
+                + packageInfo.getVersionId() + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"md5\"\r\n\r\n"
+                + packageInfo.getMd5() + "\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + packageInfo.getFileName() + "\"\r\n"
+                + "Content-Type: application/x-msdownload\r\n"
+                + "Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        when(packageManager.upload(eq(packageInfo.getFileName()), eq("application/x-msdownload"), isA(InputStream.class), eq((long) content.length), eq(packageInfo.getVersionId()), eq(principal.getName()), eq(packageInfo.getMd5())))
+                .then(invocation -> {
+                    StreamUtils.copy(invocation.getArgumentAt(2, InputStream.class), received);
+                    return packageInfo;
+                });
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType("multipart/form-data; boundary=" + boundary)
+                        .content(body.toByteArray())
+                        .principal(principal)
+        );
+
+        // Then
+        verify(packageManager).upload(eq(packageInfo.getFileName()), eq("application/x-msdownload"), isA(InputStream.class), eq((long) content.length), eq(packageInfo.getVersionId()), eq(principal.getName()), eq(packageInfo.getMd5()));
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(packageInfo.getId()));
+        Assert.assertArrayEquals(content, received.toByteArray());
+    }
+
+    @Test
+    public void uploadPackage_whenStreamedFileComesBeforeVersionId_shouldReturnBadRequest() throws Exception {
+        // Given
+        final String boundary = UUID.randomUUID().toString();
+        final String body = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"Example.exe\"\r\n\r\n"
+                + "content\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"versionId\"\r\n\r\n"
+                + "Version\r\n"
+                + "--" + boundary + "--\r\n";
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType("multipart/form-data; boundary=" + boundary)
+                        .content(body.getBytes(StandardCharsets.UTF_8))
+                        .principal(principal)
+        );
+
+        // Then
+        verifyZeroInteractions(packageManager);
+        result.andExpect(status().isBadRequest());
+    }
+
     @Test
     public void getPackageInfoByUuidAndUserId_whenInvalidParameter_shouldReturnBadRequest() throws Exception {
         // When
@@ -174,4 +250,99 @@ public class PackageResourceTest {
                 )));
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void initiateUpload_whenParametersAreValid_shouldReturn201WithUpload() throws Exception {
+        // Given
+        final PackageUpload upload = PackageUpload.builder()
+                .id(UUID.randomUUID().toString())
+                .fileName("Example.exe")
+                .contentType("application/octet-stream")
+                .versionId("Version")
+                .size(1000L)
+                .addMissing(new PackageUpload.ByteRange(0, 1000))
+                .build();
+        when(packageUploadManager.initiate("Example.exe", "application/octet-stream", 1000L, "Version", principal.getName(), null)).thenReturn(upload);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/uploads")
+                        .param("fileName", "Example.exe")
+                        .param("size", "1000")
+                        .param("versionId", "Version")
+                        .principal(principal)
+        );
+
+        // Then
+        verify(packageUploadManager).initiate("Example.exe", "application/octet-stream", 1000L, "Version", principal.getName(), null);
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(upload.getId()))
+                .andExpect(jsonPath("$.received").value(0))
+                .andExpect(jsonPath("$.missing[0].start").value(0))
+                .andExpect(jsonPath("$.missing[0].end").value(1000));
+    }
+
+    @Test
+    public void appendChunk_whenOffsetIsGiven_shouldPipeBodyToManager() throws Exception {
+        // Given
+        final String uploadId = UUID.randomUUID().toString();
+        final byte[] chunk = "chunk".getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final PackageUpload upload = PackageUpload.builder().id(uploadId).size(1000L).received(chunk.length).build();
+        when(packageUploadManager.append(eq(uploadId), eq(500L), isA(InputStream.class), eq(principal.getName())))
+                .then(invocation -> {
+                    StreamUtils.copy(invocation.getArgumentAt(2, InputStream.class), received);
+                    return upload;
+                });
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.put("/packages/uploads/" + uploadId)
+                        .param("offset", "500")
+                        .contentType("application/octet-stream")
+                        .content(chunk)
+                        .principal(principal)
+        );
+
+        // Then
+        verify(packageUploadManager).append(eq(uploadId), eq(500L), isA(InputStream.class), eq(principal.getName()));
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(chunk.length));
+        Assert.assertArrayEquals(chunk, received.toByteArray());
+    }
+
+    @Test
+    public void completeUpload_whenRangesAreMissing_shouldReturnConflict() throws Exception {
+        // Given
+        final String uploadId = UUID.randomUUID().toString();
+        when(packageUploadManager.complete(uploadId, principal.getName()))
+                .thenThrow(new PackageManagerException(new HttpClientErrorException(HttpStatus.CONFLICT)));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/uploads/" + uploadId + "/complete").principal(principal)
+        );
+
+        // Then
+        verify(packageUploadManager).complete(uploadId, principal.getName());
+        result.andExpect(status().isConflict());
+    }
+
+    @Test
+    public void completeUpload_whenAllBytesReceived_shouldReturn201WithPackage() throws Exception {
+        // Given
+        final String uploadId = UUID.randomUUID().toString();
+        final PackageInfo packageInfo = new PackageInfo("OBJECTID", principal.getName(), "Example.exe", "MD5", 1000L, "Version");
+        when(packageUploadManager.complete(uploadId, principal.getName())).thenReturn(packageInfo);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/uploads/" + uploadId + "/complete").principal(principal)
+        );
+
+        // Then
+        verify(packageUploadManager).complete(uploadId, principal.getName());
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(packageInfo.getId()));
+    }
+}
@@ -54,6 +54,7 @@ import org.springframework.util.FileCopyUtils;
 
 import java.security.Principal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.Matchers.any;
@@ -96,7 +97,8 @@ public class SegmentResourceTest {
         doReturn(response).when(segmentManager).createSegment(principal.getName(), request);
 
         // When
-        ResultActions result = mvc.perform(
+        ResultActions result = AsyncDispatch.perform(
+                mvc,
                 post("/segments")
                         .accept(MediaType.APPLICATION_JSON)
                         .contentType(MediaType.APPLICATION_JSON)
@@ -124,7 +126,8 @@ public class SegmentResourceTest {
         doReturn(response).when(segmentManager).updateSegment(principal.getName(), segmentId, request);
 
         // When
-        ResultActions result = mvc.perform(
+        ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/segments/" + segmentId)
                         .accept(MediaType.APPLICATION_JSON)
                         .contentType(MediaType.APPLICATION_JSON)
@@ -148,10 +151,11 @@ public class SegmentResourceTest {
                 .name("aName")
                 .query(new ObjectNode(new JsonNodeFactory(false)))
                 .build();
-        doReturn(response).when(segmentManager).getSegmentForUser(principal.getName(), segmentId);
+        doReturn(CompletableFuture.completedFuture(response)).when(segmentManager).getSegmentForUserAsync(principal.getName(), segmentId);
 
         // When
-        ResultActions result = mvc.perform(
+        ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/segments/" + segmentId)
                         .accept(MediaType.APPLICATION_JSON)
                         .contentType(MediaType.APPLICATION_JSON)
@@ -159,7 +163,7 @@ public class SegmentResourceTest {
         );
 
         // Then
-        verify(segmentManager).getSegmentForUser(principal.getName(), segmentId);
+        verify(segmentManager).getSegmentForUserAsync(principal.getName(), segmentId);
         result.andExpect(status().isOk())
                 .andExpect(content().json(objectMapper.writeValueAsString(response)));
     }
@@ -174,17 +178,18 @@ public class SegmentResourceTest {
                 .query(new ObjectNode(new JsonNodeFactory(false)))
                 .build();
         final Page<Segment> segmentPage = new PageImpl<>(Collections.singletonList(segment));
-        doReturn(segmentPage).when(segmentManager).getSegmentsForUser(eq(principal.getName()), any());
+        doReturn(CompletableFuture.completedFuture(segmentPage)).when(segmentManager).getSegmentsForUserAsync(eq(principal.getName()), any());
 
         // When
-        ResultActions result = mvc.perform(
+        ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/segments")
                         .accept(MediaTypes.HAL_JSON)
                         .principal(principal)
         );
 
         // Then
-        verify(segmentManager).getSegmentsForUser(eq(principal.getName()), any());
+        verify(segmentManager).getSegmentsForUserAsync(eq(principal.getName()), any());
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("$._embedded.segments").value(objectMapper.readValue(objectMapper.writeValueAsString(segment), Map.class)));
     }
@@ -196,10 +201,11 @@ public class SegmentResourceTest {
         final String unitId = UUID.randomUUID().toString();
         final Device device = DeviceUtils.buildDevice(unitId);
         final Page<Device> devicePage = new PageImpl<>(Collections.singletonList(device));
-        doReturn(devicePage).when(segmentManager).getDevicesBySegment(eq(principal.getName()), eq(segmentId), any());
+        doReturn(CompletableFuture.completedFuture(devicePage)).when(segmentManager).getDevicesBySegmentAsync(eq(principal.getName()), eq(segmentId), any());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/segments/" + segmentId + "/devices")
                         .contentType(MediaTypes.HAL_JSON)
                         .accept(MediaTypes.HAL_JSON)
@@ -207,7 +213,7 @@ public class SegmentResourceTest {
         );
 
         // Then
-        verify(segmentManager).getDevicesBySegment(eq(principal.getName()), eq(segmentId), any());
+        verify(segmentManager).getDevicesBySegmentAsync(eq(principal.getName()), eq(segmentId), any());
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("_embedded.devices").value(hasSize(1)));
     }
@@ -218,18 +224,19 @@ public class SegmentResourceTest {
         final String segmentId = UUID.randomUUID().toString();
         final DetailedUpdate detailedUpdate = DetailedUpdate.builder().uuid(UUID.randomUUID().toString()).build();
         final Page<DetailedUpdate> detailedUpdates = new PageImpl<>(Collections.singletonList(detailedUpdate));
-        doReturn(detailedUpdates).when(updateManager)
-                .getUpdatesByStatusesAndSegments(any(), eq(principal.getName()), eq(Collections.emptyList()), eq(Collections.singletonList(segmentId)));
+        doReturn(CompletableFuture.completedFuture(detailedUpdates)).when(updateManager)
+                .getUpdatesByStatusesAndSegmentsAsync(any(), eq(principal.getName()), eq(Collections.emptyList()), eq(Collections.singletonList(segmentId)));
 
         // When
-        ResultActions result = mvc.perform(
+        ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/segments/" + segmentId + "/updates")
                         .accept(MediaTypes.HAL_JSON)
                         .principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(any(), eq(principal.getName()), eq(Collections.emptyList()), eq(Collections.singletonList(segmentId)));
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(any(), eq(principal.getName()), eq(Collections.emptyList()), eq(Collections.singletonList(segmentId)));
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("_embedded.updates").value(objectMapper.readValue(objectMapper.writeValueAsString(detailedUpdate), Map.class)));
     }
@@ -238,17 +245,18 @@ public class SegmentResourceTest {
     public void getOrderedSegments_shouldCallManager_andReturnResult() throws Exception {
         // Given
         final SegmentsOrder expected = SegmentsOrder.builder().build();
-        doReturn(expected).when(segmentManager).getOrderedSegments(principal.getName());
+        doReturn(CompletableFuture.completedFuture(expected)).when(segmentManager).getOrderedSegmentsAsync(principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/segments/order")
                         .accept(MediaType.APPLICATION_JSON)
                         .principal(principal)
         );
 
         // Then
-        verify(segmentManager).getOrderedSegments(principal.getName());
+        verify(segmentManager).getOrderedSegmentsAsync(principal.getName());
         result.andExpect(status().isOk())
                 .andExpect(content().json(objectMapper.writeValueAsString(expected)));
     }
@@ -261,7 +269,8 @@ public class SegmentResourceTest {
         doReturn(expected).when(segmentManager).updateSegmentsOrder(principal.getName(), order);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 post("/segments/order")
                         .principal(principal)
                         .content(objectMapper.writeValueAsString(order))
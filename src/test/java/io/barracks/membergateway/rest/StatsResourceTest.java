@@ -25,6 +25,8 @@
 package io.barracks.membergateway.rest;
 
 import io.barracks.membergateway.manager.StatsManager;
+import io.barracks.membergateway.manager.util.LastKnownGoodCache;
+import io.barracks.membergateway.manager.util.StatsSnapshotStore;
 import io.barracks.membergateway.model.DataSet;
 import io.barracks.membergateway.utils.RandomDataSet;
 import io.barracks.membergateway.utils.RandomPrincipal;
@@ -32,6 +34,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -40,14 +43,20 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.security.Principal;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import static io.barracks.membergateway.utils.NumberCloseTo.closeTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -67,10 +76,11 @@ public class StatsResourceTest {
     public void getDeviceCountPerVersionId_shouldReturnJsonDataSet() throws Exception {
         // Given
         final DataSet expected = RandomDataSet.create();
-        doReturn(expected).when(statsManager).getDevicesPerVersionId(principal.getName());
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getDevicesPerVersionId(principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/stats/devices/perVersionId")
                         .principal(principal)
                         .accept(MediaType.APPLICATION_JSON)
@@ -84,10 +94,11 @@ public class StatsResourceTest {
     @Test
     public void getDeviceCountPerVersionId_whenClientThrowsException_shouldReturnErrorCode() throws Exception {
         // Given
-        doThrow(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST)).when(statsManager).getDevicesPerVersionId(principal.getName());
+        doReturn(failedFuture(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST))).when(statsManager).getDevicesPerVersionId(principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/stats/devices/perVersionId")
                         .principal(principal)
                         .accept(MediaType.APPLICATION_JSON)
@@ -106,10 +117,11 @@ public class StatsResourceTest {
         final String end = "1986-02-27T10:03:00.999Z";
         final OffsetDateTime startDate = OffsetDateTime.parse(start);
         final OffsetDateTime endDate = OffsetDateTime.parse(end);
-        doReturn(expected).when(statsManager).getLastSeenDevices(principal.getName(), startDate, endDate);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getLastSeenDevices(principal.getName(), startDate, endDate);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get(
                                 "/stats/devices/lastSeen?start={start}&end={end}",
@@ -128,10 +140,11 @@ public class StatsResourceTest {
     public void getLastSeenDevices_whenNoDatesAreProvided_shouldUseDefault() throws Exception {
         // Given
         final DataSet expected = RandomDataSet.create();
-        doReturn(expected).when(statsManager).getLastSeenDevices(principal.getName(), OffsetDateTime.MIN, OffsetDateTime.MAX);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getLastSeenDevices(principal.getName(), OffsetDateTime.MIN, OffsetDateTime.MAX);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get(
                                 "/stats/devices/lastSeen"
@@ -153,10 +166,11 @@ public class StatsResourceTest {
         final String end = "1986-02-27T10:03:00.999Z";
         final OffsetDateTime startDate = OffsetDateTime.parse(start);
         final OffsetDateTime endDate = OffsetDateTime.parse(end);
-        doThrow(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST)).when(statsManager).getLastSeenDevices(principal.getName(), startDate, endDate);
+        doReturn(failedFuture(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST))).when(statsManager).getLastSeenDevices(principal.getName(), startDate, endDate);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get(
                                 "/stats/devices/lastSeen?start={start}&end={end}",
@@ -179,10 +193,11 @@ public class StatsResourceTest {
         final String end = "1986-02-27T10:03:00.999Z";
         final OffsetDateTime startDate = OffsetDateTime.parse(start);
         final OffsetDateTime endDate = OffsetDateTime.parse(end);
-        doReturn(expected).when(statsManager).getSeenDevices(principal.getName(), startDate, endDate);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getSeenDevices(principal.getName(), startDate, endDate);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get(
                                 "/stats/devices/seen?start={start}&end={end}",
@@ -201,10 +216,11 @@ public class StatsResourceTest {
     public void getSeenDevices_whenNoDatesAreProvided_shouldUseDefault() throws Exception {
         // Given
         final DataSet expected = RandomDataSet.create();
-        doReturn(expected).when(statsManager).getSeenDevices(principal.getName(), OffsetDateTime.MIN, OffsetDateTime.MAX);
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getSeenDevices(principal.getName(), OffsetDateTime.MIN, OffsetDateTime.MAX);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get(
                                 "/stats/devices/seen"
@@ -225,10 +241,11 @@ public class StatsResourceTest {
         final String end = "1986-02-27T10:03:00.999Z";
         final OffsetDateTime startDate = OffsetDateTime.parse(start);
         final OffsetDateTime endDate = OffsetDateTime.parse(end);
-        doThrow(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST)).when(statsManager).getSeenDevices(principal.getName(), startDate, endDate);
+        doReturn(failedFuture(AnyBarracksClientException.from(HttpStatus.BAD_REQUEST))).when(statsManager).getSeenDevices(principal.getName(), startDate, endDate);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get("/stats/devices/seen?start={start}&end={end}", start, end)
                         .principal(principal)
@@ -247,7 +264,8 @@ public class StatsResourceTest {
         doReturn(expected).when(statsManager).getDevicesPerSegmentId(principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get("/stats/devices/perSegmentId")
                         .principal(principal)
@@ -263,10 +281,11 @@ public class StatsResourceTest {
     public void getUpdatedDevicesPerSegmentId_shouldCallManager_andReturnJsonDataSet() throws Exception {
         // Given
         final DataSet expected = RandomDataSet.create();
-        doReturn(expected).when(statsManager).getUpdatedDevicesPerSegmentId(principal.getName());
+        doReturn(new StatsSnapshotStore.TaggedDataSet(expected, "loaded")).when(statsManager).getUpdatedDevicesPerSegmentId(principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders
                         .get("/stats/devices/perSegmentId?updated=true")
                         .principal(principal)
@@ -275,7 +294,101 @@ public class StatsResourceTest {
 
         // Then
         verify(statsManager).getUpdatedDevicesPerSegmentId(principal.getName());
-        result.andExpect(DataSetMatcher.from(expected));
+        result.andExpect(DataSetMatcher.from(expected))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"loaded\""));
+    }
+
+    @Test
+    public void getUpdatedDevicesPerSegmentId_whenSnapshotIsFresh_shouldTagResponseWithoutLoadingStats() throws Exception {
+        // Given
+        final DataSet expected = RandomDataSet.create();
+        doReturn(new StatsSnapshotStore.TaggedDataSet(expected, "snapshot")).when(statsManager).getUpdatedDevicesPerSegmentIdIfFresh(principal.getName());
+
+        // When
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
+                MockMvcRequestBuilders
+                        .get("/stats/devices/perSegmentId?updated=true")
+                        .principal(principal)
+                        .accept(MediaType.APPLICATION_JSON)
+        );
+
+        // Then
+        verify(statsManager, never()).getUpdatedDevicesPerSegmentId(principal.getName());
+        result.andExpect(DataSetMatcher.from(expected))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"snapshot\""));
+    }
+
+    @Test
+    public void getUpdatedDevicesPerSegmentId_whenClientHoldsSnapshot_shouldReturnNotModifiedWithoutLoadingStats() throws Exception {
+        // Given
+        doReturn(new StatsSnapshotStore.TaggedDataSet(RandomDataSet.create(), "snapshot")).when(statsManager).getUpdatedDevicesPerSegmentIdIfFresh(principal.getName());
+
+        // When
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
+                MockMvcRequestBuilders
+                        .get("/stats/devices/perSegmentId?updated=true")
+                        .principal(principal)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"snapshot\"")
+                        .accept(MediaType.APPLICATION_JSON)
+        );
+
+        // Then
+        verify(statsManager, never()).getUpdatedDevicesPerSegmentId(principal.getName());
+        result.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"snapshot\""));
+    }
+
+    @Test
+    public void getDeviceCountPerVersionId_whenClientHoldsSameContent_shouldReturnNotModified() throws Exception {
+        // Given
+        final DataSet expected = RandomDataSet.create();
+        doReturn(CompletableFuture.completedFuture(expected)).when(statsManager).getDevicesPerVersionId(principal.getName());
+        final String etag = AsyncDispatch.perform(
+                mvc,
+                MockMvcRequestBuilders.get("/stats/devices/perVersionId").principal(principal).accept(MediaType.APPLICATION_JSON)
+        ).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // When
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
+                MockMvcRequestBuilders
+                        .get("/stats/devices/perVersionId")
+                        .principal(principal)
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON)
+        );
+
+        // Then
+        assertThat(etag).isNotEmpty();
+        result.andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void getDevicesPerSegmentId_whenManagerServesStaleData_shouldFlagResponse() throws Exception {
+        // Given
+        final DataSet expected = RandomDataSet.create();
+        doAnswer(invocation -> {
+            RequestContextHolder.currentRequestAttributes().setAttribute(LastKnownGoodCache.STALE_AGE_ATTRIBUTE, 42L, RequestAttributes.SCOPE_REQUEST);
+            return expected;
+        }).when(statsManager).getDevicesPerSegmentId(principal.getName());
+
+        // When
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
+                MockMvcRequestBuilders
+                        .get("/stats/devices/perSegmentId")
+                        .principal(principal)
+                        .accept(MediaType.APPLICATION_JSON)
+        );
+
+        // Then
+        verify(statsManager).getDevicesPerSegmentId(principal.getName());
+        result.andExpect(DataSetMatcher.from(expected))
+                .andExpect(header().string(HttpHeaders.WARNING, "110 - \"Response is Stale\""))
+                .andExpect(header().string(HttpHeaders.AGE, "42"));
     }
 
     private static class DataSetMatcher implements ResultMatcher {
@@ -305,5 +418,9 @@ public class StatsResourceTest {
         }
     }
 
-
+    private static CompletableFuture<DataSet> failedFuture(Throwable throwable) {
+        final CompletableFuture<DataSet> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
 }
@@ -54,6 +54,7 @@ import java.text.SimpleDateFormat;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static io.barracks.membergateway.utils.UpdateUtils.getPredefinedCreateUpdateRequestBuilder;
@@ -82,7 +83,8 @@ public class UpdateResourceTest {
         final String jsonRequestBody = mapper.writeValueAsString(requestBody);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates/")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -102,7 +104,8 @@ public class UpdateResourceTest {
         final String jsonRequestBody = mapper.writeValueAsString(requestBody);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates/")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -122,7 +125,8 @@ public class UpdateResourceTest {
         final String jsonRequestBody = mapper.writeValueAsString(requestBody);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates/")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -150,7 +154,8 @@ public class UpdateResourceTest {
         when(updateManager.createUpdate(updateWithUserId)).thenReturn(serviceResponse);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -197,7 +202,8 @@ public class UpdateResourceTest {
         when(updateManager.createUpdate(updateWithUserId)).thenReturn(serviceResponse);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -225,7 +231,8 @@ public class UpdateResourceTest {
         when(updateManager.createUpdate(updateWithUserId)).thenThrow(new UpdateServiceClientException(httpException));
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -247,7 +254,8 @@ public class UpdateResourceTest {
         final String jsonRequestBody = mapper.writeValueAsString(requestBody);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.post("/updates/")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -272,7 +280,8 @@ public class UpdateResourceTest {
         when(updateManager.editUpdate(updateTransformedByResource)).thenThrow(exception);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/" + uuid)
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -307,7 +316,8 @@ public class UpdateResourceTest {
         when(updateManager.editUpdate(updateTransformedByResource)).thenReturn(managerResponse);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/" + uuid)
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .content(jsonRequestBody)
@@ -327,7 +337,8 @@ public class UpdateResourceTest {
         final String status = "coucou";
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/" + uuid + "/status/" + status)
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
@@ -344,7 +355,8 @@ public class UpdateResourceTest {
         final UpdateStatus status = UpdateStatus.PUBLISHED;
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/{uuid}/status/{status}", uuid, status.getName())
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
@@ -363,7 +375,8 @@ public class UpdateResourceTest {
         final OffsetDateTime scheduledTime = OffsetDateTime.now();
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/{uuid}/status/{status}?time={time}", uuid, status.getName(), scheduledTime.format(DateTimeFormatter.ISO_DATE_TIME))
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
@@ -381,7 +394,8 @@ public class UpdateResourceTest {
         final UpdateStatus status = UpdateStatus.SCHEDULED;
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.put("/updates/{uuid}/status/{status}", uuid, status.getName())
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .principal(principal)
@@ -396,18 +410,18 @@ public class UpdateResourceTest {
     public void getAllStatusesCompatibilities_whenUpdateManagerThrowUpdateServiceClientException_shouldReturnInternalServerError() throws Exception {
         // Given
         final String requestUrl = "/updates/status";
-        when(updateManager.getAllStatusesCompatibilities())
-                .thenThrow(new UpdateServiceClientException(
-                        new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)));
+        doReturn(failedFuture(new UpdateServiceClientException(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))))
+                .when(updateManager).getAllStatusesCompatibilitiesAsync();
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(requestUrl)
                         .principal(principal)
         );
 
         // Then
-        verify(updateManager).getAllStatusesCompatibilities();
+        verify(updateManager).getAllStatusesCompatibilitiesAsync();
         result.andExpect(status().isInternalServerError());
     }
 
@@ -437,16 +451,17 @@ public class UpdateResourceTest {
                 scheduledCompatibility,
                 archivedCompatibility
         );
-        when(updateManager.getAllStatusesCompatibilities()).thenReturn(allCompatibilities);
+        doReturn(CompletableFuture.completedFuture(allCompatibilities)).when(updateManager).getAllStatusesCompatibilitiesAsync();
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(requestUrl)
                         .principal(principal)
         );
 
         // Then
-        verify(updateManager).getAllStatusesCompatibilities();
+        verify(updateManager).getAllStatusesCompatibilitiesAsync();
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(4)))
 
@@ -478,18 +493,18 @@ public class UpdateResourceTest {
         // Given
         final UpdateStatus status = UpdateStatus.DRAFT;
         final String requestUrl = "/updates/status/" + status.getName();
-        when(updateManager.getStatusCompatibilities(status))
-                .thenThrow(new UpdateServiceClientException(
-                        new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)));
+        doReturn(failedFuture(new UpdateServiceClientException(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))))
+                .when(updateManager).getStatusCompatibilitiesAsync(status);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(requestUrl)
                         .principal(principal)
         );
 
         // Then
-        verify(updateManager).getStatusCompatibilities(status);
+        verify(updateManager).getStatusCompatibilitiesAsync(status);
         result.andExpect(status().isInternalServerError());
     }
 
@@ -533,16 +548,17 @@ public class UpdateResourceTest {
         // Given
         final String requestUrl = "/updates/status/" + status.getName();
         final List<UpdateStatus> compatibleStatuses = compatibilites.getCompatibilities();
-        when(updateManager.getStatusCompatibilities(status)).thenReturn(compatibilites);
+        doReturn(CompletableFuture.completedFuture(compatibilites)).when(updateManager).getStatusCompatibilitiesAsync(status);
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(requestUrl)
                         .principal(principal)
         );
 
         // Then
-        verify(updateManager).getStatusCompatibilities(status);
+        verify(updateManager).getStatusCompatibilitiesAsync(status);
         result.andExpect(status().isOk())
                 .andExpect(jsonPath("$.name").value(is(status.getName())))
                 .andExpect(jsonPath("$.compatibleStatus", hasSize(compatibleStatuses.size())));
@@ -557,7 +573,8 @@ public class UpdateResourceTest {
         final String requestUrl = "/updates/status/fwedszx";
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(requestUrl)
                         .principal(principal)
         );
@@ -587,15 +604,16 @@ public class UpdateResourceTest {
         listResponse.add(expectedUpdate1);
         listResponse.add(expectedUpdate2);
         final Page<DetailedUpdate> managerResponse = this.getMockedPage(listResponse, pageable.getPageSize(), pageable.getPageNumber(), totalElements);
-        when(updateManager.getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList())).thenReturn(managerResponse);
+        doReturn(CompletableFuture.completedFuture(managerResponse)).when(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/updates").accept(MediaType.APPLICATION_JSON_UTF8).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
         result.andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON_UTF8))
                 .andExpect(jsonPath("$._embedded.updates", hasSize(listResponse.size())));
@@ -634,15 +652,16 @@ public class UpdateResourceTest {
         listResponse.add(expectedUpdate2);
 
         final Page<DetailedUpdate> managerResponse = this.getMockedPage(listResponse, pageable.getPageSize(), pageable.getPageNumber(), totalElements);
-        when(updateManager.getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList())).thenReturn(managerResponse);
+        doReturn(CompletableFuture.completedFuture(managerResponse)).when(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/updates?page=" + pageable.getPageNumber() + "&size=" + pageable.getPageSize()).accept(MediaType.APPLICATION_JSON_UTF8).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
         result.andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON_UTF8))
                 .andExpect(jsonPath("$._embedded.updates", hasSize(listResponse.size())));
@@ -655,30 +674,34 @@ public class UpdateResourceTest {
     public void getAllUpdates_withNoStatus_shouldCallManagerWithEmptyList() throws Exception {
         // Given
         final Pageable pageable = new PageRequest(0, 20);
+        doReturn(CompletableFuture.completedFuture(new PageImpl<>(Collections.emptyList()))).when(updateManager).getUpdatesByStatusesAndSegmentsAsync(any(), any(), any(), any());
 
         // When
-        mvc.perform(
+        AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/updates?page={pageNumber}&size={pageSize}", pageable.getPageNumber(), pageable.getPageSize())
                         .accept(MediaType.APPLICATION_JSON_UTF8).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
     }
 
     @Test
     public void getAllUpdates_withEmptyStatus_shouldCallManagerWithEmptyList() throws Exception {
         // Given
         final Pageable pageable = new PageRequest(0, 20);
+        doReturn(CompletableFuture.completedFuture(new PageImpl<>(Collections.emptyList()))).when(updateManager).getUpdatesByStatusesAndSegmentsAsync(any(), any(), any(), any());
 
         // When
-        mvc.perform(
+        AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/updates?page={pageNumber}&size={pageSize}&status=", pageable.getPageNumber(), pageable.getPageSize())
                         .accept(MediaType.APPLICATION_JSON_UTF8).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), Collections.emptyList(), Collections.emptyList());
     }
 
     @Test
@@ -687,30 +710,33 @@ public class UpdateResourceTest {
         final Pageable pageable = new PageRequest(0, 20);
         final List<UpdateStatus> statuses = Arrays.asList(UpdateStatus.DRAFT, UpdateStatus.PUBLISHED);
         final String joinedStatuses = String.join(",", statuses.stream().map(UpdateStatus::getName).collect(Collectors.toList()));
+        doReturn(CompletableFuture.completedFuture(new PageImpl<>(Collections.emptyList()))).when(updateManager).getUpdatesByStatusesAndSegmentsAsync(any(), any(), any(), any());
 
         // When
-        mvc.perform(
+        AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get("/updates?page={pageNumber}&size={pageSize}&status={statuses}", pageable.getPageNumber(), pageable.getPageSize(), joinedStatuses)
                         .accept(MediaType.APPLICATION_JSON_UTF8).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdatesByStatusesAndSegments(pageable, principal.getName(), statuses, Collections.emptyList());
+        verify(updateManager).getUpdatesByStatusesAndSegmentsAsync(pageable, principal.getName(), statuses, Collections.emptyList());
     }
 
     @Test
     public void getUpdateByUuidAndUserId_whenUpdateManagerReturnEmptyResult_shouldReturn404() throws Exception {
         // Given
         final String uuid = UUID.randomUUID().toString();
-        when(updateManager.getUpdateByUuidAndUserId(uuid, principal.getName())).thenThrow(new UpdateServiceClientException(new HttpServerErrorException(HttpStatus.NOT_FOUND)));
+        doReturn(failedFuture(new UpdateServiceClientException(new HttpServerErrorException(HttpStatus.NOT_FOUND)))).when(updateManager).getUpdateByUuidAndUserIdAsync(uuid, principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(URI.create("/updates/" + uuid)).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdateByUuidAndUserId(uuid, principal.getName());
+        verify(updateManager).getUpdateByUuidAndUserIdAsync(uuid, principal.getName());
         result.andExpect(status().isNotFound());
     }
 
@@ -729,15 +755,16 @@ public class UpdateResourceTest {
         final PackageInfo packageInfo = new PackageInfo(packageId, principal.getName(), "file.txt", "md5", 123456789L, "version");
         final Segment segment = Segment.builder().id(segmentId).userId(principal.getName()).name("prod").query(NullNode.getInstance()).build();
         final DetailedUpdate managerResponse = new DetailedUpdate(resultUpdate, packageInfo, segment);
-        when(updateManager.getUpdateByUuidAndUserId(uuid, principal.getName())).thenReturn(managerResponse);
+        doReturn(CompletableFuture.completedFuture(managerResponse)).when(updateManager).getUpdateByUuidAndUserIdAsync(uuid, principal.getName());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = AsyncDispatch.perform(
+                mvc,
                 MockMvcRequestBuilders.get(URI.create("/updates/" + uuid)).principal(principal)
         );
 
         // Then
-        verify(updateManager).getUpdateByUuidAndUserId(uuid, principal.getName());
+        verify(updateManager).getUpdateByUuidAndUserIdAsync(uuid, principal.getName());
         result.andExpect(status().isOk());
         this.assertValidJSONUpdate(managerResponse, result);
     }
@@ -804,4 +831,10 @@ public class UpdateResourceTest {
         return new PageImpl<>(listResponse, pageable, totalElements);
     }
 
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
 }
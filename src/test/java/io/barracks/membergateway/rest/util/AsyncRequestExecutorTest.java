@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.membergateway.rest.util;
+
+import io.barracks.membergateway.exception.FanOutTimeoutException;
+import io.barracks.membergateway.monitoring.RequestTrace;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class AsyncRequestExecutorTest {
+    private AsyncRequestExecutor asyncRequestExecutor;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        asyncRequestExecutor = new AsyncRequestExecutor(2, 8);
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        asyncRequestExecutor.destroy();
+    }
+
+    @Test
+    public void supply_shouldRunOnRequestThreadWithCurrentRequest() throws Exception {
+        // Given
+        ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).requestCompleted();
+
+        // When
+        final String result = asyncRequestExecutor.supply(() -> {
+            RequestContextHolder.currentRequestAttributes().setAttribute("attribute", "value", RequestAttributes.SCOPE_REQUEST);
+            return Thread.currentThread().getName();
+        }).get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(result).startsWith(AsyncRequestExecutor.THREAD_NAME_PREFIX);
+        assertThat(request.getAttribute("attribute")).isEqualTo("value");
+    }
+
+    @Test
+    public void supply_shouldBindRequestTraceOnRequestThread() throws Exception {
+        // Given
+        final RequestTrace trace = new RequestTrace(new FakeTicker());
+        final AtomicReference<CompletableFuture<RequestTrace>> future = new AtomicReference<>();
+
+        // When
+        RequestTrace.run(trace, () -> future.set(asyncRequestExecutor.supply(RequestTrace::current)));
+
+        // Then
+        assertThat(future.get().get(5, TimeUnit.SECONDS)).isSameAs(trace);
+    }
+
+    @Test
+    public void supply_whenSupplierFails_shouldCompleteWithUnwrappedException() {
+        // Given
+        final FanOutTimeoutException exception = new FanOutTimeoutException("Too slow");
+
+        // When
+        final CompletableFuture<Object> result = asyncRequestExecutor.supply(() -> {
+            throw exception;
+        });
+
+        // Then
+        assertThatExceptionOfType(ExecutionException.class).isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .withCause(exception);
+        result.whenComplete((value, failure) -> assertThat(failure).isSameAs(exception));
+    }
+
+    @Test
+    public void supply_whenPoolIsShutDown_shouldFailFuture() {
+        // Given
+        asyncRequestExecutor.destroy();
+
+        // When
+        final CompletableFuture<String> result = asyncRequestExecutor.supply(() -> "value");
+
+        // Then
+        assertThat(result).isCompletedExceptionally();
+    }
+
+    @Test
+    public void thenApply_shouldApplyOnCompletingThreadWithCurrentRequest() throws Exception {
+        // Given
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final Thread completingThread = new Thread(() -> future.complete("value"), "completing-thread");
+        final CompletableFuture<String> result = asyncRequestExecutor.thenApply(future, value -> {
+            RequestContextHolder.currentRequestAttributes().setAttribute("attribute", value, RequestAttributes.SCOPE_REQUEST);
+            return Thread.currentThread().getName();
+        });
+        ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).requestCompleted();
+
+        // When
+        completingThread.start();
+
+        // Then
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("completing-thread");
+        assertThat(request.getAttribute("attribute")).isEqualTo("value");
+    }
+
+    @Test
+    public void thenApply_whenFutureFails_shouldCompleteWithUnwrappedException() {
+        // Given
+        final FanOutTimeoutException exception = new FanOutTimeoutException("Too slow");
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final CompletableFuture<String> chained = future.thenApply(value -> value);
+
+        // When
+        final CompletableFuture<String> result = asyncRequestExecutor.thenApply(chained, value -> value);
+        future.completeExceptionally(exception);
+
+        // Then
+        assertThat(result).isCompletedExceptionally();
+        result.whenComplete((value, failure) -> assertThat(failure).isSameAs(exception));
+    }
+
+    @Test
+    public void thenApply_whenCancelled_shouldCancelFuture() {
+        // Given
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        // When
+        asyncRequestExecutor.thenApply(future, value -> value).cancel(true);
+
+        // Then
+        assertThat(future).isCancelled();
+    }
+}
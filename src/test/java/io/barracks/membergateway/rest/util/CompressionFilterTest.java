@@ -0,0 +1,221 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+
+import static io.barracks.membergateway.rest.util.ResponseCompressorTest.gunzip;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressionFilterTest {
+    private static final String SMALL_BODY = "{\"total\":42}";
+    private static final String LARGE_BODY = "{\"values\":{\"v1\":1,\"v2\":2,\"v3\":3,\"v4\":4,\"v5\":5,\"v6\":6,\"v7\":7}}";
+
+    private CompressionFilter compressionFilter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        compressionFilter = new CompressionFilter(new ResponseCompressor(new String[]{"application/json"}, 32, 6, 1024L * 1024L));
+        request = new MockHttpServletRequest("GET", "/stats/devices/perVersionId");
+        response = new MockHttpServletResponse();
+    }
+
+    private static FilterChain respondWith(String contentType, String body) {
+        return (request, response) -> {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            response.setContentType(contentType);
+            response.setContentLength(bytes.length);
+            response.getOutputStream().write(bytes);
+        };
+    }
+
+    @Test
+    public void doFilter_whenGzipAcceptedAndBodyLarge_shouldCompressBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWith(MediaType.APPLICATION_JSON_UTF8_VALUE, LARGE_BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getContentLength()).isEqualTo(response.getContentAsByteArray().length);
+        assertThat(new String(gunzip(response.getContentAsByteArray()), StandardCharsets.UTF_8)).isEqualTo(LARGE_BODY);
+    }
+
+    @Test
+    public void doFilter_whenWritingThroughWriter_shouldCompressBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        final FilterChain chain = (request, response) -> {
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            response.getWriter().write(LARGE_BODY);
+        };
+
+        // When
+        compressionFilter.doFilter(request, response, chain);
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(new String(gunzip(response.getContentAsByteArray()), StandardCharsets.UTF_8)).isEqualTo(LARGE_BODY);
+    }
+
+    @Test
+    public void doFilter_whenBodySmall_shouldNotCompressBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWith(MediaType.APPLICATION_JSON_UTF8_VALUE, SMALL_BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getContentLength()).isEqualTo(SMALL_BODY.length());
+        assertThat(response.getContentAsString()).isEqualTo(SMALL_BODY);
+    }
+
+    @Test
+    public void doFilter_whenGzipRefused_shouldNotCompressBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWith(MediaType.APPLICATION_JSON_UTF8_VALUE, LARGE_BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getContentAsString()).isEqualTo(LARGE_BODY);
+    }
+
+    @Test
+    public void doFilter_whenMimeTypeNotCompressible_shouldStreamBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWith(MediaType.APPLICATION_OCTET_STREAM_VALUE, LARGE_BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.VARY)).isNull();
+        assertThat(response.getContentLength()).isEqualTo(LARGE_BODY.length());
+        assertThat(response.getContentAsString()).isEqualTo(LARGE_BODY);
+    }
+
+    private static FilterChain respondWithETag(String etag) {
+        return (request, response) -> {
+            final ServletWebRequest webRequest = new ServletWebRequest((HttpServletRequest) request, (HttpServletResponse) response);
+            if (!webRequest.checkNotModified(etag)) {
+                respondWith(MediaType.APPLICATION_JSON_UTF8_VALUE, LARGE_BODY).doFilter(request, response);
+            }
+        };
+    }
+
+    @Test
+    public void doFilter_whenHandlerSetsETagAndBodyIsCompressed_shouldSuffixETag() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWithETag("\"snapshot\""));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"snapshot-gzip\"");
+    }
+
+    @Test
+    public void doFilter_whenHandlerSetsETagAndBodyIsNotCompressed_shouldKeepETag() throws Exception {
+        // When
+        compressionFilter.doFilter(request, response, respondWithETag("\"snapshot\""));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"snapshot\"");
+    }
+
+    @Test
+    public void doFilter_whenClientHoldsCompressedBody_shouldReturnNotModifiedWithSuffixedETag() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"snapshot-gzip\"");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWithETag("\"snapshot\""));
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"snapshot-gzip\"");
+        assertThat(response.getContentLength()).isEqualTo(0);
+    }
+
+    @Test
+    public void doFilter_whenClientHoldsIdentityBodyButAcceptsGzip_shouldServeCompressedBody() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+
+        // When
+        compressionFilter.doFilter(request, response, respondWithETag("\"snapshot\""));
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"snapshot-gzip\"");
+    }
+
+    @Test
+    public void doFilter_whenAsyncStarted_shouldCompressOnAsyncDispatch() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        request.setAsyncSupported(true);
+        compressionFilter.doFilter(request, response, (req, res) -> req.startAsync(req, res));
+        request.setAsyncStarted(false);
+        request.setDispatcherType(DispatcherType.ASYNC);
+
+        // When
+        compressionFilter.doFilter(request, request.getAsyncContext().getResponse(), respondWith(MediaType.APPLICATION_JSON_UTF8_VALUE, LARGE_BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(new String(gunzip(response.getContentAsByteArray()), StandardCharsets.UTF_8)).isEqualTo(LARGE_BODY);
+    }
+}
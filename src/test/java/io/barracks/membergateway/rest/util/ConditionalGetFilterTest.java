@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConditionalGetFilterTest {
+    private static final String BODY = "{\"total\":42}";
+
+    private ConditionalGetFilter conditionalGetFilter;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        conditionalGetFilter = new ConditionalGetFilter();
+        response = new MockHttpServletResponse();
+    }
+
+    private static FilterChain respondWith(String body) {
+        return (request, response) -> response.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void doFilter_whenGet_shouldTagResponseWithStrongETag() throws Exception {
+        // Given
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/stats/devices/perVersionId");
+
+        // When
+        conditionalGetFilter.doFilter(request, response, respondWith(BODY));
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).startsWith("\"").doesNotStartWith("W/");
+        assertThat(response.getContentAsString()).isEqualTo(BODY);
+    }
+
+    @Test
+    public void doFilter_whenClientHoldsSameBody_shouldReturnNotModified() throws Exception {
+        // Given
+        final MockHttpServletResponse first = new MockHttpServletResponse();
+        conditionalGetFilter.doFilter(new MockHttpServletRequest("GET", "/updates"), first, respondWith(BODY));
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/updates");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, first.getHeader(HttpHeaders.ETAG));
+
+        // When
+        conditionalGetFilter.doFilter(request, response, respondWith(BODY));
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(first.getHeader(HttpHeaders.ETAG));
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    public void doFilter_whenBodyChanged_shouldReturnNewBody() throws Exception {
+        // Given
+        final MockHttpServletResponse first = new MockHttpServletResponse();
+        conditionalGetFilter.doFilter(new MockHttpServletRequest("GET", "/updates"), first, respondWith(BODY));
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/updates");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, first.getHeader(HttpHeaders.ETAG));
+
+        // When
+        conditionalGetFilter.doFilter(request, response, respondWith("{\"total\":43}"));
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNotEqualTo(first.getHeader(HttpHeaders.ETAG));
+        assertThat(response.getContentAsString()).isEqualTo("{\"total\":43}");
+    }
+
+    @Test
+    public void doFilter_whenHandlerTaggedResponse_shouldKeepItsETag() throws Exception {
+        // Given
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/stats/devices/perSegmentId");
+
+        // When
+        conditionalGetFilter.doFilter(request, response, (req, res) -> {
+            ((HttpServletResponse) res).setHeader(HttpHeaders.ETAG, "\"snapshot\"");
+            res.getOutputStream().write(BODY.getBytes(StandardCharsets.UTF_8));
+        });
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"snapshot\"");
+        assertThat(response.getContentAsString()).isEqualTo(BODY);
+    }
+
+    @Test
+    public void doFilter_whenNotGet_shouldNotTagResponse() throws Exception {
+        // Given
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/segments");
+
+        // When
+        conditionalGetFilter.doFilter(request, response, respondWith(BODY));
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNull();
+        assertThat(response.getContentAsString()).isEqualTo(BODY);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.rest.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseCompressorTest {
+    private ResponseCompressor responseCompressor;
+
+    @Before
+    public void setUp() {
+        responseCompressor = new ResponseCompressor(new String[]{"application/json", "application/*+json"}, 16, 6, 1024L * 1024L);
+    }
+
+    static byte[] gunzip(byte[] compressed) throws IOException {
+        return StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    private Map<String, Number> metrics() {
+        return responseCompressor.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+    @Test
+    public void isCompressible_whenMimeTypeListed_shouldIgnoreParameters() {
+        // Then
+        assertThat(responseCompressor.isCompressible("application/json;charset=UTF-8")).isTrue();
+        assertThat(responseCompressor.isCompressible("application/hal+json")).isTrue();
+        assertThat(responseCompressor.isCompressible("application/octet-stream")).isFalse();
+        assertThat(responseCompressor.isCompressible("not a mime type")).isFalse();
+        assertThat(responseCompressor.isCompressible(null)).isFalse();
+    }
+
+    @Test
+    public void isCompressible_whenBelowMinimumSize_shouldReturnFalse() {
+        // Then
+        assertThat(responseCompressor.isCompressible("application/json", 15)).isFalse();
+        assertThat(responseCompressor.isCompressible("application/json", 16)).isTrue();
+    }
+
+    @Test
+    public void compress_shouldGzipGivenLength() throws Exception {
+        // Given
+        final byte[] body = "{\"segments\":[]}-trailing garbage".getBytes(StandardCharsets.UTF_8);
+
+        // When
+        final byte[] compressed = responseCompressor.compress(body, 15);
+
+        // Then
+        assertThat(new String(gunzip(compressed), StandardCharsets.UTF_8)).isEqualTo("{\"segments\":[]}");
+    }
+
+    @Test
+    public void compress_whenSameBodyCompressedTwice_shouldServeCachedRepresentation() {
+        // Given
+        final byte[] body = "{\"total\":42,\"values\":{\"v1\":12,\"v2\":30}}".getBytes(StandardCharsets.UTF_8);
+        final byte[] first = responseCompressor.compress(body, body.length);
+
+        // When
+        final byte[] second = responseCompressor.compress(body.clone(), body.length);
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(metrics())
+                .containsEntry("compression.cache.hit", 1L)
+                .containsEntry("compression.cache.miss", 1L)
+                .containsEntry("compression.cache.size", 1L)
+                .containsEntry("compression.bytes.in", 2L * body.length)
+                .containsEntry("compression.bytes.out", 2L * first.length);
+    }
+
+    @Test
+    public void compress_whenBodiesDiffer_shouldCompressEachOfThem() throws Exception {
+        // Given
+        final byte[] first = "{\"total\":1}".getBytes(StandardCharsets.UTF_8);
+        final byte[] second = "{\"total\":2}".getBytes(StandardCharsets.UTF_8);
+
+        // When
+        responseCompressor.compress(first, first.length);
+        final byte[] compressed = responseCompressor.compress(second, second.length);
+
+        // Then
+        assertThat(gunzip(compressed)).isEqualTo(second);
+        assertThat(metrics()).containsEntry("compression.cache.miss", 2L).containsEntry("compression.cache.hit", 0L);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.security;
+
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class RejectedTokenCacheTest {
+    private static final int CAPACITY = 4;
+    private static final long TTL = 1000;
+
+    private FakeTicker ticker;
+    private RejectedTokenCache rejectedTokenCache;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        rejectedTokenCache = new RejectedTokenCache(CAPACITY, TTL, ticker);
+    }
+
+    @Test
+    public void new_whenCapacityIsZero_shouldFail() {
+        // Then When
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> new RejectedTokenCache(0, TTL, ticker));
+    }
+
+    @Test
+    public void contains_whenTokenWasRejected_shouldReturnTrue() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        rejectedTokenCache.add(token);
+
+        // When
+        final boolean result = rejectedTokenCache.contains(token);
+
+        // Then
+        assertThat(result).isTrue();
+        assertThat(metric("cache.rejectedtokens.shortcircuited")).isEqualTo(1L);
+    }
+
+    @Test
+    public void contains_whenTokenWasNotRejected_shouldReturnFalse() {
+        // Given
+        rejectedTokenCache.add(UUID.randomUUID().toString());
+
+        // When
+        final boolean result = rejectedTokenCache.contains(UUID.randomUUID().toString());
+
+        // Then
+        assertThat(result).isFalse();
+        assertThat(metric("cache.rejectedtokens.shortcircuited")).isEqualTo(0L);
+    }
+
+    @Test
+    public void contains_whenTokenIsNull_shouldReturnFalse() {
+        // Given
+        rejectedTokenCache.add(null);
+
+        // When
+        final boolean result = rejectedTokenCache.contains(null);
+
+        // Then
+        assertThat(result).isFalse();
+        assertThat(metric("cache.rejectedtokens.recorded")).isEqualTo(0L);
+    }
+
+    @Test
+    public void contains_whenTtlElapsed_shouldReturnFalse() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        rejectedTokenCache.add(token);
+        ticker.advance(TTL / 2, TimeUnit.MILLISECONDS);
+        final boolean beforeExpiration = rejectedTokenCache.contains(token);
+        ticker.advance(TTL / 2, TimeUnit.MILLISECONDS);
+
+        // When
+        final boolean result = rejectedTokenCache.contains(token);
+
+        // Then
+        assertThat(beforeExpiration).isTrue();
+        assertThat(result).isFalse();
+    }
+
+    @Test
+    public void add_whenCapacityExceeded_shouldKeepLatestTokens() {
+        // Given
+        final String first = UUID.randomUUID().toString();
+        rejectedTokenCache.add(first);
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            rejectedTokenCache.add(UUID.randomUUID().toString());
+        }
+        final String last = UUID.randomUUID().toString();
+
+        // When
+        rejectedTokenCache.add(last);
+
+        // Then
+        assertThat(rejectedTokenCache.contains(last)).isTrue();
+        assertThat(rejectedTokenCache.contains(first)).isFalse();
+        assertThat((Integer) metric("cache.rejectedtokens.size")).isLessThanOrEqualTo(CAPACITY * 2);
+    }
+
+    private Object metric(String name) {
+        return rejectedTokenCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}
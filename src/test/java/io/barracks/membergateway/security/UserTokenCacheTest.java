@@ -0,0 +1,281 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.membergateway.security;
+
+import io.barracks.membergateway.client.AuthorizationServiceClient;
+import io.barracks.membergateway.model.User;
+import io.barracks.membergateway.utils.FakeTicker;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UserTokenCacheTest {
+    private static final long MAX_SIZE = 2;
+    private static final long TTL = 1000;
+    private static final long MAX_STALENESS = 5000;
+
+    @Mock
+    private AuthorizationServiceClient authorizationServiceClient;
+    private FakeTicker ticker;
+    private UserTokenCache userTokenCache;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        userTokenCache = new UserTokenCache(authorizationServiceClient, MAX_SIZE, TTL, MAX_STALENESS, ticker);
+    }
+
+    @Test
+    public void getUser_whenTokenIsFresh_shouldNotCallClientAgain() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user).when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When
+        final User first = userTokenCache.getUser(token);
+        ticker.advance(TTL - 1, TimeUnit.MILLISECONDS);
+        final User second = userTokenCache.getUser(token);
+
+        // Then
+        verify(authorizationServiceClient, times(1)).requestUserFromToken(token);
+        assertThat(first).isEqualTo(user);
+        assertThat(second).isEqualTo(user);
+        assertThat(metric("cache.tokens.hit")).isEqualTo(1L);
+        assertThat(metric("cache.tokens.miss")).isEqualTo(1L);
+    }
+
+    @Test
+    public void getUser_whenTtlElapsed_shouldCallClientAgain() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user).when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When
+        userTokenCache.getUser(token);
+        ticker.advance(TTL, TimeUnit.MILLISECONDS);
+        final User result = userTokenCache.getUser(token);
+
+        // Then
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(token);
+        assertThat(result).isEqualTo(user);
+    }
+
+    @Test
+    public void getUser_whenServiceFailsWithinMaxStaleness_shouldReturnStaleUser() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user)
+                .doThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .when(authorizationServiceClient).requestUserFromToken(token);
+
+        // When
+        userTokenCache.getUser(token);
+        ticker.advance(MAX_STALENESS - 1, TimeUnit.MILLISECONDS);
+        final User result = userTokenCache.getUser(token);
+
+        // Then
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(token);
+        assertThat(result).isEqualTo(user);
+        assertThat(metric("cache.tokens.stale")).isEqualTo(1L);
+    }
+
+    @Test
+    public void getUser_whenServiceFailsAfterMaxStaleness_shouldThrowException() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user)
+                .doThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .when(authorizationServiceClient).requestUserFromToken(token);
+        userTokenCache.getUser(token);
+        ticker.advance(MAX_STALENESS, TimeUnit.MILLISECONDS);
+
+        // When / Then
+        assertThatExceptionOfType(HttpServerErrorException.class)
+                .isThrownBy(() -> userTokenCache.getUser(token));
+    }
+
+    @Test
+    public void getUser_whenTokenIsRejected_shouldEvictUserAndThrowException() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user)
+                .doThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED))
+                .when(authorizationServiceClient).requestUserFromToken(token);
+        userTokenCache.getUser(token);
+        ticker.advance(TTL, TimeUnit.MILLISECONDS);
+
+        // When / Then
+        assertThatExceptionOfType(HttpClientErrorException.class)
+                .isThrownBy(() -> userTokenCache.getUser(token));
+        assertThat(metric("cache.tokens.size")).isEqualTo(0L);
+    }
+
+    @Test
+    public void getUser_whenMaxSizeReached_shouldEvictEntries() {
+        // Given
+        for (int i = 0; i <= MAX_SIZE; i++) {
+            final String token = UUID.randomUUID().toString();
+            doReturn(User.builder().id(UUID.randomUUID().toString()).build()).when(authorizationServiceClient).requestUserFromToken(token);
+
+            // When
+            userTokenCache.getUser(token);
+        }
+
+        // Then
+        assertThat(metric("cache.tokens.size")).isEqualTo(MAX_SIZE);
+        assertThat(metric("cache.tokens.eviction")).isEqualTo(1L);
+    }
+
+    @Test
+    public void getUser_whenNoToken_shouldAlwaysCallClient() {
+        // Given
+        doThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED)).when(authorizationServiceClient).requestUserFromToken(null);
+
+        // When / Then
+        assertThatExceptionOfType(HttpClientErrorException.class)
+                .isThrownBy(() -> userTokenCache.getUser(null));
+        assertThatExceptionOfType(HttpClientErrorException.class)
+                .isThrownBy(() -> userTokenCache.getUser(null));
+        verify(authorizationServiceClient, times(2)).requestUserFromToken(null);
+    }
+
+    @Test
+    public void getUser_whenConcurrentLookupsForSameToken_shouldCallClientOnce() throws Exception {
+        // Given
+        final int concurrency = 8;
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return user;
+        }).when(authorizationServiceClient).requestUserFromToken(token);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+
+        try {
+            // When
+            final List<Future<User>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(executor.submit(() -> userTokenCache.getUser(token)));
+            }
+            awaitCoalesced(concurrency - 1);
+            release.countDown();
+
+            // Then
+            for (Future<User> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(user);
+            }
+            verify(authorizationServiceClient, times(1)).requestUserFromToken(token);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getUser_whenSharedLookupFails_shouldPropagateFailureToAllWaiters() throws Exception {
+        // Given
+        final int concurrency = 4;
+        final String token = UUID.randomUUID().toString();
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+        }).when(authorizationServiceClient).requestUserFromToken(token);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+
+        try {
+            // When
+            final List<Future<User>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(executor.submit(() -> userTokenCache.getUser(token)));
+            }
+            awaitCoalesced(concurrency - 1);
+            release.countDown();
+
+            // Then
+            for (Future<User> result : results) {
+                assertThatExceptionOfType(ExecutionException.class)
+                        .isThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                        .withCauseInstanceOf(HttpClientErrorException.class);
+            }
+            verify(authorizationServiceClient, times(1)).requestUserFromToken(token);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resolve_whenResolutionCompletedMeanwhile_shouldServeResolvedUser() {
+        // Given
+        final String token = UUID.randomUUID().toString();
+        final User user = User.builder().id(UUID.randomUUID().toString()).build();
+        doReturn(user).when(authorizationServiceClient).requestUserFromToken(token);
+        userTokenCache.getUser(token);
+
+        // When
+        final User result = userTokenCache.resolve(token);
+
+        // Then
+        verify(authorizationServiceClient, times(1)).requestUserFromToken(token);
+        assertThat(result).isEqualTo(user);
+        assertThat(metric("cache.tokens.coalesced")).isEqualTo(1L);
+    }
+
+    private void awaitCoalesced(long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!Long.valueOf(count).equals(metric("cache.tokens.coalesced")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Object metric(String name) {
+        return userTokenCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}